@@ -23,6 +23,7 @@ import org.apache.catalina.filters.CorsFilter;
 import org.apache.commons.collections4.Factory;
 import org.jetbrains.annotations.NotNull;
 import org.json.JSONObject;
+import org.labkey.api.action.ApiQueryResponse;
 import org.labkey.api.action.ApiXmlWriter;
 import org.labkey.api.action.SpringActionController;
 import org.labkey.api.admin.SubfolderWriter;
@@ -35,6 +36,9 @@ import org.labkey.api.attachments.ImageServlet;
 import org.labkey.api.attachments.LookAndFeelResourceType;
 import org.labkey.api.attachments.SecureDocumentType;
 import org.labkey.api.cache.BlockingCache;
+import org.labkey.api.cache.CacheInvalidationBus;
+import org.labkey.api.cache.CacheMemoryBudget;
+import org.labkey.api.cache.tinylfu.TinyLfuCacheProvider;
 import org.labkey.api.collections.ArrayListMap;
 import org.labkey.api.collections.CaseInsensitiveHashMap;
 import org.labkey.api.collections.CaseInsensitiveHashSet;
@@ -50,6 +54,7 @@ import org.labkey.api.data.AtomicDatabaseInteger;
 import org.labkey.api.data.BooleanFormat;
 import org.labkey.api.data.BuilderObjectFactory;
 import org.labkey.api.data.CompareType;
+import org.labkey.api.data.ConnectionPool;
 import org.labkey.api.data.ContainerDisplayColumn;
 import org.labkey.api.data.ContainerFilter;
 import org.labkey.api.data.ContainerManager;
@@ -65,6 +70,7 @@ import org.labkey.api.data.MaterializedQueryHelper;
 import org.labkey.api.data.MultiValuedRenderContext;
 import org.labkey.api.data.NameGenerator;
 import org.labkey.api.data.PropertyManager;
+import org.labkey.api.data.ReadReplica;
 import org.labkey.api.data.RecordFactory;
 import org.labkey.api.data.ResultSetSelectorTestCase;
 import org.labkey.api.data.RowTrackingResultSetWrapper;
@@ -83,7 +89,10 @@ import org.labkey.api.data.dialect.JdbcMetaDataTest;
 import org.labkey.api.data.dialect.ParameterSubstitutionTest;
 import org.labkey.api.data.dialect.StandardDialectStringHandler;
 import org.labkey.api.data.measurement.Measurement;
+import org.labkey.api.data.queryprofiler.LatencyHistogram;
+import org.labkey.api.dataiterator.AsyncDataIterator;
 import org.labkey.api.dataiterator.CachingDataIterator;
+import org.labkey.api.dataiterator.CopyInDataIterator;
 import org.labkey.api.dataiterator.DataIteratorUtil;
 import org.labkey.api.dataiterator.DiskCachingDataIterator;
 import org.labkey.api.dataiterator.ExistingRecordDataIterator;
@@ -115,6 +124,7 @@ import org.labkey.api.query.AliasManager;
 import org.labkey.api.query.DetailsURL;
 import org.labkey.api.query.FieldKey;
 import org.labkey.api.query.SchemaKey;
+import org.labkey.api.query.TableInfoCache;
 import org.labkey.api.reader.ExcelFactory;
 import org.labkey.api.reader.ExcelLoader;
 import org.labkey.api.reader.JSONDataLoader;
@@ -358,8 +368,11 @@ public class ApiModule extends CodeOnlyModule
             Aggregate.TestCase.class,
             ApiXmlWriter.TestCase.class,
             ArrayListMap.TestCase.class,
+            AsyncDataIterator.TestCase.class,
             BooleanFormat.TestCase.class,
             BuilderObjectFactory.TestCase.class,
+            CacheInvalidationBus.TestCase.class,
+            CacheMemoryBudget.TestCase.class,
             CachingDataIterator.ScrollTestCase.class,
             CaseInsensitiveHashMap.TestCase.class,
             CaseInsensitiveHashSet.TestCase.class,
@@ -395,6 +408,7 @@ public class ApiModule extends CodeOnlyModule
             JavaVersion.TestCase.class,
             JsonTest.class,
             JsonUtil.TestCase.class,
+            LatencyHistogram.TestCase.class,
             LimitedUser.TestCase.class,
             MarkableIterator.TestCase.class,
             MaterializedQueryHelper.TestCase.class,
@@ -412,6 +426,7 @@ public class ApiModule extends CodeOnlyModule
             PasswordExpiration.TestCase.class,
             Path.TestCase.class,
             RReport.TestCase.class,
+            ReadReplica.TestCase.class,
             RemoveDuplicatesDataIterator.DeDuplicateTestCase.class,
             ReplacedRunFilter.TestCase.class,
             ResultSetUtil.TestCase.class,
@@ -431,6 +446,7 @@ public class ApiModule extends CodeOnlyModule
             TSVWriter.TestCase.class,
             TabLoader.HeaderMatchTest.class,
             Table.IsSelectTestCase.class,
+            TinyLfuCacheProvider.TestCase.class,
             ValidEmail.TestCase.class,
             URIUtil.TestCase.class,
             AssayFileWriter.TestCase.class,
@@ -457,13 +473,16 @@ public class ApiModule extends CodeOnlyModule
             ActionURL.TestCase.class,
             AliasManager.TestCase.class,
             ApiKeyManager.TestCase.class,
+            ApiQueryResponse.TestCase.class,
             AppPropsTestCase.class,
             AtomicDatabaseInteger.TestCase.class,
             BlockingCache.BlockingCacheTest.class,
             CompareType.TestCase.class,
+            ConnectionPool.TestCase.class,
             ContainerDisplayColumn.TestCase.class,
             ContainerFilter.TestCase.class,
             ContainerManager.TestCase.class,
+            CopyInDataIterator.TestCase.class,
             DbSchema.DDLMethodsTestCase.class,
             DbSchema.SchemaCasingTestCase.class,
             DbSchema.TableSelectTestCase.class,
@@ -510,6 +529,7 @@ public class ApiModule extends CodeOnlyModule
             TabLoader.TabLoaderTestCase.class,
             Table.DataIteratorTestCase.class,
             Table.TestCase.class,
+            TableInfoCache.TestCase.class,
             TableSelectorTestCase.class,
             TempTableInClauseGenerator.TestCase.class,
             TomcatVersion.TestCase.class,
@@ -295,6 +295,12 @@ public class ApiJsonWriter extends ApiResponseWriter
         jg.writeObjectFieldStart(name);
     }
 
+    /** Start an object without a name, e.g., as a list entry */
+    public void startObject() throws IOException
+    {
+        jg.writeStartObject();
+    }
+
     public void endObject() throws IOException
     {
         jg.writeEndObject();
@@ -17,31 +17,58 @@ package org.labkey.api.action;
 
 import org.apache.commons.beanutils.ConversionException;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
 import org.labkey.api.collections.ResultSetRowMapFactory;
+import org.labkey.api.collections.RowMap;
 import org.labkey.api.data.ColumnInfo;
+import org.labkey.api.data.Container;
 import org.labkey.api.data.DataRegion;
 import org.labkey.api.data.DetailsColumn;
 import org.labkey.api.data.DisplayColumn;
+import org.labkey.api.data.JdbcType;
 import org.labkey.api.data.JsonWriter;
 import org.labkey.api.data.LookupColumn;
 import org.labkey.api.data.MVDisplayColumn;
 import org.labkey.api.data.MvUtil;
+import org.labkey.api.data.PropertyStorageSpec;
 import org.labkey.api.data.RenderContext;
 import org.labkey.api.data.Results;
+import org.labkey.api.data.Table;
 import org.labkey.api.data.TableInfo;
 import org.labkey.api.data.UpdateColumn;
 import org.labkey.api.exp.PropertyColumn;
+import org.labkey.api.exp.list.ListDefinition;
+import org.labkey.api.exp.list.ListService;
+import org.labkey.api.exp.property.Domain;
+import org.labkey.api.query.BatchValidationException;
 import org.labkey.api.query.FieldKey;
+import org.labkey.api.query.QueryService;
+import org.labkey.api.query.QuerySettings;
 import org.labkey.api.query.QueryView;
+import org.labkey.api.query.UserSchema;
+import org.labkey.api.security.User;
 import org.labkey.api.util.DateUtil;
 import org.labkey.api.util.PageFlowUtil;
+import org.labkey.api.util.JunitUtil;
 import org.labkey.api.util.Pair;
+import org.labkey.api.util.TestContext;
+import org.labkey.api.util.logging.LogHelper;
+import org.labkey.api.view.ActionURL;
+import org.labkey.api.view.DataView;
 import org.labkey.api.view.ViewContext;
 import org.labkey.api.view.ViewServlet;
+import org.springframework.mock.web.MockHttpServletResponse;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
@@ -49,6 +76,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
 
 /**
  * API response class for a {@link QueryView}.
@@ -85,6 +115,14 @@ public class ApiQueryResponse implements ApiResponse
     private boolean _includeDisplayValues;
     private List<FieldKey> _columnFilter;
     private boolean _includeMetaData;
+    private boolean _streamRows = true;
+
+    /** Writes one property of the current row, see {@link #createRowPlan()} */
+    @FunctionalInterface
+    protected interface RowPropertyWriter
+    {
+        void write(ApiJsonWriter writer, String name) throws IOException;
+    }
 
     // TODO: This is silly... switch to builder pattern, or at least a constructor that takes reasonable strategies
     public ApiQueryResponse(QueryView view, boolean schemaEditable, boolean includeLookupInfo,
@@ -537,12 +575,20 @@ public class ApiQueryResponse implements ApiResponse
             _ctx.setResults(results);
             ResultSetRowMapFactory factory = ResultSetRowMapFactory.create(results);
             factory.setConvertBigDecimalToDouble(false);
+            List<Pair<String, RowPropertyWriter>> plan = _streamRows && writer instanceof ApiJsonWriter ? createRowPlan() : null;
 
-            while (results.next())
+            if (null != plan)
             {
-                _ctx.setRow(factory.getRowMap(results));
-                writer.writeListEntry(getRow());
-                ++_numRespRows;
+                writeRows((ApiJsonWriter) writer, results, factory, plan);
+            }
+            else
+            {
+                while (results.next())
+                {
+                    _ctx.setRow(factory.getRowMap(results));
+                    writer.writeListEntry(getRow());
+                    ++_numRespRows;
+                }
             }
             complete = results.isComplete();
         }
@@ -550,6 +596,55 @@ public class ApiQueryResponse implements ApiResponse
         return complete;
     }
 
+    /*
+     * Streams each row's properties straight to the generator, reusing a single row map for every row, so rows cost
+     * no map allocations beyond what the display columns allocate for their values.
+     */
+    private void writeRows(ApiJsonWriter writer, Results results, ResultSetRowMapFactory factory, List<Pair<String, RowPropertyWriter>> plan) throws Exception
+    {
+        RowMap<Object> row = null;
+        Map<String, Object> ctxRow = null;
+
+        while (results.next())
+        {
+            row = factory.getRowMap(results, row);
+            // The context wraps the row in an unmodifiable view, which sees each refill; set it again only if it changed
+            if (null == ctxRow || _ctx.getRow() != ctxRow)
+            {
+                _ctx.setRow(row);
+                ctxRow = _ctx.getRow();
+            }
+
+            writer.startObject();
+            for (Pair<String, RowPropertyWriter> property : plan)
+                property.second.write(writer, property.first);
+            writer.endObject();
+            ++_numRespRows;
+        }
+    }
+
+    /**
+     * Compile the per-row writers for the response columns, in the order {@link #getRow()}'s HashMap serializes its
+     * properties, so streamed rows are identical to rows written from maps. The plan is computed by making the same
+     * puts into a HashMap as getRow() does for each row.
+     *
+     * @return the plan, or null if rows can't be streamed and must be written via getRow()
+     */
+    protected @Nullable List<Pair<String, RowPropertyWriter>> createRowPlan()
+    {
+        Map<String, RowPropertyWriter> template = new HashMap<>();
+        for (DisplayColumn dc : _displayColumns)
+        {
+            if (includeColumnInResponse(dc))
+                planValue(template, dc);
+        }
+
+        List<Pair<String, RowPropertyWriter>> plan = new ArrayList<>(template.size());
+        for (Map.Entry<String, RowPropertyWriter> e : template.entrySet())
+            plan.add(new Pair<>(String.valueOf(e.getKey()), e.getValue()));
+        return plan;
+    }
+
     protected Map<String,Object> getRow()
     {
         Map<String,Object> row = new HashMap<>();
@@ -570,6 +665,7 @@ public class ApiQueryResponse implements ApiResponse
         return dc.isQueryColumn() || (dc instanceof DetailsColumn && _includeDetailsColumn) || (dc instanceof UpdateColumn && _includeUpdateColumn);
     }
 
+    /** Subclasses that override this must override {@link #planValue} or {@link #createRowPlan} to match */
     protected void putValue(Map<String,Object> row, DisplayColumn dc)
     {
         Object value = getColumnValue(dc);
@@ -586,6 +682,16 @@ public class ApiQueryResponse implements ApiResponse
         }
     }
 
+    /** Plan the properties {@link #putValue} puts into each row */
+    protected void planValue(Map<String, RowPropertyWriter> row, DisplayColumn dc)
+    {
+        String colName = getColumnName(dc);
+        row.put(colName, (writer, name) -> writer.writeProperty(name, getColumnValue(dc)));
+
+        if (dc.includeURL())
+            row.put(URL_COL_PREFIX + colName, (writer, name) -> writer.writeProperty(name, dc.renderURL(_ctx)));
+    }
+
 
     protected Object getColumnValue(DisplayColumn dc)
     {
@@ -670,4 +776,164 @@ public class ApiQueryResponse implements ApiResponse
     {
         _columnFilter = columnFilter;
     }
+
+    /**
+     * Checks that streamed rows are identical to rows written from maps for each response format, and logs rows/sec and
+     * bytes allocated per row for both.
+     */
+    public static class TestCase extends Assert
+    {
+        private static final Logger LOG = LogHelper.getLogger(ApiQueryResponse.class, "selectRows row writer benchmark");
+        private static final String LIST_NAME = "ApiQueryResponseTest";
+        private static final int ROWS = 10_000;
+
+        private User _user;
+        private Container _c;
+
+        @Before
+        public void setUp() throws Exception
+        {
+            _user = TestContext.get().getUser();
+            _c = JunitUtil.getTestContainer();
+            tearDown();
+
+            ListDefinition list = ListService.get().createList(_c, LIST_NAME, ListDefinition.KeyType.AutoIncrementInteger);
+            list.setKeyName("RowId");
+            Domain d = requireNonNull(list.getDomain());
+            d.addProperty(new PropertyStorageSpec("Name", JdbcType.VARCHAR));
+            d.addProperty(new PropertyStorageSpec("Amount", JdbcType.DOUBLE));
+            d.addProperty(new PropertyStorageSpec("Measured", JdbcType.TIMESTAMP));
+            d.addProperty(new PropertyStorageSpec("Flag", JdbcType.BOOLEAN));
+            list.save(_user);
+
+            List<Map<String, Object>> rows = new ArrayList<>(ROWS);
+            for (int i = 0; i < ROWS; i++)
+            {
+                Map<String, Object> row = new HashMap<>();
+                row.put("Name", i % 7 == 0 ? null : "Row \"" + i + "\"\n");
+                row.put("Amount", i % 5 == 0 ? null : i * 1.5);
+                row.put("Measured", new Date(1_600_000_000_000L + i * 60_000L));
+                row.put("Flag", i % 2 == 0);
+                rows.add(row);
+            }
+            TableInfo table = requireNonNull(list.getTable(_user));
+            BatchValidationException errors = new BatchValidationException();
+            requireNonNull(table.getUpdateService()).insertRows(_user, _c, rows, errors, null, null);
+            if (errors.hasErrors())
+                throw errors;
+        }
+
+        @After
+        public void tearDown() throws Exception
+        {
+            ListDefinition list = ListService.get().getList(_c, LIST_NAME);
+            if (null != list)
+                list.delete(_user);
+        }
+
+        private QueryView createView()
+        {
+            UserSchema schema = requireNonNull(QueryService.get().getUserSchema(_user, _c, "lists"));
+            QuerySettings settings = schema.getSettings("query", LIST_NAME);
+            settings.setMaxRows(Table.ALL_ROWS);
+
+            // Use a mock response, so async queries don't write to a real one
+            ViewContext context = new ViewContext();
+            context.setActionURL(new ActionURL("fake", "fake", _c));
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            context.setResponse(response);
+            QueryView view = new QueryView(schema, settings, new NullSafeBindException(new Object(), "command"))
+            {
+                @Override
+                public DataView createDataView()
+                {
+                    DataView dataView = super.createDataView();
+                    dataView.getRenderContext().getViewContext().setResponse(response);
+                    return dataView;
+                }
+            };
+            view.setViewContext(context);
+            return view;
+        }
+
+        private enum Format
+        {
+            v8_3, v8_3_displayValues, v9_1, v9_1_style, v16_2, v17_1, v13_2;
+
+            ApiQueryResponse create(QueryView view)
+            {
+                return switch (this)
+                {
+                    case v8_3 -> new ApiQueryResponse(view, true, true, "lists", LIST_NAME, 0, null, false, true, true, false, false);
+                    case v8_3_displayValues -> new ApiQueryResponse(view, true, true, "lists", LIST_NAME, 0, null, false, false, false, true, false);
+                    case v9_1 -> new ExtendedApiQueryResponse(view, true, true, "lists", LIST_NAME, 0, null, false, true, true, false);
+                    case v9_1_style -> {
+                        ApiQueryResponse response = new ExtendedApiQueryResponse(view, true, true, "lists", LIST_NAME, 0, null, false, false, false, false);
+                        response.includeStyle(true);
+                        yield response;
+                    }
+                    case v16_2 -> {
+                        ExtendedApiQueryResponse response = new ExtendedApiQueryResponse(view, true, true, "lists", LIST_NAME, 0, null, false, false, false, false);
+                        response.arrayMultiValueColumns(true);
+                        yield response;
+                    }
+                    case v17_1 -> {
+                        ExtendedApiQueryResponse response = new ExtendedApiQueryResponse(view, true, true, "lists", LIST_NAME, 0, null, false, false, false, false);
+                        response.arrayMultiValueColumns(true);
+                        response.includeFormattedValue(true);
+                        yield response;
+                    }
+                    case v13_2 -> new ReportingApiQueryResponse(view, true, true, LIST_NAME, 0, null, false, false, false, false);
+                };
+            }
+        }
+
+        private String render(Format format, boolean stream) throws Exception
+        {
+            ApiQueryResponse response = format.create(createView());
+            response._streamRows = stream;
+            StringWriter out = new StringWriter();
+            response.render(new ApiJsonWriter(out));
+            return out.toString();
+        }
+
+        @Test
+        public void testIdenticalOutput() throws Exception
+        {
+            for (Format format : Format.values())
+            {
+                String streamed = render(format, true);
+                assertFalse(format + " failed: " + streamed, streamed.contains("\"exception\""));
+                assertEquals(format + " rows differ", render(format, false), streamed);
+            }
+        }
+
+        @Test
+        public void testBenchmark() throws Exception
+        {
+            com.sun.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean b && b.isThreadAllocatedMemorySupported() ? b : null;
+            long threadId = Thread.currentThread().getId();
+
+            for (Format format : List.of(Format.v8_3, Format.v9_1, Format.v17_1))
+            {
+                for (boolean stream : List.of(false, true))
+                {
+                    render(format, stream);  // warm up
+
+                    int iterations = 5;
+                    long bytes = null == bean ? 0 : bean.getThreadAllocatedBytes(threadId);
+                    long start = System.nanoTime();
+                    for (int i = 0; i < iterations; i++)
+                        render(format, stream);
+                    long elapsed = System.nanoTime() - start;
+                    if (null != bean)
+                        bytes = bean.getThreadAllocatedBytes(threadId) - bytes;
+
+                    long rows = (long) iterations * ROWS;
+                    LOG.info(String.format("%s %s: %,d rows/sec, %s per row", format, stream ? "streamed" : "from maps",
+                        rows * TimeUnit.SECONDS.toNanos(1) / Math.max(1, elapsed), null == bean ? "unknown bytes" : String.format("%,d bytes", bytes / rows)));
+                }
+            }
+        }
+    }
 }
@@ -16,6 +16,7 @@
 
 package org.labkey.api.action;
 
+import org.labkey.api.data.ReadReplica;
 import org.labkey.api.view.NavTree;
 import org.springframework.validation.BindException;
 import org.springframework.web.servlet.ModelAndView;
@@ -24,7 +25,8 @@ import jakarta.servlet.http.HttpServletResponse;
 
 /**
  * Base class for actions that want to stream some sort of file (typically dynamically generated) back to the user
- * instead of returning an HTML page to be displayed in the browser.
+ * instead of returning an HTML page to be displayed in the browser. Query results selected outside a transaction may be
+ * served by a read replica (see {@link ReadReplica}).
  */
 public abstract class ExportAction<FORM> extends SimpleViewAction<FORM>
 {
@@ -47,7 +49,7 @@ public abstract class ExportAction<FORM> extends SimpleViewAction<FORM>
     @Override
     public final ModelAndView getView(FORM form, BindException errors) throws Exception
     {
-        try
+        try (var ignored = ReadReplica.routeReads())
         {
             export(form, getViewContext().getResponse(), errors);
         }
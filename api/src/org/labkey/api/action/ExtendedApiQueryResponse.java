@@ -27,6 +27,7 @@ import org.labkey.api.query.FieldKey;
 import org.labkey.api.query.QueryView;
 import org.labkey.api.util.Pair;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -68,6 +69,20 @@ public class ExtendedApiQueryResponse extends ApiQueryResponse
     {
     }
 
+    // The order in which a ColMap serializes its entries. Enum hash codes are identity hash codes, so the order differs
+    // between JVMs, but within one it's fixed: a ColMap never resizes, so any subset of entries put in this insertion
+    // order iterates in the same relative order as the full map.
+    private static final List<ColMapEntry> COLMAP_ORDER;
+
+    static
+    {
+        ColMap all = new ColMap();
+        for (ColMapEntry e : List.of(ColMapEntry.value, ColMapEntry.displayValue, ColMapEntry.formattedValue, ColMapEntry.url,
+                ColMapEntry.urlTarget, ColMapEntry.mvValue, ColMapEntry.mvRawValue, ColMapEntry.style))
+            all.put(e, null);
+        COLMAP_ORDER = List.copyOf(all.keySet());
+    }
+
     public ExtendedApiQueryResponse(QueryView view, boolean schemaEditable,
                                     boolean includeLookupInfo, String schemaName, String queryName,
                                     long offset, List<FieldKey> fieldKeys, boolean metaDataOnly, boolean includeDetailsColumn, boolean includeUpdateColumn)
@@ -116,6 +131,19 @@ public class ExtendedApiQueryResponse extends ApiQueryResponse
         }
     }
 
+    @Override
+    protected void planValue(Map<String, RowPropertyWriter> row, DisplayColumn dc)
+    {
+        String columnName = getColumnName(dc);
+        if (columnName == null)
+            return;
+
+        if (dc instanceof NestedPropertyDisplayColumn || (_arrayMultiValueColumns && dc instanceof IMultiValuedDisplayColumn))
+            row.put(columnName, (writer, name) -> writer.writeProperty(name, createColMap(dc)));
+        else
+            row.put(columnName, (writer, name) -> writeColMap(writer, name, getRenderContext(), dc, _includeFormattedValue, _doItWithStyle));
+    }
+
     protected Object createColMap(DisplayColumn dc)
     {
         return createColMap(getRenderContext(), dc, _arrayMultiValueColumns, _includeFormattedValue, _doItWithStyle);
@@ -189,6 +217,70 @@ public class ExtendedApiQueryResponse extends ApiQueryResponse
         return colMap;
     }
 
+    /** Streams the same object getColMap() would create, without creating it */
+    private static void writeColMap(ApiJsonWriter writer, String name, RenderContext ctx, DisplayColumn dc, boolean includeFormattedValue, boolean doItWithStyle) throws IOException
+    {
+        // Call the display column in the same order as getColMap() does
+        Object value = dc.getJsonValue(ctx);
+        Object displayValue = dc.getDisplayValue(ctx);
+        String formattedValue = includeFormattedValue ? dc.getFormattedText(ctx) : null;
+
+        String url = null, urlTarget = null;
+        if (null != value)
+        {
+            url = dc.renderURL(ctx);
+            urlTarget = dc.getLinkTarget();
+        }
+
+        MVDisplayColumn mvColumn = dc instanceof MVDisplayColumn mvdc ? mvdc : null;
+        Object mvValue = null == mvColumn ? null : mvColumn.getMvIndicator(ctx);
+        Object mvRawValue = null == mvColumn ? null : mvColumn.getRawValue(ctx);
+        String style = doItWithStyle ? dc.getCssStyle(ctx) : null;
+
+        value = ensureJSONDate(value);
+        displayValue = ensureJSONDate(displayValue);
+
+        writer.startObject(name);
+        for (ColMapEntry e : COLMAP_ORDER)
+        {
+            switch (e)
+            {
+                case value -> writer.writeProperty(e.name(), value);
+                case displayValue -> {
+                    if (null != displayValue && !displayValue.equals(value))
+                        writer.writeProperty(e.name(), displayValue);
+                }
+                case formattedValue -> {
+                    if (includeFormattedValue && formattedValue != null && !formattedValue.equals(displayValue))
+                        writer.writeProperty(e.name(), formattedValue);
+                }
+                case url -> {
+                    if (value != null && url != null)
+                        writer.writeProperty(e.name(), url);
+                }
+                case urlTarget -> {
+                    if (value != null && url != null && !StringUtils.isEmpty(urlTarget))
+                        writer.writeProperty(e.name(), urlTarget);
+                }
+                case mvValue -> {
+                    if (null != mvColumn)
+                        writer.writeProperty(e.name(), mvValue);
+                }
+                case mvRawValue -> {
+                    if (null != mvColumn)
+                        writer.writeProperty(e.name(), mvRawValue);
+                }
+                case style -> {
+                    if (!StringUtils.isEmpty(style))
+                        writer.writeProperty(e.name(), style);
+                }
+                default -> {
+                }
+            }
+        }
+        writer.endObject();
+    }
+
     @Nullable
     private static List<ColMap> getMultiValuedColumnArray(RenderContext ctx, boolean includeFormattedValue, IMultiValuedDisplayColumn mdc)
     {
@@ -15,19 +15,31 @@
  */
 package org.labkey.api.action;
 
+import org.labkey.api.data.ReadReplica;
 import org.springframework.web.servlet.ModelAndView;
 
 /**
  * NOTE: Even if your action is read-only, consider extending MutatingApiAction anyway if it does not need to support GET,
  * and most API actions _do_not_ need to support GET, because they are called from code.
  *
- * NOTE: Despite the name this does not enforce ReadOnly-ness, it is only a marker of intent.
+ * NOTE: Despite the name this does not enforce ReadOnly-ness, it is only a marker of intent. Query results selected
+ * outside a transaction may be served by a read replica (see {@link ReadReplica}); any write sends the rest of the
+ * request's selects back to the primary.
  *
  * User: Dave
  * Date: Feb 8, 2008
  */
 public abstract class ReadOnlyApiAction<FORM> extends BaseApiAction<FORM>
 {
+    @Override
+    public ModelAndView handleRequest() throws Exception
+    {
+        try (var ignored = ReadReplica.routeReads())
+        {
+            return super.handleRequest();
+        }
+    }
+
     @Override
     protected ModelAndView handleGet() throws Exception
     {
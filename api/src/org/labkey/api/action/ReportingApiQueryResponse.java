@@ -21,6 +21,7 @@ import org.labkey.api.data.UrlColumn;
 import org.labkey.api.query.FieldKey;
 import org.labkey.api.query.QueryView;
 import org.labkey.api.query.SchemaKey;
+import org.labkey.api.util.Pair;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -124,6 +125,13 @@ public class ReportingApiQueryResponse extends ExtendedApiQueryResponse
         return fields;
     }
 
+    // Rows are split into "data" and "links" maps whose keys depend on the row's values, so they're written from maps
+    @Override
+    protected List<Pair<String, RowPropertyWriter>> createRowPlan()
+    {
+        return null;
+    }
+
     @Override
     protected void putValue(Map<String, Object> row, DisplayColumn dc)
     {
@@ -63,4 +63,15 @@ public interface AuditTypeProvider
     {
         return true;
     }
+
+    /**
+     * May events of this type be written asynchronously, in batches, when the asynchronous audit logging feature is
+     * enabled? Only appropriate for high-volume events that nothing reads back right after logging them: addEvent()
+     * returns null for these events, and they show up in the audit log a second or so after they're logged. Events
+     * logged while a transaction is active are always written synchronously.
+     */
+    default boolean isAsyncWriteAllowed()
+    {
+        return false;
+    }
 }
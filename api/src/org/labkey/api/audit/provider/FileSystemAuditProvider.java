@@ -78,6 +78,13 @@ public class FileSystemAuditProvider extends AbstractAuditTypeProvider implement
         return "Displays information about file uploads and modifications.";
     }
 
+    @Override
+    public boolean isAsyncWriteAllowed()
+    {
+        // Logged on every WebDAV and attachment access, and never read back by the code that logs it
+        return true;
+    }
+
     @Override
     public Map<FieldKey, String> legacyNameMap()
     {
@@ -28,6 +28,8 @@ import org.labkey.api.data.DbScope;
 import org.labkey.api.data.JdbcType;
 import org.labkey.api.data.PropertyStorageSpec;
 import org.labkey.api.data.SQLFragment;
+import org.labkey.api.data.SchemaTableInfo;
+import org.labkey.api.data.SqlSelector;
 import org.labkey.api.exp.Handler;
 import org.labkey.api.exp.Lsid;
 import org.labkey.api.exp.PropertyDescriptor;
@@ -45,6 +47,7 @@ import org.labkey.api.query.QueryAction;
 import org.labkey.api.query.QueryService;
 import org.labkey.api.query.ValidationException;
 import org.labkey.api.security.User;
+import org.labkey.api.settings.OptionalFeatureService;
 import org.labkey.api.util.PageFlowUtil;
 import org.labkey.api.view.ActionURL;
 import org.labkey.api.view.NavTree;
@@ -53,6 +56,7 @@ import org.labkey.api.writer.ContainerUser;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -78,6 +82,9 @@ public abstract class AbstractAuditDomainKind extends DomainKind<JSONObject>
 
     public static final String AUDIT_RECORD_DATA_MAP_CONCEPT_URI = "http://www.labkey.org/types#auditRecordDataMap";
 
+    public static final String EXPERIMENTAL_PARTITIONED_AUDIT_TABLES = "partitionedAuditTables";
+    private static final String PARTITION_COLUMN = "Created";
+
     static
     {
         Set<PropertyStorageSpec> baseFields = new LinkedHashSet<>();
@@ -281,6 +288,27 @@ public abstract class AbstractAuditDomainKind extends DomainKind<JSONObject>
         );
     }
 
+    /**
+     * New audit tables are partitioned by month on Created when the experimental feature is enabled on PostgreSQL.
+     * Existing tables are left as they are.
+     */
+    @Override
+    public @Nullable String getStoragePartitionColumn(Domain domain)
+    {
+        if (OptionalFeatureService.get().isFeatureEnabled(EXPERIMENTAL_PARTITIONED_AUDIT_TABLES) && getScope().getSqlDialect().isPostgreSQL())
+            return PARTITION_COLUMN;
+        return null;
+    }
+
+    @Override
+    public void afterLoadTable(SchemaTableInfo ti, Domain domain)
+    {
+        // A partitioned table's primary key includes Created, but RowId alone still identifies an event
+        List<String> pkColumnNames = ti.getPkColumnNames();
+        if (pkColumnNames.size() > 1)
+            ti.setPkColumnNames(pkColumnNames.stream().filter(name -> !PARTITION_COLUMN.equalsIgnoreCase(name)).toList());
+    }
+
     @Override
     public Set<PropertyStorageSpec.ForeignKey> getPropertyForeignKeys(Container container)
     {
@@ -401,6 +429,13 @@ public abstract class AbstractAuditDomainKind extends DomainKind<JSONObject>
         Set<String> tables = new CaseInsensitiveHashSet();
         tables.add("auditlog");
 
+        // the monthly and default partitions of partitioned audit tables belong to their parent table's domain
+        if (getScope().getSqlDialect().isPostgreSQL())
+        {
+            tables.addAll(new SqlSelector(getScope(), new SQLFragment("SELECT c.relname FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace " +
+                "WHERE c.relispartition AND n.nspname = ?", getStorageSchemaName())).getCollection(String.class));
+        }
+
         return tables;
     }
 
@@ -25,16 +25,20 @@ import org.labkey.api.util.DeadlockPreventingException;
 import org.labkey.api.util.DebugInfoDumper;
 import org.labkey.api.util.Filter;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This is a decorator for any Cache instance, it will provide for synchronizing object load
  * (readers block while someone is creating an object)
+ *
+ * Cache hits on initialized values take no locks. Misses synchronize on one of a fixed set of lock stripes (selected
+ * by key hash) while the placeholder wrapper is created, so concurrent loads of the same key are coalesced without
+ * serializing unrelated keys behind a single monitor.
  */
 public class BlockingCache<K, V> implements Cache<K, V>
 {
@@ -49,6 +53,16 @@ public class BlockingCache<K, V> implements Cache<K, V>
 
     public static final Object UNINITIALIZED = new Object() {public String toString() { return "UNINITIALIZED";}};
 
+    // Shared by all instances; they're held only while a placeholder wrapper is created, never during a load. Must be a power of two.
+    private static final int LOCK_STRIPES = 256;
+    private static final Object[] STRIPES = new Object[LOCK_STRIPES];
+
+    static
+    {
+        for (int i = 0; i < STRIPES.length; i++)
+            STRIPES[i] = new Object();
+    }
+
 
     public BlockingCache(Cache<K, Wrapper<V>> cache)
     {
@@ -67,6 +81,13 @@ public class BlockingCache<K, V> implements Cache<K, V>
         _timeout = timeout;
     }
 
+    private Object getStripe(@NotNull K key)
+    {
+        int h = System.identityHashCode(this) * 31 + key.hashCode();
+        h ^= (h >>> 16);
+        return STRIPES[h & (LOCK_STRIPES - 1)];
+    }
+
     public void setCacheTimeChooser(CacheTimeChooser<K> cacheTimeChooser)
     {
         _cacheTimeChooser = cacheTimeChooser;
@@ -94,13 +115,19 @@ public class BlockingCache<K, V> implements Cache<K, V>
     @Override
     public V get(@NotNull K key, @Nullable Object argument, CacheLoader<K, V> loader)
     {
-        Wrapper<V> w;
+        // Fast path: an initialized wrapper can be returned without any locking or thread dump bookkeeping
+        Wrapper<V> w = _cache.get(key);
+
+        if (null != w && isInitialized(w))
+            return w.peekValue();
 
         try (var ignored = DebugInfoDumper.pushThreadDumpContext(this.getClass().getSimpleName() + ".get(" + key + ")"))
         {
-            synchronized(_cache)
+            // Another thread may have created the wrapper since we looked, so check again under the stripe lock
+            synchronized (getStripe(key))
             {
-                w = _cache.get(key);
+                if (null == w)
+                    w = _cache.get(key);
                 if (null == w)
                 {
                     w = createWrapper();
@@ -275,7 +302,7 @@ public class BlockingCache<K, V> implements Cache<K, V>
     public static class BlockingCacheTest extends Assert
     {
         private Cache<Integer, Wrapper<Integer>> _cache;
-        private final Map<Integer, Wrapper<Integer>> _map = new HashMap<>();
+        private final Map<Integer, Wrapper<Integer>> _map = new ConcurrentHashMap<>();
 
         @Before
         public void setUp()
@@ -334,6 +361,29 @@ public class BlockingCache<K, V> implements Cache<K, V>
             assertEquals(5, _map.size());
         }
 
+        @Test
+        public void testConcurrentHits()
+        {
+            final AtomicInteger calls = new AtomicInteger();
+            final BlockingCache<Integer,Integer> bc = new BlockingCache<>(_cache, createLoader(calls, 10));
+            final AtomicInteger wrong = new AtomicInteger();
+            final Object start = new Object();
+            Runnable r = () -> {
+                Random r1 = new Random();
+                synchronized (start) { try{start.wait(1000);}catch(InterruptedException x){/* */} }
+                for (int i=0 ; i<10_000 ; i++)
+                {
+                    int k = Math.abs(r1.nextInt() % 100);
+                    if (k * k != bc.get(k))
+                        wrong.incrementAndGet();
+                }
+            };
+            createAndStartThreads(r, start, 64);
+            assertEquals(100, calls.get());
+            assertEquals(100, _map.size());
+            assertEquals(0, wrong.get());
+        }
+
         private void createAndStartThreads(Runnable r, Object start, int count)
         {
             Thread[] threads = new Thread[count];
@@ -0,0 +1,615 @@
+package org.labkey.api.cache;
+
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.Assert;
+import org.junit.Test;
+import org.labkey.api.cache.tinylfu.TinyLfuCacheProvider;
+import org.labkey.api.data.DbScope;
+import org.labkey.api.data.PostgreSqlNotifyTransport;
+import org.labkey.api.util.ContextListener;
+import org.labkey.api.util.GUID;
+import org.labkey.api.util.ShutdownListener;
+import org.labkey.api.util.logging.LogHelper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Broadcasts removals and clears on this server's known (shared) caches to other LabKey servers that use the same
+ * database, and applies the removals they broadcast to our caches. Puts aren't broadcast; caches are read-through, so
+ * peers simply load their own copy after an invalidation.
+ *
+ * Invalidations are queued and flushed by a background thread every {@value #FLUSH_INTERVAL}ms. Within a flush,
+ * repeated keys are coalesced, a cache with more than {@value #MAX_KEYS_PER_CACHE} removed keys is cleared on peers
+ * instead, and a clear of all caches supersedes everything else, so bulk operations don't flood the channel. Removals
+ * whose key isn't a String (or whose filter isn't a StringPrefixFilter) can't be replayed remotely, so they clear the
+ * whole cache on peers.
+ *
+ * Disabled unless started with {@code -Dlabkey.cacheInvalidation=postgresql}, which uses LISTEN/NOTIFY on the
+ * LabKey database.
+ */
+public class CacheInvalidationBus implements ShutdownListener
+{
+    private static final Logger LOG = LogHelper.getLogger(CacheInvalidationBus.class, "Cross-server cache invalidation");
+
+    public static final String CACHE_INVALIDATION_PROPERTY = "labkey.cacheInvalidation";
+
+    private static final long FLUSH_INTERVAL = 100;
+    private static final int MAX_KEYS_PER_CACHE = 200;
+
+    // Set while applying a peer's invalidations (or clearing all caches) so they aren't broadcast back out
+    private static final ThreadLocal<Boolean> SUPPRESS = ThreadLocal.withInitial(() -> false);
+
+    private static volatile @Nullable CacheInvalidationBus INSTANCE = null;
+
+    /**
+     * A channel that delivers invalidation messages to every other server. Messages are plain text; implementations
+     * must not deliver a message larger than getMaxMessageBytes() and should tolerate receiving their own messages.
+     */
+    public interface Transport
+    {
+        String getName();
+
+        int getMaxMessageBytes();
+
+        void publish(String message) throws Exception;
+
+        /**
+         * Start delivering messages from all servers to the receiver on a background thread. If the transport may have
+         * missed messages (e.g., after reconnecting), it should deliver null, which clears all local caches.
+         */
+        void start(Consumer<String> receiver);
+
+        void shutdown();
+    }
+
+    private final String _nodeId = GUID.makeGUID();
+    private final Transport _transport;
+    private final Thread _publisher;
+    private final AtomicLong _publishedMessages = new AtomicLong();
+    private final AtomicLong _receivedMessages = new AtomicLong();
+
+    private final Object _lock = new Object();
+    private Map<String, PendingInvalidations> _pending = new LinkedHashMap<>();  // Guarded by _lock
+    private boolean _pendingClearAll = false;                                    // Guarded by _lock
+
+    private volatile boolean _shutdown = false;
+
+    private static class PendingInvalidations
+    {
+        private boolean _clear = false;
+        private final Set<String> _keys = new LinkedHashSet<>();
+        private final Set<String> _prefixes = new LinkedHashSet<>();
+    }
+
+    private CacheInvalidationBus(Transport transport)
+    {
+        _transport = transport;
+        _publisher = new Thread(this::publishLoop, "Cache invalidation publisher");
+        _publisher.setDaemon(true);
+    }
+
+    /** Start broadcasting invalidations if the server was configured to do so */
+    public static void startIfConfigured()
+    {
+        String type = System.getProperty(CACHE_INVALIDATION_PROPERTY);
+
+        if (null == type)
+            return;
+
+        if (!"postgresql".equalsIgnoreCase(type))
+        {
+            LOG.warn("Unknown " + CACHE_INVALIDATION_PROPERTY + " value \"" + type + "\"; cache invalidations will not be broadcast");
+            return;
+        }
+
+        DbScope scope = DbScope.getLabKeyScope();
+
+        if (!scope.getSqlDialect().isPostgreSQL())
+        {
+            LOG.warn(CACHE_INVALIDATION_PROPERTY + "=postgresql requires a PostgreSQL LabKey database; cache invalidations will not be broadcast");
+            return;
+        }
+
+        start(new PostgreSqlNotifyTransport(scope));
+    }
+
+    public static synchronized void start(Transport transport)
+    {
+        if (null != INSTANCE)
+            throw new IllegalStateException("Cache invalidation bus has already been started");
+
+        CacheInvalidationBus bus = new CacheInvalidationBus(transport);
+        transport.start(bus::receive);
+        bus._publisher.start();
+        ContextListener.addShutdownListener(bus);
+        INSTANCE = bus;
+        LOG.info("Broadcasting cache invalidations via " + transport.getName() + " as node " + bus._nodeId);
+    }
+
+    public static boolean isEnabled()
+    {
+        return null != INSTANCE;
+    }
+
+    /** Run the runnable without broadcasting any cache invalidations it causes */
+    public static void withoutPublishing(Runnable runnable)
+    {
+        boolean previous = SUPPRESS.get();
+        SUPPRESS.set(true);
+
+        try
+        {
+            runnable.run();
+        }
+        finally
+        {
+            SUPPRESS.set(previous);
+        }
+    }
+
+    private static @Nullable CacheInvalidationBus getPublishingBus()
+    {
+        CacheInvalidationBus bus = INSTANCE;
+        return null == bus || SUPPRESS.get() ? null : bus;
+    }
+
+    static void publishRemove(Tracking cache, Object key)
+    {
+        CacheInvalidationBus bus = getPublishingBus();
+
+        if (null != bus)
+        {
+            if (key instanceof String s)
+                bus.enqueue(cache.getDebugName(), s, null);
+            else
+                bus.enqueue(cache.getDebugName(), null, null);
+        }
+    }
+
+    static void publishRemovePrefix(Tracking cache, String prefix)
+    {
+        CacheInvalidationBus bus = getPublishingBus();
+
+        if (null != bus)
+            bus.enqueue(cache.getDebugName(), null, prefix);
+    }
+
+    static void publishClear(Tracking cache)
+    {
+        CacheInvalidationBus bus = getPublishingBus();
+
+        if (null != bus)
+            bus.enqueue(cache.getDebugName(), null, null);
+    }
+
+    static void publishClearAll()
+    {
+        CacheInvalidationBus bus = getPublishingBus();
+
+        if (null != bus)
+        {
+            synchronized (bus._lock)
+            {
+                bus._pendingClearAll = true;
+                bus._pending.clear();
+            }
+        }
+    }
+
+    // A null key and null prefix means clear the whole cache
+    private void enqueue(String cacheName, @Nullable String key, @Nullable String prefix)
+    {
+        synchronized (_lock)
+        {
+            if (_pendingClearAll)
+                return;
+
+            PendingInvalidations pending = _pending.computeIfAbsent(cacheName, name -> new PendingInvalidations());
+
+            if (pending._clear)
+                return;
+
+            if (null != key)
+                pending._keys.add(key);
+            else if (null != prefix)
+                pending._prefixes.add(prefix);
+
+            if ((null == key && null == prefix) || pending._keys.size() + pending._prefixes.size() > MAX_KEYS_PER_CACHE)
+            {
+                pending._clear = true;
+                pending._keys.clear();
+                pending._prefixes.clear();
+            }
+        }
+    }
+
+    private void publishLoop()
+    {
+        while (!_shutdown)
+        {
+            try
+            {
+                Thread.sleep(FLUSH_INTERVAL);
+            }
+            catch (InterruptedException e)
+            {
+                // Shutting down; flush below
+            }
+
+            flush();
+        }
+    }
+
+    void flush()
+    {
+        Map<String, PendingInvalidations> pending;
+        boolean clearAll;
+
+        synchronized (_lock)
+        {
+            if (!_pendingClearAll && _pending.isEmpty())
+                return;
+
+            pending = _pending;
+            clearAll = _pendingClearAll;
+            _pending = new LinkedHashMap<>();
+            _pendingClearAll = false;
+        }
+
+        for (String message : encode(pending, clearAll))
+        {
+            try
+            {
+                _transport.publish(message);
+                _publishedMessages.incrementAndGet();
+            }
+            catch (Exception e)
+            {
+                // Peers may now hold stale entries; make sure an admin hears about it
+                LOG.error("Failed to broadcast cache invalidations via " + _transport.getName(), e);
+            }
+        }
+    }
+
+    // Each message is the sending node's ID followed by one invalidation per line, split to fit the transport's limit
+    private List<String> encode(Map<String, PendingInvalidations> pending, boolean clearAll)
+    {
+        List<String> lines = new ArrayList<>();
+
+        if (clearAll)
+        {
+            lines.add("A");
+        }
+        else
+        {
+            for (Map.Entry<String, PendingInvalidations> entry : pending.entrySet())
+            {
+                String name = escape(entry.getKey());
+                PendingInvalidations invalidations = entry.getValue();
+
+                if (invalidations._clear)
+                {
+                    lines.add("C\t" + name);
+                }
+                else
+                {
+                    invalidations._keys.forEach(key -> lines.add("K\t" + name + "\t" + escape(key)));
+                    invalidations._prefixes.forEach(prefix -> lines.add("P\t" + name + "\t" + escape(prefix)));
+                }
+            }
+        }
+
+        List<String> messages = new ArrayList<>();
+        int max = _transport.getMaxMessageBytes();
+        StringBuilder message = new StringBuilder(_nodeId);
+        int bytes = _nodeId.length();
+
+        for (String line : lines)
+        {
+            int lineBytes = line.getBytes(StandardCharsets.UTF_8).length + 1;
+
+            if (bytes + lineBytes > max && message.length() > _nodeId.length())
+            {
+                messages.add(message.toString());
+                message = new StringBuilder(_nodeId);
+                bytes = _nodeId.length();
+            }
+
+            // A single line that exceeds the limit can't be sent; clear that cache on peers instead
+            if (_nodeId.length() + lineBytes > max)
+            {
+                String[] parts = line.split("\t", -1);
+                line = "C\t" + parts[1];
+                lineBytes = line.getBytes(StandardCharsets.UTF_8).length + 1;
+            }
+
+            message.append('\n').append(line);
+            bytes += lineBytes;
+        }
+
+        if (message.length() > _nodeId.length())
+            messages.add(message.toString());
+
+        return messages;
+    }
+
+    // A null message means the transport may have missed messages, so clear everything
+    void receive(@Nullable String message)
+    {
+        if (null == message)
+        {
+            LOG.info("Cache invalidation messages may have been missed; clearing all caches");
+            withoutPublishing(CacheManager::clearAllKnownCaches);
+            return;
+        }
+
+        String[] lines = message.split("\n");
+
+        if (lines.length < 2 || _nodeId.equals(lines[0]))
+            return;
+
+        _receivedMessages.incrementAndGet();
+        Map<String, List<TrackingCache<?, ?>>> cachesByName = new HashMap<>();
+
+        for (TrackingCache<?, ?> cache : CacheManager.getKnownCaches())
+            cachesByName.computeIfAbsent(cache.getDebugName(), name -> new ArrayList<>()).add(cache);
+
+        withoutPublishing(() -> {
+            for (int i = 1; i < lines.length; i++)
+                apply(lines[i], cachesByName);
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private void apply(String line, Map<String, List<TrackingCache<?, ?>>> cachesByName)
+    {
+        // Keep trailing empty strings; an empty key is a legitimate "K" or "P" argument
+        String[] parts = line.split("\t", -1);
+
+        if ("A".equals(parts[0]))
+        {
+            CacheManager.clearAllKnownCaches();
+            return;
+        }
+
+        if (parts.length < 2 || (parts.length < 3 && ("K".equals(parts[0]) || "P".equals(parts[0]))))
+        {
+            LOG.warn("Ignoring malformed cache invalidation: " + line);
+            return;
+        }
+
+        List<TrackingCache<?, ?>> caches = cachesByName.get(unescape(parts[1]));
+
+        if (null == caches)
+            return;
+
+        for (TrackingCache<?, ?> cache : caches)
+        {
+            switch (parts[0])
+            {
+                case "C" -> cache.clear();
+                case "K" -> ((TrackingCache<String, ?>) cache).remove(unescape(parts[2]));
+                case "P" -> ((TrackingCache<String, ?>) cache).removeUsingFilter(new Cache.StringPrefixFilter(unescape(parts[2])));
+                default -> LOG.warn("Ignoring unknown cache invalidation: " + line);
+            }
+        }
+    }
+
+    private static String escape(String s)
+    {
+        StringBuilder sb = new StringBuilder(s.length());
+
+        for (char c : s.toCharArray())
+        {
+            switch (c)
+            {
+                case '\\' -> sb.append("\\\\");
+                case '\t' -> sb.append("\\t");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                default -> sb.append(c);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static String unescape(String s)
+    {
+        if (s.indexOf('\\') == -1)
+            return s;
+
+        StringBuilder sb = new StringBuilder(s.length());
+
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+
+            if (c == '\\' && i + 1 < s.length())
+            {
+                char next = s.charAt(++i);
+                sb.append(switch (next)
+                {
+                    case 't' -> '\t';
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    default -> next;
+                });
+            }
+            else
+            {
+                sb.append(c);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    public long getPublishedMessages()
+    {
+        return _publishedMessages.get();
+    }
+
+    public long getReceivedMessages()
+    {
+        return _receivedMessages.get();
+    }
+
+    @Override
+    public String getName()
+    {
+        return "Cache invalidation bus";
+    }
+
+    @Override
+    public void shutdownPre()
+    {
+        _shutdown = true;
+        _publisher.interrupt();
+    }
+
+    @Override
+    public void shutdownStarted()
+    {
+        try
+        {
+            _publisher.join(FLUSH_INTERVAL * 10);
+        }
+        catch (InterruptedException ignored)
+        {
+        }
+
+        _transport.shutdown();
+    }
+
+    public static class TestCase extends Assert
+    {
+        // Loops messages back to a second bus, standing in for a peer server
+        private static class LoopbackTransport implements Transport
+        {
+            private final List<String> _messages = new ArrayList<>();
+            private final int _maxBytes;
+
+            private LoopbackTransport(int maxBytes)
+            {
+                _maxBytes = maxBytes;
+            }
+
+            @Override public String getName() { return "loopback"; }
+            @Override public int getMaxMessageBytes() { return _maxBytes; }
+            @Override public void publish(String message) { _messages.add(message); }
+            @Override public void start(Consumer<String> receiver) {}
+            @Override public void shutdown() {}
+        }
+
+        private @NotNull TrackingCache<String, String> createCache(String name)
+        {
+            SimpleCache<String, String> simpleCache = TinyLfuCacheProvider.getInstance().getSimpleCache(name, CacheManager.UNLIMITED, CacheManager.UNLIMITED, CacheManager.UNLIMITED, true);
+            return new CacheWrapper<>(simpleCache, name, null, null);
+        }
+
+        @Test
+        public void testCoalescing()
+        {
+            LoopbackTransport transport = new LoopbackTransport(8000);
+            CacheInvalidationBus bus = new CacheInvalidationBus(transport);
+
+            for (int i = 0; i < 10; i++)
+                bus.enqueue("Cache A", "key", null);
+            bus.enqueue("Cache A", null, "prefix\twith tab");
+            for (int i = 0; i < MAX_KEYS_PER_CACHE + 1; i++)
+                bus.enqueue("Cache B", "key" + i, null);
+            bus.flush();
+
+            assertEquals(1, transport._messages.size());
+            String[] lines = transport._messages.get(0).split("\n");
+            assertEquals(4, lines.length);
+            assertEquals(bus._nodeId, lines[0]);
+            assertEquals("K\tCache A\tkey", lines[1]);
+            assertEquals("P\tCache A\tprefix\\twith tab", lines[2]);
+            assertEquals("C\tCache B", lines[3]);
+
+            // Nothing pending means nothing published
+            bus.flush();
+            assertEquals(1, transport._messages.size());
+        }
+
+        @Test
+        public void testSplitting()
+        {
+            LoopbackTransport transport = new LoopbackTransport(200);
+            CacheInvalidationBus bus = new CacheInvalidationBus(transport);
+
+            for (int i = 0; i < 50; i++)
+                bus.enqueue("Cache", "key" + i, null);
+            bus.flush();
+
+            assertTrue(transport._messages.size() > 1);
+            int keys = 0;
+
+            for (String message : transport._messages)
+            {
+                assertTrue(message.getBytes(StandardCharsets.UTF_8).length <= 200);
+                assertTrue(message.startsWith(bus._nodeId + "\n"));
+                keys += message.split("\n").length - 1;
+            }
+
+            assertEquals(50, keys);
+        }
+
+        @Test
+        public void testApply()
+        {
+            TrackingCache<String, String> cache = createCache("CacheInvalidationBus test cache");
+            cache.put("one", "1");
+            cache.put("two", "2");
+            cache.put("prefix.three", "3");
+            cache.put("prefix.four", "4");
+
+            LoopbackTransport transport = new LoopbackTransport(8000);
+            CacheInvalidationBus sender = new CacheInvalidationBus(transport);
+            CacheInvalidationBus receiver = new CacheInvalidationBus(transport);
+            Map<String, List<TrackingCache<?, ?>>> caches = Map.of(cache.getDebugName(), List.of(cache));
+
+            sender.enqueue(cache.getDebugName(), "one", null);
+            sender.enqueue(cache.getDebugName(), null, "prefix.");
+            sender.flush();
+
+            String[] lines = transport._messages.get(0).split("\n");
+            for (int i = 1; i < lines.length; i++)
+                receiver.apply(lines[i], caches);
+
+            assertNull(cache.get("one"));
+            assertEquals("2", cache.get("two"));
+            assertNull(cache.get("prefix.three"));
+            assertNull(cache.get("prefix.four"));
+
+            // A node ignores its own messages
+            cache.put("one", "1");
+            sender.receive("C\t" + cache.getDebugName());
+            sender.receive(sender._nodeId + "\nC\t" + cache.getDebugName());
+            assertEquals("1", cache.get("one"));
+
+            // An empty key is valid, and a truncated invalidation is ignored rather than thrown
+            cache.put("", "empty");
+            receiver.apply("K\t" + cache.getDebugName() + "\t", caches);
+            assertNull(cache.get(""));
+            receiver.apply("K\t" + cache.getDebugName(), caches);
+            receiver.apply("P\t" + cache.getDebugName(), caches);
+            assertEquals("2", cache.get("two"));
+
+            cache.close();
+        }
+    }
+}
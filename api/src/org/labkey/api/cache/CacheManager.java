@@ -17,8 +17,10 @@ package org.labkey.api.cache;
 
 import org.apache.commons.lang3.time.DateUtils;
 import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.labkey.api.cache.ehcache.EhCacheProvider;
+import org.labkey.api.cache.tinylfu.TinyLfuCacheProvider;
 import org.labkey.api.collections.CollectionUtils;
 import org.labkey.api.mbean.LabKeyManagement;
 import org.labkey.api.util.logging.LogHelper;
@@ -50,10 +52,13 @@ public class CacheManager
     public static final long DEFAULT_TIMEOUT = HOUR;
     public static final int DEFAULT_CACHE_SIZE = 5000;
 
+    public static final String CACHE_PROVIDER_PROPERTY = "labkey.cacheProvider";
+    public static final String CACHE_MEMORY_BUDGET_PROPERTY = "labkey.cacheMemoryBudgetMB";
+
     // Set useCache = false to completely disable all caching... and slow your server to a near halt. Possibly useful for
     // reproducing CacheLoader re-entrancy problems, but not much else.
     private static final boolean useCache = true;
-    private static final CacheProvider PROVIDER = useCache ? EhCacheProvider.getInstance() : new NoopCacheProvider();
+    private static final CacheProvider PROVIDER = useCache ? getConfiguredProvider() : new NoopCacheProvider();
 
     private static final List<TrackingCache<?, ?>> KNOWN_CACHES = new LinkedList<>();
 
@@ -62,19 +67,55 @@ public class CacheManager
     /** Marker indicating unlimited entries or unlimited time-to-live (do not expire entries) */
     public static final int UNLIMITED = 0;
 
-    private static <K, V> TrackingCache<K, V> createCache(int limit, long defaultTimeToLive, String debugName)
+    // Ehcache is the default. Start the server with -Dlabkey.cacheProvider=TinyLFU to use the Window TinyLFU provider instead.
+    private static CacheProvider getConfiguredProvider()
     {
-        CacheWrapper<K, V> cache = new CacheWrapper<>(PROVIDER.getSimpleCache(debugName, limit, defaultTimeToLive, UNLIMITED, false), debugName, null, Thread.currentThread().getStackTrace());
+        String name = System.getProperty(CACHE_PROVIDER_PROPERTY);
+
+        if ("TinyLFU".equalsIgnoreCase(name))
+        {
+            LOG.info("Using Window TinyLFU cache provider");
+            return TinyLfuCacheProvider.getInstance();
+        }
+
+        if (null != name && !"Ehcache".equalsIgnoreCase(name))
+            LOG.warn("Unknown " + CACHE_PROVIDER_PROPERTY + " value \"" + name + "\"; using Ehcache");
+
+        return EhCacheProvider.getInstance();
+    }
+
+    private static <K, V> TrackingCache<K, V> createCache(int limit, long defaultTimeToLive, String debugName, @Nullable CacheWeigher<K, V> weigher)
+    {
+        CacheWrapper<K, V> cache = new CacheWrapper<>(PROVIDER.getSimpleCache(debugName, limit, defaultTimeToLive, UNLIMITED, false), debugName, null, Thread.currentThread().getStackTrace(), weigher);
+        cache.setPublishInvalidations(true);
         addToKnownCaches(cache);  // Permanent cache -- hold onto it
         LabKeyManagement.register(cache.createDynamicMBean(), debugName, "Cache");
+
+        if (null != weigher)
+            CacheMemoryBudget.start();
+
         return cache;
     }
 
+    private static <K, V> TrackingCache<K, V> createCache(int limit, long defaultTimeToLive, String debugName)
+    {
+        return createCache(limit, defaultTimeToLive, debugName, null);
+    }
+
     public static <K, V> TrackingCache<K, V> getCache(int limit, long defaultTimeToLive, String debugName)
     {
         return createCache(limit, defaultTimeToLive, debugName);
     }
 
+    /**
+     * Creates a cache whose memory footprint is estimated using the weigher. Weighed caches are reported on the admin
+     * memory page and are subject to the server-wide cache memory budget, if one is configured.
+     */
+    public static <K, V> TrackingCache<K, V> getCache(int limit, long defaultTimeToLive, String debugName, @Nullable CacheWeigher<K, V> weigher)
+    {
+        return createCache(limit, defaultTimeToLive, debugName, weigher);
+    }
+
     public static <V> Cache<String, V> getStringKeyCache(int limit, long defaultTimeToLive, String debugName)
     {
         return createCache(limit, defaultTimeToLive, debugName);
@@ -86,6 +127,16 @@ public class CacheManager
         return new BlockingCache<>(cache, loader);
     }
 
+    public static <K, V> BlockingCache<K, V> getBlockingCache(int limit, long defaultTimeToLive, String debugName, @Nullable CacheLoader<K, V> loader, @NotNull CacheWeigher<K, V> weigher)
+    {
+        CacheWeigher<K, Wrapper<V>> wrapperWeigher = (key, wrapper) -> {
+            V value = wrapper.peekValue();
+            return null == value ? 0 : weigher.weigh(key, value);
+        };
+        TrackingCache<K, Wrapper<V>> cache = getCache(limit, defaultTimeToLive, debugName, wrapperWeigher);
+        return new BlockingCache<>(cache, loader);
+    }
+
     public static <V> BlockingCache<String, V> getBlockingStringKeyCache(int limit, long defaultTimeToLive, String debugName, @Nullable CacheLoader<String, V> loader)
     {
         Cache<String, Wrapper<V>> cache = getStringKeyCache(limit, defaultTimeToLive, debugName);
@@ -118,10 +169,14 @@ public class CacheManager
 
     public static void clearAllKnownCaches()
     {
-        synchronized (KNOWN_CACHES)
-        {
-            KNOWN_CACHES.forEach(TrackingCache::clear);
-        }
+        // Tell other servers to clear everything, rather than broadcasting every cache's clear individually
+        CacheInvalidationBus.publishClearAll();
+        CacheInvalidationBus.withoutPublishing(() -> {
+            synchronized (KNOWN_CACHES)
+            {
+                KNOWN_CACHES.forEach(TrackingCache::clear);
+            }
+        });
 
         fireClearCaches();
     }
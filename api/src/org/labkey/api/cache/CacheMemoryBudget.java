@@ -0,0 +1,193 @@
+package org.labkey.api.cache;
+
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.labkey.api.cache.tinylfu.TinyLfuCacheProvider;
+import org.labkey.api.util.logging.LogHelper;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.WeakHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Optional server-wide cap on the memory held by caches that have a CacheWeigher. Set it at startup with
+ * -Dlabkey.cacheMemoryBudgetMB=N. Once a minute the estimated footprints of all weighed known caches are totaled. If
+ * the total exceeds the budget, caches are trimmed starting with the least valuable, where value is the number of hits
+ * a cache served since the previous check divided by its estimated bytes. Caches without a weigher are not counted
+ * and never trimmed.
+ */
+public class CacheMemoryBudget
+{
+    private static final Logger LOG = LogHelper.getLogger(CacheMemoryBudget.class, "Cache memory budget enforcement");
+    private static final long CHECK_INTERVAL = CacheManager.MINUTE;
+    private static final long BUDGET = getConfiguredBudget();
+    private static final AtomicBoolean STARTED = new AtomicBoolean(false);
+
+    // Hit counts as of the previous check, so each check values caches by recent usage. Caches don't override equals(),
+    // so this is effectively an identity map. Guarded by class lock.
+    private static final Map<Tracking, Long> PREVIOUS_HITS = new WeakHashMap<>();
+
+    private static long getConfiguredBudget()
+    {
+        String mb = System.getProperty(CacheManager.CACHE_MEMORY_BUDGET_PROPERTY);
+
+        if (null == mb)
+            return 0;
+
+        try
+        {
+            return Long.parseLong(mb.trim()) * 1024 * 1024;
+        }
+        catch (NumberFormatException e)
+        {
+            LOG.warn("Ignoring invalid " + CacheManager.CACHE_MEMORY_BUDGET_PROPERTY + " value \"" + mb + "\"");
+            return 0;
+        }
+    }
+
+    /** @return The configured budget in bytes, or 0 if no budget is in effect */
+    public static long getBudget()
+    {
+        return BUDGET;
+    }
+
+    // Called when the first weighed cache is created
+    static void start()
+    {
+        if (BUDGET > 0 && STARTED.compareAndSet(false, true))
+        {
+            LOG.info("Enforcing cache memory budget of " + BUDGET / (1024 * 1024) + "MB");
+            Timer timer = new Timer("Cache memory budget", true);
+            timer.scheduleAtFixedRate(new TimerTask()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        // Trimming is local memory management, so don't ask other servers to invalidate anything
+                        CacheInvalidationBus.withoutPublishing(() -> enforce(CacheManager.getKnownCaches(), BUDGET));
+                    }
+                    catch (Throwable t)
+                    {
+                        LOG.error("Exception while enforcing cache memory budget", t);
+                    }
+                }
+            }, CHECK_INTERVAL, CHECK_INTERVAL);
+        }
+    }
+
+    private record Candidate(TrackingCache<?, ?> cache, long bytes, double hitsPerByte) {}
+
+    /**
+     * Trim the least valuable caches until their estimated total fits within the budget
+     * @return The number of caches that were trimmed
+     */
+    static synchronized int enforce(List<TrackingCache<?, ?>> caches, long budget)
+    {
+        List<Candidate> candidates = new ArrayList<>();
+        long total = 0;
+
+        for (TrackingCache<?, ?> cache : caches)
+        {
+            long bytes = cache.getEstimatedBytes();
+
+            if (bytes < 0)
+                continue;
+
+            Stats stats = cache.getStats();
+            long hits = stats.gets.get() - stats.misses.get();
+            Long previous = PREVIOUS_HITS.put(cache, hits);
+            long recentHits = null == previous ? hits : hits - previous;
+
+            if (bytes > 0)
+            {
+                candidates.add(new Candidate(cache, bytes, (double) recentHits / bytes));
+                total += bytes;
+            }
+        }
+
+        if (total <= budget)
+            return 0;
+
+        LOG.info("Estimated cache memory " + total + " bytes exceeds budget of " + budget + " bytes");
+        candidates.sort(Comparator.comparingDouble(Candidate::hitsPerByte));
+
+        long excess = total - budget;
+        int trimmed = 0;
+
+        for (Candidate candidate : candidates)
+        {
+            if (excess <= 0)
+                break;
+
+            if (candidate.bytes() <= excess)
+            {
+                LOG.debug("Clearing \"" + candidate.cache().getDebugName() + "\" (" + candidate.bytes() + " bytes)");
+                candidate.cache().clear();
+                excess -= candidate.bytes();
+            }
+            else
+            {
+                // Remove a random subset of entries large enough to cover the remaining excess
+                double fraction = (double) excess / candidate.bytes();
+                LOG.debug("Removing " + Math.round(fraction * 100) + "% of \"" + candidate.cache().getDebugName() + "\"");
+                candidate.cache().removeUsingFilter(key -> ThreadLocalRandom.current().nextDouble() < fraction);
+                excess = 0;
+            }
+
+            trimmed++;
+        }
+
+        return trimmed;
+    }
+
+    public static class TestCase extends Assert
+    {
+        private TrackingCache<Integer, String> createCache(String name)
+        {
+            SimpleCache<Integer, String> simpleCache = TinyLfuCacheProvider.getInstance().getSimpleCache(name, CacheManager.UNLIMITED, CacheManager.UNLIMITED, CacheManager.UNLIMITED, true);
+            return new CacheWrapper<>(simpleCache, name, null, null, (key, value) -> 1000);
+        }
+
+        @Test
+        public void testEnforce()
+        {
+            TrackingCache<Integer, String> hot = createCache("Hot test cache");
+            TrackingCache<Integer, String> cold = createCache("Cold test cache");
+
+            for (int i = 0; i < 100; i++)
+            {
+                hot.put(i, "hot");
+                cold.put(i, "cold");
+            }
+
+            for (int i = 0; i < 100; i++)
+                hot.get(i);
+
+            assertEquals(100_000, hot.getEstimatedBytes());
+            assertEquals(100_000, cold.getEstimatedBytes());
+
+            // Under budget: nothing is trimmed
+            assertEquals(0, enforce(List.of(hot, cold), 500_000));
+
+            // The cold cache served no hits, so it's cleared first and covers the whole excess
+            for (int i = 0; i < 100; i++)
+                hot.get(i);
+
+            assertEquals(1, enforce(List.of(hot, cold), 100_000));
+            assertEquals(100, hot.size());
+            assertEquals(0, cold.size());
+
+            hot.close();
+            cold.close();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package org.labkey.api.cache;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Estimates the heap retained by a single cache entry, in bytes. Pass one to CacheManager.getCache() (or
+ * getBlockingCache()) to have the cache's footprint reported on the admin memory page and counted against the cache
+ * memory budget. Estimates are extrapolated from a sample of entries, so they need only be roughly proportional to
+ * real sizes, and weighing must be cheap and must not trigger loading of lazily initialized state.
+ */
+@FunctionalInterface
+public interface CacheWeigher<K, V>
+{
+    long weigh(@NotNull K key, @NotNull V value);
+}
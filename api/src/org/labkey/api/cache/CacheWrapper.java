@@ -37,14 +37,26 @@ class CacheWrapper<K, V> implements TrackingCache<K, V>, CacheMXBean
 {
     private static final Object NULL_MARKER = new Object() {public String toString(){return "MISSING VALUE MARKER";}};
 
+    // Number of entries weighed to extrapolate the memory used by the whole cache
+    private static final int WEIGHER_SAMPLE_SIZE = 64;
+
     private final SimpleCache<K, V> _cache;
     private final String _debugName;
     private final Stats _stats;
     private final Stats _transactionStats;
     private final @Nullable StackTraceElement[] _stackTrace;
+    private final @Nullable CacheWeigher<K, V> _weigher;
     private final V _nullMarker = (V)NULL_MARKER;
 
+    // True for shared (known) caches, whose removals are broadcast to other servers when a CacheInvalidationBus is running
+    private boolean _publishInvalidations = false;
+
     CacheWrapper(@NotNull SimpleCache<K, V> cache, @NotNull String debugName, @Nullable Stats stats, @Nullable StackTraceElement[] stackTrace)
+    {
+        this(cache, debugName, stats, stackTrace, null);
+    }
+
+    CacheWrapper(@NotNull SimpleCache<K, V> cache, @NotNull String debugName, @Nullable Stats stats, @Nullable StackTraceElement[] stackTrace, @Nullable CacheWeigher<K, V> weigher)
     {
         _cache = cache;
         assert StringUtils.isNotBlank(debugName);
@@ -52,6 +64,7 @@ class CacheWrapper<K, V> implements TrackingCache<K, V>, CacheMXBean
         _stats = (null != stats ? stats : new Stats());
         _transactionStats = new Stats();
         _stackTrace = stackTrace;
+        _weigher = weigher;
     }
 
     @Override
@@ -133,6 +146,9 @@ class CacheWrapper<K, V> implements TrackingCache<K, V>, CacheMXBean
         {
             _cache.remove(key);
             trackRemove();
+
+            if (_publishInvalidations)
+                CacheInvalidationBus.publishRemove(this, key);
         }
         catch (IllegalStateException ise)
         {
@@ -146,7 +162,18 @@ class CacheWrapper<K, V> implements TrackingCache<K, V>, CacheMXBean
     @Override
     public int removeUsingFilter(Filter<K> kFilter)
     {
-        return trackRemoves(_cache.removeUsingFilter(kFilter));
+        int removes = trackRemoves(_cache.removeUsingFilter(kFilter));
+
+        if (_publishInvalidations)
+        {
+            // Arbitrary filters can't be sent to other servers, so they clear the whole cache there
+            if (kFilter instanceof Cache.StringPrefixFilter prefixFilter)
+                CacheInvalidationBus.publishRemovePrefix(this, prefixFilter.getPrefix());
+            else
+                CacheInvalidationBus.publishClear(this);
+        }
+
+        return removes;
     }
 
 
@@ -161,6 +188,9 @@ class CacheWrapper<K, V> implements TrackingCache<K, V>, CacheMXBean
     {
         _cache.clear();
         trackClear();
+
+        if (_publishInvalidations)
+            CacheInvalidationBus.publishClear(this);
     }
 
 
@@ -196,6 +226,34 @@ class CacheWrapper<K, V> implements TrackingCache<K, V>, CacheMXBean
     }
 
 
+    @Override
+    public long getEstimatedBytes()
+    {
+        if (null == _weigher)
+            return -1;
+
+        int size = size();
+
+        if (0 == size)
+            return 0;
+
+        long sampledBytes = 0;
+        int sampled = 0;
+
+        for (K key : _cache.getKeys())
+        {
+            V value = _cache.getQuiet(key);
+
+            if (null != value && value != _nullMarker)
+                sampledBytes += _weigher.weigh(key, value);
+
+            if (++sampled == WEIGHER_SAMPLE_SIZE)
+                break;
+        }
+
+        return 0 == sampled ? 0 : sampledBytes * size / sampled;
+    }
+
     @Override
     public void close()
     {
@@ -286,6 +344,11 @@ class CacheWrapper<K, V> implements TrackingCache<K, V>, CacheMXBean
     }
 
 
+    void setPublishInvalidations(boolean publishInvalidations)
+    {
+        _publishInvalidations = publishInvalidations;
+    }
+
     public SimpleCache<K, V> getWrappedCache()
     {
         return _cache;
@@ -58,6 +58,13 @@ public class NoopCacheProvider implements CacheProvider
             return null;
         }
 
+        @Nullable
+        @Override
+        public V getQuiet(K key)
+        {
+            return null;
+        }
+
         @Override
         public void remove(K key)
         {
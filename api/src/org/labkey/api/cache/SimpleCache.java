@@ -37,6 +37,12 @@ public interface SimpleCache<K, V>
 
     @Nullable V get(K key);
 
+    /**
+     * Like get(), but doesn't count as an access for eviction or idle-time purposes. Used for diagnostics such as
+     * memory estimation, which shouldn't perturb the cache.
+     */
+    @Nullable V getQuiet(K key);
+
     void remove(K key);
 
     /**
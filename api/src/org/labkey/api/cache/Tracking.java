@@ -46,4 +46,9 @@ public interface Tracking
     int getEvictions();
 
     long getDefaultExpires();
+
+    /**
+     * @return Approximate bytes retained by the cache's current entries, or -1 if the cache has no CacheWeigher
+     */
+    long getEstimatedBytes();
 }
@@ -18,15 +18,17 @@ package org.labkey.api.cache;
 import java.lang.ref.WeakReference;
 
 /**
- * Thread safety needs to be ensured by the caller.
+ * Thread safety needs to be ensured by the caller. The one exception is {@link #peekValue()}, which BlockingCache uses
+ * to satisfy cache hits without taking any lock.
 
  * User: adam
  * Date: 1/15/12
  */
 public class Wrapper<V>
 {
+    // volatile so that BlockingCache can read an initialized value without synchronizing on the wrapper
     @SuppressWarnings({"unchecked"})
-    protected V value = (V) BlockingCache.UNINITIALIZED;
+    protected volatile V value = (V) BlockingCache.UNINITIALIZED;
     // weak reference, because I'm paranoid of accidentally holding onto threads
     protected WeakReference<Thread> loadingThread;
 
@@ -78,4 +80,11 @@ public class Wrapper<V>
         assert Thread.holdsLock(getLockObject());
         return value == BlockingCache.UNINITIALIZED ? null : value;
     }
+
+    // Lock-free read for the cache hit path. Callers should check BlockingCache.isInitialized() first.
+    V peekValue()
+    {
+        V v = value;
+        return v == BlockingCache.UNINITIALIZED ? null : v;
+    }
 }
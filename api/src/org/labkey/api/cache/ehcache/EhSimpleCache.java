@@ -67,6 +67,13 @@ class EhSimpleCache<K, V> implements SimpleCache<K, V>
         return null == e ? null : (V)e.getObjectValue();
     }
 
+    @Override
+    public @Nullable V getQuiet(@NotNull K key)
+    {
+        Element e = _cache.getQuiet(key);
+        return null == e ? null : (V)e.getObjectValue();
+    }
+
     @Override
     public void remove(@NotNull K key)
     {
@@ -0,0 +1,102 @@
+package org.labkey.api.cache.tinylfu;
+
+/**
+ * A count-min sketch of 4-bit counters used to estimate how often a key has been seen recently. Each key maps to four
+ * counters spread across the table; the estimate is the minimum of the four. Once the number of increments reaches the
+ * sample size all counters are halved, so the sketch tracks recent popularity instead of all-time popularity.
+ *
+ * Not thread-safe; TinyLfuSimpleCache only touches it while holding its eviction lock.
+ */
+final class FrequencySketch
+{
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int MIN_SIZE = 16;
+
+    private final long[] _table;
+    private final int _tableMask;
+    private final int _sampleSize;
+    private int _size = 0;
+
+    FrequencySketch(int maximumSize)
+    {
+        int size = Math.max(MIN_SIZE, maximumSize);
+        int tableSize = Integer.highestOneBit(size - 1) << 1;
+        _table = new long[tableSize];
+        _tableMask = tableSize - 1;
+        _sampleSize = 10 * size;
+    }
+
+    int frequency(Object key)
+    {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+
+        for (int i = 0; i < 4; i++)
+        {
+            int index = indexOf(hash, i);
+            int count = (int) ((_table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+
+        return frequency;
+    }
+
+    void increment(Object key)
+    {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+
+        for (int i = 0; i < 4; i++)
+            added |= incrementAt(indexOf(hash, i), start + i);
+
+        if (added && ++_size == _sampleSize)
+            reset();
+    }
+
+    // Increment the specified 4-bit counter unless it's already saturated
+    private boolean incrementAt(int i, int j)
+    {
+        int offset = j << 2;
+        long mask = 0xfL << offset;
+
+        if ((_table[i] & mask) != mask)
+        {
+            _table[i] += 1L << offset;
+            return true;
+        }
+
+        return false;
+    }
+
+    // Halve every counter, aging out keys that are no longer popular
+    private void reset()
+    {
+        int odd = 0;
+
+        for (int i = 0; i < _table.length; i++)
+        {
+            odd += Long.bitCount(_table[i] & ONE_MASK);
+            _table[i] = (_table[i] >>> 1) & RESET_MASK;
+        }
+
+        _size = (_size - (odd >>> 2)) >>> 1;
+    }
+
+    private int indexOf(int hash, int i)
+    {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += (h >>> 32);
+        return ((int) h) & _tableMask;
+    }
+
+    private static int spread(int x)
+    {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
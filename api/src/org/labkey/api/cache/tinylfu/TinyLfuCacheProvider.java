@@ -0,0 +1,245 @@
+package org.labkey.api.cache.tinylfu;
+
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Test;
+import org.labkey.api.cache.CacheManager;
+import org.labkey.api.cache.CacheProvider;
+import org.labkey.api.cache.SimpleCache;
+import org.labkey.api.util.logging.LogHelper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * In-process cache provider whose caches use Window TinyLFU eviction over a ConcurrentHashMap. Unlike Ehcache, caches
+ * aren't registered with any central manager, so closing them simply discards their contents. Select this provider
+ * at startup by setting the system property {@code -Dlabkey.cacheProvider=TinyLFU}.
+ */
+// Do not use CacheProvider implementations directly; use CacheManager.getCache() to get a cache
+public class TinyLfuCacheProvider implements CacheProvider
+{
+    private static final Logger LOG = LogHelper.getLogger(TinyLfuCacheProvider.class, "Window TinyLFU cache provider");
+    private static final TinyLfuCacheProvider INSTANCE = new TinyLfuCacheProvider();
+
+    public static TinyLfuCacheProvider getInstance()
+    {
+        return INSTANCE;
+    }
+
+    private TinyLfuCacheProvider()
+    {
+    }
+
+    @Override
+    public <K, V> SimpleCache<K, V> getSimpleCache(String debugName, int limit, long defaultTimeToLive, long defaultTimeToIdle, boolean temporary)
+    {
+        LOG.debug("Creating " + (temporary ? "temporary " : "") + "cache \"" + debugName + "\" with limit " + limit);
+        return new TinyLfuSimpleCache<>(limit, defaultTimeToLive, defaultTimeToIdle);
+    }
+
+    @Override
+    public void shutdown()
+    {
+    }
+
+    public static class TestCase extends Assert
+    {
+        private @NotNull SimpleCache<Integer, String> createCache(int limit, long timeToLive)
+        {
+            return getInstance().getSimpleCache("TinyLFU test cache", limit, timeToLive, CacheManager.UNLIMITED, true);
+        }
+
+        @Test
+        public void testLimit()
+        {
+            SimpleCache<Integer, String> cache = createCache(100, CacheManager.UNLIMITED);
+
+            for (int i = 0; i < 1000; i++)
+            {
+                cache.put(i, String.valueOf(i));
+                assertTrue(cache.size() <= 100);
+            }
+
+            assertEquals(100, cache.size());
+            assertEquals(900, cache.getEvictions());
+
+            int present = 0;
+            for (int i = 0; i < 1000; i++)
+            {
+                String value = cache.get(i);
+                if (null != value)
+                {
+                    assertEquals(String.valueOf(i), value);
+                    present++;
+                }
+            }
+            assertEquals(100, present);
+        }
+
+        @Test
+        public void testFrequentKeysSurviveScan()
+        {
+            SimpleCache<Integer, String> cache = createCache(100, CacheManager.UNLIMITED);
+
+            // Make keys 0-49 popular
+            for (int round = 0; round < 10; round++)
+            {
+                for (int i = 0; i < 50; i++)
+                {
+                    if (null == cache.get(i))
+                        cache.put(i, String.valueOf(i));
+                }
+            }
+
+            // A scan of one-hit keys shouldn't flush the popular ones
+            for (int i = 1000; i < 11000; i++)
+                cache.put(i, String.valueOf(i));
+
+            int hits = 0;
+            for (int i = 0; i < 50; i++)
+                if (null != cache.get(i))
+                    hits++;
+
+            assertTrue("Only " + hits + " popular keys survived the scan", hits >= 45);
+        }
+
+        @Test
+        public void testTimeToLive() throws InterruptedException
+        {
+            SimpleCache<Integer, String> cache = createCache(100, CacheManager.UNLIMITED);
+            cache.put(1, "one", 50);
+            cache.put(2, "two");
+            assertEquals("one", cache.get(1));
+            Thread.sleep(100);
+            assertNull(cache.get(1));
+            assertEquals("two", cache.get(2));
+            assertEquals(1, cache.getExpirations());
+            assertEquals(1, cache.size());
+        }
+
+        @Test
+        public void testRemoveUsingFilter()
+        {
+            SimpleCache<Integer, String> cache = createCache(CacheManager.UNLIMITED, CacheManager.UNLIMITED);
+
+            for (int i = 0; i < 100; i++)
+                cache.put(i, String.valueOf(i));
+
+            assertEquals(50, cache.removeUsingFilter(key -> key % 2 == 0));
+            assertEquals(50, cache.size());
+            assertEquals(50, cache.getKeys().size());
+            assertTrue(cache.getKeys().stream().allMatch(key -> key % 2 == 1));
+            cache.clear();
+            assertTrue(cache.isEmpty());
+        }
+
+        // Compare hit rates against a strict LRU on a skewed workload interleaved with scans, which is roughly what
+        // caches like "Module resources" and "Domain properties" see during folder exports and full-text indexing
+        @Test
+        public void testHitRateVersusLru()
+        {
+            int limit = 500;
+            SimpleCache<Integer, String> cache = createCache(limit, CacheManager.UNLIMITED);
+            Map<Integer, String> lru = new LinkedHashMap<>(limit, 0.75f, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest)
+                {
+                    return size() > limit;
+                }
+            };
+
+            // Zipf-distributed key popularity over 10,000 keys
+            int keys = 10_000;
+            double[] cumulative = new double[keys];
+            double sum = 0;
+            for (int i = 0; i < keys; i++)
+            {
+                sum += 1.0 / Math.pow(i + 1, 0.9);
+                cumulative[i] = sum;
+            }
+
+            Random random = new Random(42);
+            int tinyLfuHits = 0;
+            int lruHits = 0;
+            int requests = 200_000;
+            int scanKey = keys;
+
+            for (int i = 0; i < requests; i++)
+            {
+                int key;
+
+                if (i % 10 == 0)
+                {
+                    key = scanKey++;
+                }
+                else
+                {
+                    int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                    key = index >= 0 ? index : -index - 1;
+                }
+
+                if (null != cache.get(key))
+                    tinyLfuHits++;
+                else
+                    cache.put(key, "value");
+
+                if (null != lru.get(key))
+                    lruHits++;
+                else
+                    lru.put(key, "value");
+            }
+
+            LOG.info("Hit rates: Window TinyLFU " + (100.0 * tinyLfuHits / requests) + "%, LRU " + (100.0 * lruHits / requests) + "%");
+            assertTrue("Window TinyLFU hits (" + tinyLfuHits + ") should exceed LRU hits (" + lruHits + ")", tinyLfuHits > lruHits);
+        }
+
+        @Test
+        public void testConcurrentAccess() throws Exception
+        {
+            SimpleCache<Integer, String> cache = createCache(500, CacheManager.UNLIMITED);
+            ExecutorService executor = Executors.newFixedThreadPool(16);
+            List<Future<?>> futures = new ArrayList<>();
+
+            for (int t = 0; t < 16; t++)
+            {
+                futures.add(executor.submit(() -> {
+                    Random random = new Random();
+                    for (int i = 0; i < 50_000; i++)
+                    {
+                        int key = random.nextInt(2000);
+                        String value = cache.get(key);
+                        if (null == value)
+                            cache.put(key, String.valueOf(key));
+                        else
+                            assertEquals(String.valueOf(key), value);
+                        if (i % 1000 == 0)
+                            cache.remove(random.nextInt(2000));
+                    }
+                }));
+            }
+
+            try
+            {
+                // Rethrows any worker's assertion failure on the test thread
+                for (Future<?> future : futures)
+                    future.get();
+            }
+            finally
+            {
+                executor.shutdownNow();
+            }
+
+            assertTrue(cache.size() <= 500);
+        }
+    }
+}
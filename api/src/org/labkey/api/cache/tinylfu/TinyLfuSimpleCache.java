@@ -0,0 +1,548 @@
+package org.labkey.api.cache.tinylfu;
+
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.labkey.api.cache.CacheManager;
+import org.labkey.api.cache.CacheType;
+import org.labkey.api.cache.SimpleCache;
+import org.labkey.api.util.Filter;
+import org.labkey.api.util.logging.LogHelper;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * SimpleCache backed by a ConcurrentHashMap with Window TinyLFU eviction. New entries land in a small LRU "window";
+ * entries that overflow the window must beat the main region's eviction victim on estimated access frequency to be
+ * admitted. The main region is a segmented LRU (probation + protected), so entries that are read again after admission
+ * are shielded from one-off scans.
+ *
+ * Reads never block: the map lookup is lock-free and the access is recorded in a lossy ring buffer that's replayed
+ * against the eviction policy by whichever thread next acquires the eviction lock. Writes update the map first and then
+ * take the eviction lock to link the entry and, if over the limit, evict. Expiration is checked per entry on read, so
+ * per-key TTLs cost O(1).
+ */
+class TinyLfuSimpleCache<K, V> implements SimpleCache<K, V>
+{
+    private static final Logger LOG = LogHelper.getLogger(TinyLfuSimpleCache.class, "Window TinyLFU cache contents");
+
+    // Must be powers of two
+    private static final int READ_BUFFER_SIZE = 128;
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = 32;
+
+    private static final int WINDOW = 1;
+    private static final int PROBATION = 2;
+    private static final int PROTECTED = 3;
+
+    private final ConcurrentHashMap<K, Node<K, V>> _map = new ConcurrentHashMap<>();
+    private final int _limit;
+    private final long _defaultTimeToLive;
+    private final long _defaultTimeToIdle;
+
+    private final AtomicInteger _expirations = new AtomicInteger();
+    private final AtomicInteger _evictions = new AtomicInteger();
+
+    // Everything below is used only for bounded caches
+    private final ReentrantLock _evictionLock = new ReentrantLock();
+    private final AtomicReferenceArray<Node<K, V>> _readBuffer;
+    private final AtomicLong _readBufferWrites = new AtomicLong();
+
+    // Guarded by _evictionLock
+    private final FrequencySketch _sketch;
+    private final NodeList<K, V> _window = new NodeList<>();
+    private final NodeList<K, V> _probation = new NodeList<>();
+    private final NodeList<K, V> _protected = new NodeList<>();
+    private final int _windowMax;
+    private final int _protectedMax;
+
+    TinyLfuSimpleCache(int limit, long defaultTimeToLive, long defaultTimeToIdle)
+    {
+        _limit = limit;
+        _defaultTimeToLive = defaultTimeToLive;
+        _defaultTimeToIdle = defaultTimeToIdle;
+
+        if (isBounded())
+        {
+            _readBuffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+            _sketch = new FrequencySketch(limit);
+            _windowMax = Math.max(1, limit / 100);
+            _protectedMax = (int) ((limit - _windowMax) * 0.8);
+        }
+        else
+        {
+            _readBuffer = null;
+            _sketch = null;
+            _windowMax = 0;
+            _protectedMax = 0;
+        }
+    }
+
+    private boolean isBounded()
+    {
+        return CacheManager.UNLIMITED != _limit;
+    }
+
+    @Override
+    public void put(@NotNull K key, V value)
+    {
+        put(key, value, _defaultTimeToLive);
+    }
+
+    @Override
+    public void put(@NotNull K key, V value, long timeToLive)
+    {
+        long now = System.currentTimeMillis();
+        Node<K, V> node = new Node<>(key, value, CacheManager.UNLIMITED == timeToLive ? 0 : now + timeToLive, now);
+        Node<K, V> prior = _map.put(key, node);
+
+        if (isBounded())
+        {
+            _evictionLock.lock();
+
+            try
+            {
+                drainReadBuffer();
+
+                if (null != prior)
+                    unlink(prior);
+
+                // A concurrent put or remove may have already replaced this node; only link the live one
+                if (_map.get(key) == node)
+                {
+                    _sketch.increment(key);
+                    node.queue = WINDOW;
+                    _window.addLast(node);
+                    evict();
+                }
+            }
+            finally
+            {
+                _evictionLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public @Nullable V get(@NotNull K key)
+    {
+        Node<K, V> node = _map.get(key);
+
+        if (null == node)
+            return null;
+
+        long now = System.currentTimeMillis();
+
+        if (node.isExpired(now, _defaultTimeToIdle))
+        {
+            if (_map.remove(key, node))
+            {
+                _expirations.incrementAndGet();
+                afterRemove(node);
+            }
+
+            return null;
+        }
+
+        if (CacheManager.UNLIMITED != _defaultTimeToIdle)
+            node.accessTime = now;
+
+        if (isBounded())
+            afterRead(node);
+
+        return node.value;
+    }
+
+    @Override
+    public @Nullable V getQuiet(@NotNull K key)
+    {
+        Node<K, V> node = _map.get(key);
+        return null == node || node.isExpired(System.currentTimeMillis(), _defaultTimeToIdle) ? null : node.value;
+    }
+
+    @Override
+    public void remove(@NotNull K key)
+    {
+        Node<K, V> node = _map.remove(key);
+
+        if (null != node)
+            afterRemove(node);
+    }
+
+    // Iterates the live key set, so no copy of the keys is made
+    @Override
+    public int removeUsingFilter(Filter<K> filter)
+    {
+        int removes = 0;
+
+        for (Map.Entry<K, Node<K, V>> entry : _map.entrySet())
+        {
+            if (filter.accept(entry.getKey()) && _map.remove(entry.getKey(), entry.getValue()))
+            {
+                afterRemove(entry.getValue());
+                removes++;
+            }
+        }
+
+        return removes;
+    }
+
+    // A weakly consistent, read-only view of the keys, not a copy
+    @Override
+    public Set<K> getKeys()
+    {
+        return Collections.unmodifiableSet(_map.keySet());
+    }
+
+    @Override
+    public void clear()
+    {
+        if (isBounded())
+        {
+            _evictionLock.lock();
+
+            try
+            {
+                _map.clear();
+                for (int i = 0; i < READ_BUFFER_SIZE; i++)
+                    _readBuffer.set(i, null);
+                _window.clear();
+                _probation.clear();
+                _protected.clear();
+            }
+            finally
+            {
+                _evictionLock.unlock();
+            }
+        }
+        else
+        {
+            _map.clear();
+        }
+    }
+
+    @Override
+    public int getLimit()
+    {
+        return _limit;
+    }
+
+    @Override
+    public int size()
+    {
+        return _map.size();
+    }
+
+    @Override
+    public int getExpirations()
+    {
+        return _expirations.get();
+    }
+
+    @Override
+    public int getEvictions()
+    {
+        return _evictions.get();
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return _map.isEmpty();
+    }
+
+    @Override
+    public long getDefaultExpires()
+    {
+        return _defaultTimeToLive;
+    }
+
+    @Override
+    public void close()
+    {
+        clear();
+    }
+
+    // Admission can favor a frequently used entry over a more recently used one, so eviction order isn't strictly LRU
+    @Override
+    public CacheType getCacheType()
+    {
+        return CacheType.NonDeterministicLRU;
+    }
+
+    @Override
+    public void log()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        for (Map.Entry<K, Node<K, V>> entry : _map.entrySet())
+        {
+            sb.append(entry.getKey()).append(" -> ").append(entry.getValue().value).append("\n");
+        }
+
+        LOG.info(sb);
+    }
+
+    private void afterRead(Node<K, V> node)
+    {
+        // Lossy: under heavy contention a slot may be overwritten before it's drained, which just drops an access sample
+        long writes = _readBufferWrites.getAndIncrement();
+        _readBuffer.lazySet((int) (writes & (READ_BUFFER_SIZE - 1)), node);
+
+        if ((writes & (READ_BUFFER_DRAIN_THRESHOLD - 1)) == READ_BUFFER_DRAIN_THRESHOLD - 1 && _evictionLock.tryLock())
+        {
+            try
+            {
+                drainReadBuffer();
+            }
+            finally
+            {
+                _evictionLock.unlock();
+            }
+        }
+    }
+
+    private void afterRemove(Node<K, V> node)
+    {
+        if (isBounded())
+        {
+            _evictionLock.lock();
+
+            try
+            {
+                unlink(node);
+            }
+            finally
+            {
+                _evictionLock.unlock();
+            }
+        }
+    }
+
+    private void drainReadBuffer()
+    {
+        assert _evictionLock.isHeldByCurrentThread();
+
+        for (int i = 0; i < READ_BUFFER_SIZE; i++)
+        {
+            Node<K, V> node = _readBuffer.getAndSet(i, null);
+
+            if (null != node)
+                onAccess(node);
+        }
+    }
+
+    private void onAccess(Node<K, V> node)
+    {
+        // Node may have been removed or replaced after the read was recorded
+        if (0 == node.queue)
+            return;
+
+        _sketch.increment(node.key);
+
+        switch (node.queue)
+        {
+            case WINDOW -> _window.moveToLast(node);
+            case PROTECTED -> _protected.moveToLast(node);
+            case PROBATION -> {
+                // Promote to protected, demoting the protected LRU entry if that region is now full
+                _probation.remove(node);
+                node.queue = PROTECTED;
+                _protected.addLast(node);
+
+                if (_protected.size > _protectedMax)
+                {
+                    Node<K, V> demoted = _protected.removeFirst();
+                    demoted.queue = PROBATION;
+                    _probation.addLast(demoted);
+                }
+            }
+        }
+    }
+
+    private void unlink(Node<K, V> node)
+    {
+        switch (node.queue)
+        {
+            case WINDOW -> _window.remove(node);
+            case PROBATION -> _probation.remove(node);
+            case PROTECTED -> _protected.remove(node);
+        }
+
+        node.queue = 0;
+    }
+
+    private int linkedSize()
+    {
+        return _window.size + _probation.size + _protected.size;
+    }
+
+    private void evict()
+    {
+        // Entries pushed out of the window become admission candidates at the tail of probation
+        Node<K, V> candidate = null;
+
+        while (_window.size > _windowMax)
+        {
+            Node<K, V> node = _window.removeFirst();
+            node.queue = PROBATION;
+            _probation.addLast(node);
+
+            if (null == candidate)
+                candidate = node;
+        }
+
+        long now = System.currentTimeMillis();
+
+        while (linkedSize() > _limit)
+        {
+            Node<K, V> victim = _probation.first;
+
+            if (null == victim)
+            {
+                // Probation is empty, so fall back to the protected LRU entry, then the window
+                evictNode(null != _protected.first ? _protected.first : _window.first, now);
+                continue;
+            }
+
+            if (null == candidate || candidate == victim || victim.isExpired(now, _defaultTimeToIdle))
+            {
+                if (candidate == victim)
+                    candidate = candidate.next;
+
+                evictNode(victim, now);
+            }
+            else
+            {
+                Node<K, V> next = candidate.next;
+
+                // Ties go to the candidate, so caches of uniformly popular keys still behave like LRU
+                if (_sketch.frequency(candidate.key) >= _sketch.frequency(victim.key))
+                    evictNode(victim, now);
+                else
+                    evictNode(candidate, now);
+
+                candidate = next;
+            }
+        }
+    }
+
+    private void evictNode(Node<K, V> node, long now)
+    {
+        boolean expired = node.isExpired(now, _defaultTimeToIdle);
+        unlink(node);
+
+        if (_map.remove(node.key, node))
+        {
+            if (expired)
+                _expirations.incrementAndGet();
+            else
+                _evictions.incrementAndGet();
+        }
+    }
+
+    private static class Node<K, V>
+    {
+        private final K key;
+        private final V value;
+        private final long expiresAt;  // 0 means no TTL
+        private volatile long accessTime;
+
+        // Guarded by the eviction lock
+        private int queue = 0;  // 0 means not linked
+        private Node<K, V> prev;
+        private Node<K, V> next;
+
+        private Node(K key, V value, long expiresAt, long accessTime)
+        {
+            this.key = key;
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.accessTime = accessTime;
+        }
+
+        private boolean isExpired(long now, long timeToIdle)
+        {
+            return (0 != expiresAt && now >= expiresAt) || (CacheManager.UNLIMITED != timeToIdle && now >= accessTime + timeToIdle);
+        }
+    }
+
+    // Minimal intrusive doubly-linked list; avoids allocating a list node per entry
+    private static class NodeList<K, V>
+    {
+        private Node<K, V> first;
+        private Node<K, V> last;
+        private int size;
+
+        private void addLast(Node<K, V> node)
+        {
+            node.prev = last;
+            node.next = null;
+
+            if (null == last)
+                first = node;
+            else
+                last.next = node;
+
+            last = node;
+            size++;
+        }
+
+        private void remove(Node<K, V> node)
+        {
+            if (null == node.prev)
+                first = node.next;
+            else
+                node.prev.next = node.next;
+
+            if (null == node.next)
+                last = node.prev;
+            else
+                node.next.prev = node.prev;
+
+            node.prev = null;
+            node.next = null;
+            size--;
+        }
+
+        private Node<K, V> removeFirst()
+        {
+            Node<K, V> node = first;
+            remove(node);
+            return node;
+        }
+
+        private void moveToLast(Node<K, V> node)
+        {
+            if (node != last)
+            {
+                remove(node);
+                addLast(node);
+            }
+        }
+
+        private void clear()
+        {
+            Node<K, V> node = first;
+
+            while (null != node)
+            {
+                Node<K, V> next = node.next;
+                node.prev = null;
+                node.next = null;
+                node.queue = 0;
+                node = next;
+            }
+
+            first = null;
+            last = null;
+            size = 0;
+        }
+    }
+}
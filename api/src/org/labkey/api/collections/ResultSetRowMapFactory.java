@@ -15,6 +15,7 @@
  */
 package org.labkey.api.collections;
 
+import org.jetbrains.annotations.Nullable;
 import org.labkey.api.data.CachedResultSet;
 import org.labkey.api.data.ConvertHelper;
 import org.labkey.api.util.ResultSetUtil;
@@ -47,6 +48,12 @@ public class ResultSetRowMapFactory extends RowMapFactory<Object> implements Ser
                 {
                     return (RowMap<Object>)((CachedResultSet)rs).getRowMap();
                 }
+
+                @Override
+                public RowMap<Object> getRowMap(ResultSet rs, @Nullable RowMap<Object> reuse) throws SQLException
+                {
+                    return getRowMap(rs);
+                }
             };
         }
 
@@ -88,7 +95,17 @@ public class ResultSetRowMapFactory extends RowMapFactory<Object> implements Ser
 
     public RowMap<Object> getRowMap(ResultSet rs) throws SQLException
     {
-        RowMap<Object> map = super.getRowMap();
+        return getRowMap(rs, null);
+    }
+
+
+    /**
+     * Like getRowMap(ResultSet), but refills reuse (a map previously returned by this factory) with the current row
+     * instead of allocating a new map. Only for callers that are done with the previous row when they move to the next.
+     */
+    public RowMap<Object> getRowMap(ResultSet rs, @Nullable RowMap<Object> reuse) throws SQLException
+    {
+        RowMap<Object> map = null == reuse ? super.getRowMap() : reuse;
 
         int len = rs.getMetaData().getColumnCount();
 
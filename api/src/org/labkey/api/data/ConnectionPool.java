@@ -15,71 +15,622 @@
  */
 package org.labkey.api.data;
 
-import org.apache.commons.dbcp.ConnectionFactory;
-import org.apache.commons.dbcp.PoolableConnectionFactory;
-import org.apache.commons.dbcp.PoolingDataSource;
-import org.apache.commons.pool.impl.GenericObjectPool;
-import org.jetbrains.annotations.NotNull;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import org.junit.Assert;
+import org.junit.Test;
+import org.labkey.api.util.LoggerWriter;
+import org.labkey.api.util.SimpleLoggerWriter;
+import org.labkey.api.util.logging.LogHelper;
 
-import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * A small pool of connections for a DbScope, for callers that need connections managed apart from the scope's own
+ * data source (e.g., Oracle metadata queries). Borrowing and returning don't take a lock: idle connections sit on a
+ * lock-free stack, so the most recently used (and most likely still valid) connection is handed out first, and a
+ * semaphore caps the number of connections out at once. Rather than running the validation query on every borrow, a
+ * connection is re-validated only after it has sat idle for longer than the validation interval. Subclasses may still
+ * veto a connection on each borrow via {@link #validateConnection(Connection)}, which should not touch the database.
+ * Each borrowed connection remembers the thread and stack that borrowed it, so leaks show up in
+ * {@link ConnectionWrapper#dumpLeaksForThread(Thread)}.
+ */
 public class ConnectionPool implements AutoCloseable
 {
-    private final DataSource _dataSource;
-    private final @NotNull GenericObjectPool _connectionPool;
+    private static final Logger LOG = LogHelper.getLogger(ConnectionPool.class, "LabKey-managed connection pools");
+
+    public static final long DEFAULT_VALIDATION_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    // Open pools, for leak reports
+    private static final Set<ConnectionPool> POOLS = new CopyOnWriteArraySet<>();
+
+    /** Source of new physical connections */
+    @FunctionalInterface
+    public interface ConnectionFactory
+    {
+        Connection createConnection() throws SQLException;
+    }
+
+    private final ConnectionFactory _factory;
+    private final int _maxActive;
+    private final @Nullable String _validationQuery;
+    private final long _validationIntervalNanos;
+    private final Semaphore _permits;
+    private final ConcurrentLinkedDeque<PooledConnection> _idle = new ConcurrentLinkedDeque<>();
+    private final Set<PooledConnection> _borrowed = ConcurrentHashMap.newKeySet();
+    private volatile boolean _closed = false;
+
+    // Statistics
+    private final LongAdder _borrows = new LongAdder();
+    private final LongAdder _creates = new LongAdder();
+    private final LongAdder _destroys = new LongAdder();
+    private final LongAdder _validations = new LongAdder();
+    private final LongAdder _waits = new LongAdder();
+    private final LongAdder _waitNanos = new LongAdder();
+    private final AtomicLong _maxWaitNanos = new AtomicLong();
 
     public ConnectionPool(DbScope scope, int maxActive, String validationQuery)
     {
-        // Create an ObjectPool that serves as the pool of connections.
-        _connectionPool = new GenericObjectPool();
-        _connectionPool.setMaxActive(maxActive);
-        _connectionPool.setTestOnBorrow(true);
+        this(scope::getUnpooledConnection, maxActive, validationQuery, DEFAULT_VALIDATION_INTERVAL);
+    }
+
+    public ConnectionPool(ConnectionFactory factory, int maxActive, @Nullable String validationQuery, long validationIntervalMillis)
+    {
+        if (maxActive < 1)
+            throw new IllegalArgumentException("maxActive must be at least 1");
+
+        _factory = factory;
+        _maxActive = maxActive;
+        _validationQuery = validationQuery;
+        _validationIntervalNanos = TimeUnit.MILLISECONDS.toNanos(validationIntervalMillis);
+        _permits = new Semaphore(maxActive);
+        POOLS.add(this);
+    }
+
+    public Connection getConnection() throws SQLException
+    {
+        if (_closed)
+            throw new SQLException("Connection pool is closed");
 
-        // Create a ConnectionFactory that the pool will use to create Connections.
-        ConnectionFactory connectionFactory = scope::getUnpooledConnection;
+        acquirePermit();
+        boolean success = false;
 
-        // Create a PoolableConnectionFactory that wraps the "real" Connections created by the
-        // ConnectionFactory with the classes that implement the pooling functionality.
-        new PoolableConnectionFactory(connectionFactory,
-            _connectionPool,
-            null,
-                validationQuery,  // validationQuery
-            true, // defaultReadOnly
-            true) // defaultAutoCommit
+        try
         {
-            @Override
-            public boolean validateObject(Object obj)
+            PooledConnection pooled;
+            while (null != (pooled = _idle.pollFirst()))
+            {
+                if (isUsable(pooled))
+                    break;
+                pooled.destroy();
+            }
+
+            if (null == pooled)
             {
-                return ConnectionPool.this.validateConnection((Connection)obj) && super.validateObject(obj);
+                pooled = new PooledConnection(_factory.createConnection());
+                _creates.increment();
+                if (!validateConnection(pooled._raw))
+                {
+                    pooled.destroy();
+                    throw new SQLException("Newly created connection failed validation");
+                }
             }
-        };
 
-        // Create the PoolingDataSource
-        _dataSource = new PoolingDataSource(_connectionPool);
+            pooled.borrowed();
+            _borrowed.add(pooled);
+            _borrows.increment();
+            success = true;
+            return pooled._proxy;
+        }
+        finally
+        {
+            if (!success)
+                _permits.release();
+        }
     }
 
-    public Connection getConnection() throws SQLException
+    private void acquirePermit() throws SQLException
     {
-        return _dataSource.getConnection();
+        if (_permits.tryAcquire())
+            return;
+
+        // Pool is exhausted; block until a connection is returned, recording how long we waited
+        long start = System.nanoTime();
+        try
+        {
+            _permits.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        finally
+        {
+            long waited = System.nanoTime() - start;
+            _waits.increment();
+            _waitNanos.add(waited);
+            _maxWaitNanos.accumulateAndGet(waited, Math::max);
+        }
     }
 
+    private boolean isUsable(PooledConnection pooled)
+    {
+        try
+        {
+            if (System.nanoTime() - pooled._returnedNanos > _validationIntervalNanos)
+            {
+                _validations.increment();
+                if (!runValidationQuery(pooled._raw))
+                    return false;
+            }
+            return validateConnection(pooled._raw);
+        }
+        catch (SQLException e)
+        {
+            LOG.debug("Discarding connection that failed validation", e);
+            return false;
+        }
+    }
+
+    private boolean runValidationQuery(Connection conn) throws SQLException
+    {
+        if (null == _validationQuery)
+            return conn.isValid(VALIDATION_TIMEOUT_SECONDS);
+
+        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(_validationQuery))
+        {
+            return rs.next();
+        }
+    }
+
+    /**
+     * Called on every borrow, so it should be cheap and not query the database. The validation query is run
+     * separately, only for connections that have been idle longer than the validation interval.
+     */
     protected boolean validateConnection(Connection conn)
     {
         return true;
     }
 
+    private void release(PooledConnection pooled)
+    {
+        _borrowed.remove(pooled);
+        try
+        {
+            if (_closed || !pooled.reset())
+                pooled.destroy();
+            else
+                _idle.offerFirst(pooled);
+        }
+        finally
+        {
+            _permits.release();
+        }
+
+        // close() may have drained the idle stack while we were pushing
+        if (_closed)
+            drainIdle();
+    }
+
+    private void drainIdle()
+    {
+        PooledConnection pooled;
+        while (null != (pooled = _idle.pollFirst()))
+            pooled.destroy();
+    }
+
+    public int getMaxActive()
+    {
+        return _maxActive;
+    }
+
+    public int getNumActive()
+    {
+        return _borrowed.size();
+    }
+
+    public int getNumIdle()
+    {
+        return _idle.size();
+    }
+
+    public long getBorrowCount()
+    {
+        return _borrows.sum();
+    }
+
+    public long getCreatedCount()
+    {
+        return _creates.sum();
+    }
+
+    public long getDestroyedCount()
+    {
+        return _destroys.sum();
+    }
+
+    public long getValidationCount()
+    {
+        return _validations.sum();
+    }
+
+    /** @return number of borrows that had to wait for a connection to be returned */
+    public long getWaitCount()
+    {
+        return _waits.sum();
+    }
+
+    public long getTotalWaitMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(_waitNanos.sum());
+    }
+
+    public long getMaxWaitMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(_maxWaitNanos.get());
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ConnectionPool[active=" + getNumActive() + ", idle=" + getNumIdle() + ", max=" + _maxActive +
+                ", borrows=" + getBorrowCount() + ", created=" + getCreatedCount() + ", destroyed=" + getDestroyedCount() +
+                ", validations=" + getValidationCount() + ", waits=" + getWaitCount() + ", waitMs=" + getTotalWaitMillis() +
+                ", maxWaitMs=" + getMaxWaitMillis() + "]";
+    }
+
     @Override
     public void close()
     {
-        _connectionPool.clear();
-        try
+        _closed = true;
+        POOLS.remove(this);
+        drainIdle();
+    }
+
+    /** Log (once each) connections from any pool that are still held by the given thread */
+    static boolean dumpLeaksForThread(Thread t, LoggerWriter log)
+    {
+        boolean leaks = false;
+        for (ConnectionPool pool : POOLS)
+        {
+            for (PooledConnection pooled : pool._borrowed)
+            {
+                if (pooled._borrowingThread == t && !pooled._leakLogged)
+                {
+                    log.error("Probable pooled connection leak for thread '" + t.getName() + "', connection was borrowed at: ", pooled._borrowedAt);
+                    pooled._leakLogged = true;
+                    leaks = true;
+                }
+            }
+        }
+        return leaks;
+    }
+
+    private class PooledConnection implements InvocationHandler
+    {
+        private final Connection _raw;
+        private final Connection _proxy;
+
+        private volatile long _returnedNanos;
+        private volatile Thread _borrowingThread;
+        private volatile Throwable _borrowedAt;
+        private volatile boolean _leakLogged;
+        private final AtomicBoolean _out = new AtomicBoolean();
+
+        private PooledConnection(Connection raw) throws SQLException
+        {
+            _raw = raw;
+            try
+            {
+                _raw.setAutoCommit(true);
+                _raw.setReadOnly(true);
+            }
+            catch (SQLException | RuntimeException e)
+            {
+                try
+                {
+                    _raw.close();
+                }
+                catch (SQLException x)
+                {
+                    e.addSuppressed(x);
+                }
+                throw e;
+            }
+            _returnedNanos = System.nanoTime();
+            _proxy = (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, this);
+        }
+
+        private void borrowed()
         {
-            _connectionPool.close();
+            _borrowingThread = Thread.currentThread();
+            _borrowedAt = new Throwable("Connection borrowed by thread '" + _borrowingThread.getName() + "'");
+            _leakLogged = false;
+            _out.set(true);
         }
-        catch(Exception ignored)
+
+        /** Restore the defaults a borrower may have changed; false if the connection can't be reused */
+        private boolean reset()
         {
+            try
+            {
+                if (_raw.isClosed())
+                    return false;
+                if (!_raw.getAutoCommit())
+                {
+                    _raw.rollback();
+                    _raw.setAutoCommit(true);
+                }
+                if (!_raw.isReadOnly())
+                    _raw.setReadOnly(true);
+                _raw.clearWarnings();
+                _returnedNanos = System.nanoTime();
+                return true;
+            }
+            catch (SQLException e)
+            {
+                LOG.debug("Discarding connection that could not be reset", e);
+                return false;
+            }
+        }
+
+        private void destroy()
+        {
+            _destroys.increment();
+            try
+            {
+                _raw.close();
+            }
+            catch (SQLException e)
+            {
+                LOG.debug("Exception closing pooled connection", e);
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            switch (method.getName())
+            {
+                case "close":
+                    if (_out.compareAndSet(true, false))
+                        release(this);
+                    return null;
+                case "isClosed":
+                    return !_out.get() || _raw.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled " + _raw;
+            }
+
+            if (!_out.get())
+                throw new SQLException("Connection has been returned to the pool");
+
+            try
+            {
+                return method.invoke(_raw, args);
+            }
+            catch (InvocationTargetException e)
+            {
+                throw e.getCause();
+            }
+        }
+    }
+
+    public static class TestCase extends Assert
+    {
+        private static ConnectionFactory fakeFactory(AtomicInteger queries)
+        {
+            return () -> fake(Connection.class, queries);
+        }
+
+        // Connection, Statement, and ResultSet stand-ins that succeed at everything and count validation queries
+        private static <T> T fake(Class<T> type, AtomicInteger queries)
+        {
+            boolean[] closed = new boolean[1];
+            boolean[] autoCommit = {true};
+            boolean[] readOnly = {false};
+            return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> switch (method.getName())
+            {
+                case "createStatement" -> fake(Statement.class, queries);
+                case "executeQuery" -> {
+                    queries.incrementAndGet();
+                    yield fake(ResultSet.class, queries);
+                }
+                case "next", "isValid" -> true;
+                case "close" -> {
+                    closed[0] = true;
+                    yield null;
+                }
+                case "isClosed" -> closed[0];
+                case "getAutoCommit" -> autoCommit[0];
+                case "setAutoCommit" -> {
+                    autoCommit[0] = (Boolean)args[0];
+                    yield null;
+                }
+                case "isReadOnly" -> readOnly[0];
+                case "setReadOnly" -> {
+                    readOnly[0] = (Boolean)args[0];
+                    yield null;
+                }
+                case "equals" -> proxy == args[0];
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "toString" -> "Fake " + type.getSimpleName();
+                default -> null;
+            }));
+        }
+
+        @Test
+        public void testReuse() throws Exception
+        {
+            AtomicInteger queries = new AtomicInteger();
+            try (ConnectionPool pool = new ConnectionPool(fakeFactory(queries), 2, "SELECT 1", DEFAULT_VALIDATION_INTERVAL))
+            {
+                Connection c1 = pool.getConnection();
+                assertEquals(1, pool.getNumActive());
+                c1.setAutoCommit(false);
+                c1.close();
+                assertTrue(c1.isClosed());
+                assertEquals(0, pool.getNumActive());
+                assertEquals(1, pool.getNumIdle());
+
+                try
+                {
+                    c1.createStatement();
+                    fail("Expected SQLException using a returned connection");
+                }
+                catch (SQLException ignored)
+                {
+                }
+
+                try (Connection c2 = pool.getConnection())
+                {
+                    assertTrue("Borrower's changes should be reset", c2.getAutoCommit());
+                    assertTrue(c2.isReadOnly());
+                }
+
+                assertEquals(1, pool.getCreatedCount());
+                assertEquals(2, pool.getBorrowCount());
+                assertEquals("Recently used connections shouldn't be re-validated", 0, queries.get());
+            }
+        }
+
+        @Test
+        public void testIdleValidation() throws Exception
+        {
+            AtomicInteger queries = new AtomicInteger();
+            try (ConnectionPool pool = new ConnectionPool(fakeFactory(queries), 2, "SELECT 1", 0))
+            {
+                pool.getConnection().close();
+                Thread.sleep(1);
+                pool.getConnection().close();
+                assertEquals(1, queries.get());
+                assertEquals(1, pool.getValidationCount());
+            }
+        }
+
+        @Test
+        public void testExhaustedPoolWaits() throws Exception
+        {
+            try (ConnectionPool pool = new ConnectionPool(fakeFactory(new AtomicInteger()), 1, null, DEFAULT_VALIDATION_INTERVAL))
+            {
+                Connection held = pool.getConnection();
+                CountDownLatch borrowed = new CountDownLatch(1);
+                Thread waiter = new Thread(() -> {
+                    try (Connection ignored = pool.getConnection())
+                    {
+                        borrowed.countDown();
+                    }
+                    catch (SQLException e)
+                    {
+                        throw new RuntimeException(e);
+                    }
+                });
+                waiter.start();
+
+                assertFalse(borrowed.await(50, TimeUnit.MILLISECONDS));
+                held.close();
+                assertTrue(borrowed.await(10, TimeUnit.SECONDS));
+                waiter.join();
+
+                assertEquals(1, pool.getWaitCount());
+                assertTrue(pool.getMaxWaitMillis() >= 40);
+                assertEquals(1, pool.getCreatedCount());
+            }
+        }
+
+        @Test
+        public void testLeakDetection() throws Exception
+        {
+            List<Throwable> logged = new ArrayList<>();
+            LoggerWriter log = new SimpleLoggerWriter(LOG)
+            {
+                @Override
+                public void error(String message, Throwable t)
+                {
+                    logged.add(t);
+                }
+            };
+
+            try (ConnectionPool pool = new ConnectionPool(fakeFactory(new AtomicInteger()), 2, null, DEFAULT_VALIDATION_INTERVAL))
+            {
+                Connection leaked = pool.getConnection();
+                assertTrue(dumpLeaksForThread(Thread.currentThread(), log));
+                assertEquals(1, logged.size());
+                assertFalse("Leaks should be reported once", dumpLeaksForThread(Thread.currentThread(), log));
+                leaked.close();
+            }
+        }
+
+        /** Measure borrow/return throughput, validating on every borrow */
+        @Test
+        public void testBorrowThroughput() throws Exception
+        {
+            int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+            int maxActive = threads / 2;
+            int borrowsPerThread = 20000;
+
+            try (ConnectionPool pool = new ConnectionPool(fakeFactory(new AtomicInteger()), maxActive, "SELECT 1", DEFAULT_VALIDATION_INTERVAL))
+            {
+                double rate = measure(pool::getConnection, threads, borrowsPerThread);
+                LOG.info(String.format("ConnectionPool: %,.0f borrows/sec with %d threads, %d connections; %s", rate, threads, maxActive, pool));
+            }
+        }
+
+        private double measure(ConnectionFactory borrow, int threads, int borrowsPerThread) throws Exception
+        {
+            Map<Integer, Throwable> failures = new ConcurrentHashMap<>();
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++)
+            {
+                int id = i;
+                workers.add(new Thread(() -> {
+                    try
+                    {
+                        for (int j = 0; j < borrowsPerThread; j++)
+                            borrow.createConnection().close();
+                    }
+                    catch (Throwable t)
+                    {
+                        failures.put(id, t);
+                    }
+                }));
+            }
+
+            long start = System.nanoTime();
+            workers.forEach(Thread::start);
+            for (Thread worker : workers)
+                worker.join();
+            long elapsed = System.nanoTime() - start;
+
+            assertTrue("Borrow failed: " + failures.values(), failures.isEmpty());
+            return (double)threads * borrowsPerThread * TimeUnit.SECONDS.toNanos(1) / elapsed;
         }
     }
 }
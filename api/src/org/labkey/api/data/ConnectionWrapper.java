@@ -237,6 +237,9 @@ public class ConnectionWrapper implements java.sql.Connection
                 }
             }
         }
+        // Connections borrowed from LabKey-managed pools are tracked by the pool
+        if (ConnectionPool.dumpLeaksForThread(t, log))
+            leaks = true;
         return leaks;
     }
 
@@ -921,7 +924,18 @@ public class ConnectionWrapper implements java.sql.Connection
     public <T> T unwrap(Class<T> iface)
     {
         //noinspection unchecked
-        return isWrapperFor(iface)?  (T)_connection : null;
+        if (isWrapperFor(iface))
+            return (T)_connection;
+
+        // The pool's connection may wrap the driver's, e.g., for PGConnection
+        try
+        {
+            return _connection.isWrapperFor(iface) ? _connection.unwrap(iface) : null;
+        }
+        catch (SQLException x)
+        {
+            return null;
+        }
     }
 
     @Override
@@ -16,6 +16,7 @@
 package org.labkey.api.data;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.google.common.collect.MapMaker;
 import jakarta.servlet.ServletContext;
 import jakarta.servlet.ServletException;
 import org.apache.commons.collections4.IteratorUtils;
@@ -39,6 +40,7 @@ import org.labkey.api.module.ModuleResourceCaches;
 import org.labkey.api.module.ResourceRootProvider;
 import org.labkey.api.module.SupportedDatabase;
 import org.labkey.api.query.QueryService;
+import org.labkey.api.query.TableInfoCache;
 import org.labkey.api.security.User;
 import org.labkey.api.settings.AppProps;
 import org.labkey.api.test.TestWhen;
@@ -95,8 +97,10 @@ import java.util.Random;
 import java.util.RandomAccess;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
@@ -133,8 +137,9 @@ public class DbScope
      * Some background threads should share Connections with their parent thread. A key example is AsyncQueryRequest,
      * which should share the Connection with the HTTP request thread that spawned it. This is useful for ensuring
      * that it sees any open transactions, as well as avoiding depleting the connection pool.
+     * Entries are removed by {@link ConnectionSharingCloseable}.
      */
-    private static final Map<Thread, Thread> _sharedConnections = new WeakHashMap<>();
+    private static final Map<Thread, Thread> _sharedConnections = newThreadMap();
     private static final Map<String, Throwable> _dataSourceFailures = new ConcurrentHashMap<>();
     // Cache for schema metadata XML files, shared across the whole server
     private static final ModuleResourceCache<Map<String, TablesDocument>> SCHEMA_XML_CACHE =
@@ -152,10 +157,15 @@ public class DbScope
     private final DbSchemaCache _schemaCache;
     private final SchemaTableInfoCache _provisionedTableCache;
     private final SchemaTableInfoCache _nonProvisionedTableCache;
-    private final Map<Thread, List<TransactionImpl>> _transaction = new WeakHashMap<>();
-    private final Map<Thread, ConnectionHolder> _threadConnections = new WeakHashMap<>();
+    // Connection and transaction bindings are looked up on nearly every database call, so reads must not take a lock.
+    // Each thread's transaction stack is an immutable list that's replaced on push and pop, and its entry is removed
+    // once the stack is empty. A ConnectionHolder removes itself once its last reference is released. Threads are
+    // weakly held so a thread that dies without cleaning up doesn't pin its transactions and connections.
+    private final Map<Thread, List<TransactionImpl>> _transaction = newThreadMap();
+    private final Map<Thread, ConnectionHolder> _threadConnections = newThreadMap();
     private final boolean _rds;
     private final String _escape; // LIKE escape character
+    private final @Nullable ReadReplica _readReplica;
     private AutoCloseable _closeOnClose = null;
 
 
@@ -304,6 +314,7 @@ public class DbScope
         _provisionedTableCache = null;
         _rds = false;
         _escape = null;
+        _readReplica = null;
     }
 
     // Used only for testing
@@ -343,6 +354,9 @@ public class DbScope
         private boolean _logQueries = false;
         private String _displayName = null;
         private boolean _primary = false;
+        private String _readReplica = null;
+        private int _maxReplicationLag = ReadReplica.DEFAULT_MAX_LAG_SECONDS;
+        private LabKeyDataSource _replicaDataSource = null;
 
         @SuppressWarnings("unused") // Used by BeanObjectFactory
         public LabKeyDataSource()
@@ -397,6 +411,38 @@ public class DbScope
             _displayName = displayName;
         }
 
+        /** @return the name of a data source that streams from this one and can serve its read-only queries */
+        public @Nullable String getReadReplica()
+        {
+            return _readReplica;
+        }
+
+        public void setReadReplica(String readReplica)
+        {
+            _readReplica = StringUtils.trimToNull(readReplica);
+        }
+
+        /** @return the replication lag, in seconds, beyond which reads go back to this data source */
+        public int getMaxReplicationLag()
+        {
+            return _maxReplicationLag;
+        }
+
+        public void setMaxReplicationLag(int maxReplicationLag)
+        {
+            _maxReplicationLag = maxReplicationLag;
+        }
+
+        private @Nullable LabKeyDataSource getReplicaDataSource()
+        {
+            return _replicaDataSource;
+        }
+
+        private void setReplicaDataSource(LabKeyDataSource replicaDataSource)
+        {
+            _replicaDataSource = replicaDataSource;
+        }
+
         DataSource getDataSource()
         {
             return _ds;
@@ -600,6 +646,25 @@ public class DbScope
             // Issue 50488: Pre-register this data source's SQL error codes in Spring to prevent deadlocks
             SQLErrorCodesFactory.getInstance().registerDatabase(dataSource.getDataSource(), _databaseProductName);
         }
+
+        _readReplica = createReadReplica(dataSource);
+    }
+
+    private @Nullable ReadReplica createReadReplica(LabKeyDataSource dataSource)
+    {
+        LabKeyDataSource replicaDataSource = dataSource.getReplicaDataSource();
+        if (null == replicaDataSource)
+            return null;
+
+        String lagSql = null != _dialect ? _dialect.getReplicationLagSql() : null;
+        if (null == lagSql || !replicaDataSource.getDriverClassName().equals(dataSource.getDriverClassName()))
+        {
+            LOG.warn("Ignoring read replica \"{}\" configured for DataSource \"{}\": {} read replicas are not supported", replicaDataSource.getDsName(), dataSource.getDsName(), _databaseProductName);
+            return null;
+        }
+
+        LOG.info("DataSource \"{}\" will send eligible reads to read replica \"{}\" while its replication lag is at most {} seconds", dataSource.getDsName(), replicaDataSource.getDsName(), dataSource.getMaxReplicationLag());
+        return new ReadReplica(replicaDataSource.getDsName(), replicaDataSource.getDataSource(), dataSource.getMaxReplicationLag(), lagSql);
     }
 
     private String determineDriverLocation(Class<Driver> driverClass)
@@ -694,6 +759,12 @@ public class DbScope
         return getDbScopeLoader().getDsProps();
     }
 
+    /** @return the read replica configured for this scope's data source, if any */
+    public @Nullable ReadReplica getReadReplica()
+    {
+        return _readReplica;
+    }
+
     /**
      * Ensures that there is an active database transaction. If one is already in progress for this DbScope, it is
      * joined (and a counter is incremented) such that the outermost commit() attempt actually performs the commit.
@@ -853,13 +924,13 @@ public class DbScope
                         result = new TransactionImpl(conn, transactionKind, memoryLocks);
                         createdTransactionObject = true;
 
-                        int stackDepth;
-                        synchronized (_transaction)
-                        {
-                            List<TransactionImpl> transactions = _transaction.computeIfAbsent(getEffectiveThread(), k -> new ArrayList<>());
-                            transactions.add(result);
-                            stackDepth = transactions.size();
-                        }
+                        TransactionImpl pushed = result;
+                        List<TransactionImpl> transactions = _transaction.compute(getEffectiveThread(), (k, current) -> {
+                            List<TransactionImpl> updated = null == current ? new ArrayList<>(1) : new ArrayList<>(current);
+                            updated.add(pushed);
+                            return Collections.unmodifiableList(updated);
+                        });
+                        int stackDepth = transactions.size();
                         boolean serverLockSuccess = false;
                         try
                         {
@@ -1045,11 +1116,8 @@ public class DbScope
     public static Thread getEffectiveThread()
     {
         Thread thread = Thread.currentThread();
-        synchronized (_sharedConnections)
-        {
-            Thread result = _sharedConnections.get(thread);
-            return Objects.requireNonNullElse(result, thread);
-        }
+        Thread result = _sharedConnections.get(thread);
+        return Objects.requireNonNullElse(result, thread);
     }
 
 
@@ -1069,12 +1137,8 @@ public class DbScope
     /* package */
     @Nullable TransactionImpl getCurrentTransactionImpl()
     {
-        Thread thread = getEffectiveThread();
-        synchronized (_transaction)
-        {
-            List<TransactionImpl> transactions = _transaction.get(thread);
-            return transactions == null ? null : transactions.get(transactions.size() - 1);
-        }
+        List<TransactionImpl> transactions = _transaction.get(getEffectiveThread());
+        return transactions == null ? null : transactions.get(transactions.size() - 1);
     }
 
     @JsonIgnore
@@ -1131,46 +1195,76 @@ public class DbScope
 
     private class ConnectionHolder
     {
+        // Not a monitor: get() may wait on the connection pool, and threads sharing connections contend only here
+        private final ReentrantLock _lock = new ReentrantLock();
+        private final WeakReference<Thread> _thread; // Weak, so this holder doesn't keep its own map key alive
         private int _refCount = 0;
         private Connection _conn;
+        private boolean _retired = false;
 
-        public ConnectionHolder()
+        public ConnectionHolder(Thread thread)
         {
+            _thread = new WeakReference<>(thread);
         }
 
-        public synchronized Connection get(@Nullable Logger log) throws SQLException
+        /** @return the thread's connection, or null if this holder has been retired and a new one must be used */
+        public @Nullable Connection get(@Nullable Logger log) throws SQLException
         {
-            if (0 == _refCount)
+            _lock.lock();
+            try
             {
-                _conn = getPooledConnection(ConnectionType.Thread, log);
-            }
+                if (_retired)
+                    return null;
 
-            _refCount++;
+                if (0 == _refCount)
+                {
+                    _conn = getPooledConnection(ConnectionType.Thread, log);
+                }
 
-            log(() -> 1 == _refCount ? "New connection [1]: " + _conn.toString() : "Existing connection [" + _refCount + "]: " + _conn.toString());
-            log(() -> _refCount > 2 ? "ConnectionHolder RefCount: " + _refCount : null);
+                _refCount++;
 
-            return _conn;
+                log(() -> 1 == _refCount ? "New connection [1]: " + _conn.toString() : "Existing connection [" + _refCount + "]: " + _conn.toString());
+                log(() -> _refCount > 2 ? "ConnectionHolder RefCount: " + _refCount : null);
+
+                return _conn;
+            }
+            finally
+            {
+                _lock.unlock();
+            }
         }
 
-        public synchronized boolean release(Connection conn)
+        public boolean release(Connection conn)
         {
-            log(() -> 1 == _refCount ? "Releasing connection [1]: " + conn.toString() : "Attempting to decrease count of connection [" + _refCount + "]: " + conn.toString());
+            _lock.lock();
+            try
+            {
+                log(() -> 1 == _refCount ? "Releasing connection [1]: " + conn.toString() : "Attempting to decrease count of connection [" + _refCount + "]: " + conn.toString());
 
-            if (_conn != conn)
-                throw new IllegalStateException("Incorrect Connection: " + conn + " vs. " + _conn);
+                if (_conn != conn)
+                    throw new IllegalStateException("Incorrect Connection: " + conn + " vs. " + _conn);
 
-            if (_refCount <= 0)
-                throw new IllegalStateException("Reference count is too low (" + _refCount + ") for " + _conn);
+                if (_refCount <= 0)
+                    throw new IllegalStateException("Reference count is too low (" + _refCount + ") for " + _conn);
 
-            _refCount--;
+                _refCount--;
 
-            if (0 == _refCount)
+                if (0 == _refCount)
+                {
+                    _conn = null;
+                    // Drop the binding so finished threads aren't retained; the next get() on this thread starts a new holder
+                    _retired = true;
+                    Thread thread = _thread.get();
+                    if (null != thread)
+                        _threadConnections.remove(thread, this);
+                }
+
+                return 0 == _refCount;
+            }
+            finally
             {
-                _conn = null;
+                _lock.unlock();
             }
-
-            return 0 == _refCount;
         }
     }
 
@@ -1188,19 +1282,19 @@ public class DbScope
     @NotNull
     private ConnectionHolder getConnectionHolder()
     {
-        Thread thread = getEffectiveThread();
-
-        // Synchronize just long enough to get a ConnectionHolder into the map
-        synchronized (_threadConnections)
-        {
-            return _threadConnections.computeIfAbsent(thread, t -> new ConnectionHolder());
-        }
+        return _threadConnections.computeIfAbsent(getEffectiveThread(), ConnectionHolder::new);
     }
 
     // Get the connection associated with this thread
     private Connection getCurrentConnection(@Nullable Logger log) throws SQLException
     {
-        return getConnectionHolder().get(log);
+        while (true)
+        {
+            // A holder shared with another thread may be retired between the lookup and the get(); just try again
+            Connection conn = getConnectionHolder().get(log);
+            if (null != conn)
+                return conn;
+        }
     }
 
     /**
@@ -1311,38 +1405,36 @@ public class DbScope
 
     public void logCurrentConnectionState(LoggerWriter log)
     {
-        synchronized (_transaction)
-        {
-            log.info("Data source " + this +
-                    ". Max connections: " + getDbScopeLoader().getDsProps().getMaxTotal() +
-                    ", active: " + getDbScopeLoader().getDsProps().getNumActive() +
-                    ", idle: " + getDbScopeLoader().getDsProps().getNumIdle() +
-                    ", maxWaitMillis: " + getDbScopeLoader().getDsProps().getMaxWaitMillis());
+        // Weakly consistent snapshot; threads may begin or finish transactions while we log
+        log.info("Data source " + this +
+                ". Max connections: " + getDbScopeLoader().getDsProps().getMaxTotal() +
+                ", active: " + getDbScopeLoader().getDsProps().getNumActive() +
+                ", idle: " + getDbScopeLoader().getDsProps().getNumIdle() +
+                ", maxWaitMillis: " + getDbScopeLoader().getDsProps().getMaxWaitMillis());
 
-            if (_transaction.isEmpty())
-            {
-                log.info("There are no threads holding transactions for the data source '" + this + "'");
-            }
-            else
+        if (_transaction.isEmpty())
+        {
+            log.info("There are no threads holding transactions for the data source '" + this + "'");
+        }
+        else
+        {
+            log.info("There is/are " + _transaction.size() + " thread(s) holding a transaction for the data source '" + this + "':");
+            for (Map.Entry<Thread, List<TransactionImpl>> entry : _transaction.entrySet())
             {
-                log.info("There is/are " + _transaction.size() + " thread(s) holding a transaction for the data source '" + this + "':");
-                for (Map.Entry<Thread, List<TransactionImpl>> entry : _transaction.entrySet())
+                Thread thread = entry.getKey();
+                log.info("\t'" + thread.getName() + "', State = " + thread.getState());
+                if (thread.getState() == Thread.State.TERMINATED || thread.getState() == Thread.State.NEW)
                 {
-                    Thread thread = entry.getKey();
-                    log.info("\t'" + thread.getName() + "', State = " + thread.getState());
-                    if (thread.getState() == Thread.State.TERMINATED || thread.getState() == Thread.State.NEW)
+                    for (TransactionImpl transaction : entry.getValue())
                     {
-                        for (TransactionImpl transaction : entry.getValue())
+                        for (StackTraceElement stackTraceElement : transaction._creation.getStackTrace())
                         {
-                            for (StackTraceElement stackTraceElement : transaction._creation.getStackTrace())
-                            {
-                                log.info("\t\t" + stackTraceElement.toString());
-                            }
-                            log.info("");
+                            log.info("\t\t" + stackTraceElement.toString());
                         }
+                        log.info("");
                     }
-                    log.info("");
                 }
+                log.info("");
             }
         }
     }
@@ -1367,6 +1459,47 @@ public class DbScope
             throw new ConfigurationException("Can't create a database connection for data source " + getDbScopeLoader().getDsName(), e);
         }
 
+        return wrapPooledConnection(conn, type, log);
+    }
+
+    /**
+     * Get a connection for a select that may be served by the read replica: a fresh connection from the replica's pool
+     * if the current thread is routing reads (see {@link ReadReplica#routeReads()}), no transaction is active, and the
+     * replica is current enough. Otherwise, the same connection {@link #getConnection(Logger)} returns.
+     */
+    public Connection getReadConnection(@Nullable Logger log) throws SQLException
+    {
+        ConnectionWrapper conn = getReplicaConnection(log);
+        return null != conn ? conn : getConnection(log);
+    }
+
+    /**
+     * @return a fresh connection from the read replica's pool if a select on the current thread should be sent to the
+     * replica, otherwise null
+     */
+    public @Nullable ConnectionWrapper getReplicaConnection(@Nullable Logger log) throws SQLException
+    {
+        ReadReplica replica = _readReplica;
+        if (null == replica || isTransactionActive() || !replica.shouldRoute())
+            return null;
+
+        Connection conn;
+
+        try
+        {
+            conn = replica.getDataSource().getConnection();
+        }
+        catch (SQLException e)
+        {
+            replica.connectionFailed(e);
+            return null;
+        }
+
+        return wrapPooledConnection(conn, ConnectionType.Pooled, log);
+    }
+
+    private ConnectionWrapper wrapPooledConnection(Connection conn, ConnectionType type, @Nullable Logger log) throws SQLException
+    {
         if (!conn.getAutoCommit())
             throw new ConfigurationException("A database connection is in an unexpected state: auto-commit is false. This indicates a configuration problem with the datasource definition or the database connection pool.");
 
@@ -1544,6 +1677,7 @@ public class DbScope
     public void invalidateSchema(String schemaName, DbSchemaType type)
     {
         QueryService.get().updateLastModified();
+        TableInfoCache.invalidate();
         _schemaCache.remove(schemaName, type);
         invalidateAllTables(schemaName, type);
     }
@@ -1561,6 +1695,7 @@ public class DbScope
     public void invalidateTable(String schemaName, String tableName, DbSchemaType type)
     {
         QueryService.get().updateLastModified();
+        TableInfoCache.invalidate();
         getTableInfoCache(type).remove(schemaName, tableName, type);
         _schemaCache.remove(schemaName, type);
     }
@@ -1651,12 +1786,31 @@ public class DbScope
             // Find all the external data sources required by module schemas; we attempt to create these databases
             Set<String> moduleDataSources = ModuleLoader.getInstance().getAllModuleDataSourceNames();
 
+            // Attach read replicas to the data sources they serve. Replicas don't get scopes of their own.
+            Set<String> replicaNames = new HashSet<>();
+            for (LabKeyDataSource ds : dataSources.values())
+            {
+                String replicaName = ds.getReadReplica();
+                if (null == replicaName)
+                    continue;
+
+                LabKeyDataSource replica = dataSources.get(replicaName);
+                if (null == replica || replica == ds || null != replica.getReadReplica() || replica.isPrimary())
+                {
+                    LOG.error("Ignoring read replica \"{}\" configured for DataSource \"{}\": it must name another DataSource that doesn't have a read replica of its own", replicaName, ds.getDsName());
+                    continue;
+                }
+
+                ds.setReplicaDataSource(replica);
+                replicaNames.add(replicaName);
+            }
+
             // Make sorted collection of data sources names, but with labkey data source first
             Set<String> dsNames = new LinkedHashSet<>();
             dsNames.add(labkeyDsName);
 
             for (String dsName : dataSources.keySet())
-                if (!dsName.equals(labkeyDsName))
+                if (!dsName.equals(labkeyDsName) && !replicaNames.contains(dsName))
                     dsNames.add(dsName);
 
             for (String dsName : dsNames)
@@ -2134,13 +2288,10 @@ public class DbScope
      */
     public static ConnectionSharingCloseable shareConnections(Thread primaryThread, final Thread piggybackingThread)
     {
-        synchronized (_sharedConnections)
+        Thread existing = _sharedConnections.putIfAbsent(piggybackingThread, primaryThread);
+        if (null != existing)
         {
-            if (_sharedConnections.containsKey(piggybackingThread))
-            {
-                throw new IllegalStateException("Thread '" + piggybackingThread.getName() + "' is already sharing the connections of thread '" + _sharedConnections.get(piggybackingThread) + "'");
-            }
-            _sharedConnections.put(piggybackingThread, primaryThread);
+            throw new IllegalStateException("Thread '" + piggybackingThread.getName() + "' is already sharing the connections of thread '" + existing + "'");
         }
 
         return new ConnectionSharingCloseable(piggybackingThread);
@@ -2153,6 +2304,13 @@ public class DbScope
     }
 
 
+    // Concurrent map with weak, identity-compared keys, for bindings that must not outlive their thread
+    private static <V> Map<Thread, V> newThreadMap()
+    {
+        return new MapMaker().weakKeys().makeMap();
+    }
+
+
     static ConnectionMap newConnectionMap()
     {
         final _WeakestLinkMap<Connection, Integer> m = new _WeakestLinkMap<>();
@@ -2429,16 +2587,8 @@ public class DbScope
 
     private void popCurrentTransaction()
     {
-        Thread thread = getEffectiveThread();
-        synchronized (_transaction)
-        {
-            List<TransactionImpl> transactions = _transaction.get(thread);
-            transactions.remove(transactions.size() - 1);
-            if (transactions.isEmpty())
-            {
-                _transaction.remove(thread);
-            }
-        }
+        _transaction.computeIfPresent(getEffectiveThread(), (k, transactions) ->
+            1 == transactions.size() ? null : transactions.subList(0, transactions.size() - 1));
     }
 
     public static class ConnectionSharingCloseable implements AutoCloseable
@@ -2453,10 +2603,7 @@ public class DbScope
         @Override
         public void close()
         {
-            synchronized (_sharedConnections)
-            {
-                _sharedConnections.remove(_asyncThread);
-            }
+            _sharedConnections.remove(_asyncThread);
         }
     }
 
@@ -3078,6 +3225,72 @@ public class DbScope
             assertFalse(getLabKeyScope().isTransactionActive());
         }
 
+        @Test
+        public void testConcurrentThreadBindings() throws Exception
+        {
+            // Many threads beginning transactions and borrowing thread connections at once must each see only their own
+            DbScope scope = getLabKeyScope();
+            int threadCount = 32;
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+            try
+            {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < threadCount; i++)
+                {
+                    futures.add(executor.submit(() -> {
+                        for (int j = 0; j < 20; j++)
+                        {
+                            assertFalse(scope.isTransactionActive());
+                            try (Transaction outer = scope.ensureTransaction())
+                            {
+                                try (Transaction inner = scope.beginTransaction())
+                                {
+                                    assertSame(inner, scope.getCurrentTransaction());
+                                    inner.commit();
+                                }
+                                assertSame(outer, scope.getCurrentTransaction());
+                                outer.commit();
+                            }
+                            assertFalse(scope.isTransactionActive());
+
+                            try (Connection c1 = scope.getConnection(); Connection c2 = scope.getConnection())
+                            {
+                                assertSame(c1, c2);
+                            }
+                        }
+                        return null;
+                    }));
+                }
+
+                for (Future<?> future : futures)
+                    future.get(1, TimeUnit.MINUTES);
+            }
+            finally
+            {
+                executor.shutdownNow();
+            }
+        }
+
+        @Test
+        public void testSharedConnections() throws Exception
+        {
+            DbScope scope = getLabKeyScope();
+            Transaction[] seen = new Transaction[1];
+            Thread async = new Thread(() -> seen[0] = scope.getCurrentTransaction());
+
+            try (Transaction t = scope.ensureTransaction())
+            {
+                try (ConnectionSharingCloseable ignored = shareConnections(Thread.currentThread(), async))
+                {
+                    async.start();
+                    async.join();
+                }
+                assertSame("Piggybacking thread should see the primary thread's transaction", t, seen[0]);
+                t.commit();
+            }
+        }
+
         @Test
         public void testAutoCommitFailure()
         {
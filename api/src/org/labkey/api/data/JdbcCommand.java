@@ -56,6 +56,12 @@ public abstract class JdbcCommand<COMMAND extends JdbcCommand>
         return null == _conn ? _scope.getConnection(_log) : _conn;
     }
 
+    // For statements that only read, which may be served by the scope's read replica
+    protected Connection getReadConnection() throws SQLException
+    {
+        return null == _conn ? _scope.getReadConnection(_log) : _conn;
+    }
+
     protected void close(@Nullable ResultSet rs, @Nullable Connection conn)
     {
         // Close Connection only if we got it from the scope (i.e., _conn is null)
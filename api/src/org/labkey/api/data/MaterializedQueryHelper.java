@@ -25,21 +25,25 @@ import org.junit.Test;
 import org.labkey.api.action.SpringActionController;
 import org.labkey.api.cache.CacheListener;
 import org.labkey.api.cache.CacheManager;
+import org.labkey.api.data.dialect.SqlDialect;
 import org.labkey.api.test.TestWhen;
 import org.labkey.api.util.GUID;
 import org.labkey.api.util.HeartBeat;
 import org.labkey.api.util.MemTracker;
 import org.labkey.api.util.UnexpectedException;
 
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -51,6 +55,10 @@ import static org.labkey.api.test.TestWhen.When.BVT;
 
 /**
  *  Helper for creating materialized SQL into temp-tables with invalidation
+ *  <p>
+ *  By default, any invalidation rematerializes the whole temp table. If the source query declares a change key (see
+ *  {@link Builder#incrementalRefresh(String, String, long)}), invalidations signalled by the up-to-date query or invalid
+ *  check instead merge only the source rows past the table's current change key into the existing temp table.
  */
 public class MaterializedQueryHelper implements CacheListener, AutoCloseable
 {
@@ -62,6 +70,10 @@ public class MaterializedQueryHelper implements CacheListener, AutoCloseable
         private final String _fromSql;
         private final String _tableName;
         private final ArrayList<Invalidator> _invalidators = new ArrayList<>(3);
+        private SQLFragment _sourceSql = null;  // select used to load, null if it was a SELECT INTO
+
+        private final Lock _refreshLock = new ReentrantLock();
+        private final AtomicBoolean _refreshPending = new AtomicBoolean();
 
         protected final Lock _loadingLock = new ReentrantLock();
         public enum LoadingState { BEFORELOAD, LOADING, LOADED, ERROR };
@@ -96,6 +108,11 @@ public class MaterializedQueryHelper implements CacheListener, AutoCloseable
                 _invalidators.add(new SupplierInvalidator(sup));
         }
 
+        public void addInvalidator(Invalidator invalidator)
+        {
+            _invalidators.add(invalidator);
+        }
+
         public void reset()
         {
             long now = HeartBeat.currentTimeMillis();
@@ -132,6 +149,7 @@ public class MaterializedQueryHelper implements CacheListener, AutoCloseable
                 TempTableTracker.track(_tableName, this);
 
                 SQLFragment selectInto;
+                _sourceSql = isSelectInto ? null : selectQuery;
                 if (isSelectInto)
                 {
                     String sql = selectQuery.getSQL().replace("${NAME}", _tableName);
@@ -174,6 +192,40 @@ public class MaterializedQueryHelper implements CacheListener, AutoCloseable
             _loadException = rex;
             _loadingState.set(LoadingState.ERROR);
         }
+
+        /**
+         * Merge source changes into the loaded temp table if a refresh is pending. The merge runs in a transaction, so
+         * other readers keep seeing the previous contents until it commits.
+         *
+         * @param wait true to wait for a refresh in progress on another thread, false to use the current contents
+         */
+        void refresh(boolean wait)
+        {
+            if (!_refreshPending.get())
+                return;
+
+            if (wait)
+                _refreshLock.lock();
+            else if (!_refreshLock.tryLock())
+                return;
+
+            try
+            {
+                if (!_refreshPending.getAndSet(false))
+                    return;
+                _mqh.incrementalRefresh(this);
+            }
+            catch (RuntimeException rex)
+            {
+                // getMaterialized() discards errored tables, so the next request rematerializes from scratch
+                setError(rex);
+                throw rex;
+            }
+            finally
+            {
+                _refreshLock.unlock();
+            }
+        }
     }
 
 
@@ -202,6 +254,12 @@ public class MaterializedQueryHelper implements CacheListener, AutoCloseable
             return CacheCheck.COALESCE;
         }
         public abstract boolean stillValid(long createdTime);
+
+        /** @return true if this invalidation can be handled by merging changed source rows, see {@link Builder#incrementalRefresh} */
+        protected boolean allowsIncrementalRefresh()
+        {
+            return true;
+        }
     }
 
 
@@ -245,17 +303,38 @@ public class MaterializedQueryHelper implements CacheListener, AutoCloseable
         {
             return _maxTime != -1 && createdTime + _maxTime > HeartBeat.currentTimeMillis();
         }
+
+        // Expiration rematerializes from scratch, which also picks up deleted source rows
+        @Override
+        protected boolean allowsIncrementalRefresh()
+        {
+            return false;
+        }
     }
 
 
     public static class SupplierInvalidator extends Invalidator
     {
         private final Supplier<String> _supplier;
+        private final boolean _allowsIncrementalRefresh;
         private final AtomicReference<String> _result = new AtomicReference<>();
 
         public SupplierInvalidator(Supplier<String> sup)
+        {
+            this(sup, true);
+        }
+
+        /** @param allowsIncrementalRefresh false if the changes this signals can't be found by the change key */
+        public SupplierInvalidator(Supplier<String> sup, boolean allowsIncrementalRefresh)
         {
             _supplier = sup;
+            _allowsIncrementalRefresh = allowsIncrementalRefresh;
+        }
+
+        @Override
+        protected boolean allowsIncrementalRefresh()
+        {
+            return _allowsIncrementalRefresh;
         }
 
         @Override
@@ -281,6 +360,9 @@ public class MaterializedQueryHelper implements CacheListener, AutoCloseable
     protected final DbScope _scope;
     private final SQLFragment _selectQuery;
     private final boolean _isSelectIntoSql;
+    private final @Nullable String _changeKey;
+    private final @Nullable String _uniqueKey;
+    private final long _safetyWindow;
     protected final SQLFragment _uptodateQuery;
     protected final Supplier<String> _supplier;
     private final List<String> _indexes = new ArrayList<>();
@@ -300,6 +382,7 @@ public class MaterializedQueryHelper implements CacheListener, AutoCloseable
     // DEBUG variables
     private final AtomicInteger _countGetFromSql = new AtomicInteger();
     private final AtomicInteger _countSelectInto = new AtomicInteger();
+    private final AtomicInteger _countIncrementalRefresh = new AtomicInteger();
     private final AtomicLong _lastUsed = new AtomicLong(HeartBeat.currentTimeMillis());
 
     private boolean _closed = false;
@@ -307,6 +390,14 @@ public class MaterializedQueryHelper implements CacheListener, AutoCloseable
     protected MaterializedQueryHelper(String prefix, DbScope scope, SQLFragment select, @Nullable SQLFragment uptodate, Supplier<String> supplier, @Nullable Collection<String> indexes, long maxTimeToCache,
                                     boolean isSelectIntoSql)
     {
+        this(prefix, scope, select, uptodate, supplier, indexes, maxTimeToCache, isSelectIntoSql, null, null, 0);
+    }
+
+    protected MaterializedQueryHelper(String prefix, DbScope scope, SQLFragment select, @Nullable SQLFragment uptodate, Supplier<String> supplier, @Nullable Collection<String> indexes, long maxTimeToCache,
+                                    boolean isSelectIntoSql, @Nullable String changeKey, @Nullable String uniqueKey, long safetyWindow)
+    {
+        if (isSelectIntoSql && null != changeKey)
+            throw new IllegalArgumentException("Incremental refresh is not supported for SELECT INTO queries");
         _prefix = StringUtils.defaultString(prefix,"mat");
         _scope = scope;
         _selectQuery = select;
@@ -316,6 +407,9 @@ public class MaterializedQueryHelper implements CacheListener, AutoCloseable
         if (null != indexes)
             _indexes.addAll(indexes);
         _isSelectIntoSql = isSelectIntoSql;
+        _changeKey = changeKey;
+        _uniqueKey = uniqueKey;
+        _safetyWindow = safetyWindow;
         assert MemTracker.get().put(this);
     }
 
@@ -418,6 +512,10 @@ public class MaterializedQueryHelper implements CacheListener, AutoCloseable
         Materialized materialized = getMaterializedAndLoad(selectQuery, isSelectInto);
         incrementalUpdateBeforeSelect(materialized);
 
+        // The materialized table may have been created or refreshed on the primary moments ago, so a read replica may
+        // not have it yet. Keep the rest of this thread's reads on the primary.
+        ReadReplica.pinToPrimary();
+
         _lastUsed.set(HeartBeat.currentTimeMillis());
         SQLFragment sqlf = new SQLFragment(materialized._fromSql);
         if (!StringUtils.isBlank(tableAlias))
@@ -433,6 +531,55 @@ public class MaterializedQueryHelper implements CacheListener, AutoCloseable
     }
 
 
+    /**
+     * Merge the source rows whose change key is at or past the temp table's maximum, less the safety window, into the
+     * temp table. Rows in that range are replaced, so rows that committed out of change key order are picked up as long
+     * as they committed within the window. With a unique key, existing copies of all changed rows are deleted too.
+     */
+    protected void incrementalRefresh(Materialized m)
+    {
+        assert null != _changeKey && null != m._sourceSql;
+        SqlDialect dialect = _scope.getSqlDialect();
+        String changeKey = dialect.makeLegalIdentifier(_changeKey);
+
+        try (var ignored = SpringActionController.ignoreSqlUpdates(); DbScope.Transaction tx = _scope.ensureTransaction())
+        {
+            Object watermark = new SqlSelector(_scope, new SQLFragment("SELECT MAX(").append(changeKey).append(") FROM ").append(m._fromSql)).getObject(Object.class);
+
+            SQLFragment delta = new SQLFragment("SELECT * FROM (\n").append(m._sourceSql).append("\n) _sql_");
+            if (null != watermark)
+            {
+                Object lowerBound = getLowerBound(watermark);
+                delta.append(" WHERE ").append(changeKey).append(" >= ?").add(lowerBound);
+
+                new SqlExecutor(_scope).execute(new SQLFragment("DELETE FROM ").append(m._fromSql).append(" WHERE ").append(changeKey).append(" >= ?").add(lowerBound));
+                if (null != _uniqueKey)
+                {
+                    String uniqueKey = dialect.makeLegalIdentifier(_uniqueKey);
+                    new SqlExecutor(_scope).execute(new SQLFragment("DELETE FROM ").append(m._fromSql).append(" WHERE ").append(uniqueKey)
+                        .append(" IN (SELECT ").append(uniqueKey).append(" FROM (").append(delta).append(") _delta_)"));
+                }
+            }
+            new SqlExecutor(_scope).execute(new SQLFragment("INSERT INTO ").append(m._fromSql).append("\n").append(delta));
+
+            tx.commit();
+        }
+        _countIncrementalRefresh.incrementAndGet();
+    }
+
+    // The smallest change key that's re-read: the safety window is in key units for numeric keys, ms for timestamps
+    private Object getLowerBound(Object watermark)
+    {
+        if (0 == _safetyWindow)
+            return watermark;
+        if (watermark instanceof Date d)
+            return new Timestamp(d.getTime() - _safetyWindow);
+        if (watermark instanceof Number n)
+            return n.longValue() - _safetyWindow;
+        throw new IllegalStateException("A safety window requires a numeric or timestamp change key, not " + watermark.getClass().getName());
+    }
+
+
     /**
      * A Materialized represents a particular instance of materialized view (stored in a temp table).
      * We want to avoid two threads materializing the same view.  This is why we synchronize first creating the
@@ -449,6 +596,7 @@ public class MaterializedQueryHelper implements CacheListener, AutoCloseable
         Materialized materialized = null;
         String txCacheKey = makeKey(_scope.getCurrentTransaction());
         boolean hasLock = false;
+        boolean refresh = false;
 
         try
         {
@@ -486,14 +634,26 @@ public class MaterializedQueryHelper implements CacheListener, AutoCloseable
                 if (null != materialized)
                 {
                     boolean replace = false;
+                    boolean incremental = canRefreshIncrementally(materialized);
                     for (Invalidator i : materialized._invalidators)
                     {
                         CacheCheck cc = i.checkValid(materialized._created);
                         if (cc != CacheCheck.OK)
+                        {
                             replace = true;
+                            incremental &= i.allowsIncrementalRefresh();
+                        }
+                    }
+                    if (replace && incremental)
+                    {
+                        // Keep serving the current table; the thread that noticed the change merges it before reading
+                        materialized._refreshPending.set(true);
+                        refresh = !forWrite;
                     }
-                    if (replace)
+                    else if (replace)
+                    {
                         materialized = null;
+                    }
                 }
             }
 
@@ -503,14 +663,24 @@ public class MaterializedQueryHelper implements CacheListener, AutoCloseable
                 if (hasLock)
                     _map.put(materialized._cacheKey, materialized);
             }
-
-            return materialized;
         }
         finally
         {
             if (hasLock)
                 materializeLock.unlock();
         }
+
+        if (refresh)
+            materialized.refresh(true);
+        return materialized;
+    }
+
+
+    // Incremental refreshes modify the shared table, so they're only done outside of transactions
+    private boolean canRefreshIncrementally(Materialized materialized)
+    {
+        return null != _changeKey && !_scope.isTransactionActive() && makeKey(null).equals(materialized._cacheKey) &&
+            Materialized.LoadingState.LOADED == materialized._loadingState.get() && null != materialized._sourceSql;
     }
 
 
@@ -519,7 +689,11 @@ public class MaterializedQueryHelper implements CacheListener, AutoCloseable
         Materialized materialized = getMaterialized(false);
 
         if (materialized.load(selectQuery, isSelectIntoSql))
+        {
+            // Merge changes noticed by a writer (see upsert()), unless another thread is already merging them
+            materialized.refresh(false);
             return materialized;
+        }
 
         // If there was a problem (but no thrown exception), try one more time from scratch;
         materialized = createMaterialized(materialized._cacheKey);
@@ -584,6 +758,9 @@ public class MaterializedQueryHelper implements CacheListener, AutoCloseable
         protected SQLFragment _uptodate = null;
         protected Supplier<String> _supplier = null;
         protected Collection<String> _indexes = new ArrayList<>();
+        protected String _changeKey = null;
+        protected String _uniqueKey = null;
+        protected long _safetyWindow = 0;
 
         public Builder(String prefix, DbScope scope, SQLFragment select)
         {
@@ -623,10 +800,33 @@ public class MaterializedQueryHelper implements CacheListener, AutoCloseable
             return this;
         }
 
+        /**
+         * Refresh incrementally when the up-to-date query or invalid check signals a change: instead of rematerializing,
+         * the temp table's rows whose changeKey is at or past its maximum less safetyWindow are replaced by the matching
+         * source rows. The change key must be a column of the select that's assigned a larger value on every insert
+         * (e.g., a rowId) or update (e.g., a modified timestamp).
+         *
+         * Keys like these are assigned before the transaction commits, so rows can become visible out of key order: a
+         * rowId allocated by a long-running import may commit after larger ones. safetyWindow (in key units for numeric
+         * keys, ms for timestamps) must exceed the largest such gap; rows that commit later than that are missed until
+         * the next full rematerialization. Pass 0 only if the key is assigned in commit order.
+         *
+         * If rows can be updated, also pass a uniqueKey column, so an updated row's previous copy is deleted. Deleted
+         * source rows aren't detected, so callers must uncache() on delete. Expiration (maxTimeToCache) still
+         * rematerializes from scratch.
+         */
+        public Builder incrementalRefresh(String changeKey, @Nullable String uniqueKey, long safetyWindow)
+        {
+            _changeKey = changeKey;
+            _uniqueKey = uniqueKey;
+            _safetyWindow = safetyWindow;
+            return this;
+        }
+
         @Override
         public MaterializedQueryHelper build()
         {
-            return new MaterializedQueryHelper(_prefix, _scope, _select, _uptodate, _supplier, _indexes, _max, _isSelectInto);
+            return new MaterializedQueryHelper(_prefix, _scope, _select, _uptodate, _supplier, _indexes, _max, _isSelectInto, _changeKey, _uniqueKey, _safetyWindow);
         }
     }
 
@@ -667,6 +867,56 @@ public class MaterializedQueryHelper implements CacheListener, AutoCloseable
             }
         }
 
+        private int count(SQLFragment from)
+        {
+            return new SqlSelector(DbSchema.getTemp(), new SQLFragment("SELECT COUNT(*) FROM ").append(from)).getObject(Integer.class);
+        }
+
+        @Test
+        public void testIncremental()
+        {
+            DbSchema temp = DbSchema.getTemp();
+            DbScope s = temp.getScope();
+            SQLFragment select = new SQLFragment("SELECT x FROM temp.MQH_TESTCASE");
+            SQLFragment uptodate = new SQLFragment("SELECT COALESCE(CAST(SUM(x) AS VARCHAR(40)),'-') FROM temp.MQH_TESTCASE");
+            try (MaterializedQueryHelper append = new Builder("test", s, select).upToDateSql(uptodate).incrementalRefresh("x", null, 0).build();
+                 MaterializedQueryHelper replace = new Builder("test", s, select).upToDateSql(uptodate).incrementalRefresh("x", "x", 0).build();
+                 MaterializedQueryHelper window = new Builder("test", s, select).upToDateSql(uptodate).incrementalRefresh("x", null, 2).build())
+            {
+                SQLFragment empty = append.getFromSql("_");
+                assertEquals(0, count(empty));
+                new SqlExecutor(temp).execute("INSERT INTO temp.MQH_TESTCASE (x) VALUES (1), (2)");
+                SQLFragment two = append.getFromSql("_");
+                assertEquals("Refreshing should merge into the existing table", empty, two);
+                assertEquals(2, count(two));
+                assertEquals(2, count(replace.getFromSql("_")));
+
+                new SqlExecutor(temp).execute("INSERT INTO temp.MQH_TESTCASE (x) VALUES (3)");
+                assertEquals(3, count(append.getFromSql("_")));
+                // Rows at the previous maximum are re-read, and must replace their earlier copies
+                SQLFragment three = replace.getFromSql("_");
+                assertEquals(3, count(three));
+                assertEquals(3, count(window.getFromSql("_")));
+
+                // A row that commits after a larger key is picked up if it's within the safety window
+                new SqlExecutor(temp).execute("INSERT INTO temp.MQH_TESTCASE (x) VALUES (6)");
+                assertEquals(4, count(window.getFromSql("_")));
+                new SqlExecutor(temp).execute("INSERT INTO temp.MQH_TESTCASE (x) VALUES (5)");
+                assertEquals(5, count(window.getFromSql("_")));
+                new SqlExecutor(temp).execute("DELETE FROM temp.MQH_TESTCASE WHERE x > 3");
+
+                // Inside a transaction, the shared table isn't modified
+                try (DbScope.Transaction ignored = s.ensureTransaction())
+                {
+                    new SqlExecutor(temp).execute("INSERT INTO temp.MQH_TESTCASE (x) VALUES (4)");
+                    SQLFragment inTransaction = replace.getFromSql("_");
+                    assertNotEquals(three, inTransaction);
+                    assertEquals(4, count(inTransaction));
+                }
+                assertEquals(3, count(replace.getFromSql("_")));
+            }
+        }
+
         @Test
         public void testThreads() throws Exception
         {
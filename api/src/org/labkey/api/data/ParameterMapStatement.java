@@ -73,15 +73,28 @@ public class ParameterMapStatement implements AutoCloseable
     {
         if (null == _sqlf || null == _conn)
             throw new IllegalStateException("Copy can only be used on ParameterMap constructed with SQL");
-        return new ParameterMapStatement(this);
+        return new ParameterMapStatement(this, _conn);
+    }
+
+    /** Prepare the same statement on a different connection */
+    public ParameterMapStatement copy(@NotNull Connection conn)
+    {
+        if (null == _sqlf)
+            throw new IllegalStateException("Copy can only be used on ParameterMap constructed with SQL");
+        return new ParameterMapStatement(this, conn);
     }
 
     protected ParameterMapStatement(ParameterMapStatement from)
+    {
+        this(from, from._conn);
+    }
+
+    protected ParameterMapStatement(ParameterMapStatement from, Connection conn)
     {
         _scope = from._scope;
         _sqlf = from._sqlf;
         _debugSql = from._debugSql;
-        _conn = from._conn;
+        _conn = conn;
         _selectRowId = from._selectRowId;
         _selectObjectIdIndex = from._selectObjectIdIndex;
         _rowId = from._rowId;
@@ -567,6 +580,12 @@ public class ParameterMapStatement implements AutoCloseable
         return _scope;
     }
 
+    /** @return the connection this statement was prepared on, or null if it was constructed from a PreparedStatement */
+    public @Nullable Connection getConnection()
+    {
+        return _conn;
+    }
+
     public Selector selector()
     {
         try
@@ -0,0 +1,142 @@
+package org.labkey.api.data;
+
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import org.labkey.api.cache.CacheInvalidationBus;
+import org.labkey.api.util.logging.LogHelper;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.function.Consumer;
+
+/**
+ * Carries cache invalidation messages between LabKey servers that share a PostgreSQL database, using LISTEN/NOTIFY.
+ * Messages are sent with pg_notify() on a pooled connection. A dedicated, unpooled connection LISTENs for them; if that
+ * connection fails, the listener reconnects and reports that messages may have been missed.
+ */
+public class PostgreSqlNotifyTransport implements CacheInvalidationBus.Transport
+{
+    private static final Logger LOG = LogHelper.getLogger(PostgreSqlNotifyTransport.class, "PostgreSQL LISTEN/NOTIFY cache invalidation");
+
+    private static final String CHANNEL = "labkey_cache_invalidation";
+    // PostgreSQL's payload limit is 8000 bytes; leave some headroom
+    private static final int MAX_PAYLOAD_BYTES = 7900;
+    private static final int POLL_TIMEOUT = 1000;
+    private static final long RECONNECT_DELAY = 5000;
+
+    private final DbScope _scope;
+    private volatile boolean _shutdown = false;
+    private Thread _listener;
+
+    public PostgreSqlNotifyTransport(DbScope scope)
+    {
+        _scope = scope;
+    }
+
+    @Override
+    public String getName()
+    {
+        return "PostgreSQL LISTEN/NOTIFY on " + _scope.getDisplayName();
+    }
+
+    @Override
+    public int getMaxMessageBytes()
+    {
+        return MAX_PAYLOAD_BYTES;
+    }
+
+    @Override
+    public void publish(String message) throws SQLException
+    {
+        // Use a connection of our own so the notification isn't held back by (or rolled back with) a thread's transaction
+        try (Connection conn = _scope.getPooledConnection(); PreparedStatement stmt = conn.prepareStatement("SELECT pg_notify(?, ?)"))
+        {
+            stmt.setString(1, CHANNEL);
+            stmt.setString(2, message);
+            stmt.execute();
+        }
+    }
+
+    @Override
+    public void start(Consumer<String> receiver)
+    {
+        _listener = new Thread(() -> listen(receiver), "Cache invalidation listener");
+        _listener.setDaemon(true);
+        _listener.start();
+    }
+
+    private void listen(Consumer<String> receiver)
+    {
+        boolean connectedBefore = false;
+
+        while (!_shutdown)
+        {
+            try (Connection conn = _scope.getUnpooledConnection())
+            {
+                try (Statement stmt = conn.createStatement())
+                {
+                    stmt.execute("LISTEN " + CHANNEL);
+                }
+
+                // Invalidations sent while we were disconnected are lost
+                if (connectedBefore)
+                    deliver(receiver, null);
+
+                connectedBefore = true;
+                PGConnection pgConn = conn.unwrap(PGConnection.class);
+
+                while (!_shutdown)
+                {
+                    PGNotification[] notifications = pgConn.getNotifications(POLL_TIMEOUT);
+
+                    if (null != notifications)
+                    {
+                        for (PGNotification notification : notifications)
+                            deliver(receiver, notification.getParameter());
+                    }
+                }
+            }
+            catch (SQLException e)
+            {
+                if (_shutdown)
+                    break;
+
+                LOG.warn("Cache invalidation listener lost its connection; reconnecting in " + RECONNECT_DELAY + "ms", e);
+
+                try
+                {
+                    Thread.sleep(RECONNECT_DELAY);
+                }
+                catch (InterruptedException ignored)
+                {
+                }
+            }
+        }
+    }
+
+    // A bad message must not kill the listener thread, so log and move on to the next one
+    private void deliver(Consumer<String> receiver, @Nullable String message)
+    {
+        try
+        {
+            receiver.accept(message);
+        }
+        catch (RuntimeException e)
+        {
+            LOG.error("Exception while applying cache invalidations", e);
+        }
+    }
+
+    @Override
+    public void shutdown()
+    {
+        _shutdown = true;
+
+        if (null != _listener)
+            _listener.interrupt();
+    }
+}
@@ -0,0 +1,380 @@
+package org.labkey.api.data;
+
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.Assert;
+import org.junit.Test;
+import org.labkey.api.cache.CacheManager;
+import org.labkey.api.util.QuietCloser;
+import org.labkey.api.util.logging.LogHelper;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>A streaming replica of a DbScope's database that can serve read-only queries in place of the primary. A replica is
+ * configured with LabKey-specific properties on the primary data source, naming another data source defined in
+ * application.properties:</p>
+ *
+ * <p>{@code <Parameter name="labkeyDataSource:ReadReplica" value="labkeyReplicaDataSource"/>}</p>
+ * <p>{@code <Parameter name="labkeyDataSource:MaxReplicationLag" value="30"/>}</p>
+ *
+ * <p>A select is sent to the replica only if the selector has opted in via
+ * {@link SqlExecutingSelector#setAllowReadReplica(boolean)} (only the grid, selectRows, and export results path in
+ * {@link RenderContext} does this), the current thread has opted in via {@link #routeReads()} (read-only API actions
+ * and export actions do this), no transaction is active, the thread hasn't executed mutating SQL or selected from a
+ * temp table (a {@link MaterializedQueryHelper} table, or any SQL with {@link SQLFragment#hasTempTokens() temp tokens},
+ * such as a cached in-clause table) since it opted in (so it always reads its own writes), and the replica's most
+ * recently measured replication lag is within MaxReplicationLag seconds. Everything else, including the selects that
+ * load shared caches, goes to the primary.</p>
+ *
+ * <p>Lag is measured at most once every {@link #LAG_CHECK_INTERVAL} ms, by whichever thread first finds the last
+ * measurement stale; other threads use the previous result meanwhile. A replica that can't be reached, or whose lag
+ * can't be determined, is treated as lagging.</p>
+ */
+public class ReadReplica
+{
+    private static final Logger LOG = LogHelper.getLogger(ReadReplica.class, "Read replica routing and replication lag");
+    private static final ThreadLocal<Routing> ROUTING = new ThreadLocal<>();
+
+    public static final int DEFAULT_MAX_LAG_SECONDS = 30;
+    static final long LAG_CHECK_INTERVAL = 5 * CacheManager.SECOND;
+
+    @FunctionalInterface
+    public interface LagProbe
+    {
+        /** @return the replica's replication lag in milliseconds, or null if it can't be determined */
+        @Nullable Long getLagMillis() throws SQLException;
+    }
+
+    private final String _dsName;
+    private final DataSource _dataSource;
+    private final long _maxLagMillis;
+    private final LagProbe _probe;
+
+    private final AtomicBoolean _checking = new AtomicBoolean();
+    private volatile long _lastCheck = 0;
+    private volatile boolean _checked = false;
+    private volatile boolean _current = false;
+    private volatile @Nullable Long _lagMillis = null;
+
+    private final LongAdder _routed = new LongAdder();
+    private final LongAdder _fallbacks = new LongAdder();
+    private final LongAdder _lagChecks = new LongAdder();
+    private final LongAdder _failedLagChecks = new LongAdder();
+
+    ReadReplica(String dsName, DataSource dataSource, int maxLagSeconds, String lagSql)
+    {
+        _dsName = dsName;
+        _dataSource = dataSource;
+        _maxLagMillis = maxLagSeconds * CacheManager.SECOND;
+        _probe = () -> {
+            try (Connection conn = dataSource.getConnection(); Statement stmt = conn.createStatement())
+            {
+                stmt.setQueryTimeout(5);
+                try (ResultSet rs = stmt.executeQuery(lagSql))
+                {
+                    if (!rs.next())
+                        return null;
+                    long lag = rs.getLong(1);
+                    return rs.wasNull() ? null : lag;
+                }
+            }
+        };
+    }
+
+    // Used for testing
+    ReadReplica(String dsName, DataSource dataSource, int maxLagSeconds, LagProbe probe)
+    {
+        _dsName = dsName;
+        _dataSource = dataSource;
+        _maxLagMillis = maxLagSeconds * CacheManager.SECOND;
+        _probe = probe;
+    }
+
+    /**
+     * Marks the current thread as willing to have its selects served by read replicas until the returned QuietCloser
+     * is closed. Sections may nest; only the outermost one's close ends routing.
+     */
+    public static QuietCloser routeReads()
+    {
+        Routing previous = ROUTING.get();
+        if (null != previous)
+            return () -> {};
+
+        ROUTING.set(new Routing());
+        return ROUTING::remove;
+    }
+
+    /** @return true if the current thread is in a {@link #routeReads()} section and hasn't been pinned to the primary */
+    public static boolean isRouting()
+    {
+        Routing routing = ROUTING.get();
+        return null != routing && !routing._pinned;
+    }
+
+    /** Sends the rest of the current thread's {@link #routeReads()} section to the primary, e.g., after it writes */
+    public static void pinToPrimary()
+    {
+        Routing routing = ROUTING.get();
+        if (null != routing)
+            routing._pinned = true;
+    }
+
+    public String getDataSourceName()
+    {
+        return _dsName;
+    }
+
+    DataSource getDataSource()
+    {
+        return _dataSource;
+    }
+
+    /**
+     * @return true if a select on the current thread should be sent to this replica. Callers check for an active
+     * transaction first.
+     */
+    boolean shouldRoute()
+    {
+        if (!isRouting())
+            return false;
+
+        if (isCurrent())
+        {
+            _routed.increment();
+            return true;
+        }
+
+        _fallbacks.increment();
+        return false;
+    }
+
+    /** Called when a routed select couldn't get a replica connection; it falls back to the primary */
+    void connectionFailed(SQLException e)
+    {
+        _routed.decrement();
+        _fallbacks.increment();
+        if (_current)
+        {
+            _current = false;
+            LOG.warn("Can't connect to read replica \"" + _dsName + "\"; sending reads to the primary until it's available", e);
+        }
+    }
+
+    /** @return true if the replica was within the lag threshold when last checked, rechecking if that's stale */
+    boolean isCurrent()
+    {
+        long now = System.currentTimeMillis();
+        if ((!_checked || now - _lastCheck >= LAG_CHECK_INTERVAL) && _checking.compareAndSet(false, true))
+        {
+            try
+            {
+                checkLag(now);
+            }
+            finally
+            {
+                _checking.set(false);
+            }
+        }
+        return _current;
+    }
+
+    private void checkLag(long now)
+    {
+        _lagChecks.increment();
+        Long lag;
+        SQLException failure = null;
+
+        try
+        {
+            lag = _probe.getLagMillis();
+        }
+        catch (SQLException e)
+        {
+            lag = null;
+            failure = e;
+            _failedLagChecks.increment();
+        }
+
+        boolean current = null != lag && lag <= _maxLagMillis;
+        boolean wasCurrent = _current;
+        _lagMillis = lag;
+        _current = current;
+        _lastCheck = now;
+        _checked = true;
+
+        if (current != wasCurrent)
+        {
+            if (current)
+                LOG.info("Read replica \"" + _dsName + "\" is current (lag " + lag + "ms); sending eligible reads to it");
+            else if (null != failure)
+                LOG.warn("Can't determine replication lag of read replica \"" + _dsName + "\"; sending reads to the primary", failure);
+            else
+                LOG.warn("Read replica \"" + _dsName + "\" is lagging (" + (null == lag ? "unknown" : lag + "ms") + ", maximum " + _maxLagMillis + "ms); sending reads to the primary");
+        }
+    }
+
+    /** @return the most recently measured replication lag in milliseconds, or null if unknown */
+    public @Nullable Long getLagMillis()
+    {
+        return _lagMillis;
+    }
+
+    public long getMaxLagMillis()
+    {
+        return _maxLagMillis;
+    }
+
+    public long getRoutedCount()
+    {
+        return _routed.sum();
+    }
+
+    public long getFallbackCount()
+    {
+        return _fallbacks.sum();
+    }
+
+    public long getLagCheckCount()
+    {
+        return _lagChecks.sum();
+    }
+
+    public long getFailedLagCheckCount()
+    {
+        return _failedLagChecks.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        return _dsName + ": " + (_current ? "current" : "not current") + ", lag=" + (null == _lagMillis ? "unknown" : _lagMillis + "ms") +
+            ", routed=" + getRoutedCount() + ", fallbacks=" + getFallbackCount() + ", lagChecks=" + getLagCheckCount() +
+            ", failedLagChecks=" + getFailedLagCheckCount();
+    }
+
+    private static class Routing
+    {
+        private boolean _pinned = false;
+    }
+
+    public static class TestCase extends Assert
+    {
+        private static class TestProbe implements LagProbe
+        {
+            private Long _lag = 0L;
+            private boolean _fail = false;
+            private int _calls = 0;
+
+            @Override
+            public @Nullable Long getLagMillis() throws SQLException
+            {
+                _calls++;
+                if (_fail)
+                    throw new SQLException("Replica is down");
+                return _lag;
+            }
+        }
+
+        private static @NotNull ReadReplica replica(TestProbe probe)
+        {
+            // Lag checks never use the data source, so it isn't needed
+            return new ReadReplica("testReplica", null, 10, probe);
+        }
+
+        @Test
+        public void testRoutingSections()
+        {
+            ReadReplica replica = replica(new TestProbe());
+            assertFalse(isRouting());
+            assertFalse("Reads outside a routing section go to the primary", replica.shouldRoute());
+
+            try (QuietCloser ignored = routeReads())
+            {
+                assertTrue(isRouting());
+                assertTrue(replica.shouldRoute());
+
+                try (QuietCloser ignored2 = routeReads())
+                {
+                    assertTrue(replica.shouldRoute());
+                }
+                assertTrue("Closing a nested section shouldn't end routing", isRouting());
+
+                pinToPrimary();
+                assertFalse("Reads after a write go to the primary", replica.shouldRoute());
+            }
+
+            assertFalse(isRouting());
+            try (QuietCloser ignored = routeReads())
+            {
+                assertTrue("A new section shouldn't inherit the previous pin", replica.shouldRoute());
+            }
+            assertEquals(3, replica.getRoutedCount());
+            assertEquals("Only lag-related fallbacks are counted", 0, replica.getFallbackCount());
+        }
+
+        @Test
+        public void testLag()
+        {
+            TestProbe probe = new TestProbe();
+            ReadReplica replica = replica(probe);
+
+            try (QuietCloser ignored = routeReads())
+            {
+                probe._lag = 10 * CacheManager.SECOND;
+                assertTrue("Lag at the threshold is acceptable", replica.shouldRoute());
+                assertEquals(Long.valueOf(10 * CacheManager.SECOND), replica.getLagMillis());
+
+                // Lag is rechecked only once the interval has passed
+                probe._lag = 11 * CacheManager.SECOND;
+                assertTrue(replica.shouldRoute());
+                assertEquals(1, probe._calls);
+
+                replica._lastCheck -= LAG_CHECK_INTERVAL;
+                assertFalse("Reads fall back to the primary when the replica lags", replica.shouldRoute());
+                assertEquals(2, probe._calls);
+
+                probe._lag = null;
+                replica._lastCheck -= LAG_CHECK_INTERVAL;
+                assertFalse("Unknown lag should be treated as lagging", replica.shouldRoute());
+
+                probe._fail = true;
+                replica._lastCheck -= LAG_CHECK_INTERVAL;
+                assertFalse("An unreachable replica should be treated as lagging", replica.shouldRoute());
+                assertEquals(1, replica.getFailedLagCheckCount());
+
+                probe._fail = false;
+                probe._lag = 0L;
+                replica._lastCheck -= LAG_CHECK_INTERVAL;
+                assertTrue("Reads return to the replica once it catches up", replica.shouldRoute());
+                assertEquals(5, replica.getLagCheckCount());
+
+                replica.connectionFailed(new SQLException("Connection refused"));
+                assertFalse("A failed connection should send reads to the primary until the next lag check", replica.shouldRoute());
+            }
+        }
+
+        @Test
+        public void testRoutingIsPerThread() throws Exception
+        {
+            ReadReplica replica = replica(new TestProbe());
+
+            try (QuietCloser ignored = routeReads())
+            {
+                boolean[] otherThread = new boolean[1];
+                Thread t = new Thread(() -> otherThread[0] = replica.shouldRoute());
+                t.start();
+                t.join();
+                assertFalse("Another thread's routing section shouldn't route this thread's reads", otherThread[0]);
+                assertTrue(replica.shouldRoute());
+            }
+        }
+    }
+}
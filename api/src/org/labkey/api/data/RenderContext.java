@@ -541,6 +541,7 @@ public class RenderContext implements Map<String, Object>, Serializable
     {
         TableSelector selector = new TableSelector(table, columns, filter, sort)
             .setJdbcCaching(getCache())  // #39888
+            .setAllowReadReplica(true)  // Grid, selectRows, and export results go straight to the user
             .setNamedParameters(parameters)
             .setMaxRows(maxRows)
             .setOffset(offset)
@@ -871,6 +871,27 @@ public class SQLFragment implements Appendable, CharSequence
         tempTokens.add(other.tempTokens);
     }
 
+    /** @return true if this SQL, including its common table expressions, references temp tables registered via addTempToken() */
+    public boolean hasTempTokens()
+    {
+        if (hasTempTokens(tempTokens))
+            return true;
+        if (null != commonTableExpressionsMap)
+            for (CTE cte : commonTableExpressionsMap.values())
+                if (null != cte.sqlf && cte.sqlf.hasTempTokens())
+                    return true;
+        return false;
+    }
+
+    // addTempTokens() nests the other fragment's (possibly empty) list
+    private static boolean hasTempTokens(List<?> tokens)
+    {
+        for (Object token : tokens)
+            if (!(token instanceof List<?> nested) || hasTempTokens(nested))
+                return true;
+        return false;
+    }
+
     public static SQLFragment prettyPrint(SQLFragment from)
     {
         SQLFragment sqlf = new SQLFragment(from);
@@ -450,6 +450,19 @@ public class SchemaTableInfo implements TableInfo, UpdateableTableInfo, AuditCon
     }
 
 
+    /**
+     * Rough estimate of the heap retained by this table and its columns, for cache memory accounting. Doesn't force
+     * column metadata to load.
+     */
+    public long getEstimatedSize()
+    {
+        synchronized (_columnLock)
+        {
+            return 2_000 + (null == _columnMetaData ? 0 : _columnMetaData.getColumns().size() * 2_000L);
+        }
+    }
+
+
     protected SchemaColumnMetaData createSchemaColumnMetaData() throws SQLException
     {
         return new SchemaColumnMetaData(this, _autoLoadMetaData);
@@ -112,6 +112,6 @@ public class SchemaTableInfoCache
         // We modify provisioned tables inside of transactions, so use a DatabaseCache to help with proper invalidation. Issue 46951.
         return provisioned ?
             DatabaseCache.get(scope, 10000, CacheManager.UNLIMITED, comment, new SchemaTableLoader()) :
-            new BlockingCache<>(CacheManager.getStringKeyCache(10000, CacheManager.UNLIMITED, comment), new SchemaTableLoader());
+            CacheManager.getBlockingCache(10000, CacheManager.UNLIMITED, comment, new SchemaTableLoader(), (key, table) -> table.getEstimatedSize());
     }
 }
@@ -69,6 +69,13 @@ public class SelectQueryAuditProvider extends AbstractAuditTypeProvider
         return "Lists specific columns and identified data relating to explicitly logged queries";
     }
 
+    @Override
+    public boolean isAsyncWriteAllowed()
+    {
+        // Logged on every select of a logged query, and never read back by the code that logs it
+        return true;
+    }
+
     @Override
     public <K extends AuditTypeEvent> Class<K> getEventClass()
     {
@@ -45,6 +45,8 @@ public abstract class SqlExecutingSelector<FACTORY extends SqlFactory, SELECTOR
     int _maxRows = Table.ALL_ROWS;
     protected long _offset = Table.NO_OFFSET;
     @Nullable Map<String, Object> _namedParameters = null;
+    private boolean _jdbcCaching = true;
+    private boolean _allowReadReplica = false;
     private ConnectionFactory _connectionFactory = super::getConnection;
 
     private @Nullable AsyncQueryRequest _asyncRequest = null;
@@ -107,13 +109,46 @@ public abstract class SqlExecutingSelector<FACTORY extends SqlFactory, SELECTOR
         if (null != _conn)
             throw new IllegalStateException("Calling setJdbcCaching() is not valid when a Connection has already been provided");
 
-        ConnectionFactory factory = getScope().getSqlDialect().getConnectionFactory(cache, getScope(),
-            new SQLFragment("SELECT FakeColumn FROM FakeTable") /* SqlExecutingSelector always generates SELECT statements */);
-        _connectionFactory = null != factory ? factory : super::getConnection;
+        _jdbcCaching = cache;
+        updateConnectionFactory();
 
         return getThis();
     }
 
+    /**
+     * <p>Calling this method with true allows this select to be served by the scope's read replica, if one is configured
+     * and the current thread is routing reads (see {@link ReadReplica}). Selects go to the primary by default. Only
+     * selects whose results go straight to the user (grids, selectRows, exports) should opt in; anything that populates
+     * a shared cache, decides whether to refresh a materialization, or reads rows the thread just wrote elsewhere must
+     * not, since the replica may lag.</p>
+     *
+     * <p>Calling this method is not compatible with passing in an explicit Connection to the constructor.</p>
+     *
+     * @return this SqlExecutingSelector, to allow chaining of setters
+     * @throws IllegalStateException if a Connection was provided at construction time
+     */
+    public SELECTOR setAllowReadReplica(boolean allowReadReplica)
+    {
+        if (null != _conn)
+            throw new IllegalStateException("Calling setAllowReadReplica() is not valid when a Connection has already been provided");
+
+        _allowReadReplica = allowReadReplica;
+        updateConnectionFactory();
+
+        return getThis();
+    }
+
+    private void updateConnectionFactory()
+    {
+        ConnectionFactory factory = getScope().getSqlDialect().getConnectionFactory(_jdbcCaching, _allowReadReplica, getScope(),
+            new SQLFragment("SELECT FakeColumn FROM FakeTable") /* SqlExecutingSelector always generates SELECT statements */);
+
+        if (null != factory)
+            _connectionFactory = factory;
+        else
+            _connectionFactory = _allowReadReplica ? super::getReadConnection : super::getConnection;
+    }
+
     @Override
     protected ResultSetFactory getStandardResultSetFactory()
     {
@@ -386,6 +421,11 @@ public abstract class SqlExecutingSelector<FACTORY extends SqlFactory, SELECTOR
                 // Short circuit if no SQL is generated, e.g., AggregateSqlFactory
                 if (null != _sql)
                 {
+                    // Temp tables (e.g., cached in-clause or closure tables) can be newer than the replica, and reusing
+                    // them runs no mutating SQL, so read them, and the rest of the routing section, from the primary
+                    if (_allowReadReplica && _sql.hasTempTokens())
+                        ReadReplica.pinToPrimary();
+
                     DbScope scope = getScope();
                     conn = getConnection();
 
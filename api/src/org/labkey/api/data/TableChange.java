@@ -60,6 +60,7 @@ public class TableChange
     private Collection<Constraint> _constraints;
     private Set<String> _indicesToBeDroppedByName;
     private IndexSizeMode _sizeMode = IndexSizeMode.Auto;
+    private String _partitionColumn = null;
 
     /** In most cases, domain knows the storage table name **/
     public TableChange(Domain domain, ChangeType changeType)
@@ -326,6 +327,17 @@ public class TableChange
         _foreignKeys = foreignKeys;
     }
 
+    /** For CreateTable, the column to range partition the new table on, or null for an ordinary table */
+    public String getPartitionColumn()
+    {
+        return _partitionColumn;
+    }
+
+    public void setPartitionColumn(String partitionColumn)
+    {
+        _partitionColumn = partitionColumn;
+    }
+
     public final List<PropertyStorageSpec> toSpecs(Collection<String> columnNames)
     {
         final Domain domain = _domain;
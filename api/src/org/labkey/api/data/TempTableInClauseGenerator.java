@@ -24,6 +24,7 @@ import org.labkey.api.cache.Cache;
 import org.labkey.api.cache.CacheManager;
 import org.labkey.api.util.GUID;
 import org.labkey.api.util.HashHelpers;
+import org.labkey.api.util.QuietCloser;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -208,5 +209,24 @@ public class TempTableInClauseGenerator implements InClauseGenerator
 
             Assert.assertEquals("Validate SQL matches, indicated cached results", firstSQL, secondSQL);
         }
+
+        @Test
+        public void testCachedTableReadFromPrimary()
+        {
+            SQLFragment sql = new SQLFragment("SELECT a from (SELECT 1 AS a UNION SELECT 2 AS a UNION SELECT 7 AS a) b WHERE a ");
+            // An earlier request creates and caches the table
+            Assert.assertEquals(2, new SqlSelector(_scope, new TempTableInClauseGenerator().appendInClauseSql(new SQLFragment(sql), INTEGERS)).getRowCount());
+
+            try (QuietCloser ignored = ReadReplica.routeReads())
+            {
+                SQLFragment cachedSQL = new TempTableInClauseGenerator().appendInClauseSql(new SQLFragment(sql), INTEGERS);
+                Assert.assertTrue(cachedSQL.hasTempTokens());
+                Assert.assertTrue("Reusing a cached table shouldn't run mutating SQL", ReadReplica.isRouting());
+
+                // The replica may not have the table yet
+                Assert.assertEquals(2, new SqlSelector(_scope, cachedSQL).setAllowReadReplica(true).getRowCount());
+                Assert.assertFalse("Selecting from a temp table should pin the thread to the primary", ReadReplica.isRouting());
+            }
+        }
     }
 }
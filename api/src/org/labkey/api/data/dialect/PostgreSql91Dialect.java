@@ -29,6 +29,7 @@ import org.labkey.api.data.ConnectionWrapper;
 import org.labkey.api.data.ConnectionWrapper.Closer;
 import org.labkey.api.data.Constraint;
 import org.labkey.api.data.CoreSchema;
+import org.labkey.api.data.DatabaseTableType;
 import org.labkey.api.data.DbSchema;
 import org.labkey.api.data.DbSchemaType;
 import org.labkey.api.data.DbScope;
@@ -147,6 +148,14 @@ public abstract class PostgreSql91Dialect extends SqlDialect
             "trailing, true, union, unique, user, using, variadic, verbose, when, where, window, with"));
     }
 
+    @Override
+    protected void initializeJdbcTableTypeMap(Map<String, DatabaseTableType> map)
+    {
+        super.initializeJdbcTableTypeMap(map);
+        // The parent of a partitioned table (e.g., a partitioned audit table)
+        map.put("PARTITIONED TABLE", DatabaseTableType.TABLE);
+    }
+
     @Override
     public StatementWrapper getStatementWrapper(ConnectionWrapper conn, Statement stmt)
     {
@@ -1285,7 +1294,11 @@ public abstract class PostgreSql91Dialect extends SqlDialect
             createTableSqlParts.add(fkString.toString());
         }
 
-        statements.add(String.format("CREATE TABLE %s (%s)", makeTableIdentifier(change), StringUtils.join(createTableSqlParts, ", ")));
+        // A range partitioned table's primary key (and any unique index) must include the partition column. Rows
+        // outside every partition land in the default partition, so inserts never fail for lack of a partition.
+        String partitionColumn = change.getPartitionColumn();
+        statements.add(String.format("CREATE TABLE %s (%s)%s", makeTableIdentifier(change), StringUtils.join(createTableSqlParts, ", "),
+                null == partitionColumn ? "" : " PARTITION BY RANGE (" + makePropertyIdentifier(partitionColumn) + ")"));
         if (null != pkColumn)
         {
             // Making this just for consistent naming
@@ -1295,7 +1308,14 @@ public abstract class PostgreSql91Dialect extends SqlDialect
                     makeTableIdentifier(change),
                     constraint.getName(),
                     constraint.getType(),
-                    makePropertyIdentifier(pkColumn)));
+                    makePropertyIdentifier(pkColumn) + (null == partitionColumn || partitionColumn.equalsIgnoreCase(pkColumn) ? "" : ", " + makePropertyIdentifier(partitionColumn))));
+        }
+        if (null != partitionColumn)
+        {
+            statements.add(String.format("CREATE TABLE %s.%s PARTITION OF %s DEFAULT",
+                    change.getSchemaName(),
+                    makeDefaultPartitionName(change.getTableName()),
+                    makeTableIdentifier(change)));
         }
 
         addCreateIndexStatements(statements, change);
@@ -1404,6 +1424,13 @@ public abstract class PostgreSql91Dialect extends SqlDialect
         return StringUtils.join(colSpec, ' ');
     }
 
+    /** @return the name of the partition that holds a range partitioned table's rows that fall outside its other partitions */
+    public static String makeDefaultPartitionName(String tableName)
+    {
+        // PostgreSQL truncates identifiers longer than 63 bytes
+        return StringUtils.left(tableName, 63 - "_default".length()) + "_default";
+    }
+
     private String makeTableIdentifier(TableChange change)
     {
         assert AliasManager.isLegalName(change.getTableName());
@@ -1786,7 +1813,7 @@ public abstract class PostgreSql91Dialect extends SqlDialect
     }
 
     @Override
-    public ConnectionFactory getConnectionFactory(boolean useJdbcCaching, DbScope scope, SQLFragment sql)
+    public ConnectionFactory getConnectionFactory(boolean useJdbcCaching, boolean allowReadReplica, DbScope scope, SQLFragment sql)
     {
         // Fiddle with the Connection settings only if asked to turn off JDBC caching, we're not inside a transaction,
         // and it's a read-only statement (a SELECT), so we won't mess up any state the caller is relying on.
@@ -1798,9 +1825,12 @@ public abstract class PostgreSql91Dialect extends SqlDialect
         {
             // Factory that gets a fresh, read-only connection directly from the pool (not shared with the thread) and
             // configures it to not cache ResultSet data in the JDBC driver, making it suitable for streaming very large
-            // ResultSets. See #39753 and #39888.
+            // ResultSets. See #39753 and #39888. Large exports are the main use, so send them to the read replica if
+            // the caller allows it and it's eligible.
             return () -> {
-                ConnectionWrapper conn = scope.getPooledConnection(DbScope.ConnectionType.Pooled, null);
+                ConnectionWrapper conn = allowReadReplica ? scope.getReplicaConnection(null) : null;
+                if (null == conn)
+                    conn = scope.getPooledConnection(DbScope.ConnectionType.Pooled, null);
                 Closer closer = configureToDisableJdbcCaching(conn, scope);
                 conn.setRunOnClose(closer);
                 return conn;
@@ -1988,6 +2018,17 @@ public abstract class PostgreSql91Dialect extends SqlDialect
         return "PostgreSQL JDBC Driver";
     }
 
+    @Override
+    public @Nullable String getReplicationLagSql()
+    {
+        // A standby that has replayed everything it has received is current, however long ago the last primary
+        // transaction was. Otherwise, lag is the age of the last replayed transaction. A server that isn't in recovery
+        // isn't a standby, so it can't lag.
+        return "SELECT CASE WHEN NOT pg_is_in_recovery() THEN 0 " +
+            "WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+            "ELSE CAST(EXTRACT(EPOCH FROM (now() - pg_last_xact_replay_timestamp())) * 1000 AS BIGINT) END";
+    }
+
     @Override
     public @NotNull String getApplicationConnectionsSql()
     {
@@ -355,8 +355,9 @@ public abstract class SqlDialect
         return null;
     }
 
-    // Return a ConnectionFactory only if the default behavior needs to be overridden
-    public @Nullable ConnectionFactory getConnectionFactory(boolean useJdbcCaching, DbScope scope, SQLFragment sql)
+    // Return a ConnectionFactory only if the default behavior needs to be overridden. allowReadReplica means the caller
+    // opted in to having this select served by the scope's read replica (see ReadReplica).
+    public @Nullable ConnectionFactory getConnectionFactory(boolean useJdbcCaching, boolean allowReadReplica, DbScope scope, SQLFragment sql)
     {
         return null;
     }
@@ -1846,6 +1847,13 @@ public abstract class SqlDialect
         return null;
     }
 
+    // Returns SQL that, run on a streaming replica, selects how far (in milliseconds) it lags behind the primary, or
+    // NULL if that can't be determined. Dialects that return null here don't support read replicas.
+    public @Nullable String getReplicationLagSql()
+    {
+        return null;
+    }
+
     public @Nullable String getDefaultApplicationName()
     {
         return null;
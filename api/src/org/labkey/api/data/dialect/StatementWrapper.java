@@ -26,6 +26,7 @@ import org.labkey.api.collections.OneBasedList;
 import org.labkey.api.data.ConnectionWrapper;
 import org.labkey.api.data.Container;
 import org.labkey.api.data.QueryLogging;
+import org.labkey.api.data.ReadReplica;
 import org.labkey.api.data.ResultSetWrapper;
 import org.labkey.api.data.queryprofiler.QueryProfiler;
 import org.labkey.api.settings.AppProps;
@@ -2833,6 +2834,10 @@ public class StatementWrapper implements Statement, PreparedStatement, CallableS
         if (isAssertEnabled && AppProps.getInstance().isDevMode() && isMutatingSql(sql))
             SpringActionController.executingMutatingSql(sql);
 
+        // Once a thread routing reads to replicas writes (e.g., creates a temp table), its later reads must see the write
+        if (ReadReplica.isRouting() && isMutatingSql(sql))
+            ReadReplica.pinToPrimary();
+
         // Make a copy of the parameters list (it gets modified below) and switch to zero-based list (_parameters is a one-based list)
         List<Object> zeroBasedList;
 
@@ -0,0 +1,141 @@
+package org.labkey.api.data.queryprofiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Compact histogram of query durations in milliseconds. Durations below 8ms are counted exactly; longer durations fall
+ * into eight buckets per power of two, so a reported percentile is never more than 12.5% above the true value. The
+ * bucket array only grows as far as the longest duration recorded, which keeps it to a few hundred bytes for typical
+ * queries. Not thread safe; QueryProfiler only touches histograms while holding its lock.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private int[] _counts = new int[SUB_BUCKETS];
+    private long _count = 0;
+    private long _max = 0;
+
+    public void record(long millis)
+    {
+        millis = Math.max(0, millis);
+        int index = index(millis);
+
+        if (index >= _counts.length)
+            _counts = Arrays.copyOf(_counts, Math.max(index + 1, _counts.length + SUB_BUCKETS));
+
+        if (_counts[index] < Integer.MAX_VALUE)
+            _counts[index]++;
+        _count++;
+        _max = Math.max(_max, millis);
+    }
+
+    public long getCount()
+    {
+        return _count;
+    }
+
+    public long getMax()
+    {
+        return _max;
+    }
+
+    /** @param percentile between 0 and 100 */
+    public long getPercentile(double percentile)
+    {
+        if (0 == _count)
+            return 0;
+
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100 * _count));
+        long cumulative = 0;
+
+        for (int i = 0; i < _counts.length; i++)
+        {
+            cumulative += _counts[i];
+            if (cumulative >= rank)
+                return Math.min(highestValue(i), _max);
+        }
+
+        return _max;
+    }
+
+    static int index(long value)
+    {
+        if (value < SUB_BUCKETS)
+            return (int)value;
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS * (shift + 1) + (int)((value >>> shift) - SUB_BUCKETS);
+    }
+
+    static long highestValue(int index)
+    {
+        if (index < SUB_BUCKETS)
+            return index;
+
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = SUB_BUCKETS + index % SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    public static class TestCase extends Assert
+    {
+        @Test
+        public void testBuckets()
+        {
+            for (long value : new long[]{0, 1, 7, 8, 15, 16, 17, 100, 1_000, 65_535, 1L << 40, Long.MAX_VALUE})
+            {
+                long highest = highestValue(index(value));
+                assertTrue(value + " > " + highest, value <= highest);
+                assertTrue(value + " is not within 12.5% of " + highest, highest - value <= value / SUB_BUCKETS);
+                assertEquals(index(value), index(highest));
+            }
+
+            assertEquals(8, index(8));
+            assertEquals(16, index(16));
+            assertEquals(16, index(17));
+            assertEquals(17, highestValue(16));
+        }
+
+        @Test
+        public void testPercentiles()
+        {
+            LatencyHistogram histogram = new LatencyHistogram();
+            assertEquals(0, histogram.getPercentile(50));
+
+            for (int i = 1; i <= 1000; i++)
+                histogram.record(i);
+
+            assertEquals(1000, histogram.getCount());
+            assertEquals(1000, histogram.getMax());
+            assertWithin(500, histogram.getPercentile(50));
+            assertWithin(950, histogram.getPercentile(95));
+            assertWithin(990, histogram.getPercentile(99));
+            assertEquals(1000, histogram.getPercentile(100));
+            assertEquals(1, histogram.getPercentile(0));
+        }
+
+        @Test
+        public void testOutlier()
+        {
+            LatencyHistogram histogram = new LatencyHistogram();
+            for (int i = 0; i < 99; i++)
+                histogram.record(3);
+            histogram.record(60_000);
+
+            assertEquals(3, histogram.getPercentile(50));
+            assertEquals(3, histogram.getPercentile(99));
+            assertEquals(60_000, histogram.getPercentile(99.9));
+            assertEquals(60_000, histogram.getMax());
+        }
+
+        private static void assertWithin(long expected, long actual)
+        {
+            assertTrue(actual + " is not within 12.5% of " + expected, actual >= expected && actual - expected <= expected / SUB_BUCKETS);
+        }
+    }
+}
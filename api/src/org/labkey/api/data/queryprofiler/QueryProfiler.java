@@ -64,9 +64,12 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 public class QueryProfiler
 {
@@ -79,17 +82,27 @@ public class QueryProfiler
     private static final int MAX_LONG_SQL_QUERIES = 5;
     private final List<WeakReference<QueryTracker>> _longSqlTextQueries = new ArrayList<>();
 
-    private final BlockingQueue<Query> _queue = new LinkedBlockingQueue<>(1000);
+    /** How many queries can wait for the profiler thread before we start dropping them */
+    private static final int MAX_QUEUED_QUERIES = 10_000;
+    /** How many queued queries the profiler thread processes per acquisition of _lock */
+    private static final int DRAIN_BATCH_SIZE = 100;
+
+    // Threads executing SQL only touch the queue and the LongAdders below, never _lock
+    private final ConcurrentLinkedQueue<Query> _queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger _queueSize = new AtomicInteger();
+    private final LongAdder _requestQueryCount = new LongAdder();
+    private final LongAdder _requestQueryTime = new LongAdder();
+    private final LongAdder _backgroundQueryCount = new LongAdder();
+    private final LongAdder _backgroundQueryTime = new LongAdder();
+    private final LongAdder _droppedQueryCount = new LongAdder();
+
     /** Hash of SQL -> query tracking info */
     private final Map<String, QueryTracker> _queries = new ReferenceMap<>(ReferenceStrength.HARD, ReferenceStrength.WEAK);
     private final Object _lock = new Object();
     private final Collection<QueryTrackerSet> _trackerSets = new ArrayList<>();
+    private final QueryProfilerThread _thread;
 
     // All access to these guarded by LOCK
-    private long _requestQueryCount;
-    private long _requestQueryTime;
-    private long _backgroundQueryCount;
-    private long _backgroundQueryTime;
     private long _uniqueQueryCountEstimate;  // This is a ceiling; true unique count is likely less than this since we're limiting capacity
     private int _requestCountAtLastReset;
     private long _upTimeAtLastReset;
@@ -190,11 +203,11 @@ public class QueryProfiler
         }));
 
         initializeCounters();
-        QueryProfilerThread thread = new QueryProfilerThread();
+        _thread = new QueryProfilerThread();
         // It's a daemon thread, but shutdown listener ensures orderly shutdown and logs query stats at shutdown
-        ContextListener.addShutdownListener(thread);
+        ContextListener.addShutdownListener(_thread);
 
-        thread.start();
+        _thread.start();
     }
 
     public void addListener(DatabaseQueryListener listener)
@@ -221,8 +234,30 @@ public class QueryProfiler
 
         MiniProfiler.addQuery(elapsed, sql, stackTrace);
 
+        // Totals are always exact, even when the queue is full
+        if (requestThread)
+        {
+            _requestQueryCount.increment();
+            _requestQueryTime.add(elapsed);
+        }
+        else
+        {
+            _backgroundQueryCount.increment();
+            _backgroundQueryTime.add(elapsed);
+        }
+
         // Don't block if queue is full
-        _queue.offer(new Query(scope, sql, parameters, elapsed, stackTrace, requestThread));
+        if (_queueSize.incrementAndGet() > MAX_QUEUED_QUERIES)
+        {
+            _queueSize.decrementAndGet();
+            _droppedQueryCount.increment();
+        }
+        else
+        {
+            _queue.offer(new Query(scope, sql, parameters, elapsed, stackTrace, requestThread));
+            _thread.wakeUp();
+        }
+
         return stackTrace;
     }
 
@@ -246,10 +281,11 @@ public class QueryProfiler
     {
         synchronized (_lock)
         {
-            _requestQueryCount = 0;
-            _requestQueryTime = 0;
-            _backgroundQueryCount = 0;
-            _backgroundQueryTime = 0;
+            _requestQueryCount.reset();
+            _requestQueryTime.reset();
+            _backgroundQueryCount.reset();
+            _backgroundQueryTime.reset();
+            _droppedQueryCount.reset();
             _uniqueQueryCountEstimate = 0;
             _requestCountAtLastReset = ViewServlet.getRequestCount();
 
@@ -287,25 +323,27 @@ public class QueryProfiler
                     synchronized (_lock)
                     {
                         int requests = ViewServlet.getRequestCount() - _requestCountAtLastReset;
+                        long requestQueryCount = _requestQueryCount.sum();
+                        long requestQueryTime = _requestQueryTime.sum();
 
                         out.println("  <tr><td colspan=5>" + _buttonHTML + "</td></tr>");
 
                         out.println("  <tr><td style=\"border-top:1px solid;text-align:center\" colspan=5>Queries Executed Within HTTP Requests</td></tr>");
-                        out.println("  <tr><td>Query Count:</td><td style=\"text-align:right\">" + Formats.commaf0.format(_requestQueryCount) + "</td>");
+                        out.println("  <tr><td>Query Count:</td><td style=\"text-align:right\">" + Formats.commaf0.format(requestQueryCount) + "</td>");
                         out.println("<td style=\"width:10px\">&nbsp;</td>");
-                        out.println("<td>Query Time:</td><td style=\"text-align:right\">" + Formats.commaf0.format(_requestQueryTime) + "</td>");
+                        out.println("<td>Query Time:</td><td style=\"text-align:right\">" + Formats.commaf0.format(requestQueryTime) + "</td>");
                         out.println("</tr>\n  <tr>");
-                        out.println("<td>Queries per Request:</td><td style=\"text-align:right\">" + Formats.f1.format((double) _requestQueryCount / requests) + "</td>");
+                        out.println("<td>Queries per Request:</td><td style=\"text-align:right\">" + Formats.f1.format((double) requestQueryCount / requests) + "</td>");
                         out.println("<td style=\"width:10px\">&nbsp;</td>");
-                        out.println("<td>Query Time per Request:</td><td style=\"text-align:right\">" + Formats.f1.format((double) _requestQueryTime / requests) + "</td>");
+                        out.println("<td>Query Time per Request:</td><td style=\"text-align:right\">" + Formats.f1.format((double) requestQueryTime / requests) + "</td>");
                         out.println("</tr>\n  <tr>");
                         out.println("<td>" + (_hasBeenReset ? "Request Count Since Last Reset" : "Request Count") + ":</td><td style=\"text-align:right\">" + Formats.commaf0.format(requests) + "</td><td colspan=3></td></tr>");
                         out.println("  <tr><td style=\"border-top:1px solid\" colspan=5>&nbsp;</td></tr>");
 
                         out.println("  <tr><td style=\"border-top:1px solid;text-align:center\" colspan=5>Queries Executed Within Background Threads</td></tr>");
-                        out.println("  <tr><td>Query Count:</td><td style=\"text-align:right\">" + Formats.commaf0.format(_backgroundQueryCount) + "</td>");
+                        out.println("  <tr><td>Query Count:</td><td style=\"text-align:right\">" + Formats.commaf0.format(_backgroundQueryCount.sum()) + "</td>");
                         out.println("<td style=\"width:10px\">&nbsp;</td>");
-                        out.println("<td>Query Time:</td><td style=\"text-align:right\">" + Formats.commaf0.format(_backgroundQueryTime) + "</td>");
+                        out.println("<td>Query Time:</td><td style=\"text-align:right\">" + Formats.commaf0.format(_backgroundQueryTime.sum()) + "</td>");
                         out.println("</tr>");
                         out.println("  <tr><td style=\"border-top:1px solid\" colspan=5>&nbsp;</td></tr>");
                         out.println("  <tr><td colspan=5>&nbsp;</td></tr>");
@@ -326,6 +364,11 @@ public class QueryProfiler
                             out.println("<td>" + (_hasBeenReset ? "Elapsed Time Since Last Reset" : "Server Uptime") + ":</td><td style=\"text-align:right\">" + DateUtil.formatDuration(upTime) + "</td>");
                         }
                         out.println("</tr>");
+
+                        long dropped = _droppedQueryCount.sum();
+                        if (dropped > 0)
+                            out.println("  <tr><td>Queries Not Profiled (Queue Full):</td><td style=\"text-align:right\">" + Formats.commaf0.format(dropped) + "</td><td colspan=3></td></tr>");
+
                         out.println("</table><br><br>");
 
                         out.println("<table>");
@@ -500,8 +543,12 @@ public class QueryProfiler
                 _pw.printf("#Summary - unique queries: %,d, elapsed time: %s\n", getInstance()._uniqueQueryCountEstimate, DateUtil.formatDuration(upTime));
 
                 int requests = ViewServlet.getRequestCount() - getInstance()._requestCountAtLastReset;
-                _pw.printf("#HTTP Requests - query count: %,d, query time (ms): %,d, request count: %d\n", getInstance()._requestQueryCount, getInstance()._requestQueryTime, requests);
-                _pw.printf("#Background Threads - query count: %,d, query time (ms): %,d\n", getInstance()._backgroundQueryCount, getInstance()._backgroundQueryTime);
+                _pw.printf("#HTTP Requests - query count: %,d, query time (ms): %,d, request count: %d\n", getInstance()._requestQueryCount.sum(), getInstance()._requestQueryTime.sum(), requests);
+                _pw.printf("#Background Threads - query count: %,d, query time (ms): %,d\n", getInstance()._backgroundQueryCount.sum(), getInstance()._backgroundQueryTime.sum());
+
+                long dropped = getInstance()._droppedQueryCount.sum();
+                if (dropped > 0)
+                    _pw.printf("#Queries not profiled because the queue was full: %,d\n", dropped);
 
                 QueryTracker.exportRowHeader(_pw);
 
@@ -515,36 +562,43 @@ public class QueryProfiler
 
     private class QueryProfilerThread extends Thread implements ShutdownListener
     {
+        private volatile boolean _idle = false;
+
         private QueryProfilerThread()
         {
             setDaemon(true);
             setName(QueryProfilerThread.class.getSimpleName());
         }
 
+        private void wakeUp()
+        {
+            if (_idle)
+                LockSupport.unpark(this);
+        }
+
         @Override
         public void run()
         {
-            try
+            while (!interrupted())
             {
-                //noinspection InfiniteLoopStatement
-                while (!interrupted())
+                if (_queue.isEmpty())
                 {
-                    Query query = _queue.take();
+                    // Set the flag before re-checking, so a query queued after the check will unpark us. The timeout
+                    // is just a backstop.
+                    _idle = true;
+                    if (_queue.isEmpty())
+                        LockSupport.parkNanos(this, TimeUnit.SECONDS.toNanos(1));
+                    _idle = false;
+                    continue;
+                }
 
-                    // Don't update or add while we're rendering the report or vice versa
-                    synchronized (_lock)
+                // Don't update or add while we're rendering the report or vice versa
+                synchronized (_lock)
+                {
+                    Query query;
+                    for (int i = 0; i < DRAIN_BATCH_SIZE && null != (query = _queue.poll()); i++)
                     {
-                        if (query.isRequestThread())
-                        {
-                            _requestQueryCount++;
-                            _requestQueryTime += query.getElapsed();
-                        }
-                        else
-                        {
-                            _backgroundQueryCount++;
-                            _backgroundQueryTime += query.getElapsed();
-                        }
-
+                        _queueSize.decrementAndGet();
                         String sql = query.getSql();
                         String hash = HashHelpers.hash(sql);
                         QueryTracker tracker = _queries.get(hash);
@@ -584,10 +638,8 @@ public class QueryProfiler
                     }
                 }
             }
-            catch (InterruptedException e)
-            {
-                LOG.debug(getClass().getSimpleName() + " is terminating due to interruption");
-            }
+
+            LOG.debug(getClass().getSimpleName() + " is terminating due to interruption");
         }
 
         private void manageLongSql(QueryTracker tracker)
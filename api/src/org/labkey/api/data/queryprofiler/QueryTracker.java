@@ -51,6 +51,9 @@ import java.util.zip.DataFormatException;
  */
 class QueryTracker
 {
+    // Latency percentiles shown alongside the sortable statistics
+    private static final int[] PERCENTILES = {50, 95, 99};
+
     private final @Nullable DbScope _scope;
     private String _sql;
     private boolean _truncated;
@@ -65,6 +68,7 @@ class QueryTracker
     private long _max = 0;
     private long _cumulative = 0;
     private long _lastInvocation;
+    private final LatencyHistogram _histogram = new LatencyHistogram();
 
     QueryTracker(@Nullable DbScope scope, @NotNull String sql, @NotNull String hash, long elapsed, String stackTrace, boolean validSql, boolean truncated)
     {
@@ -87,6 +91,8 @@ class QueryTracker
         if (elapsed > _max)
             _max = elapsed;
 
+        _histogram.record(elapsed);
+
         ByteArrayHashKey compressed = new ByteArrayHashKey(Compress.deflate(stackTrace));
         AtomicInteger frequency = _stackTraces.get(compressed);
 
@@ -177,6 +183,12 @@ class QueryTracker
         return _cumulative / _count;
     }
 
+    /** @param percentile between 0 and 100 */
+    public long getPercentile(double percentile)
+    {
+        return _histogram.getPercentile(percentile);
+    }
+
     public int getStackTraceCount()
     {
         return _stackTraces.size();
@@ -281,6 +293,9 @@ class QueryTracker
             if (set.shouldDisplay())
                 renderColumnHeader(set.getCaption(), set == currentSet, out, factory);
 
+        for (int percentile : PERCENTILES)
+            out.print("<td class=\"labkey-column-header\">P" + percentile + "</td>");
+
         out.print("<td class=\"labkey-column-header\">");
         out.print("Traces");
         out.print("</td><td class=\"labkey-column-header\" style=\"padding-left:10;\">");
@@ -320,6 +335,9 @@ class QueryTracker
             }
         }
 
+        for (int percentile : PERCENTILES)
+            out.print(tab + "P" + percentile);
+
         out.print(tab);
         out.print("SQL\n");
     }
@@ -332,6 +350,9 @@ class QueryTracker
             if (set.shouldDisplay())
                 out.println("<td style=\"text-align:right;vertical-align:top;\">" + ((QueryTrackerComparator) set.comparator()).getFormattedPrimaryStatistic(this) + "</td>");
 
+        for (int percentile : PERCENTILES)
+            out.println("<td style=\"text-align:right;vertical-align:top;\">" + Formats.commaf0.format(getPercentile(percentile)) + "</td>");
+
         ActionURL url = factory.getActionURL(getHash());
         out.println("<td style=\"text-align:right;vertical-align:top;\"><a href=\"" + PageFlowUtil.filter(url.getLocalURIString()) + "\">" + Formats.commaf0.format(getStackTraceCount()) + "</a></td>");
         // In the full grid view, limit SQL to 2,000 characters (before encoding). Individual detail view still shows full SQL with and without parameters. See #29642.
@@ -354,6 +375,9 @@ class QueryTracker
             }
         }
 
+        for (int percentile : PERCENTILES)
+            out.print(tab + Formats.commaf0.format(getPercentile(percentile)));
+
         out.print(tab);
         out.print(tsvWriter.quoteValue(getSql()));
         out.print('\n');
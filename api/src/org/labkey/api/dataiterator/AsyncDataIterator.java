@@ -15,28 +15,79 @@
  */
 package org.labkey.api.dataiterator;
 
+import org.junit.Assert;
+import org.junit.Test;
 import org.labkey.api.data.ColumnInfo;
 import org.labkey.api.query.BatchValidationException;
+import org.labkey.api.query.ValidationException;
+import org.labkey.api.util.UnexpectedException;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 
 /**
+ * Reads the wrapped DataIterator on a background thread so that an expensive stage (parsing a file, running
+ * translators) overlaps with the stages downstream of it. Rows are copied into chunks and handed to the consuming
+ * thread through a small single-producer/single-consumer ring, so the threads synchronize once per chunk rather than
+ * once per row.
+ * <p/>
+ * Background readers run on a shared, bounded pool. There is no task queue: if every pool thread is busy, the iterator
+ * reads inline on the calling thread instead of waiting behind another import.
+ * <p/>
+ * Exceptions thrown by the wrapped iterator, including BatchValidationException, are rethrown from next() on the
+ * consuming thread once the rows read before the failure have been returned. close() cancels the background reader
+ * and waits for it to stop before closing the wrapped iterator on the calling thread.
+ *
  * User: matthew
  * Date: 5/4/13
  * Time: 9:21 AM
  */
 public class AsyncDataIterator implements DataIterator
 {
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    // number of chunks in flight, must be a power of two
+    private static final int RING_SIZE = 4;
+    private static final int MAX_THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    private static final ThreadPoolExecutor EXECUTOR;
+
+    static
+    {
+        AtomicInteger count = new AtomicInteger();
+        EXECUTOR = new ThreadPoolExecutor(0, MAX_THREADS, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r ->
+        {
+            Thread t = new Thread(r, "AsyncDataIterator-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
     public static class Builder implements DataIteratorBuilder
     {
         final DataIteratorBuilder _in;
+        final int _chunkSize;
+
         public Builder(DataIteratorBuilder in)
+        {
+            this(in, DEFAULT_CHUNK_SIZE);
+        }
+
+        public Builder(DataIteratorBuilder in, int chunkSize)
         {
             _in = in;
+            _chunkSize = chunkSize;
         }
 
         @Override
@@ -45,158 +96,214 @@ public class AsyncDataIterator implements DataIterator
             DataIterator it = _in.getDataIterator(context);
             if (null == it)
                 return null;
-            return new AsyncDataIterator(it,context);
+            return new AsyncDataIterator(it, context, _chunkSize);
         }
     }
 
-    // DataIterator instances are not usually thread safe, so use a lock for pass through calls
-    final Object _itLock;
-    DataIterator _it;
-    int _columnCount;
+    final DataIterator _it;
+    final int _columnCount;
+    final int _chunkSize;
     DataIteratorContext _context;
 
-    Thread _reader;
+    // _ring[_head] is only read by the consumer and _ring[_tail] only written by the producer. The producer publishes a
+    // chunk by advancing _tail; the consumer frees a slot by advancing _head.
+    private final Object[][][] _ring = new Object[RING_SIZE][][];
+    private final AtomicLong _head = new AtomicLong();
+    private final AtomicLong _tail = new AtomicLong();
+    private volatile Thread _waitingConsumer;
+    private volatile Thread _waitingProducer;
 
-//    ArrayListMap.FindMap<String> _findMap;
-//    static ArrayListMap<String,Object> eof = new ArrayListMap<String,Object>();
-//    protected LinkedBlockingQueue<ArrayListMap<String,Object>> _queue;
-    protected LinkedBlockingQueue<Object[]> _queue;
-    static Object[] eof = new Object[0];
+    private volatile boolean _done = false;
+    private volatile boolean _cancelled = false;
+    private volatile Throwable _failure;
+    private final CountDownLatch _finished = new CountDownLatch(1);
+    private Future<?> _reader;
+    private boolean _inline = false;
 
-    ArrayList<Object[]> _buffer = new ArrayList<>(100);
-    int _currentRow = -1;
-
-    AtomicInteger _partnerCount = new AtomicInteger(1);
+    // consumer state
+    private Object[][] _chunk = null;
+    private int _currentRow = -1;
 
 
     public AsyncDataIterator(DataIterator it, DataIteratorContext context)
     {
-        this(it,context,true);
+        this(it, context, DEFAULT_CHUNK_SIZE);
     }
 
 
-    public AsyncDataIterator(DataIterator it, DataIteratorContext context, boolean autostart)
+    public AsyncDataIterator(DataIterator it, DataIteratorContext context, int chunkSize)
     {
-        _queue = new LinkedBlockingQueue<>(1000);
-        _itLock = new Object();
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
         _it = it;
         _columnCount = it.getColumnCount();
+        _chunkSize = chunkSize;
         _context = context;
-//        _findMap = new ArrayListMap.FindMap<String>(new CaseInsensitiveHashMap<Integer>());
-//        for (int i=0 ; i<= it.getColumnCount() ; i++)
-//            _findMap.put(it.getColumnInfo(i).getName(), i);
-        if (autostart)
-            start();
+        start();
     }
 
 
-
-    protected AsyncDataIterator(AsyncDataIterator partner)
+    private void start()
     {
-        synchronized (partner._itLock)
+        try
         {
-            _itLock = partner._itLock;
-            _it = partner._it;
-            _queue = partner._queue;
-            _partnerCount = partner._partnerCount;
-            int count = _partnerCount.incrementAndGet();
-            assert count > 1;
+            _reader = EXECUTOR.submit(this::read);
+        }
+        catch (RejectedExecutionException x)
+        {
+            _inline = true;
+            _finished.countDown();
         }
     }
 
 
-    public AsyncDataIterator fork()
+    /* producer, runs on a pool thread */
+
+    private void read()
     {
-        return new AsyncDataIterator(this);
+        Object[][] chunk = new Object[_chunkSize][];
+        int count = 0;
+        try
+        {
+            while (!_cancelled && _it.next())
+            {
+                Object[] row = new Object[_columnCount+1];
+                for (int i=0 ; i<=_columnCount ; i++)
+                    row[i] = _it.get(i);
+                chunk[count++] = row;
+                if (count == _chunkSize)
+                {
+                    if (!publish(chunk))
+                        return;
+                    chunk = new Object[_chunkSize][];
+                    count = 0;
+                }
+            }
+        }
+        catch (Throwable t)
+        {
+            _failure = t;
+        }
+        finally
+        {
+            // rows read before a failure are still returned, the failure is reported after them
+            if (count > 0 && !_cancelled)
+                publish(Arrays.copyOf(chunk, count));
+            // don't close _it from background thread, this causes DbScope/Transaction problems
+            _done = true;
+            LockSupport.unpark(_waitingConsumer);
+            _finished.countDown();
+        }
     }
 
 
-
-    private void start()
+    /** @return false if the iterator was cancelled while waiting for space in the ring */
+    private boolean publish(Object[][] chunk)
     {
-        _reader = new Thread(new ReadRunnable(), "AsyncDataIterator");
-        _reader.start();
+        long tail = _tail.get();
+        while (tail - _head.get() >= RING_SIZE)
+        {
+            // register before re-checking, so that a consumer that frees a slot after the check will see us
+            _waitingProducer = Thread.currentThread();
+            if (tail - _head.get() >= RING_SIZE && !_cancelled)
+                LockSupport.park(this);
+            _waitingProducer = null;
+            // cancel() sets _cancelled before interrupting us
+            Thread.interrupted();
+            if (_cancelled)
+                return false;
+        }
+        _ring[(int)(tail & (RING_SIZE-1))] = chunk;
+        _tail.set(tail + 1);
+        LockSupport.unpark(_waitingConsumer);
+        return true;
     }
 
 
-    private class ReadRunnable implements Runnable
+    /* consumer */
+
+    /** @return the next chunk of rows, or null at the end of the data */
+    private Object[][] take() throws BatchValidationException
     {
-        @Override
-        public void run()
+        long head = _head.get();
+        while (head == _tail.get())
         {
-            try
-            {
-                while (!Thread.interrupted() && _it.next())
-                {
-                    Object[] row = new Object[_columnCount+1];
-                    for (int i=0 ; i<=_columnCount ; i++)
-                        row[i] = _it.get(i);
-                    _queue.put(row);
-                }
-            }
-            catch (BatchValidationException x)
+            if (_done)
             {
-                assert x.hasErrors();
+                // the final chunk may have been published just before _done was set
+                if (head != _tail.get())
+                    break;
+                rethrowFailure();
+                return null;
             }
-            catch (InterruptedException x)
+            _waitingConsumer = Thread.currentThread();
+            if (head == _tail.get() && !_done)
+                LockSupport.park(this);
+            _waitingConsumer = null;
+            if (Thread.interrupted())
             {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw UnexpectedException.wrap(new InterruptedException("Interrupted while waiting for " + _it.getDebugName()));
             }
-            try { _queue.put(eof); } catch (InterruptedException x) { }
-            // don't close _it from background thread, this causes DbScope/Transaction problems
-            // try {_it.close(); } catch (IOException x) {}
         }
+        int slot = (int)(head & (RING_SIZE-1));
+        Object[][] chunk = _ring[slot];
+        _ring[slot] = null;
+        _head.set(head + 1);
+        LockSupport.unpark(_waitingProducer);
+        return chunk;
+    }
+
+
+    private void rethrowFailure() throws BatchValidationException
+    {
+        Throwable t = _failure;
+        if (null == t)
+            return;
+        if (t instanceof BatchValidationException bve)
+            throw bve;
+        UnexpectedException.rethrow(t);
+    }
+
+
+    private void cancel()
+    {
+        _cancelled = true;
+        if (null != _reader)
+            _reader.cancel(true);
+        LockSupport.unpark(_waitingProducer);
     }
 
 
     @Override
     public int getColumnCount()
     {
-        synchronized (_itLock)
-        {
-            return _it.getColumnCount();
-        }
+        return _it.getColumnCount();
     }
 
 
     @Override
     public ColumnInfo getColumnInfo(int i)
     {
-        synchronized (_itLock)
-        {
-            return _it.getColumnInfo(i);
-        }
+        return _it.getColumnInfo(i);
     }
 
 
     @Override
-    public boolean next()
+    public boolean next() throws BatchValidationException
     {
-        Object[] row=null;
-        if (_currentRow+1 >= _buffer.size())
-        {
-            _buffer.clear();
-            _currentRow = -1;
-            while (_buffer.isEmpty())
-            {
-                int count = _queue.drainTo(_buffer, 100);
-                if (count == 0)
-                {
-                    try { row = _queue.take(); } catch (InterruptedException x) { }
-                    if (null != row)
-                        _buffer.add(row);
-                    if (eof == row)
-                        break;
-                }
-            }
-        }
-        _currentRow++;
-        row = _buffer.get(_currentRow);
-        if (eof == row)
+        if (_inline)
+            return _it.next();
+
+        if (null != _chunk && _currentRow+1 < _chunk.length)
         {
-            try { _queue.put(eof); } catch (InterruptedException x) { }
-            return false;
+            _currentRow++;
+            return true;
         }
-        return true;
+        _chunk = take();
+        _currentRow = 0;
+        return null != _chunk;
     }
 
 
@@ -210,44 +317,46 @@ public class AsyncDataIterator implements DataIterator
     @Override
     public boolean isConstant(int i)
     {
-        synchronized (_itLock)
-        {
-            return _it.isConstant(i);
-        }
+        return _it.isConstant(i);
     }
 
 
     @Override
     public Object getConstantValue(int i)
     {
-        synchronized (_itLock)
-        {
-            return _it.getConstantValue(i);
-        }
+        return _it.getConstantValue(i);
     }
 
 
     @Override
     public Object get(int i)
     {
-        if (i == 0)
-            return _currentRow+1;
-        return _buffer.get(_currentRow)[i];
+        if (_inline)
+            return _it.get(i);
+        return _chunk[_currentRow][i];
     }
 
 
     @Override
     public void close() throws IOException
     {
-        synchronized (_itLock)
+        cancel();
+        boolean interrupted = false;
+        while (true)
         {
-            if (0 == _partnerCount.decrementAndGet())
+            try
+            {
+                _finished.await();
+                break;
+            }
+            catch (InterruptedException x)
             {
-                _reader.interrupt();
-                try {_reader.join();} catch (InterruptedException x) {}
-                _it.close();
+                interrupted = true;
             }
         }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        _it.close();
     }
 
     @Override
@@ -258,4 +367,109 @@ public class AsyncDataIterator implements DataIterator
             _it.debugLogInfo(sb);
     }
 
+
+    public static class TestCase extends Assert
+    {
+        private static StringTestIterator data(int rows)
+        {
+            List<String[]> data = new ArrayList<>(rows);
+            for (int i=1 ; i<=rows ; i++)
+                data.add(new String[] {String.valueOf(i), "row" + i});
+            return new StringTestIterator(Arrays.asList("Id", "Name"), data);
+        }
+
+        @Test
+        public void testRows() throws Exception
+        {
+            // not a multiple of the chunk size, and enough chunks to fill the ring
+            int rows = 10_007;
+            try (AsyncDataIterator it = new AsyncDataIterator(data(rows), new DataIteratorContext(), 100))
+            {
+                assertEquals(2, it.getColumnCount());
+                for (int i=1 ; i<=rows ; i++)
+                {
+                    assertTrue(it.next());
+                    assertEquals(i, it.get(0));
+                    assertEquals(String.valueOf(i), it.get(1));
+                    assertEquals("row" + i, it.get(2));
+                }
+                assertFalse(it.next());
+                assertFalse(it.next());
+            }
+        }
+
+        @Test
+        public void testException() throws Exception
+        {
+            DataIteratorContext context = new DataIteratorContext();
+            DataIterator failing = new WrapperDataIterator(data(1000))
+            {
+                @Override
+                public boolean next() throws BatchValidationException
+                {
+                    boolean ret = super.next();
+                    if (ret && 500 == (Integer)get(0))
+                    {
+                        context.getErrors().addRowError(new ValidationException("row 500 is bad"));
+                        throw context.getErrors();
+                    }
+                    return ret;
+                }
+            };
+
+            int count = 0;
+            try (AsyncDataIterator it = new AsyncDataIterator(failing, context, 64))
+            {
+                while (it.next())
+                    count++;
+                fail("Expected BatchValidationException");
+            }
+            catch (BatchValidationException x)
+            {
+                assertSame(context.getErrors(), x);
+            }
+            assertEquals(499, count);
+        }
+
+        @Test
+        public void testClose() throws Exception
+        {
+            AtomicInteger read = new AtomicInteger();
+            AtomicInteger closed = new AtomicInteger();
+            DataIterator endless = new WrapperDataIterator(data(1))
+            {
+                @Override
+                public boolean next()
+                {
+                    read.incrementAndGet();
+                    return true;
+                }
+
+                @Override
+                public Object get(int i)
+                {
+                    return i == 0 ? read.get() : "x";
+                }
+
+                @Override
+                public void close()
+                {
+                    closed.incrementAndGet();
+                }
+            };
+
+            AsyncDataIterator it = new AsyncDataIterator(endless, new DataIteratorContext(), 10);
+            for (int i=0 ; i<25 ; i++)
+                assertTrue(it.next());
+            it.close();
+            assertEquals(1, closed.get());
+
+            // the reader stopped once the ring was full (three chunks consumed, a full ring and one chunk waiting to be
+            // published) and is not running any more
+            int after = read.get();
+            assertTrue(after <= (3 + RING_SIZE + 1) * 10);
+            Thread.sleep(50);
+            assertEquals(after, read.get());
+        }
+    }
 }
@@ -0,0 +1,94 @@
+package org.labkey.api.dataiterator;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Throughput and latency of the statement batches executed by StatementDataIterator, accumulated across every
+ * statement iterator that shares a DataIteratorContext. Batches may be recorded from several threads at once.
+ * Rows per second is measured over wall-clock time from the start of the first batch to the end of the last, so it
+ * reflects any overlap between batches executing in parallel.
+ */
+public class BatchExecutionStats
+{
+    // bucket i counts batches that took less than 2^i ms; the last bucket counts everything slower
+    private static final int BUCKETS = 16;
+
+    private final AtomicLong _rows = new AtomicLong();
+    private final AtomicLong _batches = new AtomicLong();
+    private final AtomicLong _executeNanos = new AtomicLong();
+    private final AtomicLong _firstStart = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong _lastEnd = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLongArray _histogram = new AtomicLongArray(BUCKETS);
+
+    public void record(int rows, long startNanos, long endNanos)
+    {
+        long elapsed = Math.max(0, endNanos - startNanos);
+        _rows.addAndGet(rows);
+        _batches.incrementAndGet();
+        _executeNanos.addAndGet(elapsed);
+        _firstStart.accumulateAndGet(startNanos, Math::min);
+        _lastEnd.accumulateAndGet(endNanos, Math::max);
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(elapsed);
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+        _histogram.incrementAndGet(bucket);
+    }
+
+    public long getRowCount()
+    {
+        return _rows.get();
+    }
+
+    public long getBatchCount()
+    {
+        return _batches.get();
+    }
+
+    /** Total time spent executing batches, summed across threads */
+    public long getExecuteMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(_executeNanos.get());
+    }
+
+    public double getRowsPerSecond()
+    {
+        long elapsed = _lastEnd.get() - _firstStart.get();
+        if (_batches.get() == 0 || elapsed <= 0)
+            return 0;
+        return _rows.get() * (double)TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    /** @return the number of batches in each latency bucket, see {@link #getBucketUpperBoundMillis(int)} */
+    public long[] getLatencyHistogram()
+    {
+        long[] ret = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            ret[i] = _histogram.get(i);
+        return ret;
+    }
+
+    /** @return exclusive upper bound of the bucket in milliseconds, or Long.MAX_VALUE for the last bucket */
+    public static long getBucketUpperBoundMillis(int bucket)
+    {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getRowCount()).append(" rows in ").append(getBatchCount()).append(" batches, ")
+                .append(Math.round(getRowsPerSecond())).append(" rows/sec, batch latency:");
+        long[] histogram = getLatencyHistogram();
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            if (histogram[i] == 0)
+                continue;
+            long bound = getBucketUpperBoundMillis(i);
+            sb.append(" ").append(bound == Long.MAX_VALUE ? ">=" + (1L << (BUCKETS - 2)) : "<" + bound).append("ms=").append(histogram[i]);
+        }
+        return sb.toString();
+    }
+}
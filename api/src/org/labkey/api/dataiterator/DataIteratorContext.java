@@ -62,6 +62,7 @@ public class DataIteratorContext
 
     private final Map<String, Object> _responseInfo = new HashMap<>(); // information from the import/loadRows context to be passed back to the API response object
     private Logger _logger;
+    private final BatchExecutionStats _statementExecutionStats = new BatchExecutionStats();
 
     int _maxRowErrors = 1;
 
@@ -288,6 +289,12 @@ public class DataIteratorContext
         return _logger;
     }
 
+    /** Throughput and batch latency of the statements executed for this import */
+    public BatchExecutionStats getStatementExecutionStats()
+    {
+        return _statementExecutionStats;
+    }
+
     public void setLogger(Logger logger)
     {
         _logger = logger;
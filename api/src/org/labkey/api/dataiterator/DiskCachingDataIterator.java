@@ -1,29 +1,38 @@
 package org.labkey.api.dataiterator;
 
-import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
-import com.fasterxml.jackson.databind.util.ByteBufferBackedOutputStream;
-import org.apache.commons.collections.map.AbstractReferenceMap;
-import org.apache.commons.collections.map.ReferenceMap;
-import org.apache.commons.io.IOUtils;
 import org.junit.Assert;
 import org.junit.Test;
-import org.labkey.api.arrays.IntegerArray;
 import org.labkey.api.query.BatchValidationException;
 import org.labkey.api.util.FileUtil;
 import org.labkey.api.util.GUID;
 import org.labkey.api.util.UnexpectedException;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.nio.BufferOverflowException;
-import java.nio.MappedByteBuffer;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Map;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
 
+/**
+ * A CachingDataIterator that keeps at most <code>limit</code> rows in memory. Older rows are appended to a temp file
+ * using {@link RowCodec} and read back a batch at a time when the caller scrolls back to them.
+ */
 public class DiskCachingDataIterator extends CachingDataIterator
 {
     final int limit;         // max _data.size()
@@ -84,6 +93,9 @@ public class DiskCachingDataIterator extends CachingDataIterator
         _currentPosition = _diskMarkPosition-1;
         if (_currentPosition < _markPosition-1 || _currentPosition >= _markPosition+_data.size())
         {
+            // spill the rows we're about to drop so they can be read back when we scroll forward again
+            for (int i=0 ; i<_data.size() ; i++)
+                writeRowToDisk(_markPosition + i, _data.get(i));
             _markPosition = _diskMarkPosition;
             _data.clear();
         }
@@ -91,31 +103,19 @@ public class DiskCachingDataIterator extends CachingDataIterator
 
     File _tempFile;
     RandomAccessFile _randomAccessFile;
-    MappedByteBuffer _buffer;
-    ObjectOutputStream _objectOutputStream;
+    FileChannel _channel;
 
-    int _bufferEndPosition=0;     // I don't think the buffer will tell where the end of the data is???
-    IntegerArray _index = new IntegerArray();
-    Map<Integer,Object[]> _map = (Map<Integer,Object[]>)new ReferenceMap(AbstractReferenceMap.HARD, AbstractReferenceMap.SOFT);
+    // Rows are appended to the file through _writeBuffer; _flushedEnd is the file length, _writeEnd includes buffered bytes
+    ByteBuffer _writeBuffer;
+    ByteBuffer _readBuffer;
+    long _flushedEnd = 0;
+    long _writeEnd = 0;
+    long[] _index = new long[1024];    // file offset of each row on disk
     int firstRowOnDisk = -1;    // index of first row written to disk
     int lastRowOnDisk = -1;     // index of last row written (number or rows = lastRowOnDisk-firstRowOnDisk+1)
 
     private void writeToDisk()
     {
-        if (null == _buffer)
-        {
-            try
-            {
-                _tempFile = FileUtil.createTempFile("buffer", "dat");
-                _tempFile.deleteOnExit();
-                _randomAccessFile = new RandomAccessFile(_tempFile, "rw");
-                _buffer = _randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 128 * 1024);
-            }
-                catch (IOException x)
-            {
-                throw UnexpectedException.wrap(x);
-            }
-        }
         int copyCount = Math.min(batchSize, _data.size());
         for (int i=0 ; i<copyCount ; i++)
         {
@@ -125,85 +125,295 @@ public class DiskCachingDataIterator extends CachingDataIterator
         _markPosition += copyCount;
     }
 
+    private void openSpillFile()
+    {
+        try
+        {
+            _tempFile = FileUtil.createTempFile("buffer", "dat");
+            _tempFile.deleteOnExit();
+            _randomAccessFile = new RandomAccessFile(_tempFile, "rw");
+            _channel = _randomAccessFile.getChannel();
+            _writeBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+            _readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        }
+        catch (IOException x)
+        {
+            throw UnexpectedException.wrap(x);
+        }
+    }
+
     void writeRowToDisk(int pos, Object[] row)
     {
-        _map.put(pos, row);
-        if (pos == lastRowOnDisk+1)
+        // Rows are immutable once cached, so a row that is already on disk doesn't need to be written again
+        if (pos <= lastRowOnDisk && pos >= firstRowOnDisk)
+            return;
+        if (pos != lastRowOnDisk+1)
+            throw new IllegalStateException();
+
+        if (null == _channel)
+            openSpillFile();
+
+        try
         {
-            try
+            int rowStart = _writeBuffer.position();
+            while (true)
             {
-                _index.add(_bufferEndPosition);
-                while (true)
+                try
                 {
-                    try
-                    {
-                        _buffer.position(_bufferEndPosition);
-                        ObjectOutputStream objectOutputStream = new ObjectOutputStream(new ByteBufferBackedOutputStream(_buffer));
-                        objectOutputStream.writeObject(row);
-                        objectOutputStream.close();
-                        break;
-                    }
-                    catch (BufferOverflowException x)
-                    {
-                        int capacity = _buffer.capacity();
-                        if (capacity < 1025*1024)
-                            capacity += capacity < 1024*1024 ? 128 * 1024 : 1024*1024;
-                        _buffer = _randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
-                    }
+                    RowCodec.writeRow(_writeBuffer, row);
+                    break;
+                }
+                catch (BufferOverflowException x)
+                {
+                    _writeBuffer.position(rowStart);
+                    if (rowStart > 0)
+                        flush();
+                    else
+                        _writeBuffer = ByteBuffer.allocate(_writeBuffer.capacity() * 2);
+                    rowStart = 0;
                 }
-                _bufferEndPosition = _buffer.position();
-                lastRowOnDisk = pos;
             }
-            catch (IOException x)
+
+            if (lastRowOnDisk+1 == _index.length)
+                _index = Arrays.copyOf(_index, _index.length * 2);
+            _index[pos] = _writeEnd;
+            _writeEnd = _flushedEnd + _writeBuffer.position();
+            if (-1 == firstRowOnDisk)
+                firstRowOnDisk = pos;
+            lastRowOnDisk = pos;
+
+            // Don't let one very wide row leave a large write buffer allocated
+            if (_writeBuffer.capacity() > MAX_RETAINED_BUFFER_SIZE)
             {
-                throw UnexpectedException.wrap(x);
+                flush();
+                _writeBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
             }
         }
-        if (pos > lastRowOnDisk+1 || pos < firstRowOnDisk)
-            throw new IllegalStateException();
+        catch (IOException x)
+        {
+            throw UnexpectedException.wrap(x);
+        }
+    }
+
+    private void flush() throws IOException
+    {
+        _writeBuffer.flip();
+        while (_writeBuffer.hasRemaining())
+            _flushedEnd += _channel.write(_writeBuffer, _flushedEnd);
+        _writeBuffer.clear();
     }
 
     private void loadFromDisk(int start)
     {
-        int end = start + batchSize;
-        boolean assertEnabled = false;
-        assert true==(assertEnabled=true);
-        for (int row=start ; row<end ; row++)
+        // Only rows that have been spilled can be read back; after that populateRows() resumes reading from the input
+        int end = Math.min(start + batchSize, lastRowOnDisk + 1);
+        if (start > end || start < firstRowOnDisk)
+            throw new IllegalStateException();
+        if (start == end)
+            return;
+
+        try
         {
-            try
-            {
-                Object[] data = _map.get(row);
-                if (null == data || assertEnabled)
-                {
-                    int pos = _index.get(row);
-                    _buffer.position(pos);
-                    ObjectInputStream objectInputStream = new ObjectInputStream(new ByteBufferBackedInputStream(_buffer));
-                    Object[] dataDisk = (Object[])objectInputStream.readObject();
-                    objectInputStream.close();
-                    assert null==data || Arrays.equals(data,dataDisk);
-                    data = dataDisk;
-                }
-                _data.add(data);
-            }
-            catch (IOException|ClassNotFoundException x)
+            long from = _index[start];
+            long to = end > lastRowOnDisk ? _writeEnd : _index[end];
+            if (to > _flushedEnd)
+                flush();
+
+            int length = Math.toIntExact(to - from);
+            if (_readBuffer.capacity() < length || _readBuffer.capacity() > Math.max(MAX_RETAINED_BUFFER_SIZE, length * 2))
+                _readBuffer = ByteBuffer.allocate(Math.max(length, INITIAL_BUFFER_SIZE));
+            _readBuffer.clear().limit(length);
+            while (_readBuffer.hasRemaining())
             {
-                throw UnexpectedException.wrap(x);
+                if (_channel.read(_readBuffer, from + _readBuffer.position()) < 0)
+                    throw new IOException("Unexpected end of file: " + _tempFile);
             }
+            _readBuffer.flip();
+
+            int width = _columnCount + 1;
+            for (int row=start ; row<end ; row++)
+                _data.add(RowCodec.readRow(_readBuffer, width));
+        }
+        catch (IOException|ClassNotFoundException x)
+        {
+            throw UnexpectedException.wrap(x);
         }
-        //return (_cu) < _data.size();
     }
 
     @Override
     public void close() throws IOException
     {
-        //_map.clear();
-        IOUtils.closeQuietly(_objectOutputStream);
         if (null != _randomAccessFile)
             _randomAccessFile.close();
         if (null != _tempFile && _tempFile.isFile())
             _tempFile.delete();
     }
 
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Compact binary encoding for cached rows. Each value is written as a one-byte type tag followed by its fixed-width
+     * or length-prefixed payload. Tagging each value (rather than trusting the column's JdbcType) matters here because
+     * rows are cached before conversion, so a VARCHAR column may still hold Integers or an INTEGER column may hold the
+     * original Strings. Types without a dedicated tag fall back to Java serialization.
+     */
+    static class RowCodec
+    {
+        private static final byte NULL = 0;
+        private static final byte STRING = 1;
+        private static final byte INTEGER = 2;
+        private static final byte LONG = 3;
+        private static final byte DOUBLE = 4;
+        private static final byte FLOAT = 5;
+        private static final byte SHORT = 6;
+        private static final byte TRUE = 7;
+        private static final byte FALSE = 8;
+        private static final byte BIG_DECIMAL = 9;
+        private static final byte TIMESTAMP = 10;
+        private static final byte SQL_DATE = 11;
+        private static final byte SQL_TIME = 12;
+        private static final byte DATE = 13;
+        private static final byte BYTES = 14;
+        private static final byte SERIALIZED = 15;
+
+        private static final Set<Class<?>> NATIVE_TYPES = Set.of(String.class, Integer.class, Long.class, Double.class, Float.class,
+                Short.class, Boolean.class, BigDecimal.class, Timestamp.class, java.sql.Date.class, Time.class, Date.class, byte[].class);
+
+        /** @return true if values of this class are encoded directly, rather than with Java serialization */
+        static boolean isNativeType(Class<?> c)
+        {
+            return NATIVE_TYPES.contains(c);
+        }
+
+        static void writeRow(ByteBuffer buf, Object[] row) throws IOException
+        {
+            for (Object value : row)
+                writeValue(buf, value);
+        }
+
+        static Object[] readRow(ByteBuffer buf, int width) throws IOException, ClassNotFoundException
+        {
+            Object[] row = new Object[width];
+            for (int i=0 ; i<width ; i++)
+                row[i] = readValue(buf);
+            return row;
+        }
+
+        static void writeValue(ByteBuffer buf, Object value) throws IOException
+        {
+            if (null == value)
+            {
+                buf.put(NULL);
+                return;
+            }
+
+            // Match on exact class so that subclasses (e.g. Timestamp extends Date) round-trip as themselves
+            Class<?> c = value.getClass();
+            if (c == String.class)
+            {
+                buf.put(STRING);
+                writeBytes(buf, ((String)value).getBytes(StandardCharsets.UTF_8));
+            }
+            else if (c == Integer.class)
+                buf.put(INTEGER).putInt((Integer)value);
+            else if (c == Long.class)
+                buf.put(LONG).putLong((Long)value);
+            else if (c == Double.class)
+                buf.put(DOUBLE).putDouble((Double)value);
+            else if (c == Float.class)
+                buf.put(FLOAT).putFloat((Float)value);
+            else if (c == Short.class)
+                buf.put(SHORT).putShort((Short)value);
+            else if (c == Boolean.class)
+                buf.put((Boolean)value ? TRUE : FALSE);
+            else if (c == BigDecimal.class)
+            {
+                BigDecimal d = (BigDecimal)value;
+                buf.put(BIG_DECIMAL).putInt(d.scale());
+                writeBytes(buf, d.unscaledValue().toByteArray());
+            }
+            else if (c == Timestamp.class)
+            {
+                Timestamp t = (Timestamp)value;
+                buf.put(TIMESTAMP).putLong(t.getTime()).putInt(t.getNanos());
+            }
+            else if (c == java.sql.Date.class)
+                buf.put(SQL_DATE).putLong(((java.sql.Date)value).getTime());
+            else if (c == Time.class)
+                buf.put(SQL_TIME).putLong(((Time)value).getTime());
+            else if (c == Date.class)
+                buf.put(DATE).putLong(((Date)value).getTime());
+            else if (c == byte[].class)
+            {
+                buf.put(BYTES);
+                writeBytes(buf, (byte[])value);
+            }
+            else
+            {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+                {
+                    out.writeObject(value);
+                }
+                buf.put(SERIALIZED);
+                writeBytes(buf, bytes.toByteArray());
+            }
+        }
+
+        static Object readValue(ByteBuffer buf) throws IOException, ClassNotFoundException
+        {
+            byte tag = buf.get();
+            return switch (tag)
+            {
+                case NULL -> null;
+                case STRING -> new String(readBytes(buf), StandardCharsets.UTF_8);
+                case INTEGER -> buf.getInt();
+                case LONG -> buf.getLong();
+                case DOUBLE -> buf.getDouble();
+                case FLOAT -> buf.getFloat();
+                case SHORT -> buf.getShort();
+                case TRUE -> Boolean.TRUE;
+                case FALSE -> Boolean.FALSE;
+                case BIG_DECIMAL ->
+                {
+                    int scale = buf.getInt();
+                    yield new BigDecimal(new BigInteger(readBytes(buf)), scale);
+                }
+                case TIMESTAMP ->
+                {
+                    Timestamp t = new Timestamp(buf.getLong());
+                    t.setNanos(buf.getInt());
+                    yield t;
+                }
+                case SQL_DATE -> new java.sql.Date(buf.getLong());
+                case SQL_TIME -> new Time(buf.getLong());
+                case DATE -> new Date(buf.getLong());
+                case BYTES -> readBytes(buf);
+                case SERIALIZED ->
+                {
+                    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(readBytes(buf))))
+                    {
+                        yield in.readObject();
+                    }
+                }
+                default -> throw new IOException("Unexpected type tag in row cache: " + tag);
+            };
+        }
+
+        private static void writeBytes(ByteBuffer buf, byte[] bytes)
+        {
+            buf.putInt(bytes.length).put(bytes);
+        }
+
+        private static byte[] readBytes(ByteBuffer buf)
+        {
+            byte[] bytes = new byte[buf.getInt()];
+            buf.get(bytes);
+            return bytes;
+        }
+    }
+
     private static String[] as(String... arr)
     {
         return arr;
@@ -265,5 +475,73 @@ public class DiskCachingDataIterator extends CachingDataIterator
             assertEquals("2",scrollable.get(1));
             scrollable.close();
         }
+
+        @Test
+        public void largeScrollTest() throws Exception
+        {
+            int rowCount = 100_000;
+            List<String[]> rows = new ArrayList<>(rowCount);
+            for (int i=1 ; i<=rowCount ; i++)
+                rows.add(as(String.valueOf(i), "text" + i, GUID.makeGUID(), i % 7 == 0 ? null : String.valueOf(i * 3)));
+            StringTestIterator data = new StringTestIterator(Arrays.asList("IntNotNull", "Text", "EntityId", "Int"), rows);
+            CachingDataIterator scrollable = new DiskCachingDataIterator(data, 1000, 250);
+
+            for (int pass=0 ; pass<2 ; pass++)
+            {
+                for (int i=1 ; i<=rowCount ; i++)
+                {
+                    assertTrue(scrollable.next());
+                    assertEquals(i, scrollable.get(0));
+                    assertEquals(String.valueOf(i), scrollable.get(1));
+                    assertEquals(rows.get(i-1)[3], scrollable.get(4));
+                    if (i == 12_345)
+                        scrollable.mark();
+                }
+                assertFalse(scrollable.next());
+                scrollable.beforeFirst();
+            }
+
+            scrollable.mark();
+            for (int i=0 ; i<54_321 ; i++)
+                assertTrue(scrollable.next());
+            scrollable.reset();
+            assertTrue(scrollable.next());
+            assertEquals("1", scrollable.get(1));
+            scrollable.close();
+        }
+
+        @Test
+        public void codecTest() throws Exception
+        {
+            Timestamp ts = new Timestamp(1_700_000_000_123L);
+            ts.setNanos(123_456_789);
+            Object[] row = new Object[] {
+                    null, "", "caf\u00e9 \uD83D\uDE00", "x".repeat(200_000), Integer.MIN_VALUE, Long.MAX_VALUE, 1.5d, -2.25f, (short)7,
+                    Boolean.TRUE, Boolean.FALSE, new BigDecimal("-12345678901234567890.000123"), ts,
+                    new java.sql.Date(86_400_000L), new Time(3_600_000L), new Date(42L), new byte[] {1, 2, 3},
+                    GUID.makeGUID(), UUID.randomUUID()
+            };
+
+            ByteBuffer buf = ByteBuffer.allocate(1024 * 1024);
+            RowCodec.writeRow(buf, row);
+            RowCodec.writeRow(buf, row);
+            buf.flip();
+            for (int copy=0 ; copy<2 ; copy++)
+            {
+                Object[] read = RowCodec.readRow(buf, row.length);
+                for (int i=0 ; i<row.length ; i++)
+                {
+                    if (row[i] instanceof byte[] bytes)
+                        assertArrayEquals(bytes, (byte[])read[i]);
+                    else
+                    {
+                        assertEquals(row[i], read[i]);
+                        if (null != row[i])
+                            assertEquals(row[i].getClass(), read[i].getClass());
+                    }
+                }
+            }
+            assertFalse(buf.hasRemaining());
+        }
     }
 }
@@ -25,11 +25,11 @@ import org.labkey.api.query.QueryUpdateServiceException;
 import org.labkey.api.query.UserSchema;
 import org.labkey.api.query.ValidationException;
 import org.labkey.api.security.User;
-import org.labkey.api.util.Pair;
 import org.labkey.api.util.UnexpectedException;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -52,10 +52,15 @@ public abstract class ExistingRecordDataIterator extends WrapperDataIterator
     final int existingColIndex;
     final Integer containerCol;
 
-    // prefetch of existing records
+    // rows are looked up this many at a time, but never with more than MAX_PARAMETERS key values (SQL Server allows 2100)
+    static final int PREFETCH_BATCH_SIZE = 1000;
+    static final int MAX_PARAMETERS = 2000;
+
+    // prefetch of existing records, existingRecords[i] is the existing record for row number _firstPrefetchRowNumber+i
     final boolean useMark;
     int lastPrefetchRowNumber = -1;
-    final HashMap<Integer,Map<String,Object>> existingRecords = new HashMap<>();
+    int _firstPrefetchRowNumber = 0;
+    Map<String,Object>[] existingRecords = new Map[0];
     final Set<String> _dataColumnNames = new CaseInsensitiveHashSet();
 
     final User user;
@@ -134,12 +139,25 @@ public abstract class ExistingRecordDataIterator extends WrapperDataIterator
     {
         if (i<existingColIndex)
             return _delegate.get(i);
-        Integer rowNumber = (Integer)_delegate.get(0);
-        Map<String,Object> existingRow = existingRecords.get(rowNumber);
+        int index = (Integer)_delegate.get(0) - _firstPrefetchRowNumber;
+        Map<String,Object> existingRow = index >= 0 && index < existingRecords.length ? existingRecords[index] : null;
         assert null != existingRow;
         return existingRow;
     }
 
+    /* Start a new prefetch batch, with no existing record for any row */
+    void clearExisting(int firstRowNumber, int lastRowNumber)
+    {
+        existingRecords = new Map[lastRowNumber - firstRowNumber + 1];
+        Arrays.fill(existingRecords, Map.of());
+        _firstPrefetchRowNumber = firstRowNumber;
+    }
+
+    void putExisting(int rowNumber, Map<String,Object> existingRow)
+    {
+        existingRecords[rowNumber - _firstPrefetchRowNumber] = existingRow;
+    }
+
     @Override
     public boolean isConstant(int i)
     {
@@ -235,34 +253,79 @@ public abstract class ExistingRecordDataIterator extends WrapperDataIterator
                 allowedContainers.add(c.getId());
         }
 
-        private Pair<SQLFragment, Map<Integer, String>> getSelectExistingSql(int rows) throws BatchValidationException
+        /** Key values and containers for the rows in one prefetch batch */
+        private class KeyBatch
         {
-            SQLFragment sqlf = new SQLFragment("WITH _key_columns_ AS (\nSELECT * FROM (VALUES \n");
-            String comma = "";
-            Map<Integer, String> rowNumContainers = new HashMap<>();
-            String container;
+            final int[] rowNumbers;
+            final Object[] keys;        // keys for row i are at [i*pkColumns.size(), (i+1)*pkColumns.size())
+            final String[] containers;
+            final boolean[] found;
+            int size = 0;
+
+            KeyBatch(int maxRows)
+            {
+                rowNumbers = new int[maxRows];
+                keys = new Object[maxRows * pkColumns.size()];
+                containers = new String[maxRows];
+                found = new boolean[maxRows];
+            }
+
+            Object getKey(int row, int p)
+            {
+                return keys[row * pkColumns.size() + p];
+            }
+
+            /* Single integer keys (e.g. RowId) are selected with an IN clause, which lets the dialect use a temp table for large batches */
+            boolean isIntegerKey()
+            {
+                if (pkColumns.size() != 1 || !pkColumns.get(0).getJdbcType().isInteger())
+                    return false;
+                for (int i = 0; i < size; i++)
+                {
+                    if (!(keys[i] instanceof Integer))
+                        return false;
+                }
+                return true;
+            }
+        }
+
+        private KeyBatch readKeys() throws BatchValidationException
+        {
+            int rows = Math.max(1, Math.min(PREFETCH_BATCH_SIZE, MAX_PARAMETERS / pkColumns.size()));
+            KeyBatch batch = new KeyBatch(rows);
             do
             {
-                container = null;
                 lastPrefetchRowNumber = (Integer) _delegate.get(0);
                 if (containerCol != null)
                 {
                     Object containerObj = _delegate.get(containerCol);
                     if (containerObj != null)
-                        container = (String) containerObj;
+                        batch.containers[batch.size] = (String) containerObj;
                 }
+                batch.rowNumbers[batch.size] = lastPrefetchRowNumber;
+                for (int p = 0; p < pkColumns.size(); p++)
+                    batch.keys[batch.size * pkColumns.size() + p] = pkSuppliers.get(p).get();
+                batch.size++;
+            }
+            while (batch.size < rows && _delegate.next());
+            return batch;
+        }
 
-                sqlf.append(comma).append("(").appendValue(lastPrefetchRowNumber);
+        private SQLFragment getSelectExistingSql(KeyBatch batch)
+        {
+            SQLFragment sqlf = new SQLFragment("WITH _key_columns_ AS (\nSELECT * FROM (VALUES \n");
+            String comma = "";
+            for (int i = 0; i < batch.size; i++)
+            {
+                sqlf.append(comma).append("(").appendValue(batch.rowNumbers[i]);
                 comma = "\n,";
                 for (int p = 0; p < pkColumns.size(); p++)
                 {
                     sqlf.append(",?");
-                    sqlf.add(pkSuppliers.get(p).get());
+                    sqlf.add(batch.getKey(i, p));
                 }
                 sqlf.append(")");
-                rowNumContainers.put(lastPrefetchRowNumber, container);
             }
-            while (--rows > 0 && _delegate.next());
 
             sqlf.append("\n) AS _values_ (_row_number_");
             for (int p = 0; p < pkColumns.size(); p++)
@@ -280,63 +343,114 @@ public abstract class ExistingRecordDataIterator extends WrapperDataIterator
                 sqlf.append("(_key_columns_.key").appendValue(p).append("=(").append(pkColumns.get(p).getValueSql("_target_")).append("))");
                 and = " AND ";
             }
-            return new Pair<>(sqlf, rowNumContainers);
+            return sqlf;
+        }
+
+        private SQLFragment getSelectExistingByIntegerKeySql(KeyBatch batch)
+        {
+            SQLFragment keySql = pkColumns.get(0).getValueSql("_target_");
+            Set<Integer> keys = new HashSet<>();
+            for (int i = 0; i < batch.size; i++)
+                keys.add((Integer) batch.keys[i]);
+
+            SQLFragment sqlf = new SQLFragment("SELECT (").append(keySql).append(") AS _key_value_, _target_.* FROM ");
+            sqlf.append(target.getFromSQL("_target_ "));
+            sqlf.append(" WHERE (").append(keySql).append(") ");
+            sqlf.appendInClause(keys, target.getSqlDialect());
+            return sqlf;
         }
 
+        @Override
         protected void prefetchExisting() throws BatchValidationException
         {
             Integer rowNumber = (Integer)_delegate.get(0);
             if (rowNumber <= lastPrefetchRowNumber)
                 return;
 
-            // fetch N new rows into the existingRecords map
-            Pair<SQLFragment, Map<Integer, String>> selectRowsSql = getSelectExistingSql(50);
-            SQLFragment select = selectRowsSql.first;
-            Map<Integer, String> rowNumContainers = selectRowsSql.second;
-            var list = new SqlSelector(target.getSchema(), select).getArrayList(Map.class);
-            existingRecords.clear();
-            for (int r=rowNumber ; r<=lastPrefetchRowNumber ;r++)
-                existingRecords.put(r,Map.of());
+            // fetch the next batch of rows into existingRecords
+            KeyBatch batch = readKeys();
+            clearExisting(rowNumber, lastPrefetchRowNumber);
 
-            for (Map map : list)
+            if (batch.isIntegerKey())
             {
-                Integer r = (Integer)map.get("_row_number_");
-
-                if (_verifyExisting)
+                Map<Integer, Map<String,Object>> byKey = new HashMap<>();
+                new SqlSelector(target.getSchema(), getSelectExistingByIntegerKeySql(batch)).forEachMap(map -> {
+                    Integer key = ((Number) map.get("_key_value_")).intValue();
+                    map.remove("_key_value_");
+                    map.remove("_row"); // I think CachedResultSet adds "_row"
+                    byKey.put(key, map);
+                });
+
+                // the same key can appear on more than one input row, give each row its own copy
+                Set<Integer> used = new HashSet<>();
+                for (int i = 0; i < batch.size; i++)
                 {
-                    String existingContainerId = null;
-                    if (map.containsKey("container"))
-                        existingContainerId = (String) map.getOrDefault("container", "");
-                    else if (map.containsKey("folder"))
-                        existingContainerId = (String) map.getOrDefault("folder", "");
+                    Integer key = (Integer) batch.keys[i];
+                    Map<String,Object> map = byKey.get(key);
+                    if (null != map)
+                        addExisting(batch, i, used.add(key) ? map : new CaseInsensitiveHashMap<>(map));
+                }
+            }
+            else
+            {
+                Map<Integer, Integer> rowIndexes = new HashMap<>();
+                for (int i = 0; i < batch.size; i++)
+                    rowIndexes.put(batch.rowNumbers[i], i);
+
+                new SqlSelector(target.getSchema(), getSelectExistingSql(batch)).forEachMap(map -> {
+                    Integer r = (Integer)map.get("_row_number_");
+                    map.remove("_row_number_");
+                    map.remove("_row"); // I think CachedResultSet adds "_row"
+                    addExisting(batch, rowIndexes.get(r), map);
+                });
+            }
 
-                    if (!StringUtils.isEmpty(existingContainerId))
+            if (_verifyExisting)
+            {
+                for (int i = 0; i < batch.size; i++)
+                {
+                    if (!batch.found[i])
                     {
-                        if (!allowedContainers.contains(existingContainerId))
-                        {
-                            String providedContainer = rowNumContainers.get(r);
-
-                            // if a Container value is provided in the rows, its allowRowMutationForContainer has already been validated in SimpleTranslator.ContainerColumn
-                            if (!existingContainerId.equals(providedContainer))
-                                _context.getErrors().addRowError(new ValidationException("Data doesn't belong to the current container at row number: " + r));
-                        }
-
+                        _context.getErrors().addRowError(new ValidationException("No record found at row number: " + batch.rowNumbers[i] + "."));
+                        break;
                     }
                 }
-
-                map.remove("_row_number_");
-                map.remove("_row"); // I think CachedResultSet adds "_row"
-                existingRecords.put(r,(Map<String,Object>)map);
-                rowNumContainers.remove(r);
             }
 
-            if (_verifyExisting && rowNumContainers.size() > 0)
-                _context.getErrors().addRowError(new ValidationException("No record found at row number: " + rowNumContainers.keySet().iterator().next() + "."));
-
             // backup to where we started so caller can iterate through them one at a time
             _unwrapped.reset(); // unwrapped _delegate
             _delegate.next();
         }
+
+        private void addExisting(KeyBatch batch, int i, Map<String,Object> map)
+        {
+            int r = batch.rowNumbers[i];
+            batch.found[i] = true;
+
+            if (_verifyExisting)
+            {
+                String existingContainerId = null;
+                if (map.containsKey("container"))
+                    existingContainerId = (String) map.getOrDefault("container", "");
+                else if (map.containsKey("folder"))
+                    existingContainerId = (String) map.getOrDefault("folder", "");
+
+                if (!StringUtils.isEmpty(existingContainerId))
+                {
+                    if (!allowedContainers.contains(existingContainerId))
+                    {
+                        String providedContainer = batch.containers[i];
+
+                        // if a Container value is provided in the rows, its allowRowMutationForContainer has already been validated in SimpleTranslator.ContainerColumn
+                        if (!existingContainerId.equals(providedContainer))
+                            _context.getErrors().addRowError(new ValidationException("Data doesn't belong to the current container at row number: " + r));
+                    }
+
+                }
+            }
+
+            putExisting(r, map);
+        }
     }
 
 
@@ -360,9 +474,7 @@ public abstract class ExistingRecordDataIterator extends WrapperDataIterator
                 if (rowNumber <= lastPrefetchRowNumber)
                     return;
 
-                existingRecords.clear();
-
-                int rowsToFetch = 50;
+                int rowsToFetch = PREFETCH_BATCH_SIZE;
                 Map<Integer, Map<String,Object>> keysMap = new LinkedHashMap<>();
                 do
                 {
@@ -371,16 +483,16 @@ public abstract class ExistingRecordDataIterator extends WrapperDataIterator
                     for (int p=0 ; p<pkColumns.size() ; p++)
                         keyMap.put(pkColumns.get(p).getColumnName(), pkSuppliers.get(p).get());
                     keysMap.put(lastPrefetchRowNumber, keyMap);
-                    existingRecords.put(lastPrefetchRowNumber, Map.of());
                 }
                 while (--rowsToFetch > 0 && _delegate.next());
+                clearExisting(rowNumber, lastPrefetchRowNumber);
 
                 Map<Integer, Map<String, Object>> rowsMap = qus.getExistingRows(user, c, keysMap, _checkCrossFolderData, _verifyExisting, _dataColumnNames);
                 for (Map.Entry<Integer, Map<String, Object>> rowMap : rowsMap.entrySet())
                 {
                     Map<String, Object> map = rowMap.getValue();
                     Map<String,Object> existing = map == null || map.isEmpty() ? Map.of() : map;
-                    existingRecords.put(rowMap.getKey(), existing);
+                    putExisting(rowMap.getKey(), existing);
                 }
 
                 // backup to where we started so caller can iterate through them one at a time
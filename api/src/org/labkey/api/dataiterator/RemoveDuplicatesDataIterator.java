@@ -15,30 +15,106 @@
  */
 package org.labkey.api.dataiterator;
 
+import org.jetbrains.annotations.Nullable;
 import org.junit.Assert;
 import org.junit.Test;
 import org.labkey.api.query.BatchValidationException;
 import org.labkey.api.util.GUID;
+import org.labkey.api.util.UnexpectedException;
 
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * User: matthewb
  * Date: 2012-05-10
  * Time: 12:42 PM
  *
- * Currently removes adjacent duplicate rows. It can be extended to remove non-adjacent duplicates if required.
+ * By default, removes adjacent duplicate rows. When constructed with a memory limit it removes non-adjacent duplicates
+ * as well, by remembering a 128-bit fingerprint of each distinct row in a {@link RowFingerprintSet}. Two distinct rows
+ * would have to collide on all 128 bits to be mistaken for duplicates.
+ *
+ * The number of rows removed is reported in the context's response info under {@link #DUPLICATE_ROW_COUNT}.
  */
 public class RemoveDuplicatesDataIterator extends WrapperDataIterator
 {
+    public static final String DUPLICATE_ROW_COUNT = "duplicateRowCount";
+    public static final long DEFAULT_MEMORY_LIMIT = 64L * 1024 * 1024;
+
+    private static final long SEED1 = 0x9E3779B97F4A7C15L;
+    private static final long SEED2 = 0xC2B2AE3D27D4EB4FL;
+
+    @Nullable final DataIteratorContext _context;
+    @Nullable final RowFingerprintSet _fingerprints;
+    ByteBuffer _fingerprintBuffer;
+    int _duplicateCount = 0;
+    boolean _reported = false;
+
     boolean _beforeFirst = true;
     ArrayList<Object> _previous;
     ArrayList<Object> _current;
 
+    public static class Builder implements DataIteratorBuilder
+    {
+        final DataIteratorBuilder _builder;
+        boolean _adjacentOnly = false;
+        long _memoryLimit = DEFAULT_MEMORY_LIMIT;
+
+        public Builder(DataIteratorBuilder builder)
+        {
+            _builder = builder;
+        }
+
+        /** Only compare each row with the row before it, for input that is known to be sorted */
+        public Builder setAdjacentOnly(boolean adjacentOnly)
+        {
+            _adjacentOnly = adjacentOnly;
+            return this;
+        }
+
+        /** Bytes of fingerprints to keep in memory before spilling them to disk */
+        public Builder setMemoryLimit(long memoryLimit)
+        {
+            _memoryLimit = memoryLimit;
+            return this;
+        }
+
+        @Override
+        public DataIterator getDataIterator(DataIteratorContext context)
+        {
+            DataIterator in = _builder.getDataIterator(context);
+            if (null == in)
+                return null;
+            return _adjacentOnly ? new RemoveDuplicatesDataIterator(in, context) : new RemoveDuplicatesDataIterator(in, context, _memoryLimit);
+        }
+    }
+
     RemoveDuplicatesDataIterator(DataIterator di)
+    {
+        this(di, null);
+    }
+
+    /** Remove adjacent duplicates only */
+    RemoveDuplicatesDataIterator(DataIterator di, @Nullable DataIteratorContext context)
+    {
+        super(di);
+        _context = context;
+        _fingerprints = null;
+        _previous = new ArrayList<>(getColumnCount()+1);
+        _current = new ArrayList<>(getColumnCount()+1);
+    }
+
+    /** Remove all duplicates, keeping the first occurrence of each row */
+    RemoveDuplicatesDataIterator(DataIterator di, @Nullable DataIteratorContext context, long memoryLimit)
     {
         super(di);
+        _context = context;
+        _fingerprints = new RowFingerprintSet(memoryLimit);
+        _fingerprintBuffer = ByteBuffer.allocate(8 * 1024);
         _previous = new ArrayList<>(getColumnCount()+1);
         _current = new ArrayList<>(getColumnCount()+1);
     }
@@ -50,10 +126,41 @@ public class RemoveDuplicatesDataIterator extends WrapperDataIterator
         {
             if (!isDuplicateRow())
                 return true;
+            _duplicateCount++;
         }
+        reportDuplicates();
         return false;
     }
 
+    public int getDuplicateCount()
+    {
+        return _duplicateCount;
+    }
+
+    private void reportDuplicates()
+    {
+        if (_reported || null == _context)
+            return;
+        _reported = true;
+        _context.putResponseInfo(DUPLICATE_ROW_COUNT, _duplicateCount);
+        if (_duplicateCount > 0 && null != _context.getLogger())
+            _context.getLogger().info("Skipped " + _duplicateCount + " duplicate row" + (_duplicateCount == 1 ? "" : "s"));
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            super.close();
+        }
+        finally
+        {
+            if (null != _fingerprints)
+                _fingerprints.close();
+        }
+    }
+
     @Override
     public boolean isScrollable()
     {
@@ -69,6 +176,8 @@ public class RemoveDuplicatesDataIterator extends WrapperDataIterator
         // get normalized current row values
         for (int i=1 ; i<=count ; i++)
             _current.set(i, _normalize(get(i)));
+        if (null != _fingerprints)
+            return !addFingerprint(count);
         // check if duplicate
         if (_beforeFirst)
             return swap();
@@ -79,6 +188,73 @@ public class RemoveDuplicatesDataIterator extends WrapperDataIterator
         return true;
     }
 
+    /** @return true if this is the first time we've seen the current row */
+    private boolean addFingerprint(int count)
+    {
+        while (true)
+        {
+            _fingerprintBuffer.clear();
+            try
+            {
+                for (int i=1 ; i<=count ; i++)
+                {
+                    Object value = _current.get(i);
+                    // Java serialization is both slow and not guaranteed to be stable, so hash anything else by its string form
+                    if (null != value && !DiskCachingDataIterator.RowCodec.isNativeType(value.getClass()))
+                        value = value.getClass().getName() + ":" + value;
+                    DiskCachingDataIterator.RowCodec.writeValue(_fingerprintBuffer, value);
+                }
+                break;
+            }
+            catch (BufferOverflowException x)
+            {
+                _fingerprintBuffer = ByteBuffer.allocate(_fingerprintBuffer.capacity() * 2);
+            }
+            catch (IOException x)
+            {
+                throw UnexpectedException.wrap(x);
+            }
+        }
+        _fingerprintBuffer.flip();
+        return _fingerprints.add(hash(_fingerprintBuffer, SEED1), hash(_fingerprintBuffer, SEED2));
+    }
+
+    // 64-bit hash of the buffer's remaining bytes, based on the MurmurHash3 mixing functions
+    static long hash(ByteBuffer buf, long seed)
+    {
+        final long c1 = 0x87C37B91114253D5L;
+        final long c2 = 0x4CF5AD432745937FL;
+        int length = buf.remaining();
+        int pos = buf.position();
+        int end = pos + length;
+        long h = seed ^ length;
+
+        for ( ; pos + 8 <= end ; pos += 8)
+        {
+            long k = buf.getLong(pos);
+            k *= c1;
+            k = Long.rotateLeft(k, 31);
+            k *= c2;
+            h ^= k;
+            h = Long.rotateLeft(h, 27) * 5 + 0x52DCE729;
+        }
+        long k = 0;
+        for (int shift = 0 ; pos < end ; pos++, shift += 8)
+            k |= (buf.get(pos) & 0xFFL) << shift;
+        k *= c1;
+        k = Long.rotateLeft(k, 31);
+        k *= c2;
+        h ^= k;
+
+        // fmix64
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
     protected boolean _equal(Object a, Object b)
     {
         if (null == a || null == b)
@@ -166,6 +342,62 @@ public class RemoveDuplicatesDataIterator extends WrapperDataIterator
                 assertTrue(dedup.next());
                 assertEquals(String.valueOf(i), dedup.get(1));
             }
+            assertFalse(dedup.next());
+        }
+
+        @Test
+        public void testNonAdjacent() throws Exception
+        {
+            StringTestIterator data = new StringTestIterator
+            (
+                Arrays.asList("IntNotNull", "Text", "EntityId", "Int"),
+                Arrays.asList(
+                    as("1", "one", a, ""),
+                    as("2", "two", b, "/N"),
+                    as("1", "one", a, ""),
+                    as("3", "three", c, "3"),
+                    as("2", "two", b, "/N"),
+                    as("4", "four", "", "4"),
+                    as("3", "three", c, null),
+                    as("1", "one", a, "")
+                )
+            );
+            DataIteratorContext context = new DataIteratorContext();
+            RemoveDuplicatesDataIterator dedup = new RemoveDuplicatesDataIterator(data, context, DEFAULT_MEMORY_LIMIT);
+            for (String expected : List.of("1", "2", "3", "4", "3"))
+            {
+                assertTrue(dedup.next());
+                assertEquals(expected, dedup.get(1));
+            }
+            assertFalse(dedup.next());
+            assertEquals(3, dedup.getDuplicateCount());
+            assertEquals(3, context.getResponseInfo().get(DUPLICATE_ROW_COUNT));
+            dedup.close();
+        }
+
+        @Test
+        public void testSpillToDisk() throws Exception
+        {
+            // each distinct row appears three times, with each repeat 20,000 rows after the last
+            int distinct = 20_000;
+            List<String[]> rows = new ArrayList<>(distinct * 3);
+            for (int copy=0 ; copy<3 ; copy++)
+                for (int i=0 ; i<distinct ; i++)
+                    rows.add(as(String.valueOf(i), "text" + i, null, String.valueOf(i)));
+            StringTestIterator data = new StringTestIterator(Arrays.asList("IntNotNull", "Text", "EntityId", "Int"), rows);
+
+            // small enough to spill several runs
+            RemoveDuplicatesDataIterator dedup = new RemoveDuplicatesDataIterator(data, null, 64 * 1024);
+            int count = 0;
+            while (dedup.next())
+            {
+                assertEquals(String.valueOf(count), dedup.get(1));
+                count++;
+            }
+            assertEquals(distinct, count);
+            assertEquals(2 * distinct, dedup.getDuplicateCount());
+            assertTrue(dedup._fingerprints.getRunCount() > 1);
+            dedup.close();
         }
     }
 
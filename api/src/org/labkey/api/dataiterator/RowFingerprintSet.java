@@ -0,0 +1,293 @@
+package org.labkey.api.dataiterator;
+
+import org.labkey.api.util.FileUtil;
+import org.labkey.api.util.UnexpectedException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A set of 128-bit row fingerprints with bounded memory. Fingerprints are kept in an open-addressed table of primitive
+ * longs until it reaches the memory limit. The table is then sorted and written to a temp file as a "run", and only a
+ * Bloom filter for that run (about 10 bits per fingerprint) stays in memory. Lookups consult the run files only when a
+ * Bloom filter reports a possible match, so the disk is rarely touched for rows that are actually unique.
+ */
+class RowFingerprintSet implements Closeable
+{
+    private static final int FINGERPRINT_BYTES = 16;
+    private static final int MIN_CAPACITY = 1024;
+    private static final int BLOOM_BITS_PER_ENTRY = 10;
+    private static final int BLOOM_HASHES = 7;
+
+    private final int _maxEntries;
+    private final List<Run> _runs = new ArrayList<>();
+
+    // pairs of (h1,h2); (0,0) marks an empty slot
+    private long[] _table;
+    private int _size = 0;
+
+    /** @param memoryLimit approximate number of bytes to use for the in-memory table before spilling to disk */
+    RowFingerprintSet(long memoryLimit)
+    {
+        // each slot takes 16 bytes and the table is kept at most half full
+        _maxEntries = (int)Math.max(MIN_CAPACITY / 2, Math.min(memoryLimit / (2 * FINGERPRINT_BYTES), 1 << 26));
+        _table = new long[2 * MIN_CAPACITY];
+    }
+
+    /** @return true if the fingerprint was added, false if it was already present */
+    boolean add(long h1, long h2)
+    {
+        if (h1 == 0 && h2 == 0)
+            h2 = 1;
+
+        int slot = findSlot(_table, h1, h2);
+        if (_table[slot] != 0 || _table[slot + 1] != 0)
+            return false;
+
+        for (Run run : _runs)
+        {
+            if (run.contains(h1, h2))
+                return false;
+        }
+
+        _table[slot] = h1;
+        _table[slot + 1] = h2;
+        _size++;
+
+        if (_size >= _maxEntries)
+            spill();
+        else if (_size * 2 >= _table.length / 2)
+            resize(_table.length * 2);
+        return true;
+    }
+
+    int getRunCount()
+    {
+        return _runs.size();
+    }
+
+    private static int findSlot(long[] table, long h1, long h2)
+    {
+        int mask = table.length / 2 - 1;
+        int i = (int)(h1 ^ (h1 >>> 32)) & mask;
+        while (true)
+        {
+            int slot = i * 2;
+            long a = table[slot];
+            long b = table[slot + 1];
+            if ((a == 0 && b == 0) || (a == h1 && b == h2))
+                return slot;
+            i = (i + 1) & mask;
+        }
+    }
+
+    private void resize(int length)
+    {
+        long[] old = _table;
+        _table = new long[length];
+        for (int slot = 0; slot < old.length; slot += 2)
+        {
+            if (old[slot] != 0 || old[slot + 1] != 0)
+            {
+                int to = findSlot(_table, old[slot], old[slot + 1]);
+                _table[to] = old[slot];
+                _table[to + 1] = old[slot + 1];
+            }
+        }
+    }
+
+    private void spill()
+    {
+        long[] pairs = new long[_size * 2];
+        int n = 0;
+        for (int slot = 0; slot < _table.length; slot += 2)
+        {
+            if (_table[slot] != 0 || _table[slot + 1] != 0)
+            {
+                pairs[n++] = _table[slot];
+                pairs[n++] = _table[slot + 1];
+            }
+        }
+        sortPairs(pairs, 0, _size - 1);
+        _runs.add(new Run(pairs, _size));
+
+        _table = new long[2 * MIN_CAPACITY];
+        _size = 0;
+    }
+
+    @Override
+    public void close()
+    {
+        for (Run run : _runs)
+            run.close();
+        _runs.clear();
+        _table = new long[2 * MIN_CAPACITY];
+        _size = 0;
+    }
+
+    private static int compare(long a1, long a2, long b1, long b2)
+    {
+        int c = Long.compare(a1, b1);
+        return c != 0 ? c : Long.compare(a2, b2);
+    }
+
+    // in-place quicksort of (h1,h2) pairs, indexes are pair indexes
+    private static void sortPairs(long[] pairs, int lo, int hi)
+    {
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            long p1 = pairs[mid * 2], p2 = pairs[mid * 2 + 1];
+            int i = lo, j = hi;
+            while (i <= j)
+            {
+                while (compare(pairs[i * 2], pairs[i * 2 + 1], p1, p2) < 0)
+                    i++;
+                while (compare(pairs[j * 2], pairs[j * 2 + 1], p1, p2) > 0)
+                    j--;
+                if (i <= j)
+                {
+                    long t1 = pairs[i * 2], t2 = pairs[i * 2 + 1];
+                    pairs[i * 2] = pairs[j * 2];
+                    pairs[i * 2 + 1] = pairs[j * 2 + 1];
+                    pairs[j * 2] = t1;
+                    pairs[j * 2 + 1] = t2;
+                    i++;
+                    j--;
+                }
+            }
+            // recurse into the smaller half to bound stack depth
+            if (j - lo < hi - i)
+            {
+                sortPairs(pairs, lo, j);
+                lo = i;
+            }
+            else
+            {
+                sortPairs(pairs, i, hi);
+                hi = j;
+            }
+        }
+    }
+
+    /** A sorted file of fingerprints plus an in-memory Bloom filter over them */
+    private static class Run
+    {
+        private final File _file;
+        private final RandomAccessFile _randomAccessFile;
+        private final FileChannel _channel;
+        private final int _count;
+        private final long[] _bloom;
+        private final long _bloomBits;
+        private final ByteBuffer _probe = ByteBuffer.allocate(FINGERPRINT_BYTES);
+
+        Run(long[] sortedPairs, int count)
+        {
+            _count = count;
+            _bloomBits = Math.max(64, (long)count * BLOOM_BITS_PER_ENTRY);
+            _bloom = new long[(int)((_bloomBits + 63) / 64)];
+
+            try
+            {
+                _file = FileUtil.createTempFile("dedupe", "dat");
+                _file.deleteOnExit();
+                _randomAccessFile = new RandomAccessFile(_file, "rw");
+                _channel = _randomAccessFile.getChannel();
+
+                ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+                for (int i = 0; i < count; i++)
+                {
+                    long h1 = sortedPairs[i * 2], h2 = sortedPairs[i * 2 + 1];
+                    addToBloom(h1, h2);
+                    if (buf.remaining() < FINGERPRINT_BYTES)
+                        write(buf);
+                    buf.putLong(h1).putLong(h2);
+                }
+                write(buf);
+            }
+            catch (IOException x)
+            {
+                throw UnexpectedException.wrap(x);
+            }
+        }
+
+        private void write(ByteBuffer buf) throws IOException
+        {
+            buf.flip();
+            while (buf.hasRemaining())
+                _channel.write(buf);
+            buf.clear();
+        }
+
+        private void addToBloom(long h1, long h2)
+        {
+            for (int i = 0; i < BLOOM_HASHES; i++)
+            {
+                long bit = Math.floorMod(h1 + i * h2, _bloomBits);
+                _bloom[(int)(bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        private boolean mightContain(long h1, long h2)
+        {
+            for (int i = 0; i < BLOOM_HASHES; i++)
+            {
+                long bit = Math.floorMod(h1 + i * h2, _bloomBits);
+                if ((_bloom[(int)(bit >>> 6)] & (1L << bit)) == 0)
+                    return false;
+            }
+            return true;
+        }
+
+        boolean contains(long h1, long h2)
+        {
+            if (!mightContain(h1, h2))
+                return false;
+
+            try
+            {
+                int lo = 0, hi = _count - 1;
+                while (lo <= hi)
+                {
+                    int mid = (lo + hi) >>> 1;
+                    _probe.clear();
+                    while (_probe.hasRemaining())
+                    {
+                        if (_channel.read(_probe, (long)mid * FINGERPRINT_BYTES + _probe.position()) < 0)
+                            throw new IOException("Unexpected end of file: " + _file);
+                    }
+                    int c = compare(_probe.getLong(0), _probe.getLong(8), h1, h2);
+                    if (c == 0)
+                        return true;
+                    if (c < 0)
+                        lo = mid + 1;
+                    else
+                        hi = mid - 1;
+                }
+                return false;
+            }
+            catch (IOException x)
+            {
+                throw UnexpectedException.wrap(x);
+            }
+        }
+
+        void close()
+        {
+            try
+            {
+                _randomAccessFile.close();
+            }
+            catch (IOException ignored)
+            {
+            }
+            _file.delete();
+        }
+    }
+}
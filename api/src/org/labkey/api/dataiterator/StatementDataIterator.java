@@ -47,6 +47,7 @@ import org.labkey.api.exp.MvFieldWrapper;
 import org.labkey.api.query.BatchValidationException;
 import org.labkey.api.query.FieldKey;
 import org.labkey.api.query.QueryUpdateService;
+import org.labkey.api.query.ValidationException;
 import org.labkey.api.util.CPUTimer;
 import org.labkey.api.util.GUID;
 import org.springframework.dao.DataAccessException;
@@ -57,9 +58,12 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
@@ -80,6 +84,11 @@ public class StatementDataIterator extends AbstractDataIterator
     final Thread _foregroundThread;
     volatile Thread _asyncThread = null;
     AtomicReference<Exception> _backgroundException = new AtomicReference<>();
+    int[] _pendingRows;     // size of the batch queued on each statement, for statistics
+
+    // execute batches on several connections at once, see setParallelExecute()
+    private int _parallelThreads = 0;
+    private ParallelExecutor _parallel = null;
 
     protected DataIterator _data;
     int _currentRowNumber = -1;
@@ -122,6 +131,23 @@ public class StatementDataIterator extends AbstractDataIterator
     }
 
 
+    /**
+     * Opt in to executing batches on up to <code>threads</code> connections at once. This is only for plain inserts
+     * that don't need generated keys back, run outside of a transaction. Each statement passed to the constructor must
+     * be prepared on its own connection with auto-commit off, and each batch is committed on its connection as soon as
+     * it executes, so other connections can see rows before the import finishes.
+     * <p>
+     * Failure contract: the first batch that fails is rolled back and stops the import, and no further batches are
+     * executed. Batches that already committed, or were executing at the time, stay committed. The error added to
+     * the context says how many rows were committed, and the context's statement execution stats count exactly those rows.
+     */
+    public void setParallelExecute(int threads)
+    {
+        if (_dialect.allowAsynchronousExecute() && null == _rowIdIndex && null == _objectIdIndex && null == _objectUriIndex)
+            _parallelThreads = threads;
+    }
+
+
     /*
      * EmbargoDataIterator and a StatementDataIterator can be paired such that the EmbargoDataIterator
      * does not 'release' rows until the statement that operates on that row (e.g. inserts it) has been
@@ -151,6 +177,7 @@ public class StatementDataIterator extends AbstractDataIterator
         _keyColumnInfo.set(index,col);
         _rowIdIndex = index;
         _useAsynchronousExecute = false;
+        _parallelThreads = 0;
     }
 
 
@@ -165,6 +192,7 @@ public class StatementDataIterator extends AbstractDataIterator
         _keyColumnInfo.set(index,col);
         _objectIdIndex = index;
         _useAsynchronousExecute = false;
+        _parallelThreads = 0;
     }
 
     public void setObjectUriColumn(int index, ColumnInfo col)
@@ -178,6 +206,7 @@ public class StatementDataIterator extends AbstractDataIterator
         _keyColumnInfo.set(index,col);
         _objectUriIndex = index;
         _useAsynchronousExecute = false;
+        _parallelThreads = 0;
     }
 
 
@@ -223,7 +252,12 @@ public class StatementDataIterator extends AbstractDataIterator
         if (contextTxSize != null && contextTxSize > 1)
             _txSize = contextTxSize;
 
-        if (_stmts.length > 1)
+        _pendingRows = new int[_stmts.length];
+        if (_parallelThreads > 1 && _stmts.length > 1 && null == _embargoDataIterator)
+        {
+            _parallel = new ParallelExecutor(Math.min(_parallelThreads, _stmts.length - 1));
+        }
+        else if (_stmts.length > 1)
         {
             _asyncThread = new Thread(new _Runnable(_stmts[1]), "StatementDataIterator executor");
             _asyncThread.start();
@@ -315,6 +349,8 @@ public class StatementDataIterator extends AbstractDataIterator
                 joinBackgroundThread();
                 if (null != _embargoDataIterator)
                     _embargoDataIterator.setReleasedRowNumber(Integer.MAX_VALUE);
+                if (null != _log && _context.getStatementExecutionStats().getBatchCount() > 0)
+                    _log.debug("Statement execution: " + _context.getStatementExecutionStats());
                 checkBackgroundException();
             }
             log("</next>");
@@ -343,6 +379,8 @@ public class StatementDataIterator extends AbstractDataIterator
             }
         }
         log("</join() on _asyncThread>");
+        if (null != _parallel)
+            _parallel.shutdown();
     }
 
     private boolean _next() throws BatchValidationException
@@ -456,12 +494,21 @@ public class StatementDataIterator extends AbstractDataIterator
             assert batchSize == 1;
             /* use .execute() for handling keys */
             log("<execute() on " + _currentStmt + ">");
+            long start = System.nanoTime();
             _currentStmt.execute();
+            _context.getStatementExecutionStats().record(batchSize, start, System.nanoTime());
             afterExecute(_currentStmt, batchSize, rowNumber);
             log("</execute() on " + _currentStmt + ">");
         }
+        else if (null != _parallel)
+        {
+            log("<submit() - old: " + _currentStmt + ">");
+            _currentStmt = _parallel.submit(_currentStmt, batchSize);
+            log("</submit() - new: " + _currentStmt + ">");
+        }
         else if (_useAsynchronousExecute && _stmts.length > 1 && _txSize==-1)
         {
+            _pendingRows[indexOf(_currentStmt)] = batchSize;
             while (true)
             {
                 try
@@ -489,17 +536,27 @@ public class StatementDataIterator extends AbstractDataIterator
         else
         {
             log("<executeBatch() on " + _currentStmt + ">");
+            long start = System.nanoTime();
             _currentStmt.executeBatch();
+            _context.getStatementExecutionStats().record(batchSize, start, System.nanoTime());
             afterExecute(_currentStmt, batchSize, rowNumber);
             log("</executeBatch() on " + _currentStmt + ">");
         }
 
         _currentBatchSize = 0;
-        _currentBinding = (_currentStmt == _stmts[0] ? _bindings[0] : _bindings[1]);
+        _currentBinding = _bindings[indexOf(_currentStmt)];
 
         assert _execute.stop();
     }
 
+    private int indexOf(ParameterMapStatement stmt)
+    {
+        for (int i=0 ; i<_stmts.length ; i++)
+            if (_stmts[i] == stmt)
+                return i;
+        throw new IllegalStateException("Unknown statement");
+    }
+
     protected boolean shouldSkipIterator()
     {
         return false;
@@ -605,7 +662,9 @@ public class StatementDataIterator extends AbstractDataIterator
                 try
                 {
                     log("<executeBatch() on " + m + ">");
+                    long start = System.nanoTime();
                     m.executeBatch();
+                    _context.getStatementExecutionStats().record(_pendingRows[indexOf(m)], start, System.nanoTime());
                     log("</executeBatch() on " + m + ">");
                 }
                 catch (RuntimeSQLException rtsqlx)
@@ -631,6 +690,177 @@ public class StatementDataIterator extends AbstractDataIterator
     }
 
 
+    /**
+     * Executes batches on a set of statements, each prepared on its own connection, with one thread per connection in
+     * use. The foreground thread fills a free statement while the others execute. Each batch is committed as soon as
+     * it executes, see setParallelExecute() for the failure contract.
+     */
+    class ParallelExecutor
+    {
+        private record Batch(ParameterMapStatement stmt, int rows) {}
+        private final Batch DONE = new Batch(null, 0);
+
+        private final BlockingQueue<Batch> _full = new LinkedBlockingQueue<>();
+        private final BlockingQueue<ParameterMapStatement> _empty = new LinkedBlockingQueue<>();
+        private final Thread[] _threads;
+        private final AtomicInteger _committedRows = new AtomicInteger();
+        private volatile boolean _failed = false;
+        private ValidationException _failure = null;
+        private boolean _shutdown = false;
+
+        ParallelExecutor(int threads)
+        {
+            for (int i=1 ; i<_stmts.length ; i++)
+                _empty.add(_stmts[i]);
+            _threads = new Thread[threads];
+            for (int i=0 ; i<threads ; i++)
+            {
+                _threads[i] = new Thread(this::run, "StatementDataIterator executor " + (i+1));
+                _threads[i].start();
+            }
+        }
+
+        /* queue a full statement for execution and return an empty one to fill */
+        ParameterMapStatement submit(ParameterMapStatement stmt, int rows) throws BatchValidationException
+        {
+            _full.add(new Batch(stmt, rows));
+            while (true)
+            {
+                try
+                {
+                    return _empty.take();
+                }
+                catch (InterruptedException x)
+                {
+                    checkBackgroundException();
+                }
+            }
+        }
+
+        private void run()
+        {
+            try
+            {
+                Batch batch;
+                while (DONE != (batch = _full.take()))
+                {
+                    try
+                    {
+                        if (!_failed)
+                            execute(batch);
+                    }
+                    finally
+                    {
+                        _empty.add(batch.stmt());
+                    }
+                }
+                log("exit background thread");
+            }
+            catch (InterruptedException x)
+            {
+                log("background thread was interrupted", x);
+            }
+        }
+
+        private void execute(Batch batch)
+        {
+            ParameterMapStatement stmt = batch.stmt();
+            try
+            {
+                log("<executeBatch() on " + stmt + ">");
+                long start = System.nanoTime();
+                stmt.executeBatch();
+                Connection conn = stmt.getConnection();
+                if (null != conn && !conn.getAutoCommit())
+                    conn.commit();
+                _committedRows.addAndGet(batch.rows());
+                _context.getStatementExecutionStats().record(batch.rows(), start, System.nanoTime());
+                log("</executeBatch() on " + stmt + ">");
+            }
+            catch (RuntimeSQLException x)
+            {
+                failed(stmt, x.getSQLException());
+            }
+            catch (SQLException x)
+            {
+                failed(stmt, x);
+            }
+            catch (Throwable t)
+            {
+                // anything else (e.g., DataAccessException) must still fail the import, or the batch would be lost
+                failed(stmt, t);
+                if (t instanceof Error e)
+                    throw e;
+            }
+        }
+
+        private synchronized void failed(ParameterMapStatement stmt, Throwable t)
+        {
+            log("executeBatch() threw", t);
+            try
+            {
+                Connection conn = stmt.getConnection();
+                if (null != conn && !conn.getAutoCommit())
+                    conn.rollback();
+            }
+            catch (SQLException x)
+            {
+                log("rollback() threw", x);
+            }
+
+            // report only the first failure
+            if (_failed)
+                return;
+            _failed = true;
+
+            if (t instanceof SQLException sqlx)
+            {
+                if (sqlx instanceof BatchUpdateException && null != sqlx.getNextException())
+                    sqlx = sqlx.getNextException();
+                _failure = getRowError();
+                _failure.addGlobalError(sqlx);
+                _backgroundException.set(_context.getErrors());
+            }
+            else
+            {
+                _backgroundException.set(t instanceof Exception x ? x : new RuntimeException(t));
+            }
+            _foregroundThread.interrupt();
+        }
+
+        void shutdown()
+        {
+            if (_shutdown)
+                return;
+            _shutdown = true;
+
+            for (Thread ignored : _threads)
+                _full.add(DONE);
+            for (Thread thread : _threads)
+            {
+                while (true)
+                {
+                    try
+                    {
+                        Thread.interrupted(); // clear interrupted status
+                        thread.join();
+                        break;
+                    }
+                    catch (InterruptedException x)
+                    {
+                        log("join() was interrupted!", x);
+                    }
+                }
+            }
+
+            // all executors have stopped, so the count is final
+            if (null != _failure)
+                _failure.addGlobalError("Rows were committed in batches and the import stopped at the first failed batch, which was rolled back. " +
+                        _committedRows.get() + " rows in earlier batches remain committed.");
+        }
+    }
+
+
     @Override
     public void debugLogInfo(StringBuilder sb)
     {
@@ -872,6 +1102,140 @@ public class StatementDataIterator extends AbstractDataIterator
             assertEquals(1, context.getErrors().getRowErrors().size());
         }
 
+        /* counts rows and how many statements are executing at once */
+        private static final class CountingParameterMapStatement extends ParameterMapStatement
+        {
+            private final AtomicInteger _active;
+            private final AtomicInteger _maxActive;
+            private final AtomicInteger _rows;
+            private final AtomicInteger _failAfter;
+            private final RuntimeException _failure;
+            private int _pending = 0;
+
+            CountingParameterMapStatement(AtomicInteger active, AtomicInteger maxActive, AtomicInteger rows, AtomicInteger failAfter, RuntimeException failure)
+            {
+                super();
+                _active = active;
+                _maxActive = maxActive;
+                _rows = rows;
+                _failAfter = failAfter;
+                _failure = failure;
+                _map = new CaseInsensitiveHashMap<>();
+                _parameters = new Parameter[1];
+                _parameters[0] = new Parameter("I",JdbcType.INTEGER);
+                _map.put(_parameters[0].getName(),0);
+            }
+
+            @Override
+            public void executeBatch()
+            {
+                _maxActive.accumulateAndGet(_active.incrementAndGet(), Math::max);
+                try
+                {
+                    Thread.sleep(2);
+                }
+                catch (InterruptedException ignored)
+                {
+                }
+                finally
+                {
+                    _active.decrementAndGet();
+                }
+                if (0 == _failAfter.getAndDecrement())
+                    throw _failure;
+                _rows.addAndGet(_pending);
+                _pending = 0;
+            }
+
+            @Override
+            public void addBatch()
+            {
+                _pending++;
+            }
+
+            @Override
+            public void clearParameters()
+            {
+            }
+        }
+
+        private DataIteratorContext _testParallelExecute(int rowCount, int failAfter, AtomicInteger rows, AtomicInteger maxActive)
+        {
+            return _testParallelExecute(rowCount, failAfter, new RuntimeSQLException(new SQLException("boom")), rows, maxActive);
+        }
+
+        private DataIteratorContext _testParallelExecute(int rowCount, int failAfter, RuntimeException failure, AtomicInteger rows, AtomicInteger maxActive)
+        {
+            AtomicInteger active = new AtomicInteger();
+            AtomicInteger intFailAfter = new AtomicInteger(failAfter);
+            ParameterMapStatement[] stmts = new ParameterMapStatement[4];
+            for (int i=0 ; i<stmts.length ; i++)
+                stmts[i] = new CountingParameterMapStatement(active, maxActive, rows, intFailAfter, failure);
+
+            DataIteratorContext context = new DataIteratorContext();
+            StatementDataIterator sdi = new StatementDataIterator(new MockDialect(), getSource(context, rowCount), context, stmts)
+            {
+                @Override
+                void init()
+                {
+                    super.init();
+                    _batchSize = 10;
+                }
+            };
+            sdi.setParallelExecute(3);
+
+            new Pump(sdi,context).run();
+            for (ParameterMapStatement stmt : stmts)
+                assertTrue(stmt.isClosed());
+            return context;
+        }
+
+        @Test
+        public void testParallelExecute()
+        {
+            AtomicInteger rows = new AtomicInteger();
+            AtomicInteger maxActive = new AtomicInteger();
+            DataIteratorContext context = _testParallelExecute(1000, -1, rows, maxActive);
+
+            assertFalse(context.getErrors().hasErrors());
+            assertEquals(1000, rows.get());
+            assertTrue("Expected batches to execute concurrently", maxActive.get() > 1);
+
+            BatchExecutionStats stats = context.getStatementExecutionStats();
+            assertEquals(1000, stats.getRowCount());
+            assertEquals(100, stats.getBatchCount());
+            assertEquals(100, Arrays.stream(stats.getLatencyHistogram()).sum());
+        }
+
+        @Test
+        public void testParallelException()
+        {
+            AtomicInteger rows = new AtomicInteger();
+            DataIteratorContext context = _testParallelExecute(1000, 5, rows, new AtomicInteger());
+
+            assertEquals(1, context.getErrors().getRowErrors().size());
+            String message = context.getErrors().getRowErrors().get(0).toString();
+            assertTrue(message, message.contains(rows.get() + " rows in earlier batches remain committed"));
+            assertEquals(rows.get(), context.getStatementExecutionStats().getRowCount());
+            assertTrue(rows.get() < 1000);
+        }
+
+        @Test
+        public void testParallelRuntimeException()
+        {
+            AtomicInteger rows = new AtomicInteger();
+            try
+            {
+                _testParallelExecute(1000, 5, new IllegalStateException("not a SQLException"), rows, new AtomicInteger());
+                fail("Expected the failed batch to fail the import");
+            }
+            catch (IllegalStateException x)
+            {
+                assertEquals("not a SQLException", x.getMessage());
+            }
+            assertTrue(rows.get() < 1000);
+        }
+
         @Test
         public void testEmbargoDI() throws BatchValidationException
         {
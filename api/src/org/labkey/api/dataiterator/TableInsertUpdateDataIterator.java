@@ -34,19 +34,23 @@ import org.labkey.api.data.TableInfo;
 import org.labkey.api.data.UpdateableTableInfo;
 import org.labkey.api.exp.property.DomainProperty;
 import org.labkey.api.query.FieldKey;
+import org.labkey.api.query.QueryUpdateService;
 import org.labkey.api.query.QueryUpdateService.InsertOption;
 import org.labkey.api.query.column.BuiltInColumnTypes;
 
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import static org.labkey.api.query.QueryUpdateService.ConfigParameters.BulkCopy;
 import static org.labkey.api.query.QueryUpdateService.ConfigParameters.PreferPKOverObjectUriAsKey;
 
 public class TableInsertUpdateDataIterator extends StatementDataIterator implements DataIteratorBuilder
@@ -59,8 +63,11 @@ public class TableInsertUpdateDataIterator extends StatementDataIterator impleme
     private final Set<String> _dontUpdate = new CaseInsensitiveHashSet();
     private final Set<String> _keyColumns = new CaseInsensitiveHashSet();
 
+    private static final int MAX_PARALLEL_CONNECTIONS = 8;
+
     private DbScope _scope = null;
     private Connection _conn = null;
+    private final List<Connection> _parallelConnections = new ArrayList<>();
     private Set<DomainProperty> _adhocPropColumns = new LinkedHashSet<>();
 
     private boolean _skipCurrentIterator = false; // if StatementUtils generates a bad or meaningless (empty) statement, skip this iterator
@@ -130,6 +137,9 @@ public class TableInsertUpdateDataIterator extends StatementDataIterator impleme
         TableInsertUpdateDataIterator ti = new TableInsertUpdateDataIterator(di, table, container, context, keyColumns, addlSkipColumns, dontUpdate, failOnEmptyUpdate);
         DataIterator ret = ti;
 
+        if (context.getConfigParameterBoolean(BulkCopy) && ti.canCopyIn(vocabularyColumns, commitRowsBeforeContinuing))
+            return new CopyInDataIterator(di, table, container, context, ti._skipColumnNames);
+
 
         // UNFORTUNATELY I can't tell if TableInsertDataIterator is row at a time until AFTER init()
         // However, _selectIds is set during construction, and will force row-at-time
@@ -264,7 +274,23 @@ public class TableInsertUpdateDataIterator extends StatementDataIterator impleme
                 stmt = getInsertStatement(constants);
             }
 
-            if (_table.getSqlDialect().allowAsynchronousExecute() && _context.getInsertOption().batch && null == _rowIdIndex && null == _objectIdIndex)
+            Integer parallel = (Integer)_context.getConfigParameter(QueryUpdateService.ConfigParameters.ParallelInsertConnections);
+            if (null != parallel && parallel > 1 && canInsertInParallel())
+            {
+                // Each batch is committed on its own connection, see StatementDataIterator.setParallelExecute()
+                int threads = Math.min(parallel, MAX_PARALLEL_CONNECTIONS);
+                _stmts = new ParameterMapStatement[threads + 1];
+                for (int i = 0; i < _stmts.length; i++)
+                {
+                    Connection conn = _scope.getPooledConnection();
+                    _parallelConnections.add(conn);
+                    conn.setAutoCommit(false);
+                    _stmts[i] = stmt.copy(conn);
+                }
+                stmt.close();
+                setParallelExecute(threads);
+            }
+            else if (_table.getSqlDialect().allowAsynchronousExecute() && _context.getInsertOption().batch && null == _rowIdIndex && null == _objectIdIndex)
             {
                 _stmts = new ParameterMapStatement[]{stmt, stmt.copy()};
                 setUseAsynchronousExecute(true);
@@ -292,6 +318,52 @@ public class TableInsertUpdateDataIterator extends StatementDataIterator impleme
         }
     }
 
+    /* Parallel inserts commit batch by batch on other connections, so only allow them where nothing depends on this thread's connection or transaction */
+    private boolean canInsertInParallel()
+    {
+        String reason = null;
+        if (!_table.getSqlDialect().allowAsynchronousExecute() || !_insertOption.batch)
+            reason = "batched asynchronous execution is not supported";
+        else if (_insertOption.mergeRows || _insertOption.updateOnly)
+            reason = "only inserts can be run in parallel";
+        else if (_selectIds || null != _rowIdIndex || null != _objectIdIndex || null != _objectUriIndex)
+            reason = "generated keys are needed";
+        else if (_insertOption.identity_insert || _context.supportsAutoIncrementKey())
+            reason = "identity insert is session specific";
+        else if (null != _embargoDataIterator)
+            reason = "rows are released as they are inserted";
+        else if (_scope.isTransactionActive())
+            reason = "a transaction is active";
+
+        if (null != reason && null != _context.getLogger())
+            _context.getLogger().info("Not inserting into " + _table.getName() + " in parallel: " + reason);
+        return null == reason;
+    }
+
+    /* COPY can't return keys or do anything but insert into the table's own columns, see CopyInDataIterator */
+    private boolean canCopyIn(@Nullable Set<DomainProperty> vocabularyColumns, boolean commitRowsBeforeContinuing)
+    {
+        String reason = null;
+        if (_insertOption.mergeRows || _insertOption.updateOnly)
+            reason = "only inserts can use COPY";
+        else if (_selectIds || null != _rowIdIndex || null != _objectIdIndex || null != _objectUriIndex)
+            reason = "generated keys are needed";
+        else if (_insertOption.identity_insert || _context.supportsAutoIncrementKey())
+            reason = "identity insert is not supported";
+        else if (commitRowsBeforeContinuing)
+            reason = "rows are released as they are inserted";
+        else if (null != vocabularyColumns && !vocabularyColumns.isEmpty())
+            reason = "ad hoc properties are stored in exp.ObjectProperty";
+        else if (null != _context.getConfigParameter(QueryUpdateService.ConfigParameters.TransactionSize))
+            reason = "rows are committed in smaller transactions";
+        else
+            reason = CopyInDataIterator.getUnsupportedReason(_table, _skipColumnNames);
+
+        if (null != reason && null != _context.getLogger())
+            _context.getLogger().info("Not using COPY to insert into " + _table.getName() + ": " + reason);
+        return null == reason;
+    }
+
     @Override
     protected boolean shouldSkipIterator()
     {
@@ -397,6 +469,19 @@ public class TableInsertUpdateDataIterator extends StatementDataIterator impleme
             }
             _scope.releaseConnection(_conn);
         }
+        for (Connection conn : _parallelConnections)
+        {
+            try
+            {
+                conn.setAutoCommit(true);
+            }
+            catch (SQLException x)
+            {
+                // connection is being released anyway
+            }
+            _scope.releaseConnection(conn);
+        }
+        _parallelConnections.clear();
     }
 
     private enum INSERT
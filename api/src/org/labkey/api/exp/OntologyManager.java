@@ -53,6 +53,7 @@ import org.labkey.api.query.FieldKey;
 import org.labkey.api.query.PropertyValidationError;
 import org.labkey.api.query.QueryService;
 import org.labkey.api.query.SchemaKey;
+import org.labkey.api.query.TableInfoCache;
 import org.labkey.api.query.ValidationError;
 import org.labkey.api.query.ValidationException;
 import org.labkey.api.security.User;
@@ -1490,6 +1491,7 @@ public class OntologyManager
         DOMAIN_DESC_BY_ID_CACHE.remove(dd.getDomainId());
         DOMAIN_PROPERTIES_CACHE.remove(getURICacheKey(dd));
         DOMAIN_DESCRIPTORS_BY_CONTAINER_CACHE.remove(dd.getContainer());
+        TableInfoCache.invalidate();
     }
 
 
@@ -2940,6 +2942,7 @@ public class OntologyManager
         PROPERTY_MAP_CACHE.clear();
         OBJECT_ID_CACHE.clear();
         DOMAIN_DESCRIPTORS_BY_CONTAINER_CACHE.clear();
+        TableInfoCache.invalidate();
     }
 
     public static void clearPropertyCache(String parentObjectURI)
@@ -207,6 +207,16 @@ abstract public class DomainKind<T>  implements Handler<String>
     abstract public String getStorageSchemaName();
     abstract public Set<PropertyStorageSpec.Index> getPropertyIndices(Domain domain);
 
+    /**
+     * If non-null, the base property (typically a timestamp) on which new storage tables are range partitioned. The
+     * column is added to the table's primary key, as the database requires. Only PostgreSQL supports this; other
+     * dialects create an ordinary table. Partitions must be created by the domain kind's owner.
+     */
+    public @Nullable String getStoragePartitionColumn(Domain domain)
+    {
+        return null;
+    }
+
     /**
      * If domain needs metadata, give the metadata schema and table names
      */
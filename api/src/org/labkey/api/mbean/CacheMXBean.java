@@ -27,6 +27,7 @@ public interface CacheMXBean
     String getDebugName();
     int getLimit();
     int getSize();
+    long getEstimatedBytes();
     CacheStats getCacheStats();
     void clear();
 }
@@ -36,6 +36,8 @@ abstract public class AbstractTaskFactory<SettingsType extends AbstractTaskFacto
     private String _executionLocation;
     private String _groupParameterName;
     private int _autoRetry = -1;
+    private ResourceClass _resourceClass = ResourceClass.DB;
+    private LockScope _lockScope = LockScope.NONE;
 
     private Module _declaringModule;
 
@@ -81,6 +83,10 @@ abstract public class AbstractTaskFactory<SettingsType extends AbstractTaskFacto
             _executionLocation = settings.getLocation();
         if (settings.isAutoRetrySet())
             _autoRetry = settings.getAutoRetry();
+        if (settings.getResourceClass() != null)
+            _resourceClass = settings.getResourceClass();
+        if (settings.getLockScope() != null)
+            _lockScope = settings.getLockScope();
         if (settings.getGroupParameterName() != null)
             _groupParameterName = settings.getGroupParameterName();
         if (settings.getDeclaringModule() != null)
@@ -237,6 +243,36 @@ abstract public class AbstractTaskFactory<SettingsType extends AbstractTaskFacto
         return _autoRetry;
     }
 
+    /**
+     * Returns the server resource this task mostly consumes. Defaults to DB, since most tasks that run on the web
+     * server import into the database.
+     */
+    @Override
+    public ResourceClass getResourceClass()
+    {
+        return _resourceClass;
+    }
+
+    public void setResourceClass(ResourceClass resourceClass)
+    {
+        _resourceClass = resourceClass;
+    }
+
+    /**
+     * Returns the scope within which this task is serialized with others of the same scope. Defaults to NONE; tasks
+     * that replace or reorganize a container's data should use CONTAINER.
+     */
+    @Override
+    public LockScope getLockScope()
+    {
+        return _lockScope;
+    }
+
+    public void setLockScope(LockScope lockScope)
+    {
+        _lockScope = lockScope;
+    }
+
     @Override
     public WorkDirectory createWorkDirectory(String jobGUID, FileAnalysisJobSupport jobSupport, Logger logger) throws IOException
     {
@@ -35,6 +35,8 @@ abstract public class AbstractTaskFactorySettings implements TaskFactorySettings
     private Boolean _largeWork;
     private String _location;
     private Integer _autoRetry;
+    private TaskFactory.ResourceClass _resourceClass;
+    private TaskFactory.LockScope _lockScope;
     private String _groupParameterName;
     private Module _declaringModule;
 
@@ -149,6 +151,26 @@ abstract public class AbstractTaskFactorySettings implements TaskFactorySettings
         _autoRetry = autoRetry;
     }
 
+    public TaskFactory.ResourceClass getResourceClass()
+    {
+        return _resourceClass;
+    }
+
+    public void setResourceClass(TaskFactory.ResourceClass resourceClass)
+    {
+        _resourceClass = resourceClass;
+    }
+
+    public TaskFactory.LockScope getLockScope()
+    {
+        return _lockScope;
+    }
+
+    public void setLockScope(TaskFactory.LockScope lockScope)
+    {
+        _lockScope = lockScope;
+    }
+
     @Override
     public void setDeclaringModule(@NotNull Module declaringModule)
     {
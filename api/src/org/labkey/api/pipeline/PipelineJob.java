@@ -1745,11 +1745,72 @@ abstract public class PipelineJob extends Job implements Serializable
         return _interrupted;
     }
 
+    /**
+     * @deprecated The web server's job queue no longer consults this. Override {@link #getLockScope()}, or set the
+     * lock scope of the job's task factories, instead.
+     */
+    @Deprecated
     public boolean allowMultipleSimultaneousJobs()
     {
         return false;
     }
 
+    /**
+     * @return the server resource this job's queued tasks (see {@link #getQueuedTaskFactories()}) mostly consume, which
+     * the web server's job queue limits per class. The tasks share one slot, so it's the scarcest class any of them
+     * needs: DB, then IO, then CPU.
+     */
+    public TaskFactory.ResourceClass getResourceClass()
+    {
+        List<TaskFactory<?>> factories = getQueuedTaskFactories();
+        if (factories.isEmpty())
+            return TaskFactory.ResourceClass.DB;
+        for (TaskFactory.ResourceClass resourceClass : List.of(TaskFactory.ResourceClass.DB, TaskFactory.ResourceClass.IO))
+            if (factories.stream().anyMatch(factory -> factory.getResourceClass() == resourceClass))
+                return resourceClass;
+        return TaskFactory.ResourceClass.CPU;
+    }
+
+    /**
+     * @return the scope within which this job's queued tasks (see {@link #getQueuedTaskFactories()}) must not run
+     * alongside other tasks with the same scope: the strongest scope of any of them
+     */
+    public TaskFactory.LockScope getLockScope()
+    {
+        TaskFactory.LockScope lockScope = TaskFactory.LockScope.NONE;
+        for (TaskFactory<?> factory : getQueuedTaskFactories())
+            if (factory.getLockScope().compareTo(lockScope) > 0)
+                lockScope = factory.getLockScope();
+        return lockScope;
+    }
+
+    /**
+     * @return the active task's factory and those of the tasks after it that run in the same location. run() runs
+     * them all in a single submission to the job queue.
+     */
+    protected List<TaskFactory<?>> getQueuedTaskFactories()
+    {
+        TaskFactory<?> active = getActiveTaskFactory();
+        if (null == active)
+            return Collections.emptyList();
+
+        List<TaskFactory<?>> factories = new ArrayList<>();
+        factories.add(active);
+        TaskPipeline<?> pipeline = getTaskPipeline();
+        if (null != pipeline)
+        {
+            TaskId[] progression = pipeline.getTaskProgression();
+            for (int i = Arrays.asList(progression).indexOf(active.getId()) + 1; i > 0 && i < progression.length; i++)
+            {
+                TaskFactory<?> factory = PipelineJobService.get().getTaskFactory(progression[i]);
+                if (null == factory || !StringUtils.equalsIgnoreCase(factory.getExecutionLocation(), active.getExecutionLocation()))
+                    break;
+                factories.add(factory);
+            }
+        }
+        return factories;
+    }
+
     synchronized public void setSubmitted()
     {
         _submitted = true;
@@ -94,6 +94,40 @@ public interface TaskFactory<SettingsType extends TaskFactorySettings>
     /** @return the module that declared/defined this task */
     Module getDeclaringModule();
 
+    /**
+     * @return the server resource this task mostly consumes. The web server's job queue limits the number of
+     * simultaneous jobs separately for each resource class.
+     */
+    ResourceClass getResourceClass();
+
+    /**
+     * @return the scope within which this task must not run alongside other tasks with the same scope on the web
+     * server's job queue
+     */
+    LockScope getLockScope();
+
+    /**
+     * The server resources a task may be bound by. CPU tasks run external tools or compute in process, DB tasks
+     * mostly read and write the database, and IO tasks mostly read and write files.
+     */
+    enum ResourceClass
+    {
+        CPU,
+        DB,
+        IO
+    }
+
+    /**
+     * Serialization for tasks that can't safely run concurrently. Jobs with the CONTAINER scope run one at a time per
+     * container, and jobs with the SERVER scope run one at a time per server. Jobs with no scope aren't serialized.
+     */
+    enum LockScope
+    {
+        NONE,
+        CONTAINER,
+        SERVER
+    }
+
     /**
      * Location name for task to run on the LabKey Server itself (inside the Tomcat process).
      */
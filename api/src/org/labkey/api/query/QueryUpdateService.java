@@ -112,6 +112,8 @@ public interface QueryUpdateService extends HasPermission
         SkipInsertOptionValidation,  // (Bool) Skip assert(supportsInsertOption(context.getInsertOption())) for special scenarios (e.g., folder import uses merge action that's otherwise not supported for a table),
         PreferPKOverObjectUriAsKey,    // (Bool) Prefer getPkColumnNames instead of getObjectURIColumnName to use as keys
         SkipReselectRows, // (Bool) If true, skip qus.getRows and use raw returned rows. Applicable for CommandType.insert/insertWithKeys/update/updateChangingKeys
+        ParallelInsertConnections, // (Integer) Insert batches on this many connections at once. Only used outside a transaction; each batch is committed separately, see StatementDataIterator.setParallelExecute(). Opt-in only: no built-in importer sets it
+        BulkCopy, // (Bool) On PostgreSQL, insert with COPY FROM STDIN instead of INSERT statements when no generated keys are needed, see CopyInDataIterator
         TargetContainer
     }
 
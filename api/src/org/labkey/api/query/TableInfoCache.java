@@ -0,0 +1,308 @@
+package org.labkey.api.query;
+
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.labkey.api.cache.Cache;
+import org.labkey.api.cache.CacheManager;
+import org.labkey.api.data.Container;
+import org.labkey.api.data.ContainerFilter;
+import org.labkey.api.data.ContainerManager;
+import org.labkey.api.data.DbScope;
+import org.labkey.api.data.JdbcType;
+import org.labkey.api.data.PropertyStorageSpec;
+import org.labkey.api.data.TableInfo;
+import org.labkey.api.exp.list.ListDefinition;
+import org.labkey.api.exp.list.ListService;
+import org.labkey.api.exp.property.Domain;
+import org.labkey.api.security.ClonedUser;
+import org.labkey.api.security.ElevatedUser;
+import org.labkey.api.security.Group;
+import org.labkey.api.security.SecurityManager;
+import org.labkey.api.security.User;
+import org.labkey.api.security.UserPrincipal;
+import org.labkey.api.security.roles.EditorRole;
+import org.labkey.api.util.JunitUtil;
+import org.labkey.api.util.MemTracker;
+import org.labkey.api.util.TestContext;
+import org.labkey.api.util.logging.LogHelper;
+
+import java.beans.PropertyChangeEvent;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * <p>Shares locked TableInfos across requests. UserSchema instances are created per request, so their own TableInfo
+ * caches only help within a request; schemas that opt in (by setting {@code _cacheTableInfos}) also get tables built by
+ * {@link UserSchema#createTable} from this cache. Entries are keyed by schema class and path, container, user, and the
+ * schema's table cache key (table name and container filter). A TableInfo holds on to its UserSchema, and through it
+ * the user, so entries are never shared between users; impersonated users and users with cloned roles (e.g.,
+ * {@link org.labkey.api.security.ElevatedUser}) aren't cached at all.</p>
+ *
+ * <p>A schema should opt in only if its tables are fully determined by that key plus domain, list, query, and container
+ * metadata. Schemas with mutable, per-instance state that affects their tables (e.g., a schema-wide container filter, or
+ * state read from the HTTP session) must not. Tables backed by LabKey SQL queries are never shared, since they can
+ * depend on any other schema.</p>
+ *
+ * <p>Any domain, query, container, security policy, or group membership change invalidates the whole cache, as do
+ * DDL changes to provisioned tables. Entries also expire after a few minutes, which bounds staleness from changes
+ * without a hook (e.g., module resource edits in dev mode).</p>
+ */
+public class TableInfoCache
+{
+    private static final Logger LOG = LogHelper.getLogger(TableInfoCache.class, "Shared TableInfo cache");
+    private static final Cache<String, TableInfo> CACHE = CacheManager.getStringKeyCache(5000, 5 * CacheManager.MINUTE, "Shared TableInfos");
+    private static final AtomicLong VERSION = new AtomicLong();
+
+    private static @Nullable String getKey(UserSchema schema, @Nullable String tableKey)
+    {
+        // Impersonated users and ClonedUsers (LimitedUser, ElevatedUser) carry different roles under the same user id
+        User user = schema.getUser();
+        if (null == tableKey || null == user || user.isImpersonated() || user instanceof ClonedUser)
+            return null;
+
+        return VERSION.get() + "|" + schema.getClass().getName() + "|" + schema.getPath() + "|" + schema.getContainer().getId() + "|" + user.getUserId() + "|" + tableKey;
+    }
+
+    static @Nullable TableInfo get(UserSchema schema, @Nullable String tableKey)
+    {
+        String key = getKey(schema, tableKey);
+        return null == key ? null : CACHE.get(key);
+    }
+
+    static void put(UserSchema schema, @Nullable String tableKey, @NotNull TableInfo table)
+    {
+        assert table.isLocked();
+        String key = getKey(schema, tableKey);
+        if (null == key)
+            return;
+
+        // Shared tables and the schemas they hold outlive the request
+        MemTracker.getInstance().remove(table);
+        MemTracker.getInstance().remove(schema);
+        CACHE.put(key, table);
+    }
+
+    /**
+     * Discard all shared TableInfos. If a transaction is active, they're discarded again once it commits, so tables
+     * built by other threads from the old metadata in the meantime are discarded too.
+     */
+    public static void invalidate()
+    {
+        clear();
+        DbScope scope = DbScope.getLabKeyScope();
+        if (null != scope && scope.isTransactionActive())
+            scope.addCommitTask(TableInfoCache::clear, DbScope.CommitTaskOption.POSTCOMMIT);
+    }
+
+    private static void clear()
+    {
+        VERSION.incrementAndGet();
+        CACHE.clear();
+    }
+
+    public static class QueryListener implements QueryChangeListener
+    {
+        @Override
+        public void queryCreated(User user, Container container, ContainerFilter scope, SchemaKey schema, @NotNull Collection<String> queries)
+        {
+            invalidate();
+        }
+
+        @Override
+        public void queryChanged(User user, Container container, ContainerFilter scope, SchemaKey schema, @NotNull QueryProperty property, @NotNull Collection<QueryPropertyChange> changes)
+        {
+            invalidate();
+        }
+
+        @Override
+        public void queryDeleted(User user, Container container, ContainerFilter scope, SchemaKey schema, @NotNull Collection<String> queries)
+        {
+            invalidate();
+        }
+
+        @Override
+        public Collection<String> queryDependents(User user, Container container, ContainerFilter scope, SchemaKey schema, @NotNull Collection<String> queries)
+        {
+            return Collections.emptyList();
+        }
+    }
+
+    /** Container changes include security policy changes, which are reported as container property changes */
+    public static class ContainerListener extends ContainerManager.AbstractContainerListener
+    {
+        @Override
+        public void containerCreated(Container c, User user)
+        {
+            invalidate();
+        }
+
+        @Override
+        public void containerDeleted(Container c, User user)
+        {
+            invalidate();
+        }
+
+        @Override
+        public void containerMoved(Container c, Container oldParent, User user)
+        {
+            invalidate();
+        }
+
+        @Override
+        public void propertyChange(PropertyChangeEvent evt)
+        {
+            invalidate();
+        }
+    }
+
+    public static class GroupListener implements SecurityManager.GroupListener
+    {
+        @Override
+        public void principalAddedToGroup(Group group, UserPrincipal principal)
+        {
+            invalidate();
+        }
+
+        @Override
+        public void principalDeletedFromGroup(Group group, UserPrincipal principal)
+        {
+            invalidate();
+        }
+
+        @Override
+        public void propertyChange(PropertyChangeEvent evt)
+        {
+            invalidate();
+        }
+    }
+
+    /**
+     * Checks sharing and invalidation of list tables, and logs what getTable() allocates on fresh schemas (as every
+     * request sees them) for the exp, study, and lists schemas, with and without sharing.
+     */
+    public static class TestCase extends Assert
+    {
+        private static final String LIST_NAME = "TableInfoCacheTest";
+        private static final int ITERATIONS = 20;
+        private static final int MAX_TABLES = 10;
+
+        private User _user;
+        private Container _c;
+
+        @Before
+        public void setUp() throws Exception
+        {
+            _user = TestContext.get().getUser();
+            _c = JunitUtil.getTestContainer();
+            tearDown();
+
+            ListDefinition list = ListService.get().createList(_c, LIST_NAME, ListDefinition.KeyType.AutoIncrementInteger);
+            list.setKeyName("RowId");
+            Domain d = requireNonNull(list.getDomain());
+            d.addProperty(new PropertyStorageSpec("Name", JdbcType.VARCHAR));
+            list.save(_user);
+        }
+
+        @After
+        public void tearDown() throws Exception
+        {
+            ListDefinition list = ListService.get().getList(_c, LIST_NAME);
+            if (null != list)
+                list.delete(_user);
+        }
+
+        private TableInfo getTable(String schemaName, String tableName)
+        {
+            UserSchema schema = requireNonNull(QueryService.get().getUserSchema(_user, _c, schemaName));
+            return schema.getTable(tableName);
+        }
+
+        @Test
+        public void testListTablesAreShared() throws Exception
+        {
+            TableInfo first = requireNonNull(getTable("lists", LIST_NAME));
+            assertTrue(first.isLocked());
+            assertSame("Fresh schemas should get the shared table", first, getTable("lists", LIST_NAME));
+
+            UserSchema schema = requireNonNull(QueryService.get().getUserSchema(_user, _c, "lists"));
+            TableInfo forWrite = schema.getTable(LIST_NAME, null, true, true);
+            assertNotSame("Tables for write should never be shared", first, forWrite);
+
+            ListDefinition list = requireNonNull(ListService.get().getList(_c, LIST_NAME));
+            Domain d = requireNonNull(list.getDomain());
+            d.addProperty(new PropertyStorageSpec("Added", JdbcType.INTEGER));
+            d.save(_user);
+
+            TableInfo changed = requireNonNull(getTable("lists", LIST_NAME));
+            assertNotSame("A domain change should invalidate the shared table", first, changed);
+            assertNotNull(changed.getColumn("Added"));
+
+            // Elevated users keep the user id but not the roles, so they must never see (or populate) shared tables
+            User elevated = ElevatedUser.getElevatedUser(_user, EditorRole.class);
+            UserSchema elevatedSchema = requireNonNull(QueryService.get().getUserSchema(elevated, _c, "lists"));
+            assertNull(getKey(elevatedSchema, LIST_NAME));
+            assertNotSame("Elevated users should never get the shared table", changed, elevatedSchema.getTable(LIST_NAME));
+            assertSame(changed, getTable("lists", LIST_NAME));
+        }
+
+        @Test
+        public void testAllocations()
+        {
+            if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean) || !bean.isThreadAllocatedMemorySupported())
+                return;
+
+            for (String schemaName : List.of("exp", "study", "lists"))
+            {
+                UserSchema schema = QueryService.get().getUserSchema(_user, _c, schemaName);
+                if (null == schema)
+                    continue;
+
+                List<String> tableNames = new ArrayList<>(schema.getTableNames());
+                Collections.sort(tableNames);
+                tableNames = tableNames.subList(0, Math.min(MAX_TABLES, tableNames.size()));
+                if (tableNames.isEmpty())
+                    continue;
+
+                long uncached = measure(bean, schemaName, tableNames, true);
+                long shared = measure(bean, schemaName, tableNames, false);
+                LOG.info(String.format("getTable() on a fresh \"%s\" schema allocates %,d bytes per table, %,d bytes when shared (%d tables: %s)",
+                    schemaName, uncached, shared, tableNames.size(), String.join(", ", tableNames)));
+
+                if ("lists".equals(schemaName))
+                    assertTrue("Shared list tables should allocate less than building them", shared < uncached);
+            }
+        }
+
+        // Average bytes allocated per getTable() call on a fresh schema
+        private long measure(com.sun.management.ThreadMXBean bean, String schemaName, List<String> tableNames, boolean invalidate)
+        {
+            // Warm up caches below the TableInfo (schema metadata, domains)
+            for (String tableName : tableNames)
+                getTable(schemaName, tableName);
+
+            long total = 0;
+            long threadId = Thread.currentThread().getId();
+            for (int i = 0; i < ITERATIONS; i++)
+            {
+                if (invalidate)
+                    clear();
+                long start = bean.getThreadAllocatedBytes(threadId);
+                for (String tableName : tableNames)
+                    getTable(schemaName, tableName);
+                total += bean.getThreadAllocatedBytes(threadId) - start;
+            }
+            return total / ((long) ITERATIONS * tableNames.size());
+        }
+    }
+}
@@ -71,6 +71,7 @@ abstract public class UserSchema extends AbstractSchema implements MemTrackable
     protected final SchemaKey _path;
     protected final String _description;
 
+    /** true if tables from createTable() may be shared across requests and schema instances, see TableInfoCache */
     protected boolean _cacheTableInfos = false;
     protected boolean _restricted = false;      // restricted schemas will return null from getSchema()
     protected final Collection<UserSchemaCustomizer> _schemaCustomizers;
@@ -285,6 +286,15 @@ abstract public class UserSchema extends AbstractSchema implements MemTrackable
             table = tableInfoCache.get(cacheKey);
             if (null != table)
                 return table;
+            if (_cacheTableInfos)
+            {
+                table = TableInfoCache.get(this, cacheKey);
+                if (null != table)
+                {
+                    tableInfoCache.put(cacheKey, table);
+                    return table;
+                }
+            }
         }
         if (null == table)
             table = createTable(name, cf, includeExtraMetadata);
@@ -306,7 +316,11 @@ abstract public class UserSchema extends AbstractSchema implements MemTrackable
             if (!_getTableAcceptor.test(table))
                 table = null;
             if (null != table && null != cacheKey)
+            {
                 tableInfoCache.put(cacheKey, table);
+                if (_cacheTableInfos)
+                    TableInfoCache.put(this, cacheKey, table);
+            }
             torq = table;
         }
         else
@@ -47,6 +47,8 @@ import org.labkey.api.util.StartupListener;
 import org.labkey.api.util.logging.LogHelper;
 import org.labkey.api.view.ActionURL;
 import org.labkey.api.view.HttpView;
+import org.labkey.audit.model.AuditEventWriter;
+import org.labkey.audit.model.AuditPartitionManager;
 import org.labkey.audit.model.LogManager;
 import org.labkey.audit.query.AuditQuerySchema;
 
@@ -110,6 +112,8 @@ public class AuditLogImpl implements AuditLogService, StartupListener
                 provider.initializeProvider(User.getAdminServiceUser());
             }
             _logToDatabase.set(true);
+            AuditEventWriter.get().start();
+            AuditPartitionManager.get().maintainPartitions();
 
             while (!_eventTypeQueue.isEmpty())
             {
@@ -212,6 +216,9 @@ public class AuditLogImpl implements AuditLogService, StartupListener
             }
             else
             {
+                // Providers that allow asynchronous writes never need the reselected event
+                if (LogManager.get().queueEvents(user, events))
+                    return null;
                 if (reselectEvent && events.size()==1)
                     return LogManager.get().insertEvent(user, events.get(0));
                 LogManager.get().insertEvents(user, events);
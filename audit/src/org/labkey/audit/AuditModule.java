@@ -16,23 +16,38 @@
 
 package org.labkey.audit;
 
+import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.labkey.api.audit.AuditLogService;
 import org.labkey.api.audit.provider.SiteSettingsAuditProvider;
+import org.labkey.api.audit.query.AbstractAuditDomainKind;
 import org.labkey.api.data.UpgradeCode;
 import org.labkey.api.module.DefaultModule;
 import org.labkey.api.module.ModuleContext;
+import org.labkey.api.module.ModuleLoader;
+import org.labkey.api.settings.AdminConsole;
+import org.labkey.api.settings.StandardStartupPropertyHandler;
+import org.labkey.api.settings.StartupPropertyEntry;
+import org.labkey.api.usageMetrics.UsageMetricsService;
+import org.labkey.api.util.SystemMaintenance;
+import org.labkey.api.util.logging.LogHelper;
 import org.labkey.api.view.WebPartFactory;
+import org.labkey.audit.model.AuditEventWriter;
+import org.labkey.audit.model.AuditPartitionManager;
+import org.labkey.audit.model.AuditPartitionManager.AuditPartitionMaintenanceTask;
 import org.labkey.audit.query.AuditQuerySchema;
 import org.labkey.audit.query.AuditUpgradeCode;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 
 public class AuditModule extends DefaultModule
 {
+    private static final Logger LOG = LogHelper.getLogger(AuditModule.class, "Audit startup property errors");
+
     @Override
     @NotNull
     protected Collection<WebPartFactory> createWebPartFactories()
@@ -78,6 +93,36 @@ public class AuditModule extends DefaultModule
         AuditLogService.get().registerAuditType(new SiteSettingsAuditProvider());
 
         AuditController.registerAdminConsoleLinks();
+
+        AdminConsole.addExperimentalFeatureFlag(AuditEventWriter.EXPERIMENTAL_ASYNC_AUDIT_LOGGING, "Asynchronous audit logging",
+            "Write high-volume audit events (e.g., file system and logged query events) asynchronously, in batches, from a local journal instead of inserting each one before the request continues.", false);
+
+        UsageMetricsService.get().registerUsageMetrics(getName(), () -> Map.of("asyncAuditEventWriter", AuditEventWriter.get().getMetrics()));
+
+        AdminConsole.addExperimentalFeatureFlag(AbstractAuditDomainKind.EXPERIMENTAL_PARTITIONED_AUDIT_TABLES, "Partitioned audit tables",
+            "Create new audit tables as PostgreSQL tables partitioned by month on Created, so date-filtered audit queries skip old months and " +
+            "expired months can be dropped (see the Audit.partitionRetentionMonths startup property). Existing audit tables aren't converted.", false);
+        SystemMaintenance.addTask(new AuditPartitionMaintenanceTask());
+
+        ModuleLoader.getInstance().handleStartupProperties(
+            new StandardStartupPropertyHandler<>("Audit", AuditStartupProperties.class)
+            {
+                @Override
+                public void handle(Map<AuditStartupProperties, StartupPropertyEntry> properties)
+                {
+                    properties.forEach((asp, sp) -> {
+                        try
+                        {
+                            asp.setProperty(sp.getValue());
+                        }
+                        catch (Exception e)
+                        {
+                            LOG.error("Exception while attempting to set startup property", e);
+                        }
+                    });
+                }
+            }
+        );
     }
 
     @Override
@@ -99,4 +144,13 @@ public class AuditModule extends DefaultModule
     {
         return new AuditUpgradeCode();
     }
+
+    @Override
+    public @NotNull Set<Class> getIntegrationTests()
+    {
+        return Set.of(
+            AuditEventWriter.TestCase.class,
+            AuditPartitionManager.TestCase.class
+        );
+    }
 }
@@ -0,0 +1,30 @@
+package org.labkey.audit;
+
+import org.labkey.api.settings.StartupProperty;
+import org.labkey.audit.model.AuditPartitionManager;
+
+public enum AuditStartupProperties implements StartupProperty
+{
+    partitionRetentionMonths("Number of months of audit events to keep in partitioned audit tables; older monthly partitions are dropped. 0 keeps everything."){
+        @Override
+        public void setProperty(String value)
+        {
+            AuditPartitionManager.get().setRetentionMonths(Integer.parseInt(value.trim()));
+        }
+    };
+
+    private final String _description;
+
+    AuditStartupProperties(String description)
+    {
+        _description = description;
+    }
+
+    @Override
+    public String getDescription()
+    {
+        return _description;
+    }
+
+    public abstract void setProperty(String value);
+}
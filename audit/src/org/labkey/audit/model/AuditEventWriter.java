@@ -0,0 +1,871 @@
+package org.labkey.audit.model;
+
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.labkey.api.audit.AuditLogService;
+import org.labkey.api.audit.AuditTypeEvent;
+import org.labkey.api.audit.AuditTypeProvider;
+import org.labkey.api.audit.ClientApiAuditProvider;
+import org.labkey.api.cache.CacheManager;
+import org.labkey.api.data.ColumnInfo;
+import org.labkey.api.data.ContainerManager;
+import org.labkey.api.data.DbScope;
+import org.labkey.api.data.ObjectFactory;
+import org.labkey.api.data.ParameterMapStatement;
+import org.labkey.api.data.RuntimeSQLException;
+import org.labkey.api.data.SimpleFilter;
+import org.labkey.api.data.SqlSelector;
+import org.labkey.api.data.StatementUtils;
+import org.labkey.api.data.Table;
+import org.labkey.api.data.TableInfo;
+import org.labkey.api.data.TableSelector;
+import org.labkey.api.query.FieldKey;
+import org.labkey.api.security.User;
+import org.labkey.api.settings.AppProps;
+import org.labkey.api.util.ContextListener;
+import org.labkey.api.util.DateUtil;
+import org.labkey.api.util.FileUtil;
+import org.labkey.api.util.GUID;
+import org.labkey.api.util.JunitUtil;
+import org.labkey.api.util.ShutdownListener;
+import org.labkey.api.util.logging.LogHelper;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * <p>Writes audit events asynchronously, for providers that allow it (see {@link AuditTypeProvider#isAsyncWriteAllowed()})
+ * when the {@link #EXPERIMENTAL_ASYNC_AUDIT_LOGGING} feature is enabled. A caller appends its events to a local journal
+ * file and an in-memory queue, and returns without a database round-trip. A background thread flushes the queue every
+ * {@link #FLUSH_INTERVAL} ms (sooner if {@link #FLUSH_THRESHOLD} events are waiting), inserting each event type's events
+ * as one batch through a prepared insert statement, each type in its own transaction.</p>
+ *
+ * <p>The journal is split into segments: each flush starts a new segment, and deletes the previous ones once their
+ * events are committed. Segments left behind by a crash are replayed at the next startup, so a crash or restart of the
+ * server process loses no events. The journal lives under the site file root; without one, events are always written
+ * synchronously.</p>
+ *
+ * <p>A type whose batch fails is retried on later flushes, without holding up other types. After {@link #MAX_FAILURES}
+ * failures in a row, its events are inserted one at a time, and any that still fail are moved to a dead-letter file in
+ * the journal directory (which is never replayed) and dropped, so one bad event can't block the rest. If the database
+ * can't be reached at all, nothing is dead-lettered.</p>
+ *
+ * <p>The queue holds at most {@link #CAPACITY} events. When it's full, callers wait up to {@link #MAX_WAIT} ms for room
+ * and then write their events synchronously, so a backlog slows requests down rather than growing without bound. While
+ * flushes are failing, there's no point waiting, so callers write synchronously right away. At shutdown, the queue is
+ * flushed on the shutdown thread.</p>
+ */
+public class AuditEventWriter implements ShutdownListener
+{
+    private static final Logger LOG = LogHelper.getLogger(AuditEventWriter.class, "Asynchronous audit event writes");
+    private static final AuditEventWriter INSTANCE = new AuditEventWriter();
+
+    public static final String EXPERIMENTAL_ASYNC_AUDIT_LOGGING = "asyncAuditLogging";
+
+    static final int CAPACITY = 10_000;
+    static final int FLUSH_THRESHOLD = 1_000;
+    static final long FLUSH_INTERVAL = CacheManager.SECOND;
+    static final long MAX_WAIT = 5 * CacheManager.SECOND;
+    static final int MAX_FAILURES = 5;
+
+    private static final String JOURNAL_DIRECTORY = ".auditJournal";
+    private static final String SEGMENT_PREFIX = "audit-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String DEAD_LETTER_PREFIX = "deadLetter-";
+
+    /** An event ready to insert: its type, and its column values with users replaced by their ids */
+    record Entry(String eventType, Map<String, Object> row)
+    {
+    }
+
+    private final Object _lock = new Object();
+
+    // Guarded by _lock. Events from a failed flush are retried, along with the journal segments that hold them.
+    private final List<Entry> _queue = new ArrayList<>();
+    private final List<Entry> _retry = new ArrayList<>();
+    private final List<Path> _retrySegments = new ArrayList<>();
+    private @Nullable Path _dir = null;
+    private @Nullable Path _segment = null;
+    private @Nullable BufferedWriter _writer = null;
+    private long _segmentSequence = 0;
+
+    private volatile boolean _running = false;
+    private volatile boolean _failing = false;
+    private @Nullable FlushThread _thread = null;
+
+    // Consecutive failed flushes of each event type. Accessed only by flush().
+    private final Map<String, Integer> _failures = new HashMap<>();
+
+    private final LongAdder _queued = new LongAdder();
+    private final LongAdder _synchronous = new LongAdder();
+    private final LongAdder _flushes = new LongAdder();
+    private final LongAdder _flushedEvents = new LongAdder();
+    private final LongAdder _failedFlushes = new LongAdder();
+    private final LongAdder _replayedEvents = new LongAdder();
+    private final LongAdder _deadLetteredEvents = new LongAdder();
+    private final AtomicLong _lastFlushMillis = new AtomicLong();
+    private final AtomicLong _maxFlushMillis = new AtomicLong();
+    private final LongAdder _totalFlushMillis = new LongAdder();
+
+    public static AuditEventWriter get()
+    {
+        return INSTANCE;
+    }
+
+    // Used for testing
+    AuditEventWriter()
+    {
+    }
+
+    /**
+     * Replays any journal segments left by a previous run, then starts the flush thread. Called once audit providers
+     * are initialized.
+     */
+    public void start()
+    {
+        File root = AppProps.getInstance().getFileSystemRoot();
+        if (null == root)
+        {
+            LOG.info("No site file root is configured, so audit events will be written synchronously");
+            return;
+        }
+
+        if (open(root.toPath().resolve(JOURNAL_DIRECTORY).resolve(FileUtil.makeLegalName(getHostName()))))
+        {
+            _thread = new FlushThread();
+            ContextListener.addShutdownListener(this);
+            _thread.start();
+        }
+    }
+
+    private static String getHostName()
+    {
+        try
+        {
+            return InetAddress.getLocalHost().getHostName();
+        }
+        catch (UnknownHostException e)
+        {
+            return "localhost";
+        }
+    }
+
+    /** Replays leftover segments in the journal directory and starts accepting events. Returns false if it can't. */
+    boolean open(@NotNull Path dir)
+    {
+        synchronized (_lock)
+        {
+            _dir = dir;
+            try
+            {
+                replay();
+            }
+            catch (IOException | RuntimeException e)
+            {
+                LOG.error("Unable to replay the audit event journal in " + dir + "; audit events will be written synchronously until it's replayed", e);
+                return false;
+            }
+            _running = true;
+        }
+
+        // Write the replayed events now rather than at the first scheduled flush
+        flush();
+        return true;
+    }
+
+    /** @return true if the events were queued, false if the caller needs to write them itself */
+    boolean enqueue(@NotNull List<Entry> entries)
+    {
+        if (entries.isEmpty())
+            return true;
+
+        int size;
+        synchronized (_lock)
+        {
+            long deadline = System.currentTimeMillis() + MAX_WAIT;
+            while (_running && !_failing && _queue.size() + _retry.size() + entries.size() > CAPACITY)
+            {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0 || entries.size() > CAPACITY)
+                    break;
+                try
+                {
+                    _lock.wait(wait);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            if (!_running || _queue.size() + _retry.size() + entries.size() > CAPACITY)
+            {
+                _synchronous.add(entries.size());
+                return false;
+            }
+
+            try
+            {
+                append(entries);
+            }
+            catch (IOException e)
+            {
+                // The events are written synchronously instead. If some of them made it into the segment, a crash
+                // before that segment is flushed would replay duplicates of them; don't let that happen silently.
+                LOG.warn("Unable to write to the audit event journal; writing " + entries.size() + " events synchronously", e);
+                _synchronous.add(entries.size());
+                return false;
+            }
+
+            _queue.addAll(entries);
+            _queued.add(entries.size());
+            size = _queue.size();
+        }
+
+        FlushThread thread = _thread;
+        if (size >= FLUSH_THRESHOLD && null != thread)
+            LockSupport.unpark(thread);
+
+        return true;
+    }
+
+    // Called with _lock held
+    private void append(List<Entry> entries) throws IOException
+    {
+        assert null != _dir;
+        if (null == _writer)
+        {
+            Files.createDirectories(_dir);
+            _segment = newSegmentPath(SEGMENT_PREFIX);
+            _writer = Files.newBufferedWriter(_segment, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        write(_writer, entries);
+
+        // Hand the lines to the OS, so they survive a crash of this process
+        _writer.flush();
+    }
+
+    private static void write(BufferedWriter writer, List<Entry> entries) throws IOException
+    {
+        for (Entry entry : entries)
+        {
+            Map<String, Object> row = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> e : entry.row().entrySet())
+                row.put(e.getKey(), e.getValue() instanceof Date d ? DateUtil.toISO(d) : e.getValue());
+            writer.write(new JSONObject().put("type", entry.eventType()).put("row", row).toString());
+            writer.newLine();
+        }
+    }
+
+    // Called with _lock held
+    private Path newSegmentPath(String prefix)
+    {
+        assert null != _dir;
+        return _dir.resolve(String.format("%s%013d-%06d%s", prefix, System.currentTimeMillis(), _segmentSequence++, SEGMENT_SUFFIX));
+    }
+
+    private static void writeFile(Path path, List<Entry> entries) throws IOException
+    {
+        Files.createDirectories(path.getParent());
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))
+        {
+            write(writer, entries);
+        }
+    }
+
+    // Called with _lock held. Closes the current segment, if any, and returns it; the next append starts a new one.
+    private @Nullable Path rotate()
+    {
+        Path segment = _segment;
+        if (null != _writer)
+        {
+            try
+            {
+                _writer.close();
+            }
+            catch (IOException e)
+            {
+                LOG.warn("Unable to close audit event journal segment " + segment, e);
+            }
+        }
+        _writer = null;
+        _segment = null;
+        return segment;
+    }
+
+    /**
+     * Inserts all queued events, and any left by a failed flush, each event type in its own transaction. Events of a
+     * type that fails are kept for the next flush, or dead-lettered once the type has failed {@link #MAX_FAILURES}
+     * times in a row.
+     */
+    synchronized void flush()
+    {
+        List<Entry> batch;
+        List<Path> segments;
+
+        synchronized (_lock)
+        {
+            if (_queue.isEmpty() && _retry.isEmpty())
+                return;
+
+            batch = new ArrayList<>(_retry.size() + _queue.size());
+            batch.addAll(_retry);
+            batch.addAll(_queue);
+            segments = new ArrayList<>(_retrySegments);
+            Path segment = rotate();
+            if (null != segment)
+                segments.add(segment);
+
+            _queue.clear();
+            _retry.clear();
+            _retrySegments.clear();
+        }
+
+        long start = System.currentTimeMillis();
+        Map<String, List<Entry>> entriesByType = new LinkedHashMap<>();
+        for (Entry entry : batch)
+            entriesByType.computeIfAbsent(entry.eventType(), k -> new ArrayList<>()).add(entry);
+
+        List<Entry> retry = new ArrayList<>();
+        List<Entry> deadLetters = new ArrayList<>();
+        int written = 0;
+
+        for (Map.Entry<String, List<Entry>> e : entriesByType.entrySet())
+        {
+            String eventType = e.getKey();
+            List<Entry> entries = e.getValue();
+            try
+            {
+                insert(eventType, entries);
+                written += entries.size();
+                _failures.remove(eventType);
+            }
+            catch (RuntimeException x)
+            {
+                int failures = _failures.merge(eventType, 1, Integer::sum);
+                if (failures < MAX_FAILURES)
+                {
+                    LOG.error("Failed to write " + entries.size() + " \"" + eventType + "\" audit events; they'll be retried", x);
+                    retry.addAll(entries);
+                }
+                else
+                {
+                    LOG.error("Failed to write " + entries.size() + " \"" + eventType + "\" audit events " + failures + " times in a row; writing them one at a time", x);
+                    written += insertSeparately(eventType, entries, retry, deadLetters);
+                }
+            }
+        }
+
+        if (!deadLetters.isEmpty())
+            deadLetter(deadLetters);
+
+        _failing = !retry.isEmpty();
+        if (_failing)
+        {
+            _failedFlushes.increment();
+            segments = replaceSegments(segments, retry);
+        }
+
+        synchronized (_lock)
+        {
+            // New events may have been queued meanwhile; they stay behind the ones being retried
+            _retry.addAll(retry);
+            if (_failing)
+                _retrySegments.addAll(segments);
+            _lock.notifyAll();
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        _flushes.increment();
+        _flushedEvents.add(written);
+        _lastFlushMillis.set(elapsed);
+        _maxFlushMillis.accumulateAndGet(elapsed, Math::max);
+        _totalFlushMillis.add(elapsed);
+        LOG.debug("Wrote " + written + " audit events in " + elapsed + "ms");
+
+        if (!_failing)
+        {
+            for (Path segment : segments)
+                deleteSegment(segment);
+        }
+    }
+
+    /**
+     * Inserts the events one at a time, to get past the ones that keep failing. Those that fail are added to
+     * deadLetters, unless the database can't be reached at all, in which case they're added to retry.
+     * @return the number of events written
+     */
+    private int insertSeparately(String eventType, List<Entry> entries, List<Entry> retry, List<Entry> deadLetters)
+    {
+        List<Entry> failed = new ArrayList<>();
+        for (Entry entry : entries)
+        {
+            try
+            {
+                insert(eventType, List.of(entry));
+            }
+            catch (RuntimeException x)
+            {
+                failed.add(entry);
+            }
+        }
+
+        if (failed.size() == entries.size() && !isDatabaseAvailable())
+        {
+            LOG.error("The database is unavailable; " + failed.size() + " \"" + eventType + "\" audit events will be retried");
+            retry.addAll(failed);
+        }
+        else
+        {
+            _failures.remove(eventType);
+            deadLetters.addAll(failed);
+        }
+
+        return entries.size() - failed.size();
+    }
+
+    private static boolean isDatabaseAvailable()
+    {
+        try
+        {
+            new SqlSelector(LogManager.get().getSchema(), "SELECT 1").getObject(Integer.class);
+            return true;
+        }
+        catch (RuntimeException e)
+        {
+            return false;
+        }
+    }
+
+    // Saves events that can't be written where an administrator can find them, and drops them from the queue
+    private void deadLetter(List<Entry> entries)
+    {
+        _deadLetteredEvents.add(entries.size());
+        Path path;
+        synchronized (_lock)
+        {
+            path = newSegmentPath(DEAD_LETTER_PREFIX);
+        }
+
+        try
+        {
+            writeFile(path, entries);
+            LOG.error("Moved " + entries.size() + " audit events that couldn't be written to " + path);
+        }
+        catch (IOException e)
+        {
+            LOG.error("Discarded " + entries.size() + " audit events that couldn't be written, since they couldn't be saved to " + path, e);
+        }
+    }
+
+    /**
+     * Writes the events still to be retried to a new segment and deletes the old ones, so a crash doesn't replay
+     * events that were written. If the new segment can't be written, the old segments are kept.
+     * @return the segments that now hold the events to retry
+     */
+    private List<Path> replaceSegments(List<Path> segments, List<Entry> retry)
+    {
+        Path path;
+        synchronized (_lock)
+        {
+            path = newSegmentPath(SEGMENT_PREFIX);
+        }
+
+        try
+        {
+            writeFile(path, retry);
+        }
+        catch (IOException e)
+        {
+            LOG.warn("Unable to rewrite the audit event journal; a crash before the next successful flush may replay events that were already written", e);
+            return segments;
+        }
+
+        for (Path segment : segments)
+            deleteSegment(segment);
+
+        return new ArrayList<>(List.of(path));
+    }
+
+    private void deleteSegment(Path segment)
+    {
+        try
+        {
+            Files.deleteIfExists(segment);
+        }
+        catch (IOException e)
+        {
+            // A segment that can't be deleted would be replayed, duplicating its events, so stop writing asynchronously
+            LOG.error("Unable to delete audit event journal segment " + segment + "; audit events will be written synchronously", e);
+            _running = false;
+        }
+    }
+
+    /** Inserts events of one type in one transaction */
+    private static void insert(String eventType, List<Entry> entries)
+    {
+        AuditTypeProvider provider = AuditLogService.get().getAuditProvider(eventType);
+        TableInfo dbTable = null == provider ? null : LogManager.get().getDbTable(User.getAdminServiceUser(), ContainerManager.getRoot(), provider);
+        if (null == dbTable)
+        {
+            LOG.warn("Discarding " + entries.size() + " audit events of unknown type \"" + eventType + "\"");
+            return;
+        }
+
+        DbScope scope = LogManager.get().getSchema().getScope();
+        try (DbScope.Transaction transaction = scope.ensureTransaction())
+        {
+            // Container, Created, and CreatedBy come from the events, which may have been logged a while ago
+            try (ParameterMapStatement stmt = StatementUtils.insertStatement(transaction.getConnection(), dbTable, null, null, false, false))
+            {
+                for (Entry entry : entries)
+                {
+                    stmt.clearParameters();
+                    stmt.putAll(convert(dbTable, entry.row()));
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+            transaction.commit();
+        }
+        catch (SQLException x)
+        {
+            throw new RuntimeSQLException(x);
+        }
+    }
+
+    // Replayed rows hold JSON values (e.g., dates as strings), so convert every value to its column's type
+    private static Map<String, Object> convert(TableInfo dbTable, Map<String, Object> row)
+    {
+        Map<String, Object> converted = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> e : row.entrySet())
+        {
+            ColumnInfo col = dbTable.getColumn(e.getKey());
+            Object value = e.getValue();
+            converted.put(e.getKey(), null == col || null == value || JSONObject.NULL.equals(value) ? null : col.getJdbcType().convert(value));
+        }
+        return converted;
+    }
+
+    // Called with _lock held, before any events are queued. Loads the events in leftover segments for the next flush.
+    private void replay() throws IOException
+    {
+        assert null != _dir;
+        if (!Files.isDirectory(_dir))
+            return;
+
+        List<Path> segments;
+        try (Stream<Path> files = Files.list(_dir))
+        {
+            segments = files.filter(p -> p.getFileName().toString().startsWith(SEGMENT_PREFIX) && p.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                .sorted()
+                .toList();
+        }
+
+        for (Path segment : segments)
+        {
+            List<Entry> entries = new ArrayList<>();
+            for (String line : Files.readAllLines(segment, StandardCharsets.UTF_8))
+            {
+                if (line.isBlank())
+                    continue;
+                try
+                {
+                    JSONObject json = new JSONObject(line);
+                    entries.add(new Entry(json.getString("type"), json.getJSONObject("row").toMap()));
+                }
+                catch (JSONException e)
+                {
+                    // Most likely the last line, cut off by the crash
+                    LOG.warn("Skipping unreadable line in audit event journal segment " + segment + ": " + line);
+                }
+            }
+
+            _retry.addAll(entries);
+            _retrySegments.add(segment);
+            _replayedEvents.add(entries.size());
+            LOG.info("Replaying " + entries.size() + " audit events from journal segment " + segment);
+        }
+    }
+
+    /** Converts an event to the column values the insert needs. Users are replaced by their ids. */
+    static Entry toEntry(AuditTypeEvent event)
+    {
+        Map<String, Object> row = new LinkedHashMap<>();
+        ObjectFactory.Registry.getFactory((Class<AuditTypeEvent>) event.getClass()).toMap(event, row);
+        row.replaceAll((k, v) -> v instanceof User u ? u.getUserId() : v);
+        return new Entry(event.getEventType(), row);
+    }
+
+    public Map<String, Object> getMetrics()
+    {
+        int queueDepth;
+        synchronized (_lock)
+        {
+            queueDepth = _queue.size() + _retry.size();
+        }
+        long flushes = _flushes.sum();
+
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("running", _running);
+        metrics.put("failing", _failing);
+        metrics.put("queueDepth", queueDepth);
+        metrics.put("queuedEvents", _queued.sum());
+        metrics.put("synchronousEvents", _synchronous.sum());
+        metrics.put("flushes", flushes);
+        metrics.put("flushedEvents", _flushedEvents.sum());
+        metrics.put("failedFlushes", _failedFlushes.sum());
+        metrics.put("replayedEvents", _replayedEvents.sum());
+        metrics.put("deadLetteredEvents", _deadLetteredEvents.sum());
+        metrics.put("lastFlushMillis", _lastFlushMillis.get());
+        metrics.put("maxFlushMillis", _maxFlushMillis.get());
+        metrics.put("averageFlushMillis", 0 == flushes ? 0 : _totalFlushMillis.sum() / flushes);
+        return metrics;
+    }
+
+    @Override
+    public String getName()
+    {
+        return "Asynchronous audit event writer";
+    }
+
+    @Override
+    public void shutdownPre()
+    {
+        FlushThread thread = _thread;
+        if (null != thread)
+            thread.interrupt();
+    }
+
+    @Override
+    public void shutdownStarted()
+    {
+        // Stop queueing (waiting callers write synchronously), then write whatever is left. Anything that can't be
+        // written stays in the journal and is replayed at the next startup.
+        synchronized (_lock)
+        {
+            _running = false;
+            _lock.notifyAll();
+        }
+
+        FlushThread thread = _thread;
+        if (null != thread)
+        {
+            try
+            {
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        flush();
+        synchronized (_lock)
+        {
+            rotate();
+        }
+    }
+
+    private class FlushThread extends Thread
+    {
+        private FlushThread()
+        {
+            setDaemon(true);
+            setName(FlushThread.class.getSimpleName());
+        }
+
+        @Override
+        public void run()
+        {
+            while (!interrupted())
+            {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL));
+                if (!interrupted())
+                    flush();
+                else
+                    break;
+            }
+
+            LOG.debug(getClass().getSimpleName() + " is terminating due to interruption");
+        }
+    }
+
+    public static class TestCase extends Assert
+    {
+        private Path _dir;
+        private String _marker;
+        private TableInfo _dbTable;
+
+        @Before
+        public void setUp() throws IOException
+        {
+            _dir = FileUtil.createTempDirectory("auditJournal");
+            _marker = "AuditEventWriterTest " + GUID.makeGUID();
+            AuditTypeProvider provider = AuditLogService.get().getAuditProvider(ClientApiAuditProvider.EVENT_TYPE);
+            assertNotNull(provider);
+            _dbTable = LogManager.get().getDbTable(User.getAdminServiceUser(), ContainerManager.getRoot(), provider);
+            assertNotNull(_dbTable);
+        }
+
+        @After
+        public void tearDown() throws IOException
+        {
+            Table.delete(_dbTable, new SimpleFilter(FieldKey.fromParts("Comment"), _marker));
+            FileUtil.deleteDir(_dir);
+        }
+
+        private List<Entry> createEntries(int count)
+        {
+            List<Entry> entries = new ArrayList<>();
+            for (int i = 0; i < count; i++)
+            {
+                ClientApiAuditProvider.ClientApiAuditEvent event = new ClientApiAuditProvider.ClientApiAuditEvent(JunitUtil.getTestContainer().getId(), _marker);
+                event.setInt1(i);
+                event.setCreated(new Date());
+                event.setCreatedBy(User.getAdminServiceUser());
+                entries.add(toEntry(event));
+            }
+            return entries;
+        }
+
+        private long countSegments() throws IOException
+        {
+            try (Stream<Path> files = Files.list(_dir))
+            {
+                return files.count();
+            }
+        }
+
+        private long countRows()
+        {
+            return new TableSelector(_dbTable, new SimpleFilter(FieldKey.fromParts("Comment"), _marker), null).getRowCount();
+        }
+
+        @Test
+        public void testFlush() throws IOException
+        {
+            AuditEventWriter writer = new AuditEventWriter();
+            assertFalse("Events can't be queued until the writer is open", writer.enqueue(createEntries(1)));
+            assertTrue(writer.open(_dir));
+
+            assertTrue(writer.enqueue(createEntries(5)));
+            assertTrue(writer.enqueue(createEntries(5)));
+            assertEquals(1, countSegments());
+            assertEquals(0, countRows());
+            assertEquals(10, writer.getMetrics().get("queueDepth"));
+
+            writer.flush();
+            assertEquals(10, countRows());
+            assertEquals("Flushed segments should be deleted", 0, countSegments());
+            assertEquals(0, writer.getMetrics().get("queueDepth"));
+            assertEquals(10L, writer.getMetrics().get("flushedEvents"));
+
+            assertFalse("More events than the queue can hold should be written synchronously", writer.enqueue(createEntries(CAPACITY + 1)));
+            assertEquals((long) CAPACITY + 1, writer.getMetrics().get("synchronousEvents"));
+            writer.shutdownStarted();
+        }
+
+        @Test
+        public void testPoisonEvent() throws IOException
+        {
+            AuditEventWriter writer = new AuditEventWriter();
+            assertTrue(writer.open(_dir));
+
+            // One event that can never be inserted, queued ahead of good ones of the same type
+            Entry good = createEntries(1).get(0);
+            Map<String, Object> row = new LinkedHashMap<>(good.row());
+            row.replaceAll((k, v) -> "int1".equalsIgnoreCase(k) ? "not a number" : v);
+            List<Entry> entries = new ArrayList<>();
+            entries.add(new Entry(good.eventType(), row));
+            entries.addAll(createEntries(4));
+            assertTrue(writer.enqueue(entries));
+
+            for (int i = 1; i < MAX_FAILURES; i++)
+            {
+                writer.flush();
+                assertEquals(0, countRows());
+                assertEquals(5, writer.getMetrics().get("queueDepth"));
+                assertEquals(true, writer.getMetrics().get("failing"));
+                assertEquals("Failed flushes should leave one segment holding the events to retry", 1, countSegments());
+            }
+
+            writer.flush();
+            assertEquals("The good events should be written once the bad one is set aside", 4, countRows());
+            assertEquals(0, writer.getMetrics().get("queueDepth"));
+            assertEquals(false, writer.getMetrics().get("failing"));
+            assertEquals(1L, writer.getMetrics().get("deadLetteredEvents"));
+            try (Stream<Path> files = Files.list(_dir))
+            {
+                List<Path> remaining = files.toList();
+                assertEquals(1, remaining.size());
+                assertTrue("Only the dead-letter file should remain", remaining.get(0).getFileName().toString().startsWith(DEAD_LETTER_PREFIX));
+                assertEquals(1, Files.readAllLines(remaining.get(0), StandardCharsets.UTF_8).size());
+            }
+
+            // Dead letters aren't replayed
+            AuditEventWriter restarted = new AuditEventWriter();
+            assertTrue(restarted.open(_dir));
+            assertEquals(0L, restarted.getMetrics().get("replayedEvents"));
+            writer.shutdownStarted();
+        }
+
+        @Test
+        public void testReplay() throws IOException
+        {
+            // Simulate a crash: queue events and abandon the writer before it flushes
+            AuditEventWriter crashed = new AuditEventWriter();
+            assertTrue(crashed.open(_dir));
+            assertTrue(crashed.enqueue(createEntries(3)));
+            synchronized (crashed._lock)
+            {
+                crashed.rotate();
+            }
+            assertEquals(1, countSegments());
+
+            // A partial line at the end of a segment is skipped
+            try (Stream<Path> files = Files.list(_dir))
+            {
+                Path segment = files.findFirst().orElseThrow();
+                Files.writeString(segment, "{\"type\":\"" + ClientApiAuditProvider.EVENT_TYPE + "\",\"ro", StandardOpenOption.APPEND);
+            }
+
+            AuditEventWriter restarted = new AuditEventWriter();
+            assertTrue(restarted.open(_dir));
+            assertEquals(3, countRows());
+            assertEquals(0, countSegments());
+            assertEquals(3L, restarted.getMetrics().get("replayedEvents"));
+            assertEquals(Collections.emptyList(), restarted._queue);
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package org.labkey.audit.model;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.labkey.api.audit.AuditLogService;
+import org.labkey.api.audit.AuditTypeProvider;
+import org.labkey.api.audit.query.AbstractAuditDomainKind;
+import org.labkey.api.data.CompareType;
+import org.labkey.api.data.DbSchema;
+import org.labkey.api.data.DbScope;
+import org.labkey.api.data.PropertyManager;
+import org.labkey.api.data.PropertyManager.WritablePropertyMap;
+import org.labkey.api.data.SQLFragment;
+import org.labkey.api.data.SimpleFilter;
+import org.labkey.api.data.SqlExecutor;
+import org.labkey.api.data.SqlSelector;
+import org.labkey.api.data.dialect.PostgreSql91Dialect;
+import org.labkey.api.exp.property.Domain;
+import org.labkey.api.query.FieldKey;
+import org.labkey.api.util.SystemMaintenance.MaintenanceTask;
+import org.labkey.api.util.logging.LogHelper;
+import org.labkey.audit.AuditSchema;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Maintains the monthly partitions of audit tables that were provisioned as range partitioned tables on Created (see
+ * {@link AbstractAuditDomainKind#EXPERIMENTAL_PARTITIONED_AUDIT_TABLES}; PostgreSQL only). Each partitioned table gets
+ * one partition per calendar month, created {@link #MONTHS_AHEAD} months in advance, plus a default partition that
+ * catches anything outside them. Filters on Created (e.g., from audit grids and AuditLogService queries) let PostgreSQL
+ * skip the partitions that can't match.</p>
+ *
+ * <p>If a retention period is set, partitions whose months have entirely passed out of it are dropped, which is much
+ * cheaper than deleting their rows; rows that old in the default partition are deleted. Tables of providers that don't allow deleting old rows are never purged. Both
+ * happen at startup and in the daily system maintenance task.</p>
+ */
+public class AuditPartitionManager
+{
+    private static final Logger LOG = LogHelper.getLogger(AuditPartitionManager.class, "Audit table partition maintenance");
+    private static final AuditPartitionManager INSTANCE = new AuditPartitionManager();
+
+    private static final String CATEGORY = AuditPartitionManager.class.getName();
+    private static final String RETENTION_MONTHS = "retentionMonths";
+
+    static final int MONTHS_AHEAD = 2;
+    private static final DateTimeFormatter SUFFIX_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final Pattern PARTITION_PATTERN = Pattern.compile("_p(\\d{6})$");
+
+    public static AuditPartitionManager get()
+    {
+        return INSTANCE;
+    }
+
+    private AuditPartitionManager()
+    {
+    }
+
+    /** @return the number of months of audit events to keep in partitioned tables, or 0 to keep them all */
+    public int getRetentionMonths()
+    {
+        String months = PropertyManager.getProperties(CATEGORY).get(RETENTION_MONTHS);
+        return StringUtils.isNotBlank(months) ? Integer.parseInt(months) : 0;
+    }
+
+    public void setRetentionMonths(int months)
+    {
+        if (months < 0)
+            throw new IllegalArgumentException("Retention months can't be negative: " + months);
+        WritablePropertyMap m = PropertyManager.getWritableProperties(CATEGORY, true);
+        m.put(RETENTION_MONTHS, String.valueOf(months));
+        m.save();
+    }
+
+    private DbScope getScope()
+    {
+        return AuditSchema.getInstance().getSchema().getScope();
+    }
+
+    /** Creates upcoming partitions, then drops expired ones, for every partitioned audit table */
+    public void maintainPartitions()
+    {
+        if (!getScope().getSqlDialect().isPostgreSQL())
+            return;
+
+        LocalDate today = LocalDate.now();
+        int retentionMonths = getRetentionMonths();
+        Map<String, AuditTypeProvider> providers = getProvidersByTableName();
+
+        for (Map.Entry<String, List<String>> e : getPartitions(AuditSchema.SCHEMA_NAME).entrySet())
+        {
+            String table = e.getKey();
+            createPartitions(AuditSchema.SCHEMA_NAME, table, e.getValue(), today);
+
+            AuditTypeProvider provider = providers.get(table);
+            if (retentionMonths > 0 && null != provider && provider.canDeleteOldRows())
+                dropExpiredPartitions(AuditSchema.SCHEMA_NAME, table, e.getValue(), today, retentionMonths);
+        }
+    }
+
+    private Map<String, AuditTypeProvider> getProvidersByTableName()
+    {
+        Map<String, AuditTypeProvider> providers = new HashMap<>();
+        for (AuditTypeProvider provider : AuditLogService.get().getAuditProviders())
+        {
+            Domain domain = provider.getDomain();
+            if (null != domain && null != domain.getStorageTableName())
+                providers.put(domain.getStorageTableName().toLowerCase(), provider);
+        }
+        return providers;
+    }
+
+    /** @return the range partitioned tables in the schema, each with the names of its partitions */
+    Map<String, List<String>> getPartitions(String schemaName)
+    {
+        SQLFragment sql = new SQLFragment("SELECT parent.relname, child.relname\n" +
+            "FROM pg_partitioned_table pt\n" +
+            "JOIN pg_class parent ON parent.oid = pt.partrelid\n" +
+            "JOIN pg_namespace n ON n.oid = parent.relnamespace\n" +
+            "LEFT JOIN pg_inherits i ON i.inhparent = parent.oid\n" +
+            "LEFT JOIN pg_class child ON child.oid = i.inhrelid\n" +
+            "WHERE n.nspname = ?", schemaName);
+
+        Map<String, List<String>> partitions = new TreeMap<>();
+        new SqlSelector(getScope(), sql).forEach(rs -> {
+            List<String> children = partitions.computeIfAbsent(rs.getString(1), k -> new ArrayList<>());
+            if (null != rs.getString(2))
+                children.add(rs.getString(2));
+        });
+        return partitions;
+    }
+
+    static String getPartitionName(String table, YearMonth month)
+    {
+        // PostgreSQL truncates identifiers longer than 63 bytes
+        return StringUtils.left(table, 63 - 8) + "_p" + month.format(SUFFIX_FORMAT);
+    }
+
+    /**
+     * Creates the partitions for the current month and the next {@link #MONTHS_AHEAD} months that don't exist yet. Rows
+     * for those months that landed in the default partition (e.g., in a table created since the last maintenance run)
+     * are moved into the new partition; PostgreSQL won't add a partition while the default partition holds its rows.
+     */
+    void createPartitions(String schemaName, String table, List<String> existing, LocalDate today)
+    {
+        String defaultPartition = schemaName + "." + PostgreSql91Dialect.makeDefaultPartitionName(table);
+        boolean hasDefault = existing.contains(PostgreSql91Dialect.makeDefaultPartitionName(table));
+        YearMonth current = YearMonth.from(today);
+
+        for (int i = 0; i <= MONTHS_AHEAD; i++)
+        {
+            YearMonth month = current.plusMonths(i);
+            String partition = getPartitionName(table, month);
+            if (existing.contains(partition))
+                continue;
+
+            Timestamp from = Timestamp.valueOf(month.atDay(1).atStartOfDay());
+            Timestamp to = Timestamp.valueOf(month.plusMonths(1).atDay(1).atStartOfDay());
+            SqlExecutor executor = new SqlExecutor(getScope());
+
+            try (DbScope.Transaction transaction = getScope().ensureTransaction())
+            {
+                executor.execute(new SQLFragment("CREATE TABLE " + schemaName + "." + partition + " (LIKE " + schemaName + "." + table + " INCLUDING DEFAULTS)"));
+                int moved = 0;
+                if (hasDefault)
+                {
+                    moved = executor.execute(new SQLFragment("WITH moved AS (DELETE FROM " + defaultPartition + " WHERE Created >= ? AND Created < ? RETURNING *)\n" +
+                        "INSERT INTO " + schemaName + "." + partition + " SELECT * FROM moved", from, to));
+                }
+                executor.execute(new SQLFragment("ALTER TABLE " + schemaName + "." + table + " ATTACH PARTITION " + schemaName + "." + partition +
+                    " FOR VALUES FROM ('" + from + "') TO ('" + to + "')"));
+                transaction.commit();
+                LOG.info("Created audit table partition " + schemaName + "." + partition + (moved > 0 ? ", moving " + moved + " rows into it from the default partition" : ""));
+            }
+            catch (RuntimeException e)
+            {
+                LOG.error("Unable to create audit table partition " + schemaName + "." + partition, e);
+            }
+        }
+    }
+
+    /**
+     * Drops the monthly partitions that end on or before the start of the month that's retentionMonths before the
+     * current month, so at least retentionMonths full months of events are kept. Rows that old in the default partition
+     * (e.g., back-dated events for months that never had a partition) are deleted.
+     */
+    void dropExpiredPartitions(String schemaName, String table, List<String> existing, LocalDate today, int retentionMonths)
+    {
+        YearMonth oldestKept = YearMonth.from(today).minusMonths(retentionMonths);
+        for (String partition : existing)
+        {
+            Matcher m = PARTITION_PATTERN.matcher(partition);
+            if (!m.find() || !partition.equals(getPartitionName(table, YearMonth.parse(m.group(1), SUFFIX_FORMAT))))
+                continue;
+
+            YearMonth month = YearMonth.parse(m.group(1), SUFFIX_FORMAT);
+            if (!month.isBefore(oldestKept))
+                continue;
+
+            try (DbScope.Transaction transaction = getScope().ensureTransaction())
+            {
+                new SqlExecutor(getScope()).execute(new SQLFragment("DROP TABLE " + schemaName + "." + partition));
+                transaction.commit();
+                LOG.info("Dropped expired audit table partition " + schemaName + "." + partition + " (retention is " + retentionMonths + " months)");
+            }
+            catch (RuntimeException e)
+            {
+                LOG.error("Unable to drop audit table partition " + schemaName + "." + partition, e);
+            }
+        }
+
+        String defaultPartition = PostgreSql91Dialect.makeDefaultPartitionName(table);
+        if (existing.contains(defaultPartition))
+        {
+            Timestamp cutoff = Timestamp.valueOf(oldestKept.atDay(1).atStartOfDay());
+            try
+            {
+                int deleted = new SqlExecutor(getScope()).execute(new SQLFragment("DELETE FROM " + schemaName + "." + defaultPartition + " WHERE Created < ?", cutoff));
+                if (deleted > 0)
+                    LOG.info("Deleted " + deleted + " expired rows from audit table partition " + schemaName + "." + defaultPartition + " (retention is " + retentionMonths + " months)");
+            }
+            catch (RuntimeException e)
+            {
+                LOG.error("Unable to delete expired rows from audit table partition " + schemaName + "." + defaultPartition, e);
+            }
+        }
+    }
+
+    public static class AuditPartitionMaintenanceTask implements MaintenanceTask
+    {
+        @Override
+        public String getDescription()
+        {
+            return "Create upcoming partitions of partitioned audit tables and drop expired ones";
+        }
+
+        @Override
+        public String getName()
+        {
+            return "AuditTablePartitions";
+        }
+
+        @Override
+        public void run(Logger log)
+        {
+            get().maintainPartitions();
+        }
+    }
+
+    public static class TestCase extends Assert
+    {
+        private static final String TABLE = "auditpartitiontest";
+
+        private DbSchema _temp;
+        private String _schemaName;
+
+        @Before
+        public void setUp()
+        {
+            _temp = DbSchema.getTemp();
+            _schemaName = _temp.getName();
+            tearDown();
+        }
+
+        @After
+        public void tearDown()
+        {
+            if (_temp.getSqlDialect().isPostgreSQL())
+                new SqlExecutor(_temp).execute(new SQLFragment("DROP TABLE IF EXISTS " + _schemaName + "." + TABLE));
+        }
+
+        private @NotNull List<String> partitions()
+        {
+            List<String> partitions = get().getPartitions(_schemaName).get(TABLE);
+            assertNotNull(partitions);
+            return partitions;
+        }
+
+        @Test
+        public void testPartitions()
+        {
+            if (!_temp.getSqlDialect().isPostgreSQL())
+                return;
+
+            // Same shape as a partitioned provisioned audit table
+            SqlExecutor executor = new SqlExecutor(_temp);
+            executor.execute(new SQLFragment("CREATE TABLE " + _schemaName + "." + TABLE + " (RowId BIGSERIAL, Created TIMESTAMP, Comment VARCHAR(100), " +
+                "PRIMARY KEY (RowId, Created)) PARTITION BY RANGE (Created)"));
+            executor.execute(new SQLFragment("CREATE TABLE " + _schemaName + "." + PostgreSql91Dialect.makeDefaultPartitionName(TABLE) +
+                " PARTITION OF " + _schemaName + "." + TABLE + " DEFAULT"));
+
+            // Rows logged before their month's partition exists land in the default partition, and move when it's created
+            insert("2026-03-01");
+            LocalDate today = LocalDate.of(2026, 3, 15);
+            get().createPartitions(_schemaName, TABLE, partitions(), LocalDate.of(2025, 12, 1));
+            get().createPartitions(_schemaName, TABLE, partitions(), today);
+            List<String> partitions = partitions();
+            assertEquals("December through May, plus the default partition", 7, partitions.size());
+            assertTrue(partitions.contains(getPartitionName(TABLE, YearMonth.of(2026, 5))));
+            assertEquals(1, count(getPartitionName(TABLE, YearMonth.of(2026, 3))));
+            assertEquals(0, count(PostgreSql91Dialect.makeDefaultPartitionName(TABLE)));
+
+            for (String created : List.of("2025-12-05", "2026-01-10", "2026-03-31"))
+                insert(created);
+            // A back-dated event for a month that never gets a partition stays in the default partition
+            insert("2025-06-15");
+            assertEquals(1, count(PostgreSql91Dialect.makeDefaultPartitionName(TABLE)));
+
+            // A date filter, as audit queries generate it, should scan only the matching partition
+            SimpleFilter filter = new SimpleFilter(FieldKey.fromParts("Created"), java.sql.Date.valueOf("2026-03-01"), CompareType.DATE_GTE);
+            SQLFragment explain = new SQLFragment("EXPLAIN SELECT * FROM " + _schemaName + "." + TABLE + " ")
+                .append(filter.getSQLFragment(_temp.getSqlDialect()));
+            String plan = String.join("\n", new SqlSelector(_temp, explain).getArrayList(String.class));
+            assertTrue(plan, plan.contains(getPartitionName(TABLE, YearMonth.of(2026, 3))));
+            assertFalse(plan, plan.contains(getPartitionName(TABLE, YearMonth.of(2026, 1))));
+            assertFalse(plan, plan.contains(getPartitionName(TABLE, YearMonth.of(2025, 12))));
+
+            // With two months' retention in March, January and February are kept and December is dropped
+            get().dropExpiredPartitions(_schemaName, TABLE, partitions(), today, 2);
+            partitions = partitions();
+            assertFalse(partitions.contains(getPartitionName(TABLE, YearMonth.of(2025, 12))));
+            assertTrue(partitions.contains(getPartitionName(TABLE, YearMonth.of(2026, 1))));
+            assertTrue(partitions.contains(PostgreSql91Dialect.makeDefaultPartitionName(TABLE)));
+            assertEquals("Expired rows in the default partition should be deleted too", 0, count(PostgreSql91Dialect.makeDefaultPartitionName(TABLE)));
+            assertEquals(3, count(TABLE));
+        }
+
+        private void insert(String created)
+        {
+            new SqlExecutor(_temp).execute(new SQLFragment("INSERT INTO " + _schemaName + "." + TABLE + " (Created, Comment) VALUES (?, 'test')", Timestamp.valueOf(created + " 12:00:00")));
+        }
+
+        private int count(String table)
+        {
+            return new SqlSelector(_temp, new SQLFragment("SELECT COUNT(*) FROM " + _schemaName + "." + table)).getObject(Integer.class);
+        }
+    }
+}
@@ -44,12 +44,15 @@ import org.labkey.api.exp.property.DomainKind;
 import org.labkey.api.exp.property.DomainProperty;
 import org.labkey.api.query.UserSchema;
 import org.labkey.api.security.User;
+import org.labkey.api.settings.OptionalFeatureService;
 import org.labkey.api.view.HttpView;
 import org.labkey.audit.AuditSchema;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -182,6 +185,54 @@ public class LogManager
             throw new RuntimeSQLException(sqlx);
     }
 
+    /**
+     * Hands the events to the {@link AuditEventWriter}, if asynchronous audit logging is enabled, no transaction is
+     * active, and every event's provider allows it.
+     * @return true if the events were queued, false if the caller needs to insert them
+     */
+    public <K extends AuditTypeEvent> boolean queueEvents(User user, List<K> events)
+    {
+        if (events.isEmpty() || getSchema().getScope().isTransactionActive() || !OptionalFeatureService.get().isFeatureEnabled(AuditEventWriter.EXPERIMENTAL_ASYNC_AUDIT_LOGGING))
+            return false;
+
+        List<AuditEventWriter.Entry> entries = new ArrayList<>(events.size());
+        for (var event : events)
+        {
+            AuditTypeProvider provider = AuditLogService.get().getAuditProvider(event.getEventType());
+            if (null == provider || !provider.isAsyncWriteAllowed())
+                return false;
+
+            // The writer inserts these without filling in the built-in columns, since it runs later on another thread
+            Date now = new Date();
+            if (null == event.getCreated())
+                event.setCreated(now);
+            if (null == event.getCreatedBy())
+                event.setCreatedBy(user);
+            event.setModified(now);
+            event.setModifiedBy(user);
+            entries.add(AuditEventWriter.toEntry(validateFields(provider, event)));
+        }
+
+        if (!AuditEventWriter.get().enqueue(entries))
+            return false;
+
+        for (var event : events)
+        {
+            Logger auditLogger = org.apache.logging.log4j.LogManager.getLogger("org.labkey.audit.event." + event.getEventType().replaceAll(" ", ""));
+            auditLogger.info(event.getAuditLogMessage());
+        }
+        return true;
+    }
+
+    /** @return the provisioned table that stores the provider's events, or null if there isn't one */
+    @Nullable
+    TableInfo getDbTable(User user, Container c, AuditTypeProvider provider)
+    {
+        UserSchema schema = AuditLogService.getAuditLogSchema(user, c);
+        TableInfo table = null == schema ? null : schema.getTable(provider.getEventName(), false);
+        return table instanceof DefaultAuditTypeTable ? ((DefaultAuditTypeTable) table).getRealTable() : null;
+    }
+
     @Nullable
     public <K extends AuditTypeEvent> K getAuditEvent(User user, String eventType, int rowId, @Nullable ContainerFilter cf)
     {
@@ -243,7 +294,7 @@ public class LogManager
      * Ensure that the string properties don't exceed the length of the provisioned columns.
      * Values will be trimmed to the max length.
      */
-    private <K extends AuditTypeEvent> K validateFields(@NotNull AuditTypeProvider provider, @NotNull K type)
+    <K extends AuditTypeEvent> K validateFields(@NotNull AuditTypeProvider provider, @NotNull K type)
     {
         ObjectFactory<K> factory = ObjectFactory.Registry.getFactory((Class<K>)type.<K>getClass());
         Map<String, Object> values = new CaseInsensitiveHashMap<>();
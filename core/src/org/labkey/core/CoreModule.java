@@ -47,6 +47,7 @@ import org.labkey.api.audit.provider.ContainerAuditProvider;
 import org.labkey.api.audit.provider.FileSystemAuditProvider;
 import org.labkey.api.audit.provider.GroupAuditProvider;
 import org.labkey.api.audit.provider.ModulePropertiesAuditProvider;
+import org.labkey.api.cache.CacheInvalidationBus;
 import org.labkey.api.cache.CacheManager;
 import org.labkey.api.data.Container;
 import org.labkey.api.data.ContainerFilter;
@@ -979,6 +980,9 @@ public class CoreModule extends SpringModule implements SearchService.DocumentPr
 
         SimpleMetricsService.setInstance(new SimpleMetricsServiceImpl());
 
+        // Broadcast cache invalidations to other servers that share this database, if configured
+        CacheInvalidationBus.startIfConfigured();
+
         // Export action stats on graceful shutdown
         ContextListener.addShutdownListener(new ShutdownListener() {
             @Override
@@ -85,6 +85,7 @@ import org.labkey.api.audit.AuditLogService;
 import org.labkey.api.audit.AuditTypeEvent;
 import org.labkey.api.audit.provider.ContainerAuditProvider;
 import org.labkey.api.cache.CacheManager;
+import org.labkey.api.cache.CacheMemoryBudget;
 import org.labkey.api.cache.CacheStats;
 import org.labkey.api.cache.TrackingCache;
 import org.labkey.api.cloud.CloudStoreService;
@@ -3549,6 +3550,8 @@ public class AdminController extends SpringActionController
         public final List<HeldReference> references;
         public final List<String> graphNames = new ArrayList<>();
         public final List<String> activeThreads = new LinkedList<>();
+        public final List<Pair<String, Long>> cacheMemoryEstimates = new ArrayList<>();
+        public final long cacheMemoryBudget = CacheMemoryBudget.getBudget();
 
         public boolean assertsEnabled = false;
 
@@ -3650,6 +3653,15 @@ public class AdminController extends SpringActionController
                 graphNames.add(pool.getName());
             }
 
+            // Estimated footprint of caches that have a CacheWeigher, largest first
+            for (TrackingCache<?, ?> cache : CacheManager.getKnownCaches())
+            {
+                long bytes = cache.getEstimatedBytes();
+                if (bytes >= 0)
+                    cacheMemoryEstimates.add(new Pair<>(cache.getDebugName(), bytes));
+            }
+            cacheMemoryEstimates.sort(Comparator.comparing(Pair<String, Long>::getValue).reversed());
+
             DecimalFormat commaf0 = new DecimalFormat("#,##0");
 
 
@@ -134,6 +134,38 @@
                 </tr>
             </table>
             <p/>
+            <%
+                if (!bean.cacheMemoryEstimates.isEmpty())
+                {
+                    long cacheTally = 0;
+            %>
+            <table name="cacheMemory" class="labkey-data-region-legacy labkey-show-borders">
+                <tr>
+                    <th>Weighed Cache</th>
+                    <th style="text-align: right">Estimated Bytes</th>
+                </tr>
+            <%
+                    int cacheCounter = 0;
+                    for (Pair<String, Long> estimate : bean.cacheMemoryEstimates)
+                    {
+                        cacheTally += estimate.getValue();
+            %>
+                <tr class="<%=getShadeRowClass(cacheCounter++)%>">
+                    <td><%= h(estimate.getKey()) %></td>
+                    <td style="text-align: right"><code><%= h(format.format(estimate.getValue())) %></code></td>
+                </tr>
+            <%
+                    }
+            %>
+                <tr class="<%=getShadeRowClass(true)%>">
+                    <td><strong>Total</strong><%= h(bean.cacheMemoryBudget > 0 ? " (budget " + format.format(bean.cacheMemoryBudget) + ")" : "") %></td>
+                    <td style="text-align: right"><code><%= h(format.format(cacheTally)) %></code></td>
+                </tr>
+            </table>
+            <p/>
+            <%
+                }
+            %>
             <table name="systemProperties" class="labkey-data-region-legacy labkey-show-borders">
                 <tr>
                     <th>System Property Name</th>
@@ -1044,11 +1044,12 @@ public class ExpMaterialTableImpl extends ExpRunItemTableImpl<ExpMaterialTable.C
 
     static class InvalidationCounters
     {
-        public final AtomicLong update, insert, delete, rollup;
+        public final AtomicLong update, modified, insert, delete, rollup;
         InvalidationCounters()
         {
             long l = System.currentTimeMillis();
             update = new AtomicLong(l);
+            modified = new AtomicLong(l);
             insert = new AtomicLong(l);
             delete = new AtomicLong(l);
             rollup = new AtomicLong(l);
@@ -1058,6 +1059,8 @@ public class ExpMaterialTableImpl extends ExpRunItemTableImpl<ExpMaterialTable.C
     static final BlockingCache<String,_MaterializedQueryHelper> _materializedQueries = CacheManager.getBlockingStringKeyCache(CacheManager.UNLIMITED, CacheManager.HOUR, "materialized sample types", null);
     static final Map<String, InvalidationCounters> _invalidationCounters = Collections.synchronizedMap(new HashMap<>());
     static final AtomicBoolean initializedListeners = new AtomicBoolean(false);
+    // Modified is set before commit, so re-read rows modified this long before the newest one in case they committed late
+    static final long MODIFIED_SAFETY_WINDOW = 5 * CacheManager.MINUTE;
 
     // used by SampleTypeServiceImpl.refreshSampleTypeMaterializedView()
     public static void refreshMaterializedView(final String lsid, SampleTypeServiceImpl.SampleChangeType reason)
@@ -1096,6 +1099,7 @@ public class ExpMaterialTableImpl extends ExpRunItemTableImpl<ExpMaterialTable.C
                 case insert -> counters.insert.incrementAndGet();
                 case rollup -> counters.rollup.incrementAndGet();
                 case update -> counters.update.incrementAndGet();
+                case modified -> counters.modified.incrementAndGet();
                 case delete -> counters.delete.incrementAndGet();
                 default -> throw new IllegalStateException("Unexpected value: " + _reason);
             }
@@ -1139,7 +1143,7 @@ public class ExpMaterialTableImpl extends ExpRunItemTableImpl<ExpMaterialTable.C
                 .addIndex("CREATE UNIQUE INDEX uq_${NAME}_lsid ON temp.${NAME} (lsid)")
                 .addIndex("CREATE INDEX idx_${NAME}_container ON temp.${NAME} (container)")
                 .addIndex("CREATE INDEX idx_${NAME}_root ON temp.${NAME} (rootmaterialrowid)")
-                .addInvalidCheck(() -> String.valueOf(getInvalidateCounters(_ss.getLSID()).update.get()))
+                .incrementalRefresh("modified", "rowid", MODIFIED_SAFETY_WINDOW)
                 .build();
         });
         return new SQLFragment("SELECT * FROM ").append(mqh.getFromSql("_cached_view_"));
@@ -1148,8 +1152,8 @@ public class ExpMaterialTableImpl extends ExpRunItemTableImpl<ExpMaterialTable.C
 
     /**
      * MaterializedQueryHelper has a built-in mechanism for tracking when a temp table needs to be recomputed.
-     * It does not help with incremental updates (except for providing the upsert() method).
-     * _MaterializedQueryHelper and _Materialized copy the pattern using class Invalidator.
+     * Its incremental refresh merges rows updated in place (by Modified), but not inserts, deletes or rollups.
+     * _MaterializedQueryHelper and _Materialized copy the pattern using class Invalidator for those.
      */
     static class _MaterializedQueryHelper extends MaterializedQueryHelper
     {
@@ -1168,14 +1172,14 @@ public class ExpMaterialTableImpl extends ExpRunItemTableImpl<ExpMaterialTable.C
             @Override
             public _MaterializedQueryHelper build()
             {
-                return new _MaterializedQueryHelper(_lsid, _prefix, _scope, _select, _uptodate, _supplier, _indexes, _max, _isSelectInto);
+                return new _MaterializedQueryHelper(_lsid, _prefix, _scope, _select, _uptodate, _supplier, _indexes, _max, _isSelectInto, _changeKey, _uniqueKey, _safetyWindow);
             }
         }
 
         _MaterializedQueryHelper(String lsid, String prefix, DbScope scope, SQLFragment select, @Nullable SQLFragment uptodate, Supplier<String> supplier, @Nullable Collection<String> indexes, long maxTimeToCache,
-                                        boolean isSelectIntoSql)
+                                        boolean isSelectIntoSql, @Nullable String changeKey, @Nullable String uniqueKey, long safetyWindow)
         {
-            super(prefix, scope, select, uptodate, supplier, indexes, maxTimeToCache, isSelectIntoSql);
+            super(prefix, scope, select, uptodate, supplier, indexes, maxTimeToCache, isSelectIntoSql, changeKey, uniqueKey, safetyWindow);
             this._lsid = lsid;
         }
 
@@ -1185,10 +1189,30 @@ public class ExpMaterialTableImpl extends ExpRunItemTableImpl<ExpMaterialTable.C
             DbSchema temp = DbSchema.getTemp();
             String name = _prefix + "_" + GUID.makeHash();
             _Materialized materialized = new _Materialized(this, name, txCacheKey, HeartBeat.currentTimeMillis(), "\"" + temp.getName() + "\".\"" + name + "\"");
+            // Updates made through the update service set Modified, so they're merged by incrementalRefresh(). Other
+            // updates (e.g., file moves, sample moves) may not, so they rematerialize the table.
+            materialized.addInvalidator(new SupplierInvalidator(() -> String.valueOf(getInvalidateCounters(_lsid).update.get()), false));
+            materialized.addInvalidator(new SupplierInvalidator(() -> String.valueOf(getInvalidateCounters(_lsid).modified.get())));
             initMaterialized(materialized);
             return materialized;
         }
 
+        @Override
+        protected void incrementalRefresh(Materialized m)
+        {
+            // Don't interleave with the incremental insert/delete/rollup statements, which modify the same temp table
+            Lock lock = ((_Materialized) m).getLock();
+            lock.lock();
+            try
+            {
+                super.incrementalRefresh(m);
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
         @Override
         protected void incrementalUpdateBeforeSelect(Materialized m)
         {
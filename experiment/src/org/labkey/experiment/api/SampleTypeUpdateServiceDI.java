@@ -61,6 +61,7 @@ import org.labkey.api.dataiterator.DropColumnsDataIterator;
 import org.labkey.api.dataiterator.LoggingDataIterator;
 import org.labkey.api.dataiterator.MapDataIterator;
 import org.labkey.api.dataiterator.Pump;
+import org.labkey.api.dataiterator.RemoveDuplicatesDataIterator;
 import org.labkey.api.dataiterator.SampleUpdateAddColumnsDataIterator;
 import org.labkey.api.dataiterator.SimpleTranslator;
 import org.labkey.api.dataiterator.WrapperDataIterator;
@@ -149,6 +150,7 @@ import static org.labkey.api.exp.query.ExpMaterialTable.Column.Units;
 import static org.labkey.experiment.ExpDataIterators.incrementCounts;
 import static org.labkey.experiment.api.SampleTypeServiceImpl.SampleChangeType.insert;
 import static org.labkey.experiment.api.SampleTypeServiceImpl.SampleChangeType.rollup;
+import static org.labkey.experiment.api.SampleTypeServiceImpl.SampleChangeType.modified;
 import static org.labkey.experiment.api.SampleTypeServiceImpl.SampleChangeType.update;
 
 /**
@@ -419,6 +421,11 @@ public class SampleTypeUpdateServiceDI extends DefaultQueryUpdateService
             throw new RuntimeException(e);
         }
 
+        // A merge or update file that repeats a sample's row (e.g., concatenated re-import files) would otherwise fail
+        // on the second copy; identical rows update the same sample, so keep only the first
+        if (context.getInsertOption().allowUpdate)
+            rows = new RemoveDuplicatesDataIterator.Builder(rows);
+
         context.putConfigParameter(ExperimentService.QueryOptions.GetSampleRecomputeCol, true);
         ArrayList<Map<String, Object>> outputRows = new ArrayList<>();
         int ret = super.loadRows(user, container, rows, outputRows, context, extraScriptContext);
@@ -519,7 +526,7 @@ public class SampleTypeUpdateServiceDI extends DefaultQueryUpdateService
 
         if (results != null && !results.isEmpty() && !errors.hasErrors())
         {
-            onSamplesChanged(!_sampleType.isMedia() ? results : null, configParameters, container, update);
+            onSamplesChanged(!_sampleType.isMedia() ? results : null, configParameters, container, modified);
             audit(QueryService.AuditAction.UPDATE);
         }
 
@@ -197,6 +197,7 @@ public class StorageProvisionerImpl implements StorageProvisioner
             change.setIndexedColumns(indices);
 
             change.setForeignKeys(domain.getPropertyForeignKeys());
+            change.setPartitionColumn(kind.getStoragePartitionColumn(domain));
 
             try
             {
@@ -235,6 +235,7 @@ public class SampleReloadTask extends PipelineJob.Task<SampleReloadTask.Factory>
         public Factory()
         {
             super(SampleReloadTask.class);
+            setLockScope(LockScope.CONTAINER);
         }
 
         @Override
@@ -53,6 +53,7 @@ import org.labkey.api.query.FieldKey;
 import org.labkey.api.query.QueryChangeListener;
 import org.labkey.api.query.QueryService;
 import org.labkey.api.query.SchemaKey;
+import org.labkey.api.query.TableInfoCache;
 import org.labkey.api.search.SearchService;
 import org.labkey.api.search.SearchService.IndexTask;
 import org.labkey.api.security.User;
@@ -282,6 +283,7 @@ public class ListManager implements SearchService.DocumentProvider
 
         ListDef ret = Table.insert(user, tinfo, builder.build());
         _listDefCache.remove(c.getId());
+        TableInfoCache.invalidate();
         return ret;
     }
 
@@ -449,6 +451,7 @@ public class ListManager implements SearchService.DocumentProvider
     private void queryChangeUpdate(User user, Container c, String oldName, String updatedName)
     {
         _listDefCache.remove(c.getId());
+        TableInfoCache.invalidate();
         QueryChangeListener.QueryPropertyChange.handleQueryNameChange(oldName, updatedName, new SchemaKey(null, ListQuerySchema.NAME), user, c);
     }
 
@@ -466,6 +469,7 @@ public class ListManager implements SearchService.DocumentProvider
             // ok
         }
         _listDefCache.remove(c.getId());
+        TableInfoCache.invalidate();
     }
 
     public static final SearchService.SearchCategory listCategory = new SearchService.SearchCategory("list", "Lists");
@@ -73,6 +73,7 @@ public class ListQuerySchema extends UserSchema
     public ListQuerySchema(User user, Container container)
     {
         super(NAME, DESCR, user, container, ListSchema.getInstance().getSchema());
+        _cacheTableInfos = true;
     }
 
     @Override
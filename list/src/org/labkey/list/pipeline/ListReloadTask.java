@@ -111,6 +111,7 @@ public class ListReloadTask extends PipelineJob.Task<ListReloadTask.Factory>
         public Factory()
         {
             super(ListReloadTask.class);
+            setLockScope(LockScope.CONTAINER);
         }
 
         @Override
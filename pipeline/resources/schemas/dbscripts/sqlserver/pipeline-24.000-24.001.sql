@@ -0,0 +1,2 @@
+-- Time each job joined the web server's job queue, so jobs are requeued in their original order after a restart
+ALTER TABLE pipeline.StatusFiles ADD Queued DATETIME NULL;
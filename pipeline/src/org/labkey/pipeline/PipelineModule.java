@@ -117,7 +117,7 @@ public class PipelineModule extends SpringModule implements ContainerManager.Con
     @Override
     public Double getSchemaVersion()
     {
-        return 24.000;
+        return 24.001;
     }
 
     @Override
@@ -95,16 +95,19 @@ public class CommandTaskImpl extends WorkDirectoryTask<CommandTaskImpl.Factory>
         public Factory()
         {
             super(new TaskId(CommandTask.class));
+            setResourceClass(ResourceClass.CPU);
         }
 
         public Factory(String name)
         {
             super(new TaskId(CommandTask.class, name));
+            setResourceClass(ResourceClass.CPU);
         }
 
         public Factory(TaskId taskId)
         {
             super(taskId);
+            setResourceClass(ResourceClass.CPU);
         }
 
         @Override
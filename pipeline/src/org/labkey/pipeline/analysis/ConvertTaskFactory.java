@@ -54,11 +54,13 @@ public class ConvertTaskFactory extends AbstractTaskFactory<ConvertTaskFactorySe
     public ConvertTaskFactory()
     {
         super(new TaskId(ConvertTaskId.class));
+        setResourceClass(ResourceClass.CPU);
     }
 
     public ConvertTaskFactory(String name)
     {
         super(new TaskId(ConvertTaskId.class, name));
+        setResourceClass(ResourceClass.CPU);
     }
 
     @Override
@@ -23,11 +23,15 @@ import org.junit.Test;
 import org.labkey.api.data.ConnectionWrapper;
 import org.labkey.api.data.Container;
 import org.labkey.api.data.ContainerManager;
+import org.labkey.api.data.RuntimeSQLException;
 import org.labkey.api.pipeline.PipelineJob;
 import org.labkey.api.pipeline.PipelineJobData;
 import org.labkey.api.pipeline.PipelineJobService;
 import org.labkey.api.pipeline.PipelineService;
 import org.labkey.api.pipeline.PipelineStatusFile;
+import org.labkey.api.pipeline.TaskFactory;
+import org.labkey.api.pipeline.TaskFactory.LockScope;
+import org.labkey.api.pipeline.TaskFactory.ResourceClass;
 import org.labkey.api.query.QueryService;
 import org.labkey.api.security.User;
 import org.labkey.api.test.TestWhen;
@@ -35,11 +39,15 @@ import org.labkey.api.util.DebugInfoDumper;
 import org.labkey.api.util.JobRunner;
 import org.labkey.api.view.ActionURL;
 import org.labkey.api.view.ViewBackgroundInfo;
+import org.labkey.pipeline.importer.FolderImportTask;
+import org.labkey.pipeline.importer.GenerateFolderArchiveTask;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -47,27 +55,67 @@ import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Runs all jobs in the web server with a simple thread pool.
+ * Runs all jobs in the web server with a thread pool. The number of simultaneous jobs is limited separately for each
+ * {@link ResourceClass}, so, e.g., a long database import doesn't keep CPU-bound jobs from running. Jobs are also
+ * serialized within their {@link LockScope}, if any.
  */
 public class PipelineQueueImpl extends AbstractPipelineQueue
 {
     private static final Logger LOG = LogManager.getLogger(PipelineQueueImpl.class);
-    private static final int MAX_RUNNING_JOBS = 10;
 
     private final List<PipelineJob> _pending = new ArrayList<>();
     private final List<PipelineJob> _running = new ArrayList<>();
 
-    // This is the list of jobs that have been submitted to JobRunner-- they
-    // may be either running or pending.
-    private final Set<PipelineJob> _submitted = new HashSet<>();
+    // These are the jobs that have been submitted to JobRunner-- they
+    // may be either running or pending. Each holds the slot it was
+    // submitted with, since its active task may change while it runs.
+    private final Map<PipelineJob, Slot> _submitted = new LinkedHashMap<>();
 
-    private final JobRunner _runner = new JobRunner("Pipeline", MAX_RUNNING_JOBS);
+    private final Map<ResourceClass, Integer> _limits;
+    private final JobRunner _runner;
+
+    private record Slot(ResourceClass resourceClass, LockScope lockScope, String containerId)
+    {
+    }
+
+    public PipelineQueueImpl()
+    {
+        this(getDefaultLimits());
+    }
+
+    PipelineQueueImpl(Map<ResourceClass, Integer> limits)
+    {
+        _limits = new EnumMap<>(limits);
+        _runner = new JobRunner("Pipeline", _limits.values().stream().mapToInt(Integer::intValue).sum());
+    }
+
+    private static Map<ResourceClass, Integer> getDefaultLimits()
+    {
+        Map<ResourceClass, Integer> limits = new EnumMap<>(ResourceClass.class);
+        limits.put(ResourceClass.CPU, Math.max(1, Runtime.getRuntime().availableProcessors()));
+        limits.put(ResourceClass.DB, 4);
+        limits.put(ResourceClass.IO, 4);
+        return limits;
+    }
 
     @Override
-    protected synchronized void enqueue(PipelineJob job)
+    protected void enqueue(PipelineJob job)
     {
-        _pending.add(job);
-        submitJobs();
+        // Persist the queue order before the job can start, so a restart requeues waiting jobs in the same order
+        try
+        {
+            PipelineStatusManager.setQueued(job.getJobGUID());
+        }
+        catch (RuntimeSQLException e)
+        {
+            LOG.warn("Unable to record queue time for job " + job.getJobGUID(), e);
+        }
+
+        synchronized (this)
+        {
+            _pending.add(job);
+            submitJobs();
+        }
     }
 
     @Override
@@ -123,7 +171,7 @@ public class PipelineQueueImpl extends AbstractPipelineQueue
             ConnectionWrapper.dumpLeaksForThread(Thread.currentThread());
             boolean removed = _running.remove(job);
             assert removed;
-            removed = _submitted.remove(job);
+            removed = null != _submitted.remove(job);
             assert removed;
         }
         finally
@@ -133,43 +181,67 @@ public class PipelineQueueImpl extends AbstractPipelineQueue
     }
 
     /**
-     * Look through the pending jobs and see if there are any that can be submitted to the runner right now.
-     * Some jobs are single threaded.  There can be only one single threaded job in the queue at any time.
-     * Multi-threaded jobs are allowed to be run one per container.
+     * Look through the pending jobs, in the order they were queued, and see if there are any that can be submitted
+     * to the runner right now. A job can run if fewer jobs of its resource class than that class's limit have been
+     * submitted, and its lock is free. A job with the CONTAINER scope needs its container to itself, since it may
+     * replace data that any other job in the container reads or writes; jobs without a lock scope may run alongside
+     * each other, but not alongside a CONTAINER job in their container. Once a CONTAINER job is waiting, later jobs in
+     * its container wait behind it so a stream of small jobs can't starve it. One job with the SERVER scope runs per
+     * server.
      *
-     * We do not submit a job to the JobRunner unless it is ok to run it right now.
-     * The JobRunner takes care of limiting the simultaneous jobs to {@link #MAX_RUNNING_JOBS}
+     * We do not submit a job to the JobRunner unless it is ok to run it right now. The JobRunner has a thread for
+     * every slot across all resource classes, so a submitted job starts immediately.
      */
     private synchronized void submitJobs()
     {
-        if (_pending.size() == 0)
+        if (_pending.isEmpty())
             return;
-        HashSet<String> containers = new HashSet<>();
-        boolean singleThreadedJobFound = false;
-        for (PipelineJob job : _submitted)
+        Map<ResourceClass, Integer> used = new EnumMap<>(ResourceClass.class);
+        Map<String, Integer> activeContainers = new HashMap<>();
+        Set<String> lockedContainers = new HashSet<>();
+        Set<String> waitingContainers = new HashSet<>();
+        boolean serverLocked = false;
+        for (Slot slot : _submitted.values())
         {
-            containers.add(job.getContainerId());
-            if (!job.allowMultipleSimultaneousJobs())
-            {
-                singleThreadedJobFound = true;
-            }
+            used.merge(slot.resourceClass(), 1, Integer::sum);
+            activeContainers.merge(slot.containerId(), 1, Integer::sum);
+            if (slot.lockScope() == LockScope.CONTAINER)
+                lockedContainers.add(slot.containerId());
+            else if (slot.lockScope() == LockScope.SERVER)
+                serverLocked = true;
         }
-        for (PipelineJob job : _pending.toArray(new PipelineJob[_pending.size()]))
+        for (PipelineJob job : new ArrayList<>(_pending))
         {
-            if (_submitted.contains(job))
+            if (_submitted.containsKey(job))
                 continue;
-            if (!job.allowMultipleSimultaneousJobs() && singleThreadedJobFound)
+            Slot slot = new Slot(job.getResourceClass(), job.getLockScope(), job.getContainerId());
+            boolean containerFree = !lockedContainers.contains(slot.containerId()) && !waitingContainers.contains(slot.containerId());
+            if (slot.lockScope() == LockScope.CONTAINER)
+            {
+                containerFree &= !activeContainers.containsKey(slot.containerId());
+                // Hold the container for this job even if it's waiting only for a resource slot
+                if (!containerFree || used.getOrDefault(slot.resourceClass(), 0) >= _limits.getOrDefault(slot.resourceClass(), 1))
+                {
+                    waitingContainers.add(slot.containerId());
+                    continue;
+                }
+            }
+            if (!containerFree)
                 continue;
-            if (containers.contains(job.getContainerId()))
+            if (used.getOrDefault(slot.resourceClass(), 0) >= _limits.getOrDefault(slot.resourceClass(), 1))
                 continue;
-            _submitted.add(job);
-            containers.add(job.getContainerId());
+            if (slot.lockScope() == LockScope.SERVER && serverLocked)
+                continue;
+            _submitted.put(job, slot);
+            used.merge(slot.resourceClass(), 1, Integer::sum);
+            activeContainers.merge(slot.containerId(), 1, Integer::sum);
+            if (slot.lockScope() == LockScope.CONTAINER)
+                lockedContainers.add(slot.containerId());
+            else if (slot.lockScope() == LockScope.SERVER)
+                serverLocked = true;
+            LOG.debug("SUBMITTED: " + job + " (" + slot.resourceClass() + ", lock scope " + slot.lockScope() + ")");
             _runner.execute(job);
             job.setSubmitted();
-            if (!job.allowMultipleSimultaneousJobs())
-            {
-                singleThreadedJobFound = true;
-            }
         }
     }
 
@@ -292,6 +364,17 @@ public class PipelineQueueImpl extends AbstractPipelineQueue
     private static class TestJob extends PipelineJob
     {
         AtomicInteger _counter;
+        ResourceClass _resourceClass = ResourceClass.CPU;
+        LockScope _lockScope = LockScope.NONE;
+        // If set, the job's resource class and lock scope come from these tasks instead
+        List<TaskFactory<?>> _factories = null;
+        long _duration = 1000;
+
+        // Tracks the most jobs sharing a resource class or lock that ran at the same time
+        AtomicInteger _active = new AtomicInteger();
+        AtomicInteger _maxActive = new AtomicInteger();
+        volatile long _start;
+        volatile long _end;
 
         // For serialization
         protected TestJob() {}
@@ -302,10 +385,46 @@ public class PipelineQueueImpl extends AbstractPipelineQueue
             _counter = counter;
         }
 
+        TestJob(Container c, AtomicInteger counter, ResourceClass resourceClass, LockScope lockScope, AtomicInteger active, AtomicInteger maxActive)
+        {
+            this(c, counter);
+            _resourceClass = resourceClass;
+            _lockScope = lockScope;
+            _active = active;
+            _maxActive = maxActive;
+            _duration = 200;
+        }
+
+        TestJob(Container c, AtomicInteger counter, List<TaskFactory<?>> factories, AtomicInteger active, AtomicInteger maxActive)
+        {
+            this(c, counter, ResourceClass.CPU, LockScope.NONE, active, maxActive);
+            _factories = factories;
+        }
+
+        @Override
+        public ResourceClass getResourceClass()
+        {
+            return null == _factories ? _resourceClass : super.getResourceClass();
+        }
+
+        @Override
+        public LockScope getLockScope()
+        {
+            return null == _factories ? _lockScope : super.getLockScope();
+        }
+
+        @Override
+        protected List<TaskFactory<?>> getQueuedTaskFactories()
+        {
+            return null == _factories ? super.getQueuedTaskFactories() : _factories;
+        }
+
         @Override
         public void run()
         {
-            long til = System.currentTimeMillis() + 1000;
+            _start = System.nanoTime();
+            _maxActive.accumulateAndGet(_active.incrementAndGet(), Math::max);
+            long til = System.currentTimeMillis() + _duration;
             double[] a = new double[10000];
             while (til > System.currentTimeMillis())
             {
@@ -314,7 +433,14 @@ public class PipelineQueueImpl extends AbstractPipelineQueue
                 Arrays.sort(a);
                 Thread.yield();
             }
+            _active.decrementAndGet();
             _counter.incrementAndGet();
+            _end = System.nanoTime();
+        }
+
+        boolean overlaps(TestJob other)
+        {
+            return _start < other._end && other._start < _end;
         }
 
         @Override
@@ -404,6 +530,93 @@ public class PipelineQueueImpl extends AbstractPipelineQueue
             assertEquals(0, queue._runner.getJobCount());
             assertEquals(jobs.length, counter.get());
         }
+
+        @Test
+        public void testResourceClassLimits() throws Exception
+        {
+            Container root = ContainerManager.createFakeContainer(null, null);
+            Container container = ContainerManager.createFakeContainer("A", root);
+
+            PipelineQueueImpl queue = new PipelineQueueImpl(Map.of(ResourceClass.CPU, 1, ResourceClass.DB, 2, ResourceClass.IO, 1));
+            AtomicInteger counter = new AtomicInteger();
+            Map<ResourceClass, AtomicInteger> maxActive = new EnumMap<>(ResourceClass.class);
+            List<TestJob> jobs = new ArrayList<>();
+            for (ResourceClass resourceClass : ResourceClass.values())
+            {
+                AtomicInteger active = new AtomicInteger();
+                maxActive.put(resourceClass, new AtomicInteger());
+                for (int i = 0; i < 4; i++)
+                    jobs.add(new TestJob(container, counter, resourceClass, LockScope.NONE, active, maxActive.get(resourceClass)));
+            }
+
+            for (TestJob job : jobs)
+                queue.addJob(job);
+            for (TestJob job : jobs)
+                job.get();
+
+            assertEquals(jobs.size(), counter.get());
+            assertEquals(1, maxActive.get(ResourceClass.CPU).get());
+            assertTrue(maxActive.get(ResourceClass.DB).get() <= 2);
+            assertEquals(1, maxActive.get(ResourceClass.IO).get());
+        }
+
+        @Test
+        public void testLockScopes() throws Exception
+        {
+            Container root = ContainerManager.createFakeContainer(null, null);
+            Container containerA = ContainerManager.createFakeContainer("A", root);
+            Container containerB = ContainerManager.createFakeContainer("B", root);
+
+            PipelineQueueImpl queue = new PipelineQueueImpl(Map.of(ResourceClass.CPU, 10, ResourceClass.DB, 10, ResourceClass.IO, 10));
+            AtomicInteger counter = new AtomicInteger();
+            AtomicInteger lockedA = new AtomicInteger();
+            AtomicInteger maxLockedA = new AtomicInteger();
+            AtomicInteger lockedB = new AtomicInteger();
+            AtomicInteger maxLockedB = new AtomicInteger();
+            AtomicInteger unlocked = new AtomicInteger();
+            AtomicInteger maxUnlocked = new AtomicInteger();
+
+            // Unlocked jobs first, then locked jobs that must wait for them, then unlocked jobs that must queue behind those
+            List<TestJob> unlockedA = new ArrayList<>();
+            List<TestJob> lockedJobsA = new ArrayList<>();
+            List<TestJob> jobs = new ArrayList<>();
+            for (int i = 0; i < 3; i++)
+                unlockedA.add(new TestJob(containerA, counter, ResourceClass.DB, LockScope.NONE, unlocked, maxUnlocked));
+            jobs.addAll(unlockedA);
+            for (int i = 0; i < 3; i++)
+            {
+                TestJob locked = new TestJob(containerA, counter, ResourceClass.DB, LockScope.CONTAINER, lockedA, maxLockedA);
+                lockedJobsA.add(locked);
+                jobs.add(locked);
+                jobs.add(new TestJob(containerB, counter, ResourceClass.DB, LockScope.CONTAINER, lockedB, maxLockedB));
+            }
+
+            // Like a folder import: an unlocked IO task followed by a container-locked task, run in one submission
+            TestJob folderImport = new TestJob(containerA, counter, List.of(new GenerateFolderArchiveTask.Factory(), new FolderImportTask.Factory()), lockedA, maxLockedA);
+            assertEquals(LockScope.CONTAINER, folderImport.getLockScope());
+            assertEquals(ResourceClass.DB, folderImport.getResourceClass());
+            lockedJobsA.add(folderImport);
+            jobs.add(folderImport);
+            for (int i = 0; i < 2; i++)
+            {
+                TestJob job = new TestJob(containerA, counter, ResourceClass.DB, LockScope.NONE, unlocked, maxUnlocked);
+                unlockedA.add(job);
+                jobs.add(job);
+            }
+
+            for (TestJob job : jobs)
+                queue.addJob(job);
+            for (TestJob job : jobs)
+                job.get();
+
+            assertEquals(jobs.size(), counter.get());
+            assertEquals("Container-locked jobs should run one at a time per container", 1, maxLockedA.get());
+            assertEquals(1, maxLockedB.get());
+            assertTrue("Unlocked jobs should run alongside each other", maxUnlocked.get() > 1);
+            for (TestJob locked : lockedJobsA)
+                for (TestJob job : unlockedA)
+                    assertFalse("Unlocked jobs shouldn't run alongside a container-locked job in their container", locked.overlaps(job));
+        }
     }
 
     @Override
@@ -59,6 +59,7 @@ import org.springframework.jdbc.UncategorizedSQLException;
 import java.io.File;
 import java.nio.file.Path;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -630,11 +631,28 @@ public class PipelineStatusManager
         return getStatusFiles(filter);
     }
 
+    /** @return the status of every job that's waiting or running, in the order they joined the web server's queue */
     public static List<PipelineStatusFileImpl> getQueuedStatusFiles()
     {
-        SimpleFilter filter = createQueueFilter();
-        
-        return getStatusFiles(filter);
+        TableInfo table = _schema.getTableInfoStatusFiles();
+        // Jobs queued before Queued was tracked have no time; order them by Created, since databases sort NULLs differently
+        SQLFragment sql = new SQLFragment("SELECT * FROM ").append(table).append(" ")
+            .append(createQueueFilter().getSQLFragment(table, null))
+            .append(" ORDER BY COALESCE(Queued, Created), RowId");
+
+        return new SqlSelector(_schema.getSchema(), sql).getArrayList(PipelineStatusFileImpl.class);
+    }
+
+    /**
+     * Records the time a job joined the web server's queue. A job keeps its original time when it's requeued (e.g.,
+     * after a restart), so jobs that were waiting are restarted in the order they were submitted.
+     */
+    public static void setQueued(String jobId)
+    {
+        String sql = "UPDATE " + _schema.getTableInfoStatusFiles() +
+                " SET Queued = ?" +
+                " WHERE Job = ? AND Queued IS NULL";
+        new SqlExecutor(_schema.getSchema()).execute(sql, new Timestamp(System.currentTimeMillis()), jobId);
     }
 
     private static List<PipelineStatusFileImpl> getStatusFiles(SimpleFilter filter)
@@ -162,6 +162,9 @@ public class FolderImportTask extends PipelineJob.Task<FolderImportTask.Factory>
         public Factory()
         {
             super(FolderImportTask.class);
+
+            // Imports replace much of the folder's data, so two can't safely run in the same folder at once
+            setLockScope(LockScope.CONTAINER);
         }
 
         @Override
@@ -67,6 +67,7 @@ public class GenerateFolderArchiveTask extends PipelineJob.Task<GenerateFolderAr
         public Factory()
         {
             super(GenerateFolderArchiveTask.class);
+            setResourceClass(ResourceClass.IO);
         }
 
         @Override
@@ -47,6 +47,7 @@ import org.labkey.api.query.QueryView;
 import org.labkey.api.query.RExportScriptFactory;
 import org.labkey.api.query.SasExportScriptFactory;
 import org.labkey.api.query.SimpleTableDomainKind;
+import org.labkey.api.query.TableInfoCache;
 import org.labkey.api.query.URLExportScriptFactory;
 import org.labkey.api.query.column.BuiltInColumnTypes;
 import org.labkey.api.query.snapshot.QuerySnapshotService;
@@ -64,6 +65,7 @@ import org.labkey.api.reports.report.python.IpynbReportDescriptor;
 import org.labkey.api.reports.report.r.RReport;
 import org.labkey.api.reports.report.r.RReportDescriptor;
 import org.labkey.api.search.SearchService;
+import org.labkey.api.security.SecurityManager;
 import org.labkey.api.security.User;
 import org.labkey.api.security.permissions.AdminPermission;
 import org.labkey.api.security.permissions.PlatformDeveloperPermission;
@@ -122,6 +124,7 @@ import org.labkey.query.reports.getdata.FilterClauseBuilder;
 import org.labkey.query.reports.view.ReportAndDatasetChangeDigestEmailTemplate;
 import org.labkey.query.reports.view.ReportUIProvider;
 import org.labkey.query.sql.Method;
+import org.labkey.query.sql.ParsedQueryCache;
 import org.labkey.query.sql.QNode;
 import org.labkey.query.sql.Query;
 import org.labkey.query.sql.SqlParser;
@@ -188,6 +191,7 @@ public class QueryModule extends DefaultModule
         QueryService.get().addQueryListener(new CustomViewQueryChangeListener());
         QueryService.get().addQueryListener(new QuerySnapshotQueryChangeListener());
         QueryService.get().addQueryListener(new QueryDefQueryChangeListener());
+        QueryService.get().addQueryListener(new TableInfoCache.QueryListener());
 
         ReportService.registerProvider(ReportServiceImpl.getInstance());
         ReportService.get().addUIProvider(new ReportUIProvider());
@@ -259,6 +263,8 @@ public class QueryModule extends DefaultModule
     public void doStartup(ModuleContext moduleContext)
     {
         ContainerManager.addContainerListener(QueryManager.CONTAINER_LISTENER, ContainerManager.ContainerListener.Order.Last);
+        ContainerManager.addContainerListener(new TableInfoCache.ContainerListener());
+        SecurityManager.addGroupListener(new TableInfoCache.GroupListener());
 
         if (null != PipelineService.get())
             PipelineService.get().registerPipelineProvider(new ReportsPipelineProvider(this));
@@ -386,6 +392,7 @@ public class QueryModule extends DefaultModule
             MemberSet.TestCase.class,
             MetadataElementBase.TestCase.class,
             Method.TestCase.class,
+            ParsedQueryCache.TestCase.class,
             QNode.TestCase.class,
             Query.TestCase.class,
             ReportsController.SerializationTest.class,
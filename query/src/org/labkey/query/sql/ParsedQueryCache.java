@@ -0,0 +1,128 @@
+package org.labkey.query.sql;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.Assert;
+import org.junit.Test;
+import org.labkey.api.cache.Cache;
+import org.labkey.api.cache.CacheManager;
+import org.labkey.api.data.Container;
+import org.labkey.api.data.dialect.SqlDialect;
+import org.labkey.api.query.QueryParseException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Caches the parse trees of LabKey SQL, so running the same query text again (dashboards, saved queries, API selects)
+ * skips the ANTLR parse and parse tree conversion. The cache is keyed by dialect and exact SQL text. Parsing depends on
+ * nothing else, with one exception: moduleProperty() substitutes a container-specific value into the tree, so those
+ * queries aren't cached. Neither are queries with parse errors or warnings, so exceptions are never shared.
+ * <p>
+ * Resolution mutates the tree (e.g., PIVOT removes ORDER BY and LIMIT) and decorates nodes with resolved columns, so
+ * cached trees are never handed out; every caller gets its own copy. Copying a tree is much cheaper than parsing it.
+ * <p>
+ * Resolution and SQL generation aren't cached: they depend on the user's permissions, the container, the container
+ * filter, and current schema metadata, and still have to build the TableInfo the caller needs.
+ */
+public class ParsedQueryCache
+{
+    private static final Cache<String, ParsedQuery> CACHE = CacheManager.getStringKeyCache(2000, CacheManager.DAY, "LabKey SQL parse trees");
+
+    private record ParsedQuery(QNode root, ArrayList<QParameter> parameters)
+    {
+        ParsedQuery copy()
+        {
+            ArrayList<QParameter> parameters = new ArrayList<>(parameters().size());
+            for (QParameter p : parameters())
+                parameters.add((QParameter) p.copyTree());
+            return new ParsedQuery(root().copyTree(), parameters);
+        }
+    }
+
+    /**
+     * Parse the query, or copy the parse tree of an earlier, identical query.
+     *
+     * @return a new parser holding the parse tree (or null if it failed), and the parameters; errors and warnings are
+     * added to the lists like {@link SqlParser#parseQuery}
+     */
+    static @NotNull SqlParser parseQuery(@Nullable SqlDialect dialect, @Nullable Container c, @NotNull String sql, @NotNull List<? super QueryParseException> errors, @NotNull List<QueryParseException> warnings)
+    {
+        String key = (null == dialect ? "" : dialect.getClass().getName()) + "|" + sql;
+        ParsedQuery cached = CACHE.get(key);
+        if (null != cached)
+        {
+            ParsedQuery copy = cached.copy();
+            return new SqlParser(dialect, c).setParsed(copy.root(), copy.parameters());
+        }
+
+        SqlParser parser = new SqlParser(dialect, c);
+        int errorCount = errors.size();
+        int warningCount = warnings.size();
+        QNode root = parser.parseQuery(sql, errors, warnings);
+
+        if (null != root && errors.size() == errorCount && warnings.size() == warningCount && !parser.isContainerDependent())
+        {
+            // Cache a private copy; the caller is free to mutate the one it gets back
+            CACHE.put(key, new ParsedQuery(root, parser.getParameters()).copy());
+        }
+
+        return parser;
+    }
+
+    static void clear()
+    {
+        CACHE.clear();
+    }
+
+    public static class TestCase extends Assert
+    {
+        private static final String SQL = "PARAMETERS (X INTEGER DEFAULT 5) SELECT a, b FROM R WHERE a > X ORDER BY b LIMIT 10";
+
+        private SqlParser parse(String sql)
+        {
+            List<QueryParseException> errors = new ArrayList<>();
+            SqlParser parser = parseQuery(null, null, sql, errors, new ArrayList<>());
+            assertTrue(errors.isEmpty());
+            return parser;
+        }
+
+        @Test
+        public void testCopies()
+        {
+            clear();
+            SqlParser first = parse(SQL);
+            SqlParser second = parse(SQL);
+
+            assertNotSame(first.getRoot(), second.getRoot());
+            assertEquals(SqlParser.toPrefixString(first.getRoot()), SqlParser.toPrefixString(second.getRoot()));
+            assertEquals(1, second.getParameters().size());
+            assertNotSame(first.getParameters().get(0), second.getParameters().get(0));
+            assertEquals("X", second.getParameters().get(0).getName());
+
+            // Mutating one caller's tree mustn't affect the next caller's
+            String expected = SqlParser.toPrefixString(second.getRoot());
+            ((QQuery) first.getRoot()).removeOrderBy();
+            ((QQuery) second.getRoot()).removeLimit();
+            assertEquals(expected, SqlParser.toPrefixString(parse(SQL).getRoot()));
+        }
+
+        @Test
+        public void testUncached()
+        {
+            clear();
+
+            // Parse errors are reported every time
+            for (int i = 0; i < 2; i++)
+            {
+                List<QueryParseException> errors = new ArrayList<>();
+                assertNull(parseQuery(null, null, "SELECT FROM WHERE", errors, new ArrayList<>()).getRoot());
+                assertFalse(errors.isEmpty());
+            }
+            assertTrue(CACHE.getKeys().isEmpty());
+
+            parse("SELECT a FROM R");
+            assertEquals(1, CACHE.getKeys().size());
+        }
+    }
+}
@@ -261,8 +261,7 @@ public class Query
                 parseError(_parseErrors, "Schema is not available, check configuration: " + getSchema().getName(), null);
                 return;
             }
-            SqlParser parser = new SqlParser(getSchema().getDbSchema().getSqlDialect(), getSchema().getContainer());
-            parser.parseQuery(queryText, _parseErrors, _parseWarnings);
+            SqlParser parser = ParsedQueryCache.parseQuery(getSchema().getDbSchema().getSqlDialect(), getSchema().getContainer(), queryText, _parseErrors, _parseWarnings);
             if (!_parseErrors.isEmpty())
                 return;
             _parameters = parser.getParameters();
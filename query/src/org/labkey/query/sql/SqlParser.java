@@ -105,6 +105,7 @@ public class SqlParser
     ArrayList<QParameter> _parameters;
     final SqlDialect _dialect;
     Container _container = null;
+    boolean _containerDependent = false;    // true if the parse tree holds values specific to _container
 
     final static SoftPool<_SqlParser> _parserPool = new SoftPool<>();
 
@@ -352,6 +353,22 @@ public class SqlParser
     }
 
 
+    // Used by ParsedQueryCache to return a copy of a cached parse tree
+    SqlParser setParsed(QNode root, ArrayList<QParameter> parameters)
+    {
+        _root = root;
+        _parameters = parameters;
+        return this;
+    }
+
+
+    /** @return true if the parse tree depends on the container, e.g., it substituted a moduleProperty() value */
+    boolean isContainerDependent()
+    {
+        return _containerDependent;
+    }
+
+
     public ArrayList<QParameter> getParameters()
     {
         return null==_parameters ? new ArrayList<QParameter>(0) : _parameters;
@@ -1350,6 +1367,7 @@ public class SqlParser
             return null;
         }
         String value = mp.getEffectiveValue(cCompile);
+        _containerDependent = true;
         if (StringUtils.isEmpty(value))
         {
             _parseErrors.add(new QueryParseException("Module property is empty: " + propertyName, null, -1, -1));
@@ -22,6 +22,7 @@ import org.labkey.api.search.SearchService;
 import org.labkey.api.security.User;
 import org.labkey.api.webdav.WebdavService;
 import org.labkey.search.model.DavCrawler;
+import org.labkey.search.model.SearchPermissionsCache;
 
 import java.beans.PropertyChangeEvent;
 
@@ -30,6 +31,7 @@ public class SearchContainerListener extends ContainerManager.AbstractContainerL
     @Override
     public void containerCreated(Container c, User user)
     {
+        SearchPermissionsCache.securityChanged();
         SearchService ss = SearchService.get();
         if (null != ss)
         {
@@ -40,6 +42,7 @@ public class SearchContainerListener extends ContainerManager.AbstractContainerL
     @Override
     public void containerDeleted(Container c, User user)
     {
+        SearchPermissionsCache.securityChanged();
         SearchService ss = SearchService.get();
         if (null != ss)
         {
@@ -47,9 +50,17 @@ public class SearchContainerListener extends ContainerManager.AbstractContainerL
         }
     }
 
+    @Override
+    public void containerMoved(Container c, Container oldParent, User user)
+    {
+        SearchPermissionsCache.securityChanged();
+    }
+
     @Override
     public void propertyChange(PropertyChangeEvent propertyChangeEvent)
     {
+        // includes policy changes, which are reported as a container property change
+        SearchPermissionsCache.securityChanged();
         SearchService ss = SearchService.get();
         if (null != ss)
         {
@@ -25,6 +25,7 @@ import org.labkey.api.data.ContainerManager;
 import org.labkey.api.data.DbSchema;
 import org.labkey.api.data.TableInfo;
 import org.labkey.api.data.TableSelector;
+import org.labkey.api.files.FileContentService;
 import org.labkey.api.mbean.LabKeyManagement;
 import org.labkey.api.mbean.SearchMXBean;
 import org.labkey.api.module.DefaultModule;
@@ -33,6 +34,7 @@ import org.labkey.api.module.ModuleLoader;
 import org.labkey.api.query.UserSchema;
 import org.labkey.api.search.SearchService;
 import org.labkey.api.security.LimitedUser;
+import org.labkey.api.security.SecurityManager;
 import org.labkey.api.security.User;
 import org.labkey.api.security.roles.CanSeeAuditLogRole;
 import org.labkey.api.settings.AdminConsole;
@@ -50,9 +52,11 @@ import org.labkey.api.webdav.WebdavResource;
 import org.labkey.api.webdav.WebdavService;
 import org.labkey.search.audit.SearchAuditProvider;
 import org.labkey.search.model.AbstractSearchService;
+import org.labkey.search.model.CrawlerFileListener;
 import org.labkey.search.model.DavCrawler;
 import org.labkey.search.model.LuceneSearchServiceImpl;
 import org.labkey.search.model.PlainTextDocumentParser;
+import org.labkey.search.model.SearchPermissionsCache;
 import org.labkey.search.model.SearchStartupProperties;
 import org.labkey.search.view.SearchWebPartFactory;
 
@@ -174,12 +178,18 @@ public class SearchModule extends DefaultModule
             });
 
             ss.addDocumentParser(new PlainTextDocumentParser());
+
+            // let the crawler hear about file changes made through the server, rather than waiting for its scheduled rescan
+            FileContentService fileContentService = FileContentService.get();
+            if (null != fileContentService)
+                fileContentService.addFileListener(new CrawlerFileListener());
         }
 
         AuditLogService.get().registerAuditType(new SearchAuditProvider());
 
         // add a container listener, so we'll know when containers are deleted
         ContainerManager.addContainerListener(new SearchContainerListener());
+        SecurityManager.addGroupListener(new SearchPermissionsCache.GroupListener());
 
         FolderManagement.addTab(FolderManagement.TYPE.FolderManagement, "Search", "fullTextSearch", FolderManagement.NOT_ROOT, SearchController.SearchSettingsAction.class);
 
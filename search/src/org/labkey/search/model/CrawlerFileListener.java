@@ -0,0 +1,134 @@
+package org.labkey.search.model;
+
+import org.apache.commons.io.FilenameUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.labkey.api.data.Container;
+import org.labkey.api.data.SQLFragment;
+import org.labkey.api.files.FileContentService;
+import org.labkey.api.files.FileListener;
+import org.labkey.api.pipeline.PipeRoot;
+import org.labkey.api.pipeline.PipelineService;
+import org.labkey.api.security.User;
+import org.labkey.api.util.FileUtil;
+import org.labkey.api.util.Path;
+import org.labkey.api.webdav.WebdavService;
+
+import java.io.File;
+import java.util.Collection;
+
+/**
+ * Feeds file system changes made through the server (WebDAV writes, file browser uploads, moves and deletes, pipeline
+ * file operations) to the DavCrawler's change journal, so the affected directories are re-crawled promptly instead of
+ * waiting for the scheduled crawl. Events without a container, or for files outside the container's file and pipeline
+ * roots, are left to the scheduled crawl.
+ */
+public class CrawlerFileListener implements FileListener
+{
+    @Override
+    public String getSourceName()
+    {
+        return "DavCrawler";
+    }
+
+    @Override
+    public void fileCreated(@NotNull File created, @Nullable User user, @Nullable Container container)
+    {
+        fileCreated(created.toPath(), user, container);
+    }
+
+    @Override
+    public void fileCreated(@NotNull java.nio.file.Path created, @Nullable User user, @Nullable Container container)
+    {
+        changed(created, container);
+    }
+
+    @Override
+    public int fileMoved(@NotNull File src, @NotNull File dest, @Nullable User user, @Nullable Container container)
+    {
+        return fileMoved(src.toPath(), dest.toPath(), user, container);
+    }
+
+    @Override
+    public int fileMoved(@NotNull java.nio.file.Path src, @NotNull java.nio.file.Path dest, @Nullable User user, @Nullable Container container)
+    {
+        return fileMoved(src, dest, user, container, container);
+    }
+
+    @Override
+    public int fileMoved(@NotNull java.nio.file.Path src, @NotNull java.nio.file.Path dest, @Nullable User user, @Nullable Container sourceContainer, @Nullable Container targetContainer)
+    {
+        changed(src, sourceContainer);
+        changed(dest, null != targetContainer ? targetContainer : sourceContainer);
+        return 0;
+    }
+
+    @Override
+    public void fileReplaced(@NotNull java.nio.file.Path replaced, @Nullable User user, @Nullable Container container)
+    {
+        changed(replaced, container);
+    }
+
+    @Override
+    public void fileDeleted(@NotNull java.nio.file.Path deleted, @Nullable User user, @Nullable Container container)
+    {
+        changed(deleted, container);
+    }
+
+    @Override
+    public Collection<File> listFiles(@Nullable Container container)
+    {
+        return null;
+    }
+
+    @Override
+    public SQLFragment listFilesQuery()
+    {
+        return null;
+    }
+
+    private void changed(java.nio.file.Path file, @Nullable Container c)
+    {
+        if (null == c || FileUtil.hasCloudScheme(file))
+            return;
+
+        Path davPath = toDavPath(file.toAbsolutePath().normalize(), c);
+        if (null == davPath)
+            return;
+
+        // The crawler works on directories: listing the parent picks up new, changed, and missing children, and any
+        // new subdirectory gets scheduled from there
+        Path directory = davPath.getParent();
+        DavCrawler.getInstance().directoryChanged(null == directory ? davPath : directory);
+    }
+
+    /** @return the WebDAV path for a file under the container's file root or pipeline root, or null if it is under neither */
+    @Nullable
+    static Path toDavPath(java.nio.file.Path file, Container c)
+    {
+        Path containerPath = WebdavService.getPath().append(c.getParsedPath());
+
+        FileContentService svc = FileContentService.get();
+        java.nio.file.Path filesRoot = null == svc ? null : svc.getFileRootPath(c, FileContentService.ContentType.files);
+        if (null != filesRoot)
+        {
+            filesRoot = filesRoot.toAbsolutePath().normalize();
+            if (file.startsWith(filesRoot))
+            {
+                Path root = containerPath.append(FileContentService.FILES_LINK);
+                return file.equals(filesRoot) ? root : root.append(new Path(filesRoot.relativize(file)));
+            }
+        }
+
+        PipelineService pipeline = PipelineService.get();
+        PipeRoot pipeRoot = null == pipeline ? null : pipeline.getPipelineRootSetting(c);
+        if (null != pipeRoot && pipeRoot.isUnderRoot(file))
+        {
+            String relative = FilenameUtils.separatorsToUnix(pipeRoot.relativePath(file));
+            Path root = containerPath.append(FileContentService.PIPELINE_LINK);
+            return null == relative || relative.isEmpty() ? root : root.append(Path.parse(relative));
+        }
+
+        return null;
+    }
+}
@@ -37,7 +37,9 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 public class CrawlerTest extends Assert
 {
@@ -49,6 +51,38 @@ public class CrawlerTest extends Assert
         cr.startFull(Path.rootPath, true);
     }
 
+    @Test
+    public void testChangeJournal()
+    {
+        DavCrawler cr = new DavCrawler();
+        TestSavePaths paths = new TestSavePaths();
+        cr._paths = paths;
+        cr._maxChangedDirectories = 2;
+
+        Path a = Path.parse("/_webdav/home/@files/a");
+        Path b = Path.parse("/_webdav/home/@files/b");
+        Path c = Path.parse("/_webdav/home/@pipeline/c");
+
+        cr.directoryChanged(a);
+        cr.directoryChanged(b);
+        cr.directoryChanged(a);
+        assertEquals(2, cr.getChangedDirectoryCount());
+
+        // journal is full, so c is scheduled in the crawl table instead
+        cr.directoryChanged(c);
+        assertEquals(2, cr.getChangedDirectoryCount());
+        assertTrue(paths.collections.containsKey(c));
+
+        assertEquals(a, cr.pollChangedDirectory());
+        assertEquals(b, cr.pollChangedDirectory());
+        assertNull(cr.pollChangedDirectory());
+
+        assertEquals(Path.parse("/_webdav/home/@files"), DavCrawler.getRoot(a));
+        assertNull(DavCrawler.getRoot(Path.parse("/_webdav/home")));
+        assertEquals(3, cr.getRootStats(a).changeEvents.sum());
+        assertEquals(1, cr.getRootStats(c).changeEvents.sum());
+    }
+
     //
     // TEST
     //
@@ -188,6 +222,18 @@ public class CrawlerTest extends Assert
             collections.remove(path);
         }
 
+        @Override
+        public synchronized Set<String> getDirectories(Path path)
+        {
+            Set<String> ret = new TreeSet<>();
+            for (Path p : collections.keySet())
+            {
+                if (path.equals(p.getParent()))
+                    ret.add(p.getName());
+            }
+            return ret;
+        }
+
         @Override
         public synchronized Map<Path, Pair<Date,Date>> getPaths(int limit)
         {
@@ -53,11 +53,16 @@ import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * User: matthewb
@@ -76,6 +81,11 @@ import java.util.concurrent.TimeUnit;
  *
  * The SearchService also has its own thread pool we use when we find files to index, but the
  * background crawling is pretty different and needs its own scheduling behavior.
+ *
+ * 3) Change journal
+ *  File events from CrawlerFileListener queue the directories they touch, and the crawler lists those
+ *  ahead of any scheduled work. With the journal keeping file roots current, the scheduled crawl of
+ *  file system directories is only a weekly safety net for changes made outside the server.
  */
 public class DavCrawler implements ShutdownListener
 {
@@ -97,6 +107,30 @@ public class DavCrawler implements ShutdownListener
     // CONSIDER: file count limiter
     final RateLimiter _filesIndexRateLimiter = new RateLimiter("file index", 100, TimeUnit.SECONDS);
 
+    // Scheduled re-crawl interval for file system directories; changes made through the server arrive via the change journal
+    static final long SAFETY_NET_CRAWL_INTERVAL = CacheManager.WEEK;
+
+    // Bound on the change journal. Once full, further changed directories are scheduled in the crawl table instead.
+    static final int MAX_CHANGED_DIRECTORIES = 10000;
+    static final int MAX_TRACKED_ROOTS = 1000;
+
+    int _maxChangedDirectories = MAX_CHANGED_DIRECTORIES;
+    private final LinkedHashSet<Path> _changedDirectories = new LinkedHashSet<>();
+    private final LongAdder _changeEvents = new LongAdder();
+    private final LongAdder _changeOverflows = new LongAdder();
+    private final Map<Path, RootStats> _rootStats = new ConcurrentHashMap<>();
+
+
+    /** Crawl activity under one file root (e.g. /_webdav/home/@files) */
+    static class RootStats
+    {
+        final LongAdder changeEvents = new LongAdder();
+        final LongAdder changeListings = new LongAdder();
+        final LongAdder scheduledListings = new LongAdder();
+        final LongAdder filesQueued = new LongAdder();
+        volatile long lastListed = 0;
+    }
+
 
     public static class ResourceInfo
     {
@@ -132,6 +166,9 @@ public class DavCrawler implements ShutdownListener
         void updatePrefix(Path path, Date next, boolean forceIndex);
         void deletePath(Path path);
 
+        /** names of the known child collections of path */
+        Set<String> getDirectories(Path path);
+
         /** <lastCrawl, nextCrawl> */
         Map<Path, Pair<Date,Date>> getPaths(int limit);
         Date getNextCrawl();
@@ -250,6 +287,105 @@ public class DavCrawler implements ShutdownListener
     }
 
 
+    /**
+     * Record that the contents of a directory changed, so that the crawler lists it ahead of scheduled work.
+     * Repeated changes to a directory that is already waiting are coalesced.
+     */
+    public void directoryChanged(@NotNull Path path)
+    {
+        _changeEvents.increment();
+        RootStats stats = getRootStats(path);
+        if (null != stats)
+            stats.changeEvents.increment();
+
+        boolean overflow;
+        synchronized (_changedDirectories)
+        {
+            if (_changedDirectories.contains(path))
+                return;
+            overflow = _changedDirectories.size() >= _maxChangedDirectories;
+            if (!overflow)
+                _changedDirectories.add(path);
+        }
+
+        if (overflow)
+        {
+            _changeOverflows.increment();
+            addPathToCrawl(path, new Date(HeartBeat.currentTimeMillis()));
+        }
+        else
+        {
+            pingCrawler();
+        }
+    }
+
+
+    @Nullable
+    Path pollChangedDirectory()
+    {
+        synchronized (_changedDirectories)
+        {
+            Iterator<Path> it = _changedDirectories.iterator();
+            if (!it.hasNext())
+                return null;
+            Path path = it.next();
+            it.remove();
+            return path;
+        }
+    }
+
+
+    List<Path> getChangedDirectories(int limit)
+    {
+        List<Path> ret = new ArrayList<>();
+        synchronized (_changedDirectories)
+        {
+            for (Path path : _changedDirectories)
+            {
+                if (ret.size() >= limit)
+                    break;
+                ret.add(path);
+            }
+        }
+        return ret;
+    }
+
+
+    int getChangedDirectoryCount()
+    {
+        synchronized (_changedDirectories)
+        {
+            return _changedDirectories.size();
+        }
+    }
+
+
+    /** @return the file root (path through the first "@" segment) containing this path, or null if it isn't under one */
+    @Nullable
+    static Path getRoot(Path path)
+    {
+        for (int i = 0; i < path.size(); i++)
+        {
+            if (path.get(i).startsWith("@"))
+                return path.subpath(0, i + 1);
+        }
+        return null;
+    }
+
+
+    @Nullable
+    RootStats getRootStats(Path path)
+    {
+        Path root = getRoot(path);
+        if (null == root)
+            return null;
+        RootStats stats = _rootStats.get(root);
+        if (null == stats && _rootStats.size() < MAX_TRACKED_ROOTS)
+            stats = _rootStats.computeIfAbsent(root, r -> new RootStats());
+        return stats;
+    }
+
+
     private final LinkedList<Pair<String, Date>> _recent = new LinkedList<>();
 
 
@@ -259,6 +395,7 @@ public class DavCrawler implements ShutdownListener
         Path _path;
         WebdavResource _directory;
         boolean _full;
+        boolean _changed = false;
         Date _lastCrawl=null;
         Date _nextCrawl=null;
         Date _indexTime = null;
@@ -312,8 +449,15 @@ public class DavCrawler implements ShutdownListener
                 return;
             }
 
+            RootStats stats = getRootStats(_path);
+            if (null != stats)
+            {
+                (_changed ? stats.changeListings : stats.scheduledListings).increment();
+                stats.lastListed = HeartBeat.currentTimeMillis();
+            }
+
             _indexTime = new Date(System.currentTimeMillis());
-            long changeInterval = (_directory instanceof WebdavResolver.WebFolder) ? CacheManager.DAY / 2 : CacheManager.DAY;
+            long changeInterval = (_directory instanceof WebdavResolver.WebFolder) ? CacheManager.DAY / 2 : SAFETY_NET_CRAWL_INTERVAL;
             // Set next crawl time to now + changeInterval *on average*, but varying by +/- 10% to avoid clumping
             // (e.g., all docs aggressively crawled at startup, then exactly 12 hours later, then exactly 24 hours
             // later, etc.)
@@ -333,6 +477,7 @@ public class DavCrawler implements ShutdownListener
             // CONSIDER: store lastModifiedTime in crawlResources
             // CONSIDER: store documentId in crawlResources
             Map<String,ResourceInfo> map = _paths.getFiles(_path);
+            Set<String> directories = _paths.getDirectories(_path);
 
             for (WebdavResource child : _directory.list())
             {
@@ -340,6 +485,8 @@ public class DavCrawler implements ShutdownListener
                     return;
                 if (!child.exists()) // happens when pipeline is defined but directory doesn't exist
                     continue;
+                if (!child.isFile())
+                    directories.remove(child.getName());
 
                 if (child.isFile())
                 {
@@ -421,6 +568,8 @@ public class DavCrawler implements ShutdownListener
 
                     _task.addResource(child, SearchService.PRIORITY.background);
                     addRecent(child);
+                    if (null != stats)
+                        stats.filesQueued.increment();
                 }
                 else if (!child.shouldIndex())
                 {
@@ -452,6 +601,14 @@ public class DavCrawler implements ShutdownListener
                 ss.deleteResource(docId);
             }
 
+            // a removed or renamed directory is never listed again, so drop everything indexed beneath it
+            for (String missing : directories)
+            {
+                Path missingPath = _path.append(missing);
+                _paths.deletePath(missingPath);
+                ss.deleteResourcesForPrefix("dav:" + missingPath.toString("/", "/"));
+            }
+
             _task.setReady();
         }
     }
@@ -575,6 +732,17 @@ public class DavCrawler implements ShutdownListener
     {
         if (_shuttingDown)
             return null;
+
+        // changed directories go ahead of scheduled work
+        Path changed = pollChangedDirectory();
+        if (null != changed)
+        {
+            _log.debug("findSomeWork(): now crawling changed directory " + changed);
+            IndexDirectoryJob j = new IndexDirectoryJob(changed, null, new Date(HeartBeat.currentTimeMillis()));
+            j._changed = true;
+            return j;
+        }
+
         if (crawlQueue.isEmpty())
         {
             Map<Path,Pair<Date,Date>> map = _paths.getPaths(100);
@@ -712,12 +880,53 @@ public class DavCrawler implements ShutdownListener
         m.put("Directory limiter", Math.round(_listingRateLimiter.getTarget().getRate(TimeUnit.SECONDS)) + "/sec");
         m.put("File I/O limiter", (_fileIORateLimiter.getTarget().getRate(TimeUnit.SECONDS)/1000000) + " MB/sec");
 
+        m.put("Change events received", _changeEvents.sum());
+        m.put("Changed directories waiting", getChangedDirectoryCount() + " of " + _maxChangedDirectories);
+        m.put("Change journal overflows", _changeOverflows.sum());
+        m.put("Next changed directories", getChangedDirectoriesHtml());
+        m.put("Crawl roots", getRootStatsHtml());
+
         String activity = getActivityHtml();
         m.put("Recent crawler activity", activity);
         return m;
     }
 
 
+    String getChangedDirectoriesHtml()
+    {
+        StringBuilder html = new StringBuilder("<table cellpadding=1 cellspacing=0>");
+        for (Path path : getChangedDirectories(20))
+            html.append("<tr><td>").append(PageFlowUtil.filter(path.toString())).append("</td></tr>\n");
+        html.append("</table>");
+        return html.toString();
+    }
+
+
+    /** The most active file roots, by number of directories listed */
+    String getRootStatsHtml()
+    {
+        List<Map.Entry<Path, RootStats>> roots = new ArrayList<>(_rootStats.entrySet());
+        roots.sort(Comparator.comparingLong((Map.Entry<Path, RootStats> e) -> e.getValue().changeListings.sum() + e.getValue().scheduledListings.sum()).reversed());
+
+        long now = HeartBeat.currentTimeMillis();
+        StringBuilder html = new StringBuilder("<table cellpadding=1 cellspacing=0>");
+        html.append("<tr><td>Root&nbsp;</td><td align=right>Change events&nbsp;</td><td align=right>Change listings&nbsp;</td><td align=right>Scheduled listings&nbsp;</td><td align=right>Files queued&nbsp;</td><td align=right>Last listed</td></tr>\n");
+        for (Map.Entry<Path, RootStats> e : roots.subList(0, Math.min(20, roots.size())))
+        {
+            RootStats stats = e.getValue();
+            String last = 0 == stats.lastListed ? "" : DateUtil.formatDuration(Math.max(0, now - stats.lastListed)) + "&nbsp;ago";
+            html.append("<tr><td>").append(PageFlowUtil.filter(e.getKey().toString())).append("&nbsp;</td>")
+                .append("<td align=right>").append(stats.changeEvents.sum()).append("&nbsp;</td>")
+                .append("<td align=right>").append(stats.changeListings.sum()).append("&nbsp;</td>")
+                .append("<td align=right>").append(stats.scheduledListings.sum()).append("&nbsp;</td>")
+                .append("<td align=right>").append(stats.filesQueued.sum()).append("&nbsp;</td>")
+                .append("<td align=right>").append(last).append("</td></tr>\n");
+        }
+        html.append("</table>");
+        return html.toString();
+    }
+
+
     String getActivityHtml()
     {
         SearchService ss = getSearchService();
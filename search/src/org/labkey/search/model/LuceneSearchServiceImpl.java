@@ -129,6 +129,7 @@ import java.io.Reader;
 import java.lang.ref.SoftReference;
 import java.nio.ByteBuffer;
 import java.nio.file.FileSystemException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -141,6 +142,11 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 import java.util.regex.Matcher;
@@ -1929,6 +1935,95 @@ public class LuceneSearchServiceImpl extends AbstractSearchService implements Se
             }
         }
 
+        /**
+         * Reindex throughput benchmark: parses and indexes copies of the sample files into a scratch index, first on a
+         * single thread and then on several. Rates are logged rather than asserted since they depend on the machine.
+         */
+        @Test
+        public void testIndexThroughput() throws Exception
+        {
+            File sampledata = JunitUtil.getSampleData(null, "fileTypes");
+            assertNotNull(sampledata);
+            File[] files = sampledata.listFiles(File::isFile);
+            assertNotNull(files);
+            LuceneSearchServiceImpl lssi = (LuceneSearchServiceImpl) SearchService.get();
+            int copies = 3;
+            int total = files.length * copies;
+
+            for (int threadCount : new int[]{1, Math.max(2, Runtime.getRuntime().availableProcessors() / 2)})
+            {
+                java.nio.file.Path indexPath = Files.createTempDirectory("indexThroughput");
+                WritableIndexManager index = WritableIndexManagerImpl.get(indexPath, lssi.getAnalyzer());
+                ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+
+                try
+                {
+                    AtomicInteger next = new AtomicInteger();
+                    List<Future<?>> futures = new ArrayList<>();
+                    long start = System.nanoTime();
+
+                    for (int t = 0; t < threadCount; t++)
+                    {
+                        futures.add(pool.submit(() ->
+                        {
+                            int n;
+                            while ((n = next.getAndIncrement()) < total)
+                            {
+                                String id = "indexThroughput:" + n;
+                                index.index(id, parseSample(lssi, files[n % files.length], id));
+                            }
+                            return null;
+                        }));
+                    }
+
+                    for (Future<?> future : futures)
+                        future.get();
+
+                    index.commit();
+                    long elapsed = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+                    IndexSearcher searcher = index.getSearcher();
+                    try
+                    {
+                        assertEquals(total, searcher.getIndexReader().numDocs());
+                    }
+                    finally
+                    {
+                        index.releaseSearcher(searcher);
+                    }
+
+                    _log.info(String.format("Parsed and indexed %,d documents on %d thread(s) in %,d ms: %.1f documents/second",
+                        total, threadCount, elapsed, total * 1000.0 / elapsed));
+                }
+                finally
+                {
+                    pool.shutdownNow();
+                    index.close();
+                    FileUtil.deleteDir(indexPath.toFile());
+                }
+            }
+        }
+
+        private static Document parseSample(LuceneSearchServiceImpl lssi, File file, String id)
+        {
+            SimpleDocumentResource resource = new SimpleDocumentResource(new Path(file.getName()), id, null, null, null, null, null);
+            ContentHandler handler = new BodyContentHandler(-1);
+
+            try (InputStream is = new FileInputStream(file))
+            {
+                lssi.parse(resource, new FileFileStream(file), is, handler, new Metadata(), false);
+            }
+            catch (Throwable t)
+            {
+                // Some samples can't be parsed (see testTikaParsing); index them with whatever body we got
+            }
+
+            Document doc = new Document();
+            doc.add(new StringField(FIELD_NAME.uniqueId.toString(), id, Field.Store.YES));
+            doc.add(new TextField(FIELD_NAME.body.toString(), handler.toString(), Field.Store.NO));
+            return doc;
+        }
+
         private Map<String, Pair<Integer, String[]>> getExpectations()
         {
             Map<String, Pair<Integer, String[]>> map = new HashMap<>();
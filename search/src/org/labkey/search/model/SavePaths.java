@@ -44,6 +44,8 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -327,6 +329,19 @@ public class SavePaths implements DavCrawler.SavePaths
     }
 
 
+    @Override
+    public Set<String> getDirectories(Path path)
+    {
+        SQLFragment s = new SQLFragment(
+                "SELECT C.Name\n" +
+                "FROM search.CrawlCollections D INNER JOIN search.CrawlCollections C on D.id=C.parent\n" +
+                "WHERE D.path = ?");
+        s.add(toPathString(path));
+
+        return new TreeSet<>(new SqlSelector(getSearchSchema(), s).getCollection(String.class));
+    }
+
+
     @Override
     public Date getNextCrawl()
     {
@@ -0,0 +1,199 @@
+package org.labkey.search.model;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.util.BytesRef;
+import org.labkey.api.cache.Cache;
+import org.labkey.api.cache.CacheManager;
+import org.labkey.api.data.Container;
+import org.labkey.api.search.SearchScope;
+import org.labkey.api.search.SearchService;
+import org.labkey.api.security.ClonedUser;
+import org.labkey.api.security.Group;
+import org.labkey.api.security.SecurityManager;
+import org.labkey.api.security.User;
+import org.labkey.api.security.UserPrincipal;
+import org.labkey.search.model.LuceneSearchServiceImpl.FIELD_NAME;
+
+import java.beans.PropertyChangeEvent;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.lucene.search.DocIdSetIterator.NO_MORE_DOCS;
+
+/**
+ * Caches the work behind SecurityQuery so that trimming search results to what a user may read costs no per-hit
+ * string handling or permission checks:
+ * <ul>
+ *     <li>Each index segment's securityContext doc values are decoded once into a dictionary of distinct contexts
+ *     (usually a few per container) and an array mapping each document to its context ordinal. A query then decides
+ *     readability once per distinct context and sets document bits from the ordinal array.</li>
+ *     <li>The containers (and per-category containers) a user may search are cached per user, search scope, and
+ *     current container. The key includes a version that is bumped whenever a policy, group membership, or container
+ *     changes, so a change is never masked by a stale entry. Impersonated users and ClonedUsers aren't cached, since
+ *     their roles don't follow from their user id.</li>
+ * </ul>
+ */
+public class SearchPermissionsCache
+{
+    private static final AtomicLong VERSION = new AtomicLong();
+
+    // Changes the listeners don't see (e.g. module-specific category permissions) are picked up when entries expire
+    private static final Cache<String, ReadableContainers> READABLE_CONTAINERS = CacheManager.getStringKeyCache(1000, 5 * CacheManager.MINUTE, "Search readable containers");
+
+    // Keyed by segment core key, which is dropped when the segment is closed
+    private static final Map<IndexReader.CacheKey, SegmentContexts> SEGMENTS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    record ReadableContainers(HashMap<String, Container> containerIds, Map<String, Set<String>> categoryContainers)
+    {
+    }
+
+    /** Call when anything that affects which containers a user can read has changed */
+    public static void securityChanged()
+    {
+        VERSION.incrementAndGet();
+        READABLE_CONTAINERS.clear();
+    }
+
+    static ReadableContainers getReadableContainers(User user, SearchScope searchScope, Container currentContainer)
+    {
+        // Impersonation and ClonedUsers (e.g., the LimitedUser the search module searches as) change a user's groups
+        // and roles without changing the user id
+        if (user.isImpersonated() || user instanceof ClonedUser)
+            return computeReadableContainers(user, searchScope, currentContainer);
+
+        String key = VERSION.get() + "|" + user.getUserId() + "|" + searchScope.name() + "|" + currentContainer.getId();
+        ReadableContainers readable = READABLE_CONTAINERS.get(key);
+        if (null == readable)
+        {
+            readable = computeReadableContainers(user, searchScope, currentContainer);
+            READABLE_CONTAINERS.put(key, readable);
+        }
+        return readable;
+    }
+
+    private static ReadableContainers computeReadableContainers(User user, SearchScope searchScope, Container currentContainer)
+    {
+        HashMap<String, Container> containerIds = searchScope.getSearchableContainers(user, currentContainer);
+        Map<String, Set<String>> categoryContainers = new HashMap<>();
+        SearchService.get().getSearchCategories().forEach(
+                category -> categoryContainers.put(category.getName(), category.getPermittedContainerIds(user, containerIds))
+        );
+        return new ReadableContainers(containerIds, categoryContainers);
+    }
+
+    static SegmentContexts getSegmentContexts(LeafReader reader) throws IOException
+    {
+        IndexReader.CacheHelper helper = reader.getCoreCacheHelper();
+        if (null == helper)
+            return SegmentContexts.load(reader);
+
+        IndexReader.CacheKey key = helper.getKey();
+        SegmentContexts contexts = SEGMENTS.get(key);
+        if (null == contexts)
+        {
+            // Two searches may load the same segment at once; either result is fine
+            contexts = SegmentContexts.load(reader);
+            if (null == SEGMENTS.putIfAbsent(key, contexts))
+                helper.addClosedListener(SEGMENTS::remove);
+        }
+        return contexts;
+    }
+
+    /** The distinct security contexts in one segment and the context of each document */
+    static class SegmentContexts
+    {
+        private static final int NONE = -1;
+
+        // document -> index into the arrays below, or NONE if the document has no security context
+        final int[] ords;
+        final String[] containerIds;
+        final String[] categories;
+        final String[] resourceIds;
+
+        private SegmentContexts(int[] ords, List<String[]> contexts)
+        {
+            this.ords = ords;
+            containerIds = new String[contexts.size()];
+            categories = new String[contexts.size()];
+            resourceIds = new String[contexts.size()];
+            for (int i = 0; i < contexts.size(); i++)
+            {
+                String[] parts = contexts.get(i);
+                containerIds[i] = parts[0];
+                categories[i] = parts.length > 1 ? parts[1] : null;
+                resourceIds[i] = parts.length > 2 ? parts[2] : null;
+            }
+        }
+
+        int size()
+        {
+            return containerIds.length;
+        }
+
+        static SegmentContexts load(LeafReader reader) throws IOException
+        {
+            int[] ords = new int[reader.maxDoc()];
+            Arrays.fill(ords, NONE);
+            List<String[]> contexts = new ArrayList<>();
+
+            // Can be null, if no documents (e.g., shortly after bootstrap or clear index)
+            BinaryDocValues docValues = reader.getBinaryDocValues(FIELD_NAME.securityContext.name());
+            if (null != docValues)
+            {
+                Map<BytesRef, Integer> dictionary = new HashMap<>();
+                int doc;
+                while (NO_MORE_DOCS != (doc = docValues.nextDoc()))
+                {
+                    BytesRef bytesRef = docValues.binaryValue();
+                    Integer ord = dictionary.get(bytesRef);
+                    if (null == ord)
+                    {
+                        // SecurityContext is usually just a container ID and a string of categories, but in some cases it adds a resource ID.
+                        String[] parts = StringUtils.split(StringUtils.trimToNull(bytesRef.utf8ToString()), "|");
+                        if (null == parts || 0 == parts.length)
+                            continue;
+                        ord = contexts.size();
+                        contexts.add(parts);
+                        dictionary.put(BytesRef.deepCopyOf(bytesRef), ord);
+                    }
+                    ords[doc] = ord;
+                }
+            }
+
+            return new SegmentContexts(ords, contexts);
+        }
+    }
+
+    /** Invalidates cached readable containers when group memberships change */
+    public static class GroupListener implements SecurityManager.GroupListener
+    {
+        @Override
+        public void principalAddedToGroup(Group group, UserPrincipal principal)
+        {
+            securityChanged();
+        }
+
+        @Override
+        public void principalDeletedFromGroup(Group group, UserPrincipal principal)
+        {
+            securityChanged();
+        }
+
+        @Override
+        public void propertyChange(PropertyChangeEvent evt)
+        {
+            securityChanged();
+        }
+    }
+}
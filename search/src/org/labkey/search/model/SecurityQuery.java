@@ -17,7 +17,6 @@
 package org.labkey.search.model;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.lucene.index.BinaryDocValues;
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.search.ConstantScoreScorer;
@@ -29,7 +28,6 @@ import org.apache.lucene.search.ScoreMode;
 import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.Weight;
 import org.apache.lucene.util.BitSetIterator;
-import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.FixedBitSet;
 import org.jetbrains.annotations.NotNull;
 import org.labkey.api.data.Container;
@@ -40,22 +38,22 @@ import org.labkey.api.security.SecurableResource;
 import org.labkey.api.security.User;
 import org.labkey.api.security.permissions.ReadPermission;
 import org.labkey.api.util.MultiPhaseCPUTimer.InvocationTimer;
-import org.labkey.search.model.LuceneSearchServiceImpl.FIELD_NAME;
+import org.labkey.search.model.SearchPermissionsCache.ReadableContainers;
+import org.labkey.search.model.SearchPermissionsCache.SegmentContexts;
 
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import static org.apache.lucene.search.DocIdSetIterator.NO_MORE_DOCS;
-
 class SecurityQuery extends Query
 {
     private final User _user;
     private final Container _currentContainer;
     private final boolean _recursive;
 
-    private final HashMap<String, Set<String>> _categoryContainers = new HashMap<>();
+    private final Map<String, Set<String>> _categoryContainers;
     private final HashMap<String, Container> _containerIds;
     private final HashMap<String, Boolean> _securableResourceIds = new HashMap<>();
     private final InvocationTimer<SearchService.SEARCH_PHASE> _iTimer;
@@ -70,13 +68,9 @@ class SecurityQuery extends Query
         _recursive = searchScope.isRecursive();
         _iTimer = iTimer;
 
-        _containerIds = searchScope.getSearchableContainers(user, currentContainer);
-
-        SearchService.get().getSearchCategories().forEach(
-                category -> {
-                    _categoryContainers.put(category.getName(), category.getPermittedContainerIds(user, _containerIds));
-                }
-        );
+        ReadableContainers readable = SearchPermissionsCache.getReadableContainers(user, searchScope, currentContainer);
+        _containerIds = readable.containerIds();
+        _categoryContainers = readable.categoryContainers();
     }
 
     @Override
@@ -112,39 +106,29 @@ class SecurityQuery extends Query
                 int maxDoc = reader.maxDoc();
                 FixedBitSet bits = new FixedBitSet(maxDoc);
 
-                BinaryDocValues securityContextDocValues = reader.getBinaryDocValues(FIELD_NAME.securityContext.name());
-
                 try
                 {
-                    int doc;
+                    SegmentContexts contexts = SearchPermissionsCache.getSegmentContexts(reader);
+
+                    // Decide once per distinct security context in this segment...
+                    FixedBitSet readable = new FixedBitSet(Math.max(1, contexts.size()));
+                    for (int ord = 0; ord < contexts.size(); ord++)
+                    {
+                        String containerId = contexts.containerIds[ord];
+                        String resourceId = contexts.resourceIds[ord];
+
+                        // Must have read permission on the container (always). Must also have read permissions on resource ID, if non-null.
+                        if (isReadable(containerId, contexts.categories[ord]) && (null == resourceId || canReadResource(resourceId, containerId)))
+                            readable.set(ord);
+                    }
 
-                    // Can be null, if no documents (e.g., shortly after bootstrap or clear index)
-                    if (null != securityContextDocValues)
+                    // ...then each document just looks up its context
+                    int[] ords = contexts.ords;
+                    for (int doc = 0; doc < maxDoc; doc++)
                     {
-                        while (NO_MORE_DOCS != (doc = securityContextDocValues.nextDoc()))
-                        {
-                            BytesRef bytesRef = securityContextDocValues.binaryValue();
-                            String securityContext = StringUtils.trimToNull(bytesRef.utf8ToString());
-
-                            final String containerId;
-                            final String resourceId;
-                            final String categories;
-                            String[] parts = StringUtils.split(securityContext, "|");
-                            // SecurityContext is usually just a container ID and a string of categories, but in some cases it adds a resource ID.
-                            containerId = parts[0];
-                            if (parts.length > 1)
-                                categories = parts[1];
-                            else
-                                categories = null;
-                            if (parts.length > 2)
-                                resourceId = parts[2];
-                            else
-                                resourceId = null;
-
-                            // Must have read permission on the container (always). Must also have read permissions on resource ID, if non-null.
-                            if (isReadable(containerId, categories) && (null == resourceId || canReadResource(resourceId, containerId)))
-                                bits.set(doc);
-                        }
+                        int ord = ords[doc];
+                        if (ord >= 0 && readable.get(ord))
+                            bits.set(doc);
                     }
 
                     return new ConstantScoreScorer(this, score(), scoreMode, new BitSetIterator(bits, bits.approximateCardinality()));
@@ -58,6 +58,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * User: adam
@@ -70,8 +73,12 @@ class WritableIndexManagerImpl extends IndexManager implements WritableIndexMana
 {
     private static final Logger _log = LogManager.getLogger(WritableIndexManagerImpl.class);
     private static final AtomicInteger _maybeRefreshRequests = new AtomicInteger();
+    // Refresh the searcher after this many changes, without waiting for the next MaybeRefreshJob
+    private static final int REFRESH_CHANGE_COUNT = 1000;
 
-    private final Object _writerLock = new Object();
+    // IndexWriter is thread safe, so the indexing threads share the read lock and analyze and add documents in
+    // parallel. Only close() takes the write lock, so that it never pulls the IndexWriter out from under a writer.
+    private final ReadWriteLock _writerLock = new ReentrantReadWriteLock();
     private final IndexWriter _iw;
 
     private boolean _closed = false;
@@ -148,11 +155,18 @@ class WritableIndexManagerImpl extends IndexManager implements WritableIndexMana
     @Override
     public void index(String id, Document doc) throws IOException
     {
-        synchronized (_writerLock)
+        Lock lock = _writerLock.readLock();
+        lock.lock();
+
+        try
         {
-            deleteDocument(id);
-            getIndexWriter().addDocument(doc);
-            maybeRefresh(); // Make this document immediately available for searching (i.e., near-real-time searching), see #39330
+            // Atomically replaces any previous version of this document
+            getIndexWriter().updateDocument(new Term(LuceneSearchServiceImpl.FIELD_NAME.uniqueId.toString(), id), doc);
+            maybeRefresh(); // Make this document available for searching soon (i.e., near-real-time searching), see #39330
+        }
+        finally
+        {
+            lock.unlock();
         }
     }
 
@@ -167,18 +181,18 @@ class WritableIndexManagerImpl extends IndexManager implements WritableIndexMana
     public void deleteDocuments(Collection<String> ids)
     {
         String currentId = null;
+        Lock lock = _writerLock.readLock();
+        lock.lock();
+
         try
         {
-            synchronized (_writerLock)
+            IndexWriter iw = getIndexWriter();
+            for (var id : ids)
             {
-                IndexWriter iw = getIndexWriter();
-                for (var id : ids)
-                {
-                    currentId = id;
-                    iw.deleteDocuments(new Term(LuceneSearchServiceImpl.FIELD_NAME.uniqueId.toString(), id));
-                }
-                maybeRefresh();
+                currentId = id;
+                iw.deleteDocuments(new Term(LuceneSearchServiceImpl.FIELD_NAME.uniqueId.toString(), id));
             }
+            maybeRefresh();
         }
         catch (IndexManagerClosedException x)
         {
@@ -201,19 +215,23 @@ class WritableIndexManagerImpl extends IndexManager implements WritableIndexMana
             _log.error("Indexing error deleting " + StringUtils.trimToEmpty(currentId), e);
             ExceptionUtil.logExceptionToMothership(null, e);
         }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     @Override
     public void deleteQuery(Query query) throws IOException
     {
+        Lock lock = _writerLock.readLock();
+        lock.lock();
+
         try
         {
-            synchronized (_writerLock)
-            {
-                IndexWriter w = getIndexWriter();
-                w.deleteDocuments(query);
-                maybeRefresh();
-            }
+            IndexWriter w = getIndexWriter();
+            w.deleteDocuments(query);
+            maybeRefresh();
         }
         catch (AlreadyClosedException e)
         {
@@ -228,25 +246,41 @@ class WritableIndexManagerImpl extends IndexManager implements WritableIndexMana
         {
             // Configuration was changed
         }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     @Override
     public void close() throws IOException
     {
-        synchronized (_writerLock)
+        Lock lock = _writerLock.writeLock();
+        lock.lock();
+
+        try
         {
             _closed = true;
             _iw.close();
             _manager.close();
             _directory.close();
         }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     // If this throws then re-initialize the index manager
     @Override
     public void commit()
     {
-        synchronized (_writerLock)
+        // IndexWriter.commit() is safe to call while other threads are adding documents
+        Lock lock = _writerLock.readLock();
+        OutOfMemoryError oom = null;
+        lock.lock();
+
+        try
         {
             IndexWriter iw = getIndexWriter();
 
@@ -267,45 +301,64 @@ class WritableIndexManagerImpl extends IndexManager implements WritableIndexMana
             }
             catch (OutOfMemoryError e)
             {
-                // JavaDoc strongly recommends closing the IndexWriter on OOM
+                // Other threads may be using the IndexWriter under the read lock, so close it below
+                oom = e;
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        if (null != oom)
+            closeAfterOutOfMemory(oom);
+    }
+
+    // JavaDoc strongly recommends closing the IndexWriter on OOM. Take the write lock, like close(), so no other thread
+    // is adding or deleting documents while we do.
+    private void closeAfterOutOfMemory(OutOfMemoryError e)
+    {
+        Lock lock = _writerLock.writeLock();
+        lock.lock();
+
+        try
+        {
+            try
+            {
+                _iw.close();
+            }
+            catch (IOException e1)
+            {
+                // Log it and try again (per Lucene JavaDoc)
+                ExceptionUtil.logExceptionToMothership(null, e1);
+
                 try
                 {
-                    try
-                    {
-                        iw.close();
-                    }
-                    catch (IOException e1)
-                    {
-                        // Log it and try again (per Lucene JavaDoc)
-                        ExceptionUtil.logExceptionToMothership(null, e1);
-
-                        try
-                        {
-                            iw.close();
-                        }
-                        catch (IOException e2)
-                        {
-                            ExceptionUtil.logExceptionToMothership(null, e2);
-                        }
-                    }
+                    _iw.close();
                 }
-                finally
+                catch (IOException e2)
                 {
-                    try
-                    {
-                        _directory.close();
-                    }
-                    catch (IOException e1)
-                    {
-                        ExceptionUtil.logExceptionToMothership(null, e1);
-                    }
-                    finally
-                    {
-                        throw e;
-                    }
+                    ExceptionUtil.logExceptionToMothership(null, e2);
                 }
             }
         }
+        finally
+        {
+            try
+            {
+                _directory.close();
+            }
+            catch (IOException e1)
+            {
+                ExceptionUtil.logExceptionToMothership(null, e1);
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        throw e;
     }
 
 
@@ -345,9 +398,13 @@ class WritableIndexManagerImpl extends IndexManager implements WritableIndexMana
         return _closed;
     }
 
-    private void maybeRefresh()
+    private void maybeRefresh() throws IOException
     {
-        _maybeRefreshRequests.incrementAndGet();
+        // MaybeRefreshJob refreshes every few seconds if anything changed. During a bulk reindex, also refresh every
+        // REFRESH_CHANGE_COUNT changes. SearcherManager.maybeRefresh() returns immediately if another thread is
+        // already refreshing, so indexing threads don't queue up behind each other here.
+        if (_maybeRefreshRequests.incrementAndGet() % REFRESH_CHANGE_COUNT == 0)
+            _manager.maybeRefresh();
     }
 
     public static class MaybeRefreshJob implements Job
@@ -29,6 +29,7 @@ public abstract class AbstractSpecimenTaskFactory<FactoryType extends AbstractSp
     public AbstractSpecimenTaskFactory(Class namespaceClass)
     {
         super(namespaceClass);
+        setLockScope(LockScope.CONTAINER);
     }
 
     @Override
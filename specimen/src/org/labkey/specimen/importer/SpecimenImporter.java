@@ -51,6 +51,7 @@ import org.labkey.api.data.TableSelector;
 import org.labkey.api.data.TempTableInfo;
 import org.labkey.api.data.UpdateableTableInfo;
 import org.labkey.api.data.dialect.SqlDialect;
+import org.labkey.api.dataiterator.AsyncDataIterator;
 import org.labkey.api.dataiterator.DataIterator;
 import org.labkey.api.dataiterator.DataIteratorBuilder;
 import org.labkey.api.dataiterator.DataIteratorContext;
@@ -396,6 +397,10 @@ public class SpecimenImporter extends SpecimenTableManager
             SpecimenImportFile specimenFile = sifMap.get(_specimensTableType);
             SpecimenLoadInfo loadInfo = populateTempSpecimensTable(specimenFile, merge);
 
+            // A merge that moves an existing vial to a different specimen also changes the vial's previous specimen, which
+            // the changed vial ids no longer reach. Check before the vials are updated.
+            boolean vialsChangedSpecimen = merge && loadInfo.getRowCount() > 0 && hasVialsChangingSpecimen(loadInfo);
+
             // NOTE: if no rows were loaded in the temp table, don't remove existing materials/specimens/vials/events.
             if (loadInfo.getRowCount() > 0)
                 populateSpecimenTables(loadInfo, merge);
@@ -410,8 +415,15 @@ public class SpecimenImporter extends SpecimenTableManager
                                   " WHERE RowId NOT IN (SELECT SpecimenId FROM " + getTableInfoVial().getSelectName() + ")");
             }
 
+            // A merge without a labs file can only change the calculated data of vials it imported. (Lab changes can
+            // change every vial's AtRepository flag, and vials moving between specimens change specimens that none of
+            // the imported vials belong to anymore, so those always recompute everything.)
+            SQLFragment changedVialIds = null;
+            if (merge && null == sifMap.get(_labsTableType) && !vialsChangedSpecimen)
+                changedVialIds = getChangedVialIdsSql(loadInfo);
+
             // No need to setPhase() here... method sets timer phases immediately
-            updateCalculatedSpecimenData(merge, editingSpecimens);
+            updateCalculatedSpecimenData(merge, editingSpecimens, changedVialIds);
 
             setStatus(GENERAL_JOB_STATUS_MSG + " (update study)");
             _iTimer.setPhase(ImportPhases.ResyncStudy);
@@ -763,19 +775,55 @@ public class SpecimenImporter extends SpecimenTableManager
         info("Complete.");
     }
 
-    private void updateSpecimenProcessingInfo()
+    /** @return SQL selecting the RowIds of the vials in the import's temp table */
+    private SQLFragment getChangedVialIdsSql(SpecimenLoadInfo info)
+    {
+        TableInfo vialTable = getTableInfoVial();
+        String vialTableSelectName = vialTable.getSelectName();
+        return new SQLFragment("SELECT ")
+            .append(vialTable.getColumn("RowId").getValueSql(vialTableSelectName))
+            .append(" FROM ").append(vialTableSelectName)
+            .append(" WHERE ").append(vialTable.getColumn("GlobalUniqueId").getValueSql(vialTableSelectName))
+            .append(" IN (SELECT GlobalUniqueId FROM ").append(info.getTempTableName()).append(")");
+    }
+
+    // Returns true if any vial being merged already exists with a different specimen hash, i.e., will move to another specimen
+    private boolean hasVialsChangingSpecimen(SpecimenLoadInfo info)
+    {
+        TableInfo vialTable = getTableInfoVial();
+        String vialTableSelectName = vialTable.getSelectName();
+        SQLFragment sql = new SQLFragment("SELECT 1 FROM ").append(vialTableSelectName)
+            .append(" JOIN ").append(info.getTempTableName()).append(" ON ")
+            .append(vialTable.getColumn("GlobalUniqueId").getValueSql(vialTableSelectName)).append(" = ").append(info.getTempTableName()).append(".GlobalUniqueId")
+            .append(" WHERE ").append(vialTable.getColumn("SpecimenHash").getValueSql(vialTableSelectName)).append(" <> ").append(info.getTempTableName()).append(".SpecimenHash");
+        return new SqlSelector(SpecimenSchema.get().getSchema(), sql).exists();
+    }
+
+    /**
+     * @param changedVialIds if not null, SQL selecting the vials whose processing info may have changed; only their
+     * specimens are updated
+     */
+    private void updateSpecimenProcessingInfo(@Nullable SQLFragment changedVialIds)
     {
         TableInfo specimenTable = getTableInfoSpecimen();
         String specimenTableSelectName = specimenTable.getSelectName();
         TableInfo vialTable = getTableInfoVial();
         String vialTableSelectName = vialTable.getSelectName();
+
+        SQLFragment changedSpecimens = new SQLFragment();
+        if (null != changedVialIds)
+        {
+            changedSpecimens.append("\nWHERE ").append(specimenTable.getColumn("RowId").getValueSql(specimenTableSelectName))
+                .append(" IN (SELECT SpecimenId FROM ").append(vialTableSelectName).append(" WHERE RowId IN (").append(changedVialIds).append("))");
+        }
+
         SQLFragment sql = new SQLFragment("UPDATE ").append(specimenTableSelectName).append(" SET ProcessingLocation = (\n" +
                 "\tSELECT MAX(ProcessingLocation) AS ProcessingLocation FROM \n" +
                 "\t\t(SELECT DISTINCT SpecimenId, ProcessingLocation FROM ").append(vialTableSelectName).append(
                 " WHERE SpecimenId = ").append(specimenTable.getColumn("RowId").getValueSql(specimenTableSelectName)).append(") Locations\n" +
                 "\tGROUP BY SpecimenId\n" +
                 "\tHAVING COUNT(ProcessingLocation) = 1\n" +
-                ")");
+                ")").append(changedSpecimens);
         info("Updating processing locations on the specimen table...");
         new SqlExecutor(SpecimenSchema.get().getSchema()).execute(sql);
         info("Complete.");
@@ -786,7 +834,7 @@ public class SpecimenImporter extends SpecimenTableManager
                 " WHERE SpecimenId = ").append(specimenTable.getColumn("RowId").getValueSql(specimenTableSelectName)).append(") Locations\n" +
                 "\tGROUP BY SpecimenId\n" +
                 "\tHAVING COUNT(FirstProcessedByInitials) = 1\n" +
-                ")");
+                ")").append(changedSpecimens);
         info("Updating first processed by initials on the specimen table...");
         new SqlExecutor(SpecimenSchema.get().getSchema()).execute(sql);
         info("Complete.");
@@ -795,8 +843,11 @@ public class SpecimenImporter extends SpecimenTableManager
     private static final int CURRENT_SITE_UPDATE_SIZE = 1000;
     private static final int CURRENT_SITE_UPDATE_LOGGING_SIZE = 10000;   // Can choose to log at a less frequent rate than the update batch size
 
-    // UNDONE: add vials in-clause to only update data for rows that changed
-    private void updateCalculatedSpecimenData(final boolean merge, final boolean editingSpecimens)
+    /**
+     * @param changedVialIds if not null, SQL selecting the only vials whose events may have changed; current location
+     * and rollups are recomputed just for those vials and their specimens
+     */
+    private void updateCalculatedSpecimenData(final boolean merge, final boolean editingSpecimens, @Nullable SQLFragment changedVialIds)
     {
         setStatus(GENERAL_JOB_STATUS_MSG + " (update)");
         _iTimer.setPhase(ImportPhases.PrepareQcComments);
@@ -863,7 +914,15 @@ public class SpecimenImporter extends SpecimenTableManager
         // TODO: Select only required subset of Event and Vial columns?
         _iTimer.setPhase(ImportPhases.GetDateOrderedEvents);
 
-        TableSelector eventSelector = new TableSelector(getTableInfoSpecimenEvent(), new SimpleFilter(FieldKey.fromString("Obsolete"), false), new Sort("VialId"));
+        SimpleFilter eventFilter = new SimpleFilter(FieldKey.fromString("Obsolete"), false);
+        SimpleFilter vialFilter = null;
+        if (null != changedVialIds)
+        {
+            eventFilter.addWhereClause(new SQLFragment("VialId IN (").append(changedVialIds).append(")"), FieldKey.fromParts("VialId"));
+            vialFilter = new SimpleFilter().addWhereClause(new SQLFragment("RowId IN (").append(changedVialIds).append(")"), FieldKey.fromParts("RowId"));
+            info("Updating calculated data for " + new SqlSelector(SpecimenSchema.get().getSchema(), changedVialIds).getRowCount() + " merged vials...");
+        }
+        TableSelector eventSelector = new TableSelector(getTableInfoSpecimenEvent(), eventFilter, new Sort("VialId"));
 
         try (Results eventResults = eventSelector.getResults(false))
         {
@@ -871,7 +930,7 @@ public class SpecimenImporter extends SpecimenTableManager
             final MarkableIterator<Map<String, Object>> eventIterator = new MarkableIterator<>(eventResults.iterator());
 
             _iTimer.setPhase(ImportPhases.GetVialBatch);
-            TableSelector vialSelector = new TableSelector(getTableInfoVial(), null, new Sort("RowId"));
+            TableSelector vialSelector = new TableSelector(getTableInfoVial(), vialFilter, new Sort("RowId"));
 
             vialSelector.forEachMapBatch(CURRENT_SITE_UPDATE_SIZE, vialBatch -> {
                 int count = rowCount.intValue();
@@ -1074,7 +1133,7 @@ public class SpecimenImporter extends SpecimenTableManager
         // finally, after all other data has been updated, we can update our cached specimen counts and processing locations:
         setStatus(GENERAL_JOB_STATUS_MSG + " (update counts)");
         _iTimer.setPhase(ImportPhases.UpdateSpecimenProcessingInfo);
-        updateSpecimenProcessingInfo();
+        updateSpecimenProcessingInfo(changedVialIds);
 
         _iTimer.setPhase(ImportPhases.UpdateRequestability);
         try
@@ -1989,6 +2048,8 @@ public class SpecimenImporter extends SpecimenTableManager
 
             DataIteratorContext dix = new DataIteratorContext();
             dix.setInsertOption(QueryUpdateService.InsertOption.IMPORT);
+            // every row is new and nothing needs generated keys, so on PostgreSQL these can be loaded with COPY
+            dix.putConfigParameter(QueryUpdateService.ConfigParameters.BulkCopy, true);
             DataLoader tsv = loadTsv(file);
             tsvColumns = tsv.getColumns();
 
@@ -2009,9 +2070,8 @@ public class SpecimenImporter extends SpecimenTableManager
 */
             // CONSIDER turn off data conversion
             //for (ColumnDescriptor cd : tsvColumns) cd.clazz = String.class;
-            // CONSIDER use AsyncDataIterator
-            //DataIteratorBuilder asyncIn = new AsyncDataIterator.Builder(tsv);
-            DataIteratorBuilder asyncIn = tsv;
+            // parse the file on a background thread while the previous rows are translated and inserted
+            DataIteratorBuilder asyncIn = new AsyncDataIterator.Builder(tsv);
             DataIteratorBuilder specimenWrapped = new SpecimenImportBuilder(asyncIn, file.getTableType().getColumns(), computedColumns);
             DataIteratorBuilder standardEtl = StandardDataIteratorBuilder.forInsert(target, specimenWrapped, getContainer(), getUser(), dix);
             DataIteratorBuilder persist = ((UpdateableTableInfo)target).persistRows(standardEtl, dix);
@@ -2048,6 +2108,8 @@ public class SpecimenImporter extends SpecimenTableManager
             rowCount = pump.getRowCount();
 
             info(tableName + ": Replaced all data with " + rowCount + " new rows.");
+            if (dix.getStatementExecutionStats().getBatchCount() > 0)
+                info(tableName + ": " + dix.getStatementExecutionStats());
         }
         finally
         {
@@ -73,6 +73,7 @@ public class SpecimenReloadTask extends PipelineJob.Task<SpecimenReloadTask.Fact
         public Factory()
         {
             super(SpecimenReloadTask.class);
+            setLockScope(LockScope.CONTAINER);
         }
 
         @Override
@@ -29,6 +29,7 @@ public abstract class AbstractDatasetImportTaskFactory<FactoryType extends Abstr
     AbstractDatasetImportTaskFactory(Class<?> namespaceClass)
     {
         super(namespaceClass);
+        setLockScope(LockScope.CONTAINER);
     }
 
     @Override